@@ -0,0 +1,401 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.bulk;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.FinancialInstitution;
+import com.webcohesion.ofx4j.client.FinancialInstitutionAccount;
+import com.webcohesion.ofx4j.client.FinancialInstitutionData;
+import com.webcohesion.ofx4j.client.FinancialInstitutionService;
+import com.webcohesion.ofx4j.client.impl.FinancialInstitutionServiceImpl;
+import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
+import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads the statements of many accounts, across many financial institutions, concurrently. Each download runs the
+ * blocking {@link FinancialInstitutionAccount#readStatement(java.util.Date, java.util.Date)} on its own thread; unless
+ * an executor service is supplied, the threads are virtual threads, so a download waiting on its server is cheap.<br/><br/>
+ *
+ * The number of downloads running at once is capped globally and per financial institution. A download whose
+ * institution is at its cap waits, without holding a thread or a global permit, until a download of the same
+ * institution completes, and then runs on that download's thread. Results are streamed to a {@link StatementSink} as
+ * they complete.
+ *
+ * @author Ryan Heaton
+ */
+public class BulkStatementDownloader {
+
+  private static final Log LOG = LogFactory.getLog(BulkStatementDownloader.class);
+
+  public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 256;
+  public static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS_PER_INSTITUTION = 4;
+
+  private FinancialInstitutionService institutionService = new FinancialInstitutionServiceImpl();
+  private ExecutorService executorService;
+  private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+  private int maxConcurrentDownloadsPerInstitution = DEFAULT_MAX_CONCURRENT_DOWNLOADS_PER_INSTITUTION;
+  private DownloadProgressListener progressListener;
+
+  /**
+   * Download the specified statements, blocking until all of them have completed. The downloads are dispatched in
+   * order, and are only read from the iterable as they're dispatched, so they can be produced lazily.
+   *
+   * @param downloads The downloads.
+   * @param sink The sink to stream the results to.
+   * @throws InterruptedException If interrupted while dispatching or waiting for the downloads. Downloads that were
+   * already dispatched still complete.
+   */
+  public void download(Iterable<StatementDownload> downloads, StatementSink sink) throws InterruptedException {
+    ExecutorService executor = getExecutorService();
+    boolean shutdown = false;
+    if (executor == null) {
+      executor = newExecutorService();
+      shutdown = true;
+    }
+
+    try {
+      Run run = new Run(executor, sink, getMaxConcurrentDownloads(), getMaxConcurrentDownloadsPerInstitution());
+      for (StatementDownload download : downloads) {
+        run.dispatch(download);
+      }
+      run.await();
+    }
+    finally {
+      if (shutdown) {
+        executor.shutdown();
+      }
+    }
+  }
+
+  /**
+   * Create the executor service a bulk download is run on when none is supplied: a virtual thread per task.
+   *
+   * @return The executor service.
+   */
+  protected ExecutorService newExecutorService() {
+    return Executors.newVirtualThreadPerTaskExecutor();
+  }
+
+  /**
+   * The key of the specified financial institution, by which downloads are capped per institution.
+   *
+   * @param data The financial institution data.
+   * @return The key.
+   */
+  protected String getInstitutionKey(FinancialInstitutionData data) {
+    if (data == null) {
+      return "";
+    }
+    else if (data.getFinancialInstitutionId() != null) {
+      return data.getFinancialInstitutionId();
+    }
+    else {
+      return String.valueOf(data.getOFXURL());
+    }
+  }
+
+  /**
+   * Read the statement of the specified download.
+   *
+   * @param institution The financial institution.
+   * @param download The download.
+   * @return The statement.
+   */
+  protected AccountStatement readStatement(FinancialInstitution institution, StatementDownload download) throws OFXException {
+    Object details = download.getAccountDetails();
+    FinancialInstitutionAccount account;
+    if (details instanceof BankAccountDetails) {
+      account = institution.loadBankAccount((BankAccountDetails) details, download.getUsername(), download.getPassword());
+    }
+    else if (details instanceof CreditCardAccountDetails) {
+      account = institution.loadCreditCardAccount((CreditCardAccountDetails) details, download.getUsername(), download.getPassword());
+    }
+    else if (details instanceof InvestmentAccountDetails) {
+      account = institution.loadInvestmentAccount((InvestmentAccountDetails) details, download.getUsername(), download.getPassword());
+    }
+    else {
+      throw new OFXException("Unsupported account details: " + (details == null ? null : details.getClass().getName()));
+    }
+
+    return account.readStatement(download.getStart(), download.getEnd());
+  }
+
+  /**
+   * The service used to look up the financial institutions of the downloads.
+   *
+   * @return The service used to look up the financial institutions of the downloads.
+   */
+  public FinancialInstitutionService getInstitutionService() {
+    return institutionService;
+  }
+
+  /**
+   * The service used to look up the financial institutions of the downloads.
+   *
+   * @param institutionService The service used to look up the financial institutions of the downloads.
+   */
+  public void setInstitutionService(FinancialInstitutionService institutionService) {
+    this.institutionService = institutionService;
+  }
+
+  /**
+   * The executor service the downloads are run on, or null to create one for each bulk download (see
+   * {@link #newExecutorService()}). A supplied executor service isn't shut down.
+   *
+   * @return The executor service the downloads are run on.
+   */
+  public ExecutorService getExecutorService() {
+    return executorService;
+  }
+
+  /**
+   * The executor service the downloads are run on, or null to create one for each bulk download.
+   *
+   * @param executorService The executor service the downloads are run on.
+   */
+  public void setExecutorService(ExecutorService executorService) {
+    this.executorService = executorService;
+  }
+
+  /**
+   * The maximum number of downloads running at once.
+   *
+   * @return The maximum number of downloads running at once.
+   */
+  public int getMaxConcurrentDownloads() {
+    return maxConcurrentDownloads;
+  }
+
+  /**
+   * The maximum number of downloads running at once.
+   *
+   * @param maxConcurrentDownloads The maximum number of downloads running at once.
+   */
+  public void setMaxConcurrentDownloads(int maxConcurrentDownloads) {
+    this.maxConcurrentDownloads = maxConcurrentDownloads;
+  }
+
+  /**
+   * The maximum number of downloads running at once against a single financial institution.
+   *
+   * @return The maximum number of downloads running at once against a single financial institution.
+   */
+  public int getMaxConcurrentDownloadsPerInstitution() {
+    return maxConcurrentDownloadsPerInstitution;
+  }
+
+  /**
+   * The maximum number of downloads running at once against a single financial institution.
+   *
+   * @param maxConcurrentDownloadsPerInstitution The maximum number of downloads running at once against a single financial institution.
+   */
+  public void setMaxConcurrentDownloadsPerInstitution(int maxConcurrentDownloadsPerInstitution) {
+    this.maxConcurrentDownloadsPerInstitution = maxConcurrentDownloadsPerInstitution;
+  }
+
+  /**
+   * The listener for the progress of bulk downloads (may be null).
+   *
+   * @return The listener for the progress of bulk downloads.
+   */
+  public DownloadProgressListener getProgressListener() {
+    return progressListener;
+  }
+
+  /**
+   * The listener for the progress of bulk downloads (may be null).
+   *
+   * @param progressListener The listener for the progress of bulk downloads.
+   */
+  public void setProgressListener(DownloadProgressListener progressListener) {
+    this.progressListener = progressListener;
+  }
+
+  /**
+   * The downloads of a single financial institution.
+   */
+  private static class InstitutionQueue {
+
+    private final LinkedList<StatementDownload> waiting = new LinkedList<StatementDownload>();
+    private int active = 0;
+    private FinancialInstitution institution;
+  }
+
+  /**
+   * The state of a single bulk download.
+   */
+  private class Run {
+
+    private final ExecutorService executor;
+    private final StatementSink sink;
+    private final int maxConcurrent;
+    private final int maxConcurrentPerInstitution;
+    private final Semaphore permits;
+    private final Map<String, InstitutionQueue> queues = new HashMap<String, InstitutionQueue>();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private Run(ExecutorService executor, StatementSink sink, int maxConcurrent, int maxConcurrentPerInstitution) {
+      if (maxConcurrent < 1 || maxConcurrentPerInstitution < 1) {
+        throw new IllegalArgumentException("The concurrent download caps must be positive.");
+      }
+
+      this.executor = executor;
+      this.sink = sink;
+      this.maxConcurrent = maxConcurrent;
+      this.maxConcurrentPerInstitution = maxConcurrentPerInstitution;
+      this.permits = new Semaphore(maxConcurrent);
+    }
+
+    private void dispatch(StatementDownload download) throws InterruptedException {
+      final InstitutionQueue queue;
+      synchronized (this.queues) {
+        String key = getInstitutionKey(download.getInstitutionData());
+        InstitutionQueue existing = this.queues.get(key);
+        if (existing == null) {
+          existing = new InstitutionQueue();
+          this.queues.put(key, existing);
+        }
+        queue = existing;
+
+        this.inFlight.incrementAndGet();
+        if (queue.active >= this.maxConcurrentPerInstitution) {
+          //picked up by a worker of the institution when it's done with its download.
+          queue.waiting.add(download);
+          return;
+        }
+        queue.active++;
+      }
+
+      boolean started = false;
+      try {
+        this.permits.acquire();
+        try {
+          this.executor.execute(new Worker(queue, download));
+          started = true;
+        }
+        finally {
+          if (!started) {
+            this.permits.release();
+          }
+        }
+      }
+      finally {
+        if (!started) {
+          synchronized (this.queues) {
+            queue.active--;
+            this.inFlight.decrementAndGet();
+          }
+        }
+      }
+    }
+
+    private void await() throws InterruptedException {
+      //each worker holds a permit until its institution has no more waiting downloads.
+      this.permits.acquire(this.maxConcurrent);
+      this.permits.release(this.maxConcurrent);
+    }
+
+    private void execute(InstitutionQueue queue, StatementDownload download) {
+      AccountStatement statement = null;
+      Throwable error = null;
+      try {
+        FinancialInstitution institution;
+        synchronized (queue) {
+          if (queue.institution == null) {
+            queue.institution = getInstitutionService().getFinancialInstitution(download.getInstitutionData());
+          }
+          institution = queue.institution;
+        }
+
+        if (institution == null) {
+          throw new OFXException("Unknown financial institution: " + getInstitutionKey(download.getInstitutionData()));
+        }
+        statement = readStatement(institution, download);
+      }
+      catch (Throwable e) {
+        error = e;
+      }
+
+      long succeeded = error == null ? this.succeeded.incrementAndGet() : this.succeeded.get();
+      long failed = error == null ? this.failed.get() : this.failed.incrementAndGet();
+      long inFlight = this.inFlight.decrementAndGet();
+      try {
+        if (error == null) {
+          this.sink.statementDownloaded(download, statement);
+        }
+        else {
+          this.sink.downloadFailed(download, error);
+        }
+
+        DownloadProgressListener listener = getProgressListener();
+        if (listener != null) {
+          listener.progress(succeeded, failed, inFlight);
+        }
+      }
+      catch (RuntimeException e) {
+        LOG.error("Unable to report the result of a statement download.", e);
+      }
+    }
+
+    /**
+     * Runs a download, then the downloads of the same institution that waited on it.
+     */
+    private class Worker implements Runnable {
+
+      private final InstitutionQueue queue;
+      private final StatementDownload download;
+
+      private Worker(InstitutionQueue queue, StatementDownload download) {
+        this.queue = queue;
+        this.download = download;
+      }
+
+      public void run() {
+        try {
+          StatementDownload next = this.download;
+          while (next != null) {
+            execute(this.queue, next);
+            synchronized (queues) {
+              next = this.queue.waiting.poll();
+              if (next == null) {
+                this.queue.active--;
+              }
+            }
+          }
+        }
+        finally {
+          permits.release();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.bulk;
+
+/**
+ * Listener for the progress of a bulk download, notified each time a download completes. The listener is called
+ * concurrently from the download threads, so it must be thread-safe.
+ *
+ * @author Ryan Heaton
+ */
+public interface DownloadProgressListener {
+
+  /**
+   * The progress of the bulk download.
+   *
+   * @param succeeded The number of statements downloaded so far.
+   * @param failed The number of downloads that failed so far.
+   * @param inFlight The number of downloads dispatched but not yet completed (running or waiting on their institution).
+   */
+  void progress(long succeeded, long failed, long inFlight);
+}
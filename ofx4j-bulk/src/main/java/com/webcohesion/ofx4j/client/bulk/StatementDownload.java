@@ -0,0 +1,159 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.bulk;
+
+import com.webcohesion.ofx4j.client.FinancialInstitutionData;
+
+import java.util.Date;
+
+/**
+ * A statement to download: the financial institution, the account details (bank, credit card or investment account
+ * details), the credentials of the user and the date range of the statement.
+ *
+ * @author Ryan Heaton
+ */
+public class StatementDownload {
+
+  private FinancialInstitutionData institutionData;
+  private Object accountDetails;
+  private String username;
+  private String password;
+  private Date start;
+  private Date end;
+
+  public StatementDownload() {
+  }
+
+  public StatementDownload(FinancialInstitutionData institutionData, Object accountDetails, String username, String password, Date start, Date end) {
+    this.institutionData = institutionData;
+    this.accountDetails = accountDetails;
+    this.username = username;
+    this.password = password;
+    this.start = start;
+    this.end = end;
+  }
+
+  /**
+   * The data of the financial institution.
+   *
+   * @return The data of the financial institution.
+   */
+  public FinancialInstitutionData getInstitutionData() {
+    return institutionData;
+  }
+
+  /**
+   * The data of the financial institution.
+   *
+   * @param institutionData The data of the financial institution.
+   */
+  public void setInstitutionData(FinancialInstitutionData institutionData) {
+    this.institutionData = institutionData;
+  }
+
+  /**
+   * The account details: {@link com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails},
+   * {@link com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails} or
+   * {@link com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails}.
+   *
+   * @return The account details.
+   */
+  public Object getAccountDetails() {
+    return accountDetails;
+  }
+
+  /**
+   * The account details.
+   *
+   * @param accountDetails The account details.
+   */
+  public void setAccountDetails(Object accountDetails) {
+    this.accountDetails = accountDetails;
+  }
+
+  /**
+   * The username.
+   *
+   * @return The username.
+   */
+  public String getUsername() {
+    return username;
+  }
+
+  /**
+   * The username.
+   *
+   * @param username The username.
+   */
+  public void setUsername(String username) {
+    this.username = username;
+  }
+
+  /**
+   * The password.
+   *
+   * @return The password.
+   */
+  public String getPassword() {
+    return password;
+  }
+
+  /**
+   * The password.
+   *
+   * @param password The password.
+   */
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  /**
+   * The start date of the statement.
+   *
+   * @return The start date of the statement.
+   */
+  public Date getStart() {
+    return start;
+  }
+
+  /**
+   * The start date of the statement.
+   *
+   * @param start The start date of the statement.
+   */
+  public void setStart(Date start) {
+    this.start = start;
+  }
+
+  /**
+   * The end date of the statement.
+   *
+   * @return The end date of the statement.
+   */
+  public Date getEnd() {
+    return end;
+  }
+
+  /**
+   * The end date of the statement.
+   *
+   * @param end The end date of the statement.
+   */
+  public void setEnd(Date end) {
+    this.end = end;
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.bulk;
+
+import com.webcohesion.ofx4j.client.AccountStatement;
+
+/**
+ * Receives the results of a bulk download as they complete. The sink is called concurrently from the download
+ * threads, so it must be thread-safe.
+ *
+ * @author Ryan Heaton
+ */
+public interface StatementSink {
+
+  /**
+   * A statement was downloaded.
+   *
+   * @param download The download.
+   * @param statement The statement.
+   */
+  void statementDownloaded(StatementDownload download, AccountStatement statement);
+
+  /**
+   * A download failed.
+   *
+   * @param download The download.
+   * @param error The error.
+   */
+  void downloadFailed(StatementDownload download, Throwable error);
+}
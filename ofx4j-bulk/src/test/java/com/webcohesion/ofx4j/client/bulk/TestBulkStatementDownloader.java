@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.bulk;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.FinancialInstitution;
+import com.webcohesion.ofx4j.client.impl.BaseFinancialInstitutionData;
+import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementResponse;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestBulkStatementDownloader extends TestCase {
+
+  /**
+   * tests the global and per-institution caps, and that every result reaches the sink.
+   */
+  public void testDownload() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final Map<String, AtomicInteger> runningByInstitution = new ConcurrentHashMap<String, AtomicInteger>();
+    final AtomicInteger maxRunningByInstitution = new AtomicInteger();
+    BulkStatementDownloader downloader = new BulkStatementDownloader() {
+      @Override
+      protected AccountStatement readStatement(FinancialInstitution institution, StatementDownload download) throws OFXException {
+        AtomicInteger institutionRunning = runningByInstitution.get(institution.getData().getFinancialInstitutionId());
+        max(maxRunning, running.incrementAndGet());
+        max(maxRunningByInstitution, institutionRunning.incrementAndGet());
+        try {
+          Thread.sleep(2);
+        }
+        catch (InterruptedException e) {
+          throw new OFXException(e);
+        }
+        finally {
+          institutionRunning.decrementAndGet();
+          running.decrementAndGet();
+        }
+
+        if (download.getAccountDetails() instanceof CreditCardAccountDetails) {
+          throw new OFXException("unavailable");
+        }
+        return new BankStatementResponse();
+      }
+    };
+    downloader.setMaxConcurrentDownloads(8);
+    downloader.setMaxConcurrentDownloadsPerInstitution(2);
+    final AtomicLong lastProgress = new AtomicLong();
+    downloader.setProgressListener(new DownloadProgressListener() {
+      public void progress(long succeeded, long failed, long inFlight) {
+        lastProgress.incrementAndGet();
+      }
+    });
+
+    List<StatementDownload> downloads = new ArrayList<StatementDownload>();
+    for (int i = 0; i < 200; i++) {
+      //most downloads go to a single institution.
+      String fid = i % 4 == 0 ? "fid-" + (i % 10) : "fid-busy";
+      runningByInstitution.put(fid, new AtomicInteger());
+      Object details = i % 50 == 0 ? new CreditCardAccountDetails() : new BankAccountDetails();
+      downloads.add(new StatementDownload(newData(fid), details, "user", "pass", null, null));
+    }
+
+    final AtomicInteger statements = new AtomicInteger();
+    final AtomicInteger failures = new AtomicInteger();
+    downloader.download(downloads, new StatementSink() {
+      public void statementDownloaded(StatementDownload download, AccountStatement statement) {
+        statements.incrementAndGet();
+      }
+
+      public void downloadFailed(StatementDownload download, Throwable error) {
+        assertEquals("unavailable", error.getMessage());
+        failures.incrementAndGet();
+      }
+    });
+
+    assertEquals(196, statements.get());
+    assertEquals(4, failures.get());
+    assertEquals(200, lastProgress.get());
+    assertTrue(maxRunning.get() <= 8);
+    assertTrue(maxRunningByInstitution.get() <= 2);
+  }
+
+  /**
+   * tests that unsupported account details are reported as a failed download.
+   */
+  public void testUnsupportedDetails() throws Exception {
+    BulkStatementDownloader downloader = new BulkStatementDownloader();
+    final List<Throwable> errors = new ArrayList<Throwable>();
+    List<StatementDownload> downloads = new ArrayList<StatementDownload>();
+    downloads.add(new StatementDownload(newData("fid"), "not details", "user", "pass", null, null));
+    downloader.download(downloads, new StatementSink() {
+      public void statementDownloaded(StatementDownload download, AccountStatement statement) {
+        fail();
+      }
+
+      public void downloadFailed(StatementDownload download, Throwable error) {
+        errors.add(error);
+      }
+    });
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0) instanceof OFXException);
+  }
+
+  private static BaseFinancialInstitutionData newData(String fid) {
+    BaseFinancialInstitutionData data = new BaseFinancialInstitutionData(fid);
+    data.setFinancialInstitutionId(fid);
+    return data;
+  }
+
+  private static void max(AtomicInteger max, int value) {
+    int current;
+    while ((current = max.get()) < value && !max.compareAndSet(current, value)) {
+      //retry.
+    }
+  }
+}
@@ -0,0 +1,349 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.client.net.http;
+
+import com.webcohesion.ofx4j.client.net.AsyncOFXConnection;
+import com.webcohesion.ofx4j.client.net.OFXCallback;
+import com.webcohesion.ofx4j.client.net.OFXConnectionException;
+import com.webcohesion.ofx4j.client.net.OFXServerException;
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateMarshaller;
+import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
+import com.webcohesion.ofx4j.io.OFXParseException;
+import com.webcohesion.ofx4j.io.OFXWriter;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * OFX connection built on the {@link HttpClient} of Java 11. The client negotiates HTTP/2 with the servers that
+ * support it (falling back to HTTP/1.1), and a single client multiplexes any number of concurrent requests over a few
+ * connections per server, so connections are best shared between many requests (and threads).<br/><br/>
+ *
+ * {@link #sendRequest(RequestEnvelope, URL)} parses the response as it arrives, on the calling thread.
+ * {@link #sendRequestAsync(RequestEnvelope, URL)} doesn't hold a thread while waiting for the response: once the
+ * response headers have arrived (through the client's asynchronous I/O), the body is parsed as it arrives on the parse
+ * executor, without first being collected in memory.
+ *
+ * @author Ryan Heaton
+ */
+public class HttpClientOFXConnection implements AsyncOFXConnection {
+
+  private static final Log LOG = LogFactory.getLog(HttpClientOFXConnection.class);
+
+  private HttpClient client;
+  private AggregateMarshaller marshaller = new AggregateMarshaller();
+  private AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+  private Executor parseExecutor = ForkJoinPool.commonPool();
+  private Duration requestTimeout = Duration.ofMinutes(2);
+  private boolean OFXVersion2 = false;
+
+  public HttpClientOFXConnection() {
+    this(HttpClient.newBuilder()
+           .version(HttpClient.Version.HTTP_2)
+           .connectTimeout(Duration.ofSeconds(30))
+           .followRedirects(HttpClient.Redirect.NORMAL)
+           .build());
+  }
+
+  public HttpClientOFXConnection(HttpClient client) {
+    this.client = client;
+  }
+
+  // Inherited.
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+    try {
+      HttpResponse<InputStream> response = getClient().send(newHttpRequest(request, url), HttpResponse.BodyHandlers.ofInputStream());
+      try (InputStream in = getResponseStream(response.statusCode(), response.body())) {
+        return unmarshal(in);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OFXConnectionException(new InterruptedIOException("Interrupted while sending the OFX request."));
+    }
+    catch (IOException e) {
+      throw new OFXConnectionException(e);
+    }
+  }
+
+  /**
+   * Send a request without blocking. The future completes exceptionally with an {@link OFXConnectionException} (or an
+   * {@link OFXServerException}) if the request fails.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @return The future response.
+   */
+  public CompletableFuture<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url) {
+    HttpRequest httpRequest;
+    try {
+      httpRequest = newHttpRequest(request, url);
+    }
+    catch (OFXConnectionException e) {
+      return CompletableFuture.failedFuture(e);
+    }
+
+    return getClient()
+      .sendAsync(httpRequest, HttpResponse.BodyHandlers.ofInputStream())
+      .thenApplyAsync(response -> {
+        try (InputStream in = getResponseStream(response.statusCode(), response.body())) {
+          return unmarshal(in);
+        }
+        catch (OFXConnectionException e) {
+          throw new CompletionException(e);
+        }
+        catch (IOException e) {
+          throw new CompletionException(new OFXConnectionException(e));
+        }
+      }, getParseExecutor())
+      .exceptionally(e -> {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof OFXConnectionException) {
+          throw new CompletionException(cause);
+        }
+        throw new CompletionException(new OFXConnectionException(cause.getMessage(), cause));
+      });
+  }
+
+  // Inherited.
+  public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+    CompletableFuture<ResponseEnvelope> future = sendRequestAsync(request, url);
+    if (callback != null) {
+      future.whenComplete((response, e) -> {
+        if (e == null) {
+          callback.completed(response);
+        }
+        else {
+          callback.failed(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Create the HTTP request for the specified OFX request. OFX requests are small, so the marshalled request is
+   * published from memory.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @return The HTTP request.
+   */
+  protected HttpRequest newHttpRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+    if (!url.getProtocol().toLowerCase().startsWith("http")) {
+      throw new IllegalArgumentException("Invalid URL: " + url + " only http(s) is supported.");
+    }
+
+    ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+    try {
+      OFXWriter ofxWriter = newOFXWriter(outBuffer);
+      getMarshaller().marshal(request, ofxWriter);
+      ofxWriter.close();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(outBuffer.toString("utf-8"));
+      }
+
+      return HttpRequest.newBuilder(url.toURI())
+        .timeout(getRequestTimeout())
+        .header("Content-Type", "application/x-ofx")
+        .header("Accept", "*/*, application/x-ofx")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(outBuffer.toByteArray()))
+        .build();
+    }
+    catch (IOException e) {
+      throw new OFXConnectionException(e);
+    }
+    catch (URISyntaxException e) {
+      throw new OFXConnectionException("Invalid URL: " + url, e);
+    }
+  }
+
+  /**
+   * Get the response stream, checking the response code.
+   *
+   * @param responseCode The response code.
+   * @param body The body of the response.
+   * @return The response stream.
+   */
+  protected InputStream getResponseStream(int responseCode, InputStream body) throws IOException, OFXConnectionException {
+    if (responseCode >= 200 && responseCode < 300) {
+      return body;
+    }
+
+    body.close();
+    if (responseCode >= 400 && responseCode < 500) {
+      throw new OFXServerException("Error with client request (HTTP " + responseCode + ").", responseCode);
+    }
+    else {
+      throw new OFXServerException("Invalid response code from OFX server (HTTP " + responseCode + ").", responseCode);
+    }
+  }
+
+  /**
+   * Unmarshal the input stream.
+   *
+   * @param in The input stream.
+   * @return The response envelope.
+   */
+  protected ResponseEnvelope unmarshal(InputStream in) throws IOException, OFXConnectionException {
+    try {
+      return getUnmarshaller().unmarshal(in);
+    }
+    catch (OFXParseException e) {
+      throw new OFXConnectionException("Unable to parse the OFX response.", e);
+    }
+  }
+
+  /**
+   * Create a new OFX writer.
+   *
+   * @param out The output stream for the writer.
+   * @return The OFX writer.
+   */
+  protected OFXWriter newOFXWriter(OutputStream out) {
+    return isOFXVersion2() ? new OFXV2ByteWriter(out) : new OFXV1ByteWriter(out);
+  }
+
+  /**
+   * The HTTP client.
+   *
+   * @return The HTTP client.
+   */
+  public HttpClient getClient() {
+    return client;
+  }
+
+  /**
+   * The HTTP client.
+   *
+   * @param client The HTTP client.
+   */
+  public void setClient(HttpClient client) {
+    this.client = client;
+  }
+
+  /**
+   * The marshaller.
+   *
+   * @return The marshaller.
+   */
+  public AggregateMarshaller getMarshaller() {
+    return marshaller;
+  }
+
+  /**
+   * The marshaller.
+   *
+   * @param marshaller The marshaller.
+   */
+  public void setMarshaller(AggregateMarshaller marshaller) {
+    this.marshaller = marshaller;
+  }
+
+  /**
+   * The unmarshaller.
+   *
+   * @return The unmarshaller.
+   */
+  public AggregateUnmarshaller<ResponseEnvelope> getUnmarshaller() {
+    return unmarshaller;
+  }
+
+  /**
+   * The unmarshaller.
+   *
+   * @param unmarshaller The unmarshaller.
+   */
+  public void setUnmarshaller(AggregateUnmarshaller<ResponseEnvelope> unmarshaller) {
+    this.unmarshaller = unmarshaller;
+  }
+
+  /**
+   * The executor responses of asynchronous requests are parsed on (default: the common fork/join pool).
+   *
+   * @return The executor responses of asynchronous requests are parsed on.
+   */
+  public Executor getParseExecutor() {
+    return parseExecutor;
+  }
+
+  /**
+   * The executor responses of asynchronous requests are parsed on (default: the common fork/join pool).
+   *
+   * @param parseExecutor The executor responses of asynchronous requests are parsed on.
+   */
+  public void setParseExecutor(Executor parseExecutor) {
+    this.parseExecutor = parseExecutor;
+  }
+
+  /**
+   * The timeout of each request, until its response headers are received.
+   *
+   * @return The timeout of each request.
+   */
+  public Duration getRequestTimeout() {
+    return requestTimeout;
+  }
+
+  /**
+   * The timeout of each request, until its response headers are received.
+   *
+   * @param requestTimeout The timeout of each request.
+   */
+  public void setRequestTimeout(Duration requestTimeout) {
+    this.requestTimeout = requestTimeout;
+  }
+
+  /**
+   * Whether requests are written as OFX version 2 (XML) instead of version 1 (SGML).
+   *
+   * @return Whether requests are written as OFX version 2.
+   */
+  public boolean isOFXVersion2() {
+    return OFXVersion2;
+  }
+
+  /**
+   * Whether requests are written as OFX version 2 (XML) instead of version 1 (SGML).
+   *
+   * @param OFXVersion2 Whether requests are written as OFX version 2.
+   */
+  public void setOFXVersion2(boolean OFXVersion2) {
+    this.OFXVersion2 = OFXVersion2;
+  }
+}
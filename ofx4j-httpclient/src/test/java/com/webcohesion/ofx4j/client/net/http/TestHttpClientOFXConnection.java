@@ -0,0 +1,124 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.client.net.http;
+
+import com.sun.net.httpserver.HttpServer;
+import com.webcohesion.ofx4j.client.net.OFXServerException;
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import junit.framework.TestCase;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestHttpClientOFXConnection extends TestCase {
+
+  private HttpServer server;
+  private byte[] response;
+  private final AtomicInteger requests = new AtomicInteger();
+
+  @Override
+  protected void setUp() throws Exception {
+    try (InputStream in = TestHttpClientOFXConnection.class.getResourceAsStream("multi-account-response.ofx")) {
+      this.response = in.readAllBytes();
+    }
+
+    this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    this.server.createContext("/ofx", exchange -> {
+      try (InputStream in = exchange.getRequestBody()) {
+        in.readAllBytes();
+      }
+      this.requests.incrementAndGet();
+      exchange.getResponseHeaders().add("Content-Type", "application/x-ofx");
+      exchange.sendResponseHeaders(200, this.response.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(this.response);
+      }
+    });
+    this.server.createContext("/missing", exchange -> {
+      exchange.sendResponseHeaders(404, -1);
+      exchange.close();
+    });
+    this.server.start();
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    this.server.stop(0);
+  }
+
+  /**
+   * tests a blocking request.
+   */
+  public void testSendRequest() throws Exception {
+    ResponseEnvelope envelope = new HttpClientOFXConnection().sendRequest(new RequestEnvelope("uid"), getURL("/ofx"));
+    assertEquals("01234", envelope.getSignonResponse().getFinancialInstitution().getId());
+  }
+
+  /**
+   * tests many concurrent asynchronous requests over one client.
+   */
+  public void testSendRequestAsync() throws Exception {
+    HttpClientOFXConnection connection = new HttpClientOFXConnection();
+    connection.setOFXVersion2(true);
+    List<CompletableFuture<ResponseEnvelope>> responses = new ArrayList<CompletableFuture<ResponseEnvelope>>();
+    for (int i = 0; i < 50; i++) {
+      responses.add(connection.sendRequestAsync(new RequestEnvelope("uid-" + i), getURL("/ofx")));
+    }
+    for (CompletableFuture<ResponseEnvelope> response : responses) {
+      assertEquals("01234", response.get().getSignonResponse().getFinancialInstitution().getId());
+    }
+    assertEquals(50, this.requests.get());
+  }
+
+  /**
+   * tests that error responses fail the future with a server exception.
+   */
+  public void testErrorResponse() throws Exception {
+    try {
+      new HttpClientOFXConnection().sendRequestAsync(new RequestEnvelope("uid"), getURL("/missing")).get();
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof OFXServerException);
+      assertEquals(404, ((OFXServerException) e.getCause()).getHttpCode());
+    }
+
+    try {
+      new HttpClientOFXConnection().sendRequest(new RequestEnvelope("uid"), getURL("/missing"));
+      fail();
+    }
+    catch (OFXServerException e) {
+      assertEquals(404, e.getHttpCode());
+    }
+  }
+
+  private URL getURL(String path) throws Exception {
+    return new URL("http://localhost:" + this.server.getAddress().getPort() + path);
+  }
+}
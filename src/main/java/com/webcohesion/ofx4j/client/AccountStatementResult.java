@@ -0,0 +1,67 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.OFXException;
+
+/**
+ * The result of reading the statement of one of the accounts of a batch: either the statement or the error.
+ *
+ * @author Ryan Heaton
+ */
+public class AccountStatementResult {
+
+  private final AccountStatement statement;
+  private final OFXException error;
+
+  public AccountStatementResult(AccountStatement statement) {
+    this.statement = statement;
+    this.error = null;
+  }
+
+  public AccountStatementResult(OFXException error) {
+    this.statement = null;
+    this.error = error;
+  }
+
+  /**
+   * The statement, or null if it couldn't be read.
+   *
+   * @return The statement.
+   */
+  public AccountStatement getStatement() {
+    return statement;
+  }
+
+  /**
+   * The error reading the statement, or null if it was read.
+   *
+   * @return The error reading the statement.
+   */
+  public OFXException getError() {
+    return error;
+  }
+
+  /**
+   * Whether the statement was read.
+   *
+   * @return Whether the statement was read.
+   */
+  public boolean isSuccessful() {
+    return error == null;
+  }
+}
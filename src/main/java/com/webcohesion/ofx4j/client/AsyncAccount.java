@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.client.net.OFXCallback;
+
+import java.util.Date;
+import java.util.concurrent.Future;
+
+/**
+ * An account whose statement can be read without blocking.
+ *
+ * @author Ryan Heaton
+ */
+public interface AsyncAccount extends FinancialInstitutionAccount {
+
+  /**
+   * Read an account statement without blocking.
+   *
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @param callback The callback to notify when the statement has been read (may be null).
+   * @return The future account statement.
+   */
+  Future<AccountStatement> readStatementAsync(Date start, Date end, OFXCallback<AccountStatement> callback);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.client.net.OFXCallback;
+import com.webcohesion.ofx4j.domain.data.signup.AccountProfile;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+/**
+ * A financial institution that can be read without blocking.
+ *
+ * @author Ryan Heaton
+ */
+public interface AsyncFinancialInstitution extends FinancialInstitution {
+
+  /**
+   * Read the financial institution profile without blocking.
+   *
+   * @param callback The callback to notify when the profile has been read (may be null).
+   * @return The future profile.
+   */
+  Future<FinancialInstitutionProfile> readProfileAsync(OFXCallback<FinancialInstitutionProfile> callback);
+
+  /**
+   * Read the account profiles of the specified user without blocking.
+   *
+   * @param username The username.
+   * @param password The password.
+   * @param callback The callback to notify when the profiles have been read (may be null).
+   * @return The future profiles.
+   */
+  Future<Collection<AccountProfile>> readAccountProfilesAsync(String username, String password, OFXCallback<Collection<AccountProfile>> callback);
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.client.net.OFXCallback;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityList;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityRequest;
+
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * An investment account that can be read without blocking.
+ *
+ * @author Ryan Heaton
+ */
+public interface AsyncInvestmentAccount extends InvestmentAccount, AsyncAccount {
+
+  /**
+   * Reads a list of securities from the brokerage without blocking.
+   *
+   * @param securities the securities to read
+   * @param callback The callback to notify when the security list has been read (may be null).
+   * @return The future security list.
+   */
+  Future<SecurityList> readSecurityListAsync(List<SecurityRequest> securities, OFXCallback<SecurityList> callback);
+
+}
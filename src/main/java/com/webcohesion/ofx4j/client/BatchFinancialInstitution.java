@@ -0,0 +1,46 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A financial institution that can read the statements of many accounts in a single request.
+ *
+ * @author Ryan Heaton
+ */
+public interface BatchFinancialInstitution extends FinancialInstitution {
+
+  /**
+   * Read the statements of the specified accounts in as few requests as possible. The statement requests of the
+   * accounts that share credentials go in a single request envelope (with a single signon), each in its own
+   * transaction, and the response is split back by transaction UID. Accounts are only batched together if the profile
+   * (if supplied) directs their message sets to the same URL and signon realm. Accounts that weren't loaded from this
+   * institution are read individually.
+   *
+   * @param accounts The accounts.
+   * @param start The start date of the statements.
+   * @param end The end date of the statements.
+   * @param profile The profile of this institution (may be null).
+   * @return The results by account, in the order of the accounts. A failed request is reported as the error of
+   * each of the accounts it batched.
+   */
+  Map<FinancialInstitutionAccount, AccountStatementResult> readStatements(Collection<? extends FinancialInstitutionAccount> accounts, Date start, Date end, FinancialInstitutionProfile profile);
+
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+/**
+ * Cache of financial institution profiles. A cached profile is revalidated with the institution by sending its
+ * last-updated date (DTPROFUP) with the profile request: if the institution answers that the client is up to date,
+ * the cached profile is used.
+ *
+ * @author Ryan Heaton
+ */
+public interface ProfileCache {
+
+  /**
+   * Get the cached profile for the specified key.
+   *
+   * @param key The key of the institution.
+   * @return The cached profile, or null if none is cached.
+   */
+  FinancialInstitutionProfile getProfile(String key);
+
+  /**
+   * Cache the profile for the specified key.
+   *
+   * @param key The key of the institution.
+   * @param profile The profile.
+   */
+  void putProfile(String key, FinancialInstitutionProfile profile);
+
+  /**
+   * Remove the cached profile for the specified key.
+   *
+   * @param key The key of the institution.
+   */
+  void invalidate(String key);
+}
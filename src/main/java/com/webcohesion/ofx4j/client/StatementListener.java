@@ -0,0 +1,66 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentBankTransaction;
+
+/**
+ * Listener for the parts of an account statement as they are read. The header is delivered first, then each
+ * transaction, then the balances. When the statement is streamed, the transactions aren't kept in the statement.
+ *
+ * @author Ryan Heaton
+ */
+public interface StatementListener {
+
+  /**
+   * Notified of the header of the statement: the statement with what precedes the transactions (e.g. the currency and
+   * the account).
+   *
+   * @param statement The statement.
+   */
+  void onHeader(AccountStatement statement);
+
+  /**
+   * Notified of a banking or credit card transaction.
+   *
+   * @param transaction The transaction.
+   */
+  void onTransaction(Transaction transaction);
+
+  /**
+   * Notified of an investment transaction (investment statements only).
+   *
+   * @param transaction The investment transaction.
+   */
+  void onInvestmentTransaction(BaseInvestmentTransaction transaction);
+
+  /**
+   * Notified of a banking transaction of an investment account (investment statements only).
+   *
+   * @param transaction The banking transaction.
+   */
+  void onInvestmentBankTransaction(InvestmentBankTransaction transaction);
+
+  /**
+   * Notified at the end of the statement, with the balances (and, for investment statements, the positions).
+   *
+   * @param statement The statement.
+   */
+  void onBalances(AccountStatement statement);
+}
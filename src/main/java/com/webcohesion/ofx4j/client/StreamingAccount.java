@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client;
+
+import com.webcohesion.ofx4j.OFXException;
+
+import java.util.Date;
+
+/**
+ * An account whose statement can be delivered to a {@link StatementListener} as it is read.
+ *
+ * @author Ryan Heaton
+ */
+public interface StreamingAccount extends FinancialInstitutionAccount {
+
+  /**
+   * Read an account statement, delivering its header, transactions and balances to the specified listener as they are
+   * read. The response is validated as for {@link #readStatement(Date, Date)}; the signon, the transaction id and the
+   * status of the statement transaction are checked before anything is delivered.
+   *
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @param listener The listener.
+   */
+  void readStatement(Date start, Date end, StatementListener listener) throws OFXException;
+}
@@ -18,7 +18,10 @@ package com.webcohesion.ofx4j.client.impl;
 
 import com.webcohesion.ofx4j.OFXException;
 import com.webcohesion.ofx4j.client.AccountStatement;
-import com.webcohesion.ofx4j.client.FinancialInstitutionAccount;
+import com.webcohesion.ofx4j.client.AsyncAccount;
+import com.webcohesion.ofx4j.client.StatementListener;
+import com.webcohesion.ofx4j.client.StreamingAccount;
+import com.webcohesion.ofx4j.client.net.OFXCallback;
 import com.webcohesion.ofx4j.domain.data.*;
 import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
 import com.webcohesion.ofx4j.domain.data.common.StatementRange;
@@ -28,13 +31,14 @@ import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
 import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails;
 
 import java.util.Date;
+import java.util.concurrent.Future;
 
 /**
  * Base account implementation. Supports banking and credit card accounts.
  *
  * @author Ryan Heaton
  */
-public abstract class BaseAccountImpl<D> implements FinancialInstitutionAccount {
+public abstract class BaseAccountImpl<D> implements AsyncAccount, StreamingAccount {
 
   private final D details;
   private final MessageSetType messageType;
@@ -90,6 +94,68 @@ public abstract class BaseAccountImpl<D> implements FinancialInstitutionAccount
     return unwrapStatementResponse(response);
   }
 
+  public void readStatement(Date start, Date end, StatementListener listener) throws OFXException {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
+    TransactionWrappedRequestMessage requestTransaction = createTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    request.getMessageSets().add(createRequestMessageSet(requestTransaction));
+
+    new StatementStreamer(institution, requestTransaction, listener).read(request, institution.getData().getOFXURL(), new FinancialInstitutionImpl.ResponseReader<AccountStatement>() {
+      public AccountStatement read(ResponseEnvelope response) throws OFXException {
+        return unwrapStatementResponse(response);
+      }
+    });
+  }
+
+  public Future<AccountStatement> readStatementAsync(Date start, Date end, OFXCallback<AccountStatement> callback) {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
+    TransactionWrappedRequestMessage requestTransaction = createTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    request.getMessageSets().add(createRequestMessageSet(requestTransaction));
+
+    return institution.sendRequestAsync(request, new FinancialInstitutionImpl.ResponseReader<AccountStatement>() {
+      public AccountStatement read(ResponseEnvelope response) throws OFXException {
+        return unwrapStatementResponse(response);
+      }
+    }, callback);
+  }
+
+  /**
+   * Create the entry for the statement request of this account in a batch.
+   *
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @return The batch entry.
+   */
+  StatementBatchEntry newBatchEntry(Date start, Date end) {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    TransactionWrappedRequestMessage requestTransaction = createTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    return new StatementBatchEntry(institution, username, password, getMessageType(), requestTransaction) {
+      AccountStatement unwrap(TransactionWrappedResponseMessage transaction, ResponseEnvelope response) throws OFXException {
+        ResponseMessage statement = transaction.getWrappedMessage();
+        if (!(statement instanceof StatementResponse)) {
+          throw new OFXException("No statement in the transaction.");
+        }
+        return (StatementResponse) statement;
+      }
+    };
+  }
+
   /**
    * Unwrap the statement response from the specified response envelope.
    *
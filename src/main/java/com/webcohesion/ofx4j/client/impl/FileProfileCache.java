@@ -0,0 +1,195 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.client.FinancialInstitutionProfile;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileResponse;
+import com.webcohesion.ofx4j.io.AggregateSnapshotCodec;
+import com.webcohesion.ofx4j.io.OFXParseException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+
+/**
+ * Profile cache that keeps the profiles in memory and persists them as {@link AggregateSnapshotCodec snapshots} in a
+ * directory, so that they survive a restart. Only profiles read from a profile response can be persisted.
+ *
+ * @author Ryan Heaton
+ */
+public class FileProfileCache extends InMemoryProfileCache {
+
+  private static final Log LOG = LogFactory.getLog(FileProfileCache.class);
+
+  private final File directory;
+  private AggregateSnapshotCodec codec = new AggregateSnapshotCodec();
+
+  public FileProfileCache(File directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("A directory must be supplied.");
+    }
+    this.directory = directory;
+  }
+
+  @Override
+  public FinancialInstitutionProfile getProfile(String key) {
+    FinancialInstitutionProfile profile = super.getProfile(key);
+    if (profile == null) {
+      profile = load(key);
+      if (profile != null) {
+        super.putProfile(key, profile);
+      }
+    }
+    return profile;
+  }
+
+  @Override
+  public void putProfile(String key, FinancialInstitutionProfile profile) {
+    super.putProfile(key, profile);
+    if (profile instanceof ProfileResponse) {
+      store(key, (ProfileResponse) profile);
+    }
+  }
+
+  @Override
+  public void invalidate(String key) {
+    super.invalidate(key);
+    File file = getFile(key);
+    if (file.exists() && !file.delete()) {
+      LOG.warn("Unable to delete the cached profile " + file + ".");
+    }
+  }
+
+  /**
+   * Load the profile persisted for the specified key.
+   *
+   * @param key The key.
+   * @return The profile, or null if none was persisted (or it can't be read).
+   */
+  protected FinancialInstitutionProfile load(String key) {
+    File file = getFile(key);
+    if (!file.exists()) {
+      return null;
+    }
+
+    try {
+      InputStream in = new FileInputStream(file);
+      try {
+        return (ProfileResponse) getCodec().decode(in);
+      }
+      finally {
+        in.close();
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to read the cached profile " + file + ".", e);
+    }
+    catch (OFXParseException e) {
+      LOG.warn("Unable to read the cached profile " + file + ".", e);
+    }
+    catch (ClassCastException e) {
+      LOG.warn("Unable to read the cached profile " + file + ".", e);
+    }
+    return null;
+  }
+
+  /**
+   * Persist the profile for the specified key. The profile is written to a temporary file first, so that a
+   * concurrent reader never sees a partial profile.
+   *
+   * @param key The key.
+   * @param profile The profile.
+   */
+  protected void store(String key, ProfileResponse profile) {
+    File file = getFile(key);
+    File temp = new File(this.directory, file.getName() + ".tmp");
+    try {
+      if (!this.directory.exists() && !this.directory.mkdirs()) {
+        throw new IOException("Unable to create directory " + this.directory + ".");
+      }
+
+      OutputStream out = new FileOutputStream(temp);
+      try {
+        getCodec().encode(profile, out);
+      }
+      finally {
+        out.close();
+      }
+
+      if (!temp.renameTo(file)) {
+        //some platforms won't rename over an existing file.
+        file.delete();
+        if (!temp.renameTo(file)) {
+          throw new IOException("Unable to rename " + temp + " to " + file + ".");
+        }
+      }
+    }
+    catch (IOException e) {
+      LOG.warn("Unable to persist the profile " + file + ".", e);
+      temp.delete();
+    }
+  }
+
+  /**
+   * The file the profile for the specified key is persisted to.
+   *
+   * @param key The key.
+   * @return The file.
+   */
+  protected File getFile(String key) {
+    try {
+      return new File(this.directory, URLEncoder.encode(key, "utf-8") + ".profile");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The directory the profiles are persisted in.
+   *
+   * @return The directory the profiles are persisted in.
+   */
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * The codec used to persist the profiles.
+   *
+   * @return The codec used to persist the profiles.
+   */
+  public AggregateSnapshotCodec getCodec() {
+    return codec;
+  }
+
+  /**
+   * The codec used to persist the profiles.
+   *
+   * @param codec The codec used to persist the profiles.
+   */
+  public void setCodec(AggregateSnapshotCodec codec) {
+    this.codec = codec;
+  }
+}
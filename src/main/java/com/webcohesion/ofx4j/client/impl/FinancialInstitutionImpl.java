@@ -28,6 +28,12 @@ import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDe
 import com.webcohesion.ofx4j.domain.data.signup.*;
 import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
 import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankingRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementRequestTransaction;
 import com.webcohesion.ofx4j.domain.data.common.Status;
 import com.webcohesion.ofx4j.domain.data.common.StatusHolder;
 import com.webcohesion.ofx4j.domain.data.profile.*;
@@ -35,24 +41,45 @@ import com.webcohesion.ofx4j.domain.data.signon.SignonRequest;
 import com.webcohesion.ofx4j.domain.data.signon.SignonRequestMessageSet;
 import com.webcohesion.ofx4j.domain.data.signon.SignonResponse;
 import com.webcohesion.ofx4j.domain.data.signon.SignonResponseMessageSet;
+import com.webcohesion.ofx4j.client.net.AsyncOFXConnection;
+import com.webcohesion.ofx4j.client.net.OFXCallback;
 import com.webcohesion.ofx4j.client.net.OFXConnection;
 import com.webcohesion.ofx4j.client.net.OFXConnectionException;
+import com.webcohesion.ofx4j.client.net.OFXFuture;
 
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeSet;
 import java.util.Set;
 import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Base implementation for the financial institution.
  *
  * @author Ryan Heaton
  */
-public class FinancialInstitutionImpl implements FinancialInstitution {
+public class FinancialInstitutionImpl implements AsyncFinancialInstitution, BatchFinancialInstitution {
 
   private final OFXConnection connection;
   private final FinancialInstitutionData data;
+  private Executor executor;
+  private int maxStatementsPerRequest = 0;
+  private ProfileCache profileCache;
+  private RequestCoalescer requestCoalescer = new RequestCoalescer();
 
   public FinancialInstitutionImpl(FinancialInstitutionData data, OFXConnection connection) {
     if (data == null) {
@@ -68,13 +95,15 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
 
   // Inherited.
   public FinancialInstitutionProfile readProfile() throws OFXException {
-    RequestEnvelope request = createAuthenticatedRequest(SignonRequest.ANONYMOUS_USER, SignonRequest.ANONYMOUS_USER);
-    ProfileRequestMessageSet profileRequest = new ProfileRequestMessageSet();
-    profileRequest.setProfileRequest(createProfileTransaction());
-    request.getMessageSets().add(profileRequest);
-    ResponseEnvelope response = sendRequest(request, getData().getOFXURL());
-    doGeneralValidationChecks(request, response);
-    return getProfile(response);
+    return coalesce("profile:" + getProfileCacheKey(), new RequestCoalescer.Request<FinancialInstitutionProfile>() {
+      public FinancialInstitutionProfile execute() throws OFXException {
+        FinancialInstitutionProfile cached = getCachedProfile();
+        RequestEnvelope request = createProfileRequestEnvelope(cached);
+        ResponseEnvelope response = sendRequest(request, getData().getOFXURL());
+        doGeneralValidationChecks(request, response);
+        return getProfile(response, cached);
+      }
+    });
   }
 
   // Inherited.
@@ -88,6 +117,285 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
     return getAccountProfiles(response);
   }
 
+  // Inherited.
+  public Future<FinancialInstitutionProfile> readProfileAsync(OFXCallback<FinancialInstitutionProfile> callback) {
+    final FinancialInstitutionProfile cached = getCachedProfile();
+    RequestEnvelope request = createProfileRequestEnvelope(cached);
+    return sendRequestAsync(request, getData().getOFXURL(), new ResponseReader<FinancialInstitutionProfile>() {
+      public FinancialInstitutionProfile read(ResponseEnvelope response) throws OFXException {
+        return getProfile(response, cached);
+      }
+    }, callback);
+  }
+
+  // Inherited.
+  public Future<Collection<AccountProfile>> readAccountProfilesAsync(String username, String password, OFXCallback<Collection<AccountProfile>> callback) {
+    RequestEnvelope request = createAuthenticatedRequest(username, password);
+    SignupRequestMessageSet signupRequest = new SignupRequestMessageSet();
+    signupRequest.setAccountInfoRequest(createAccountInfoTransaction());
+    request.getMessageSets().add(signupRequest);
+    return sendRequestAsync(request, getData().getOFXURL(), new ResponseReader<Collection<AccountProfile>>() {
+      public Collection<AccountProfile> read(ResponseEnvelope response) throws OFXException {
+        return getAccountProfiles(response);
+      }
+    }, callback);
+  }
+
+  // Inherited.
+  public Map<FinancialInstitutionAccount, AccountStatementResult> readStatements(Collection<? extends FinancialInstitutionAccount> accounts, Date start, Date end, FinancialInstitutionProfile profile) {
+    Map<FinancialInstitutionAccount, AccountStatementResult> results = new LinkedHashMap<FinancialInstitutionAccount, AccountStatementResult>();
+    Map<String, List<StatementBatchEntry>> batches = new LinkedHashMap<String, List<StatementBatchEntry>>();
+    Map<StatementBatchEntry, FinancialInstitutionAccount> entryAccounts = new HashMap<StatementBatchEntry, FinancialInstitutionAccount>();
+    Map<String, URL> batchURLs = new HashMap<String, URL>();
+    for (FinancialInstitutionAccount account : accounts) {
+      StatementBatchEntry entry = null;
+      if (account instanceof BaseAccountImpl) {
+        entry = ((BaseAccountImpl) account).newBatchEntry(start, end);
+      }
+      else if (account instanceof InvestmentAccountImpl) {
+        entry = ((InvestmentAccountImpl) account).newBatchEntry(start, end);
+      }
+
+      if (entry == null || entry.getInstitution() != this) {
+        results.put(account, readStatement(account, start, end));
+        continue;
+      }
+
+      //accounts can share a request if they share credentials, URL and signon realm (the credentials are only kept as a digest).
+      URL url = getData().getOFXURL();
+      String realm = null;
+      MessageSetProfile messageSetProfile = profile == null ? null : getMessageSetProfile(profile, entry.getMessageType());
+      if (messageSetProfile != null) {
+        url = getMessageSetURL(messageSetProfile);
+        realm = messageSetProfile.getRealm();
+      }
+      String key = getCredentialsKey(entry.getUsername(), entry.getPassword()) + '\u0000' + url + '\u0000' + realm;
+
+      List<StatementBatchEntry> batch = batches.get(key);
+      if (batch == null) {
+        batch = new ArrayList<StatementBatchEntry>();
+        batches.put(key, batch);
+        batchURLs.put(key, url);
+      }
+      batch.add(entry);
+      entryAccounts.put(entry, account);
+      results.put(account, null);
+    }
+
+    for (Map.Entry<String, List<StatementBatchEntry>> batch : batches.entrySet()) {
+      List<StatementBatchEntry> entries = batch.getValue();
+      int size = getMaxStatementsPerRequest() > 0 ? getMaxStatementsPerRequest() : entries.size();
+      for (int i = 0; i < entries.size(); i += size) {
+        List<StatementBatchEntry> requestEntries = entries.subList(i, Math.min(i + size, entries.size()));
+        Map<StatementBatchEntry, AccountStatementResult> requestResults = readStatements(requestEntries, batchURLs.get(batch.getKey()));
+        for (Map.Entry<StatementBatchEntry, AccountStatementResult> result : requestResults.entrySet()) {
+          results.put(entryAccounts.get(result.getKey()), result.getValue());
+        }
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Execute the specified request, {@link #getRequestCoalescer() coalescing} it with the equivalent request in flight.
+   *
+   * @param key The key identifying equivalent requests to this institution.
+   * @param request The request.
+   * @return The result.
+   */
+  protected <R> R coalesce(String key, RequestCoalescer.Request<R> request) throws OFXException {
+    RequestCoalescer coalescer = getRequestCoalescer();
+    return coalescer == null ? request.execute() : coalescer.execute(key, request);
+  }
+
+  /**
+   * The key identifying the specified credentials in the key of a {@link #coalesce(String, RequestCoalescer.Request) coalesced}
+   * request that is sent under a signon (or of a batch of statement requests), so that only the requests of the same
+   * user share a call (and its signon failure). The credentials are digested, so they aren't kept in the key.
+   *
+   * @param username The username.
+   * @param password The password.
+   * @return The key of the credentials.
+   */
+  protected String getCredentialsKey(String username, String password) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(String.valueOf(username).getBytes("utf-8"));
+      digest.update((byte) 0);
+      digest.update(String.valueOf(password).getBytes("utf-8"));
+      StringBuilder key = new StringBuilder();
+      for (byte b : digest.digest()) {
+        key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+      return key.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Read the statement of a single account that can't be batched.
+   *
+   * @param account The account.
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @return The result.
+   */
+  protected AccountStatementResult readStatement(FinancialInstitutionAccount account, Date start, Date end) {
+    try {
+      return new AccountStatementResult(account.readStatement(start, end));
+    }
+    catch (OFXException e) {
+      return new AccountStatementResult(e);
+    }
+  }
+
+  /**
+   * Read the statements of a batch of entries (sharing credentials) in a single request.
+   *
+   * @param entries The entries.
+   * @param url The URL to send the request to.
+   * @return The results by entry.
+   */
+  Map<StatementBatchEntry, AccountStatementResult> readStatements(List<StatementBatchEntry> entries, URL url) {
+    Map<StatementBatchEntry, AccountStatementResult> results = new LinkedHashMap<StatementBatchEntry, AccountStatementResult>();
+    StatementBatchEntry first = entries.get(0);
+    RequestEnvelope request = createAuthenticatedRequest(first.getUsername(), first.getPassword());
+    Map<MessageSetType, List<TransactionWrappedRequestMessage>> transactions = new EnumMap<MessageSetType, List<TransactionWrappedRequestMessage>>(MessageSetType.class);
+    for (StatementBatchEntry entry : entries) {
+      List<TransactionWrappedRequestMessage> typeTransactions = transactions.get(entry.getMessageType());
+      if (typeTransactions == null) {
+        typeTransactions = new ArrayList<TransactionWrappedRequestMessage>();
+        transactions.put(entry.getMessageType(), typeTransactions);
+      }
+      typeTransactions.add(entry.getTransaction());
+    }
+    for (Map.Entry<MessageSetType, List<TransactionWrappedRequestMessage>> typeTransactions : transactions.entrySet()) {
+      request.getMessageSets().add(createStatementRequestMessageSet(typeTransactions.getKey(), typeTransactions.getValue()));
+    }
+
+    ResponseEnvelope response;
+    try {
+      response = sendRequest(request, url);
+      doBatchValidationChecks(request, response);
+    }
+    catch (OFXException e) {
+      for (StatementBatchEntry entry : entries) {
+        results.put(entry, new AccountStatementResult(e));
+      }
+      return results;
+    }
+
+    Map<String, TransactionWrappedResponseMessage> responseTransactions = new HashMap<String, TransactionWrappedResponseMessage>();
+    for (MessageSetType type : transactions.keySet()) {
+      ResponseMessageSet responseSet = response.getMessageSet(type);
+      if (responseSet != null) {
+        for (ResponseMessage responseMessage : responseSet.getResponseMessages()) {
+          if (responseMessage instanceof TransactionWrappedResponseMessage) {
+            TransactionWrappedResponseMessage responseTransaction = (TransactionWrappedResponseMessage) responseMessage;
+            responseTransactions.put(responseTransaction.getUID(), responseTransaction);
+          }
+        }
+      }
+    }
+
+    for (StatementBatchEntry entry : entries) {
+      AccountStatementResult result;
+      try {
+        TransactionWrappedResponseMessage responseTransaction = responseTransactions.get(entry.getTransaction().getUID());
+        if (responseTransaction == null) {
+          throw new NoOFXResponseException("No response to transaction " + entry.getTransaction().getUID() + ".");
+        }
+        validateStatus(responseTransaction);
+        result = new AccountStatementResult(entry.unwrap(responseTransaction, response));
+      }
+      catch (OFXException e) {
+        result = new AccountStatementResult(e);
+      }
+      results.put(entry, result);
+    }
+    return results;
+  }
+
+  /**
+   * Create a request message set of the specified type for the specified statement request transactions.
+   *
+   * @param type The message set type.
+   * @param transactions The statement request transactions.
+   * @return The request message set.
+   */
+  protected RequestMessageSet createStatementRequestMessageSet(MessageSetType type, List<TransactionWrappedRequestMessage> transactions) {
+    switch (type) {
+      case banking:
+        List<BankStatementRequestTransaction> bankTransactions = new ArrayList<BankStatementRequestTransaction>();
+        for (TransactionWrappedRequestMessage transaction : transactions) {
+          bankTransactions.add((BankStatementRequestTransaction) transaction);
+        }
+        BankingRequestMessageSet bankingRequest = new BankingRequestMessageSet();
+        bankingRequest.setStatementRequests(bankTransactions);
+        return bankingRequest;
+      case creditcard:
+        List<CreditCardStatementRequestTransaction> creditCardTransactions = new ArrayList<CreditCardStatementRequestTransaction>();
+        for (TransactionWrappedRequestMessage transaction : transactions) {
+          creditCardTransactions.add((CreditCardStatementRequestTransaction) transaction);
+        }
+        CreditCardRequestMessageSet creditCardRequest = new CreditCardRequestMessageSet();
+        creditCardRequest.setStatementRequests(creditCardTransactions);
+        return creditCardRequest;
+      case investment:
+        List<InvestmentStatementRequestTransaction> investmentTransactions = new ArrayList<InvestmentStatementRequestTransaction>();
+        for (TransactionWrappedRequestMessage transaction : transactions) {
+          investmentTransactions.add((InvestmentStatementRequestTransaction) transaction);
+        }
+        InvestmentStatementRequestMessageSet investmentRequest = new InvestmentStatementRequestMessageSet();
+        investmentRequest.setStatementRequests(investmentTransactions);
+        return investmentRequest;
+      default:
+        throw new IllegalArgumentException("Unsupported statement message set: " + type);
+    }
+  }
+
+  /**
+   * Get the profile of the specified message set, or null if the profile doesn't have (exactly) one.
+   *
+   * @param profile The institution profile.
+   * @param type The message set type.
+   * @return The message set profile.
+   */
+  protected MessageSetProfile getMessageSetProfile(FinancialInstitutionProfile profile, MessageSetType type) {
+    try {
+      return profile.getMessageSetProfile(type);
+    }
+    catch (IllegalStateException e) {
+      //multiple versions; can't tell which one applies.
+      return null;
+    }
+  }
+
+  /**
+   * The URL to send requests of the specified message set to, defaulting to the URL of the institution.
+   *
+   * @param messageSetProfile The message set profile.
+   * @return The URL.
+   */
+  protected URL getMessageSetURL(MessageSetProfile messageSetProfile) {
+    String url = messageSetProfile.getUrl();
+    if (url != null && url.trim().length() > 0) {
+      try {
+        return new URL(url.trim());
+      }
+      catch (MalformedURLException e) {
+        //fall through.
+      }
+    }
+    return getData().getOFXURL();
+  }
+
   // Inherited.
   public BankAccount loadBankAccount(BankAccountDetails details, String username, String password) {
     return new BankingAccountImpl(details, username, password, this);
@@ -141,6 +449,92 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
     return getConnection().sendRequest(request, url);
   }
 
+  /**
+   * Send a request asynchronously.
+   *
+   * @param request The request.
+   * @param reader The reader of the result from the response.
+   * @param callback The callback to notify of the result (may be null).
+   * @return The future result.
+   */
+  protected <R> Future<R> sendRequestAsync(RequestEnvelope request, ResponseReader<R> reader, OFXCallback<R> callback) {
+    return sendRequestAsync(request, getData().getOFXURL(), reader, callback);
+  }
+
+  /**
+   * Send a request to a specific URL asynchronously. The response is {@link #doGeneralValidationChecks validated} and
+   * read on the thread that completed the response. If the connection isn't an {@link AsyncOFXConnection}, the request
+   * is sent on the {@link #getExecutor() executor}. Cancelling the returned future cancels the request.
+   *
+   * @param request The request.
+   * @param url The url.
+   * @param reader The reader of the result from the response.
+   * @param callback The callback to notify of the result (may be null).
+   * @return The future result.
+   */
+  protected <R> Future<R> sendRequestAsync(final RequestEnvelope request, final URL url, final ResponseReader<R> reader, OFXCallback<R> callback) {
+    final OFXFuture<R> future = new OFXFuture<R>(callback);
+    final OFXCallback<ResponseEnvelope> responseCallback = new OFXCallback<ResponseEnvelope>() {
+      public void completed(ResponseEnvelope response) {
+        if (future.isDone()) {
+          //cancelled.
+          return;
+        }
+
+        try {
+          doGeneralValidationChecks(request, response);
+          future.complete(reader.read(response));
+        }
+        catch (Throwable e) {
+          future.fail(e);
+        }
+      }
+
+      public void failed(Throwable error) {
+        future.fail(error);
+      }
+    };
+
+    if (getConnection() instanceof AsyncOFXConnection) {
+      future.propagateCancellation(((AsyncOFXConnection) getConnection()).sendRequestAsync(request, url, responseCallback));
+    }
+    else {
+      FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+        public void run() {
+          if (future.isDone()) {
+            //cancelled.
+            return;
+          }
+
+          ResponseEnvelope response;
+          try {
+            response = sendRequest(request, url);
+          }
+          catch (Throwable e) {
+            responseCallback.failed(e);
+            return;
+          }
+          responseCallback.completed(response);
+        }
+      }, null);
+      future.propagateCancellation(task);
+
+      if (getExecutor() == null) {
+        task.run();
+      }
+      else {
+        try {
+          getExecutor().execute(task);
+        }
+        catch (RejectedExecutionException e) {
+          future.fail(new OFXConnectionException("Unable to schedule the request.", e));
+        }
+      }
+    }
+
+    return future;
+  }
+
   /**
    * Open the specified response envelope and look for the profile.
    *
@@ -166,6 +560,90 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
     return message;
   }
 
+  /**
+   * Open the specified response envelope and look for the profile, using the cached profile the request was
+   * revalidating if the institution says it's up to date. A new profile is put in the {@link #getProfileCache() cache}.
+   *
+   * @param response The response envelope.
+   * @param cached The cached profile the request was revalidating, or null.
+   * @return The profile.
+   */
+  protected FinancialInstitutionProfile getProfile(ResponseEnvelope response, FinancialInstitutionProfile cached) throws OFXException {
+    if (cached != null && isProfileUpToDate(response, cached)) {
+      return cached;
+    }
+
+    FinancialInstitutionProfile profile = getProfile(response);
+    if (getProfileCache() != null) {
+      getProfileCache().putProfile(getProfileCacheKey(), profile);
+    }
+    return profile;
+  }
+
+  /**
+   * Whether the specified profile response says the cached profile is up to date: either the transaction has status
+   * "client is up-to-date" or the profile carries no message set list and isn't newer than the cached profile.
+   *
+   * @param response The response envelope.
+   * @param cached The cached profile.
+   * @return Whether the cached profile is up to date.
+   */
+  protected boolean isProfileUpToDate(ResponseEnvelope response, FinancialInstitutionProfile cached) {
+    ProfileResponseMessageSet profileSet = (ProfileResponseMessageSet) response.getMessageSet(MessageSetType.profile);
+    ProfileResponseTransaction transactionResponse = profileSet == null ? null : profileSet.getProfileResponse();
+    if (transactionResponse == null) {
+      return false;
+    }
+
+    Status status = transactionResponse.getStatus();
+    if (status != null && Status.KnownCode.CLIENT_UP_TO_DATE.equals(status.getCode())) {
+      return true;
+    }
+
+    ProfileResponse message = transactionResponse.getMessage();
+    return message == null || (message.getMessageSetList() == null && !isNewer(message.getLastUpdated(), cached.getLastUpdated()));
+  }
+
+  /**
+   * Get the cached profile of this institution.
+   *
+   * @return The cached profile, or null if there is no cache or no profile is cached.
+   */
+  protected FinancialInstitutionProfile getCachedProfile() {
+    return getProfileCache() == null ? null : getProfileCache().getProfile(getProfileCacheKey());
+  }
+
+  /**
+   * Invalidate the cached profile if the specified signon response says the profile of the institution has changed
+   * since (DTPROFUP).
+   *
+   * @param signonResponse The signon response.
+   */
+  protected void checkProfileLastUpdated(SignonResponse signonResponse) {
+    if (getProfileCache() == null || signonResponse == null || signonResponse.getProfileLastUpdated() == null) {
+      return;
+    }
+
+    String key = getProfileCacheKey();
+    FinancialInstitutionProfile cached = getProfileCache().getProfile(key);
+    if (cached != null && isNewer(signonResponse.getProfileLastUpdated(), cached.getLastUpdated())) {
+      getProfileCache().invalidate(key);
+    }
+  }
+
+  /**
+   * The key of this institution in the {@link #getProfileCache() profile cache}: the id of the institution and its URL.
+   *
+   * @return The key of this institution in the profile cache.
+   */
+  protected String getProfileCacheKey() {
+    return getData().getFinancialInstitutionId() + '@' + getData().getOFXURL();
+  }
+
+  private static boolean isNewer(Date date, Date reference) {
+    return date != null && (reference == null || date.after(reference));
+  }
+
   /**
    * General validation checks on the specified response.
    *
@@ -194,6 +672,7 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
         if (signonResponse == null) {
           throw new NoOFXResponseException("No signon response.");
         }
+        checkProfileLastUpdated(signonResponse);
       }
 
       Set<String> transactionIds = new TreeSet<String>();
@@ -225,6 +704,31 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
     }
   }
 
+  /**
+   * Validation checks on the response to a batch of requests: the checks of the envelope and the signon. Transactions
+   * are validated individually.
+   *
+   * @param request The request.
+   * @param response Their response.
+   * @throws OFXException Upon invalid response.
+   */
+  protected void doBatchValidationChecks(RequestEnvelope request, ResponseEnvelope response) throws OFXException {
+    if (response.getSecurity() != ApplicationSecurity.NONE) {
+      throw new UnsupportedOFXSecurityTypeException(String.format("Unable to participate in %s security.", response.getSecurity()));
+    }
+
+    if (!request.getUID().equals(response.getUID())) {
+      throw new OFXException(String.format("Invalid transaction ID '%s' in response.  Expected: %s", response.getUID(), request));
+    }
+
+    SignonResponse signonResponse = response.getSignonResponse();
+    if (signonResponse == null) {
+      throw new NoOFXResponseException("No signon response.");
+    }
+    validateStatus(signonResponse);
+    checkProfileLastUpdated(signonResponse);
+  }
+
   /**
    * Validate the status of the given status holder.
    *
@@ -236,7 +740,7 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
       throw new OFXException("Invalid OFX response: no status returned in the " + statusHolder.getStatusHolderName() + " response.");
     }
 
-    if (!Status.KnownCode.SUCCESS.equals(status.getCode())) {
+    if (!Status.KnownCode.SUCCESS.equals(status.getCode()) && !isUpToDateProfile(statusHolder)) {
       String message = status.getMessage();
       if (message == null) {
         message = "No response status code.";
@@ -250,14 +754,49 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
     }
   }
 
+  /**
+   * Whether the specified status holder is a profile transaction saying the client profile is up to date (which isn't
+   * an error).
+   *
+   * @param statusHolder The status holder.
+   * @return Whether the status holder is an up-to-date profile transaction.
+   */
+  private boolean isUpToDateProfile(StatusHolder statusHolder) {
+    return statusHolder instanceof ProfileResponseTransaction && Status.KnownCode.CLIENT_UP_TO_DATE.equals(statusHolder.getStatus().getCode());
+  }
+
+  /**
+   * Create the request envelope for a profile request.
+   *
+   * @param cached The cached profile to revalidate, or null.
+   * @return The request envelope.
+   */
+  protected RequestEnvelope createProfileRequestEnvelope(FinancialInstitutionProfile cached) {
+    RequestEnvelope request = createAuthenticatedRequest(SignonRequest.ANONYMOUS_USER, SignonRequest.ANONYMOUS_USER);
+    ProfileRequestMessageSet profileRequest = new ProfileRequestMessageSet();
+    profileRequest.setProfileRequest(createProfileTransaction(cached == null ? null : cached.getLastUpdated()));
+    request.getMessageSets().add(profileRequest);
+    return request;
+  }
+
   /**
    * Create a transaction message for a profile request.
    *
    * @return The transaction message.
    */
   protected ProfileRequestTransaction createProfileTransaction() {
+    return createProfileTransaction(null);
+  }
+
+  /**
+   * Create a transaction message for a profile request.
+   *
+   * @param profileLastUpdated When the profile the client has was last updated, or null if the client has none.
+   * @return The transaction message.
+   */
+  protected ProfileRequestTransaction createProfileTransaction(Date profileLastUpdated) {
     ProfileRequestTransaction profileTx = new ProfileRequestTransaction();
-    profileTx.setMessage(createProfileRequest());
+    profileTx.setMessage(createProfileRequest(profileLastUpdated));
     return profileTx;
   }
 
@@ -267,8 +806,18 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
    * @return The profile request.
    */
   protected ProfileRequest createProfileRequest() {
+    return createProfileRequest(null);
+  }
+
+  /**
+   * Create a profile request.
+   *
+   * @param profileLastUpdated When the profile the client has was last updated, or null if the client has none.
+   * @return The profile request.
+   */
+  protected ProfileRequest createProfileRequest(Date profileLastUpdated) {
     ProfileRequest profileRequest = new ProfileRequest();
-    profileRequest.setProfileLastUpdated(new Date(0));
+    profileRequest.setProfileLastUpdated(profileLastUpdated == null ? new Date(0) : profileLastUpdated);
     return profileRequest;
   }
 
@@ -355,4 +904,94 @@ public class FinancialInstitutionImpl implements FinancialInstitution {
   public FinancialInstitutionData getData() {
     return data;
   }
+
+  /**
+   * The executor asynchronous requests are sent on if the connection doesn't support asynchronous requests, or null to
+   * send them on the calling thread.
+   *
+   * @return The executor asynchronous requests are sent on if the connection doesn't support them.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on if the connection doesn't support asynchronous requests, or null to
+   * send them on the calling thread.
+   *
+   * @param executor The executor asynchronous requests are sent on if the connection doesn't support them.
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * The maximum number of statement requests batched in a single request envelope, or 0 for no maximum.
+   *
+   * @return The maximum number of statement requests batched in a single request envelope.
+   */
+  public int getMaxStatementsPerRequest() {
+    return maxStatementsPerRequest;
+  }
+
+  /**
+   * The maximum number of statement requests batched in a single request envelope, or 0 for no maximum.
+   *
+   * @param maxStatementsPerRequest The maximum number of statement requests batched in a single request envelope.
+   */
+  public void setMaxStatementsPerRequest(int maxStatementsPerRequest) {
+    this.maxStatementsPerRequest = maxStatementsPerRequest;
+  }
+
+  /**
+   * The cache of institution profiles, or null to always download the full profile.
+   *
+   * @return The cache of institution profiles.
+   */
+  public ProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  /**
+   * The cache of institution profiles, or null to always download the full profile.
+   *
+   * @param profileCache The cache of institution profiles.
+   */
+  public void setProfileCache(ProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  /**
+   * The coalescer of concurrent equivalent requests (the profile, and the security list of the same user), or null to
+   * send each request. Institutions can share a coalescer.
+   *
+   * @return The coalescer of concurrent equivalent requests.
+   */
+  public RequestCoalescer getRequestCoalescer() {
+    return requestCoalescer;
+  }
+
+  /**
+   * The coalescer of concurrent equivalent requests (the profile, and the security list of the same user), or null to
+   * send each request. Institutions can share a coalescer.
+   *
+   * @param requestCoalescer The coalescer of concurrent equivalent requests.
+   */
+  public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+    this.requestCoalescer = requestCoalescer;
+  }
+
+  /**
+   * Reads the result of an asynchronous request from its (validated) response.
+   */
+  protected interface ResponseReader<R> {
+
+    /**
+     * Read the result from the specified response.
+     *
+     * @param response The response.
+     * @return The result.
+     */
+    R read(ResponseEnvelope response) throws OFXException;
+  }
 }
@@ -20,6 +20,7 @@ import com.webcohesion.ofx4j.client.FinancialInstitution;
 import com.webcohesion.ofx4j.client.FinancialInstitutionData;
 import com.webcohesion.ofx4j.client.FinancialInstitutionDataStore;
 import com.webcohesion.ofx4j.client.FinancialInstitutionService;
+import com.webcohesion.ofx4j.client.ProfileCache;
 import com.webcohesion.ofx4j.client.net.OFXConnection;
 import com.webcohesion.ofx4j.client.net.OFXV1Connection;
 
@@ -30,6 +31,8 @@ public class FinancialInstitutionServiceImpl implements FinancialInstitutionServ
 
   private OFXConnection connection = new OFXV1Connection();
   private FinancialInstitutionDataStore dataStore;
+  private ProfileCache profileCache;
+  private RequestCoalescer requestCoalescer = new RequestCoalescer();
 
   public FinancialInstitution getFinancialInstitution(String fid) {
     return dataStore == null ? null : getFinancialInstitution(getDataStore().getInstitutionData(fid));
@@ -40,7 +43,10 @@ public class FinancialInstitutionServiceImpl implements FinancialInstitutionServ
       return null;
     }
 
-    return new FinancialInstitutionImpl(data, getConnection());
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(data, getConnection());
+    institution.setProfileCache(getProfileCache());
+    institution.setRequestCoalescer(getRequestCoalescer());
+    return institution;
   }
 
   public FinancialInstitutionDataStore getDataStore() {
@@ -58,4 +64,20 @@ public class FinancialInstitutionServiceImpl implements FinancialInstitutionServ
   public void setConnection(OFXConnection connection) {
     this.connection = connection;
   }
+
+  public ProfileCache getProfileCache() {
+    return profileCache;
+  }
+
+  public void setProfileCache(ProfileCache profileCache) {
+    this.profileCache = profileCache;
+  }
+
+  public RequestCoalescer getRequestCoalescer() {
+    return requestCoalescer;
+  }
+
+  public void setRequestCoalescer(RequestCoalescer requestCoalescer) {
+    this.requestCoalescer = requestCoalescer;
+  }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.client.FinancialInstitutionProfile;
+import com.webcohesion.ofx4j.client.ProfileCache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Profile cache that keeps the profiles in memory.
+ *
+ * @author Ryan Heaton
+ */
+public class InMemoryProfileCache implements ProfileCache {
+
+  private final ConcurrentMap<String, FinancialInstitutionProfile> profiles = new ConcurrentHashMap<String, FinancialInstitutionProfile>();
+
+  // Inherited.
+  public FinancialInstitutionProfile getProfile(String key) {
+    return this.profiles.get(key);
+  }
+
+  // Inherited.
+  public void putProfile(String key, FinancialInstitutionProfile profile) {
+    this.profiles.put(key, profile);
+  }
+
+  // Inherited.
+  public void invalidate(String key) {
+    this.profiles.remove(key);
+  }
+
+  /**
+   * Remove all cached profiles.
+   */
+  public void clear() {
+    this.profiles.clear();
+  }
+}
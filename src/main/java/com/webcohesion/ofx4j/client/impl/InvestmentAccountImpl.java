@@ -2,7 +2,11 @@ package com.webcohesion.ofx4j.client.impl;
 
 import com.webcohesion.ofx4j.OFXException;
 import com.webcohesion.ofx4j.domain.data.*;
-import com.webcohesion.ofx4j.client.InvestmentAccount;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.AsyncInvestmentAccount;
+import com.webcohesion.ofx4j.client.StatementListener;
+import com.webcohesion.ofx4j.client.StreamingAccount;
+import com.webcohesion.ofx4j.client.net.OFXCallback;
 import com.webcohesion.ofx4j.domain.data.common.StatementRange;
 import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails;
 import com.webcohesion.ofx4j.domain.data.seclist.*;
@@ -11,11 +15,12 @@ import com.webcohesion.ofx4j.domain.data.investment.statements.IncludePosition;
 
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * @author Jon Perlow
  */
-public class InvestmentAccountImpl implements InvestmentAccount {
+public class InvestmentAccountImpl implements AsyncInvestmentAccount, StreamingAccount {
   private final InvestmentAccountDetails details;
   private final String username;
   private final String password;
@@ -47,17 +52,110 @@ public class InvestmentAccountImpl implements InvestmentAccount {
     return unwrapStatementResponse(response);
   }
 
-  public SecurityList readSecurityList(List<SecurityRequest> securities)
+  public void readStatement(Date start, Date end, StatementListener listener) throws OFXException {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
+    InvestmentStatementRequestTransaction requestTransaction =
+        new InvestmentStatementRequestTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    request.getMessageSets().add(createStatementRequestMessageSet(requestTransaction));
+
+    new StatementStreamer(institution, requestTransaction, listener).read(request, institution.getData().getOFXURL(),
+        new FinancialInstitutionImpl.ResponseReader<AccountStatement>() {
+          public AccountStatement read(ResponseEnvelope response) throws OFXException {
+            return unwrapStatementResponse(response);
+          }
+        });
+  }
+
+  public SecurityList readSecurityList(final List<SecurityRequest> securities)
       throws OFXException {
+    // The request is sent under the signon of the user, so only the equivalent requests of the same user share a call.
+    String key = "seclist:" + institution.getProfileCacheKey() + ':' + institution.getCredentialsKey(username, password)
+        + ':' + getSecurityListKey(securities);
+    return institution.coalesce(key, new RequestCoalescer.Request<SecurityList>() {
+      public SecurityList execute() throws OFXException {
+        RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
+        SecurityListRequestTransaction requestTransaction = new SecurityListRequestTransaction();
+        requestTransaction.setWrappedMessage(createSecurityListRequest(securities));
+        request.getMessageSets().add(createSecurityListRequestMessageSet(requestTransaction));
+
+        ResponseEnvelope response = institution.sendRequest(request);
+        institution.doGeneralValidationChecks(request, response);
+
+        return unwrapSecurityList(response);
+      }
+    });
+  }
+
+  public Future<AccountStatement> readStatementAsync(Date start, Date end, OFXCallback<AccountStatement> callback) {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
+    InvestmentStatementRequestTransaction requestTransaction =
+        new InvestmentStatementRequestTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    request.getMessageSets().add(createStatementRequestMessageSet(requestTransaction));
+
+    return institution.sendRequestAsync(request, new FinancialInstitutionImpl.ResponseReader<AccountStatement>() {
+      public AccountStatement read(ResponseEnvelope response) throws OFXException {
+        return unwrapStatementResponse(response);
+      }
+    }, callback);
+  }
+
+  public Future<SecurityList> readSecurityListAsync(List<SecurityRequest> securities,
+                                                    OFXCallback<SecurityList> callback) {
     RequestEnvelope request = institution.createAuthenticatedRequest(username, password);
     SecurityListRequestTransaction requestTransaction = new SecurityListRequestTransaction();
     requestTransaction.setWrappedMessage(createSecurityListRequest(securities));
     request.getMessageSets().add(createSecurityListRequestMessageSet(requestTransaction));
 
-    ResponseEnvelope response = institution.sendRequest(request);
-    institution.doGeneralValidationChecks(request, response);
+    return institution.sendRequestAsync(request, new FinancialInstitutionImpl.ResponseReader<SecurityList>() {
+      public SecurityList read(ResponseEnvelope response) throws OFXException {
+        return unwrapSecurityList(response);
+      }
+    }, callback);
+  }
 
-    return unwrapSecurityList(response);
+  /**
+   * Create the entry for the statement request of this account in a batch.
+   *
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @return The batch entry.
+   */
+  StatementBatchEntry newBatchEntry(Date start, Date end) {
+    StatementRange range = new StatementRange();
+    range.setIncludeTransactions(true);
+    range.setStart(start);
+    range.setEnd(end);
+
+    InvestmentStatementRequestTransaction requestTransaction = new InvestmentStatementRequestTransaction();
+    requestTransaction.setWrappedMessage(createStatementRequest(getDetails(), range));
+    return new StatementBatchEntry(institution, username, password, MessageSetType.investment, requestTransaction) {
+      AccountStatement unwrap(TransactionWrappedResponseMessage transaction, ResponseEnvelope response) throws OFXException {
+        ResponseMessage message = transaction.getWrappedMessage();
+        if (!(message instanceof InvestmentStatementResponse)) {
+          throw new OFXException("No investment statement in the transaction.");
+        }
+
+        InvestmentStatementResponse statement = (InvestmentStatementResponse) message;
+        SecurityListResponseMessageSet securityListMessageSet =
+            (SecurityListResponseMessageSet) response.getMessageSet(MessageSetType.investment_security);
+        if (securityListMessageSet != null) {
+          statement.setSecurityList(securityListMessageSet.getSecurityList());
+        }
+        return statement;
+      }
+    };
   }
 
   /**
@@ -130,6 +228,20 @@ public class InvestmentAccountImpl implements InvestmentAccount {
     return securityListRequest;
   }
 
+  private String getSecurityListKey(List<SecurityRequest> securities) {
+    StringBuilder key = new StringBuilder();
+    if (securities != null) {
+      for (SecurityRequest security : securities) {
+        SecurityId securityId = security.getSecurityId();
+        if (securityId != null) {
+          key.append(securityId.getUniqueIdType()).append('=').append(securityId.getUniqueId());
+        }
+        key.append('/').append(security.getTickerSymbol()).append('/').append(security.getFiId()).append(';');
+      }
+    }
+    return key.toString();
+  }
+
   private SecurityList unwrapSecurityList(ResponseEnvelope response)
       throws OFXException {
     SecurityListResponseMessageSet securityListSet =
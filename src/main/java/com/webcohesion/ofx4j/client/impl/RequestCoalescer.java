@@ -0,0 +1,112 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.net.OFXConnectionException;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent equivalent requests ("single flight"): while a request is in flight, callers of a request with
+ * the same key wait for it and share its result (or its failure) instead of sending their own. Only idempotent requests
+ * whose result doesn't depend on the caller should be coalesced, and the result is shared, so it shouldn't be modified.
+ * A coalescer can be shared by several institutions, as long as the keys identify the institution.
+ *
+ * @author Ryan Heaton
+ */
+public class RequestCoalescer {
+
+  private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+  /**
+   * Execute the specified request, or wait for the equivalent request in flight.
+   *
+   * @param key The key identifying equivalent requests.
+   * @param request The request.
+   * @return The result.
+   */
+  @SuppressWarnings ( "unchecked" )
+  public <R> R execute(String key, final Request<R> request) throws OFXException {
+    FutureTask<R> call = new FutureTask<R>(new Callable<R>() {
+      public R call() throws Exception {
+        return request.execute();
+      }
+    });
+
+    FutureTask<R> existing = (FutureTask<R>) this.inFlight.putIfAbsent(key, call);
+    if (existing == null) {
+      try {
+        call.run();
+      }
+      finally {
+        this.inFlight.remove(key, call);
+      }
+    }
+    else {
+      call = existing;
+    }
+
+    try {
+      return call.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OFXConnectionException(new InterruptedIOException("Interrupted while waiting for an equivalent request."));
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof OFXException) {
+        throw (OFXException) cause;
+      }
+      else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new OFXException(cause);
+    }
+  }
+
+  /**
+   * The number of requests in flight.
+   *
+   * @return The number of requests in flight.
+   */
+  public int getInFlightCount() {
+    return this.inFlight.size();
+  }
+
+  /**
+   * A request that can be coalesced.
+   */
+  public interface Request<R> {
+
+    /**
+     * Execute the request.
+     *
+     * @return The result.
+     */
+    R execute() throws OFXException;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.TransactionWrappedRequestMessage;
+import com.webcohesion.ofx4j.domain.data.TransactionWrappedResponseMessage;
+
+/**
+ * The statement request of an account, to be sent in a batch with the statement requests of other accounts.
+ *
+ * @author Ryan Heaton
+ */
+abstract class StatementBatchEntry {
+
+  private final FinancialInstitutionImpl institution;
+  private final String username;
+  private final String password;
+  private final MessageSetType messageType;
+  private final TransactionWrappedRequestMessage transaction;
+
+  StatementBatchEntry(FinancialInstitutionImpl institution, String username, String password, MessageSetType messageType, TransactionWrappedRequestMessage transaction) {
+    this.institution = institution;
+    this.username = username;
+    this.password = password;
+    this.messageType = messageType;
+    this.transaction = transaction;
+  }
+
+  /**
+   * Unwrap the statement from the response transaction of this entry.
+   *
+   * @param transaction The response transaction (with the UID of the request transaction).
+   * @param response The response envelope.
+   * @return The statement.
+   */
+  abstract AccountStatement unwrap(TransactionWrappedResponseMessage transaction, ResponseEnvelope response) throws OFXException;
+
+  FinancialInstitutionImpl getInstitution() {
+    return institution;
+  }
+
+  String getUsername() {
+    return username;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  MessageSetType getMessageType() {
+    return messageType;
+  }
+
+  TransactionWrappedRequestMessage getTransaction() {
+    return transaction;
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.OFXTransactionException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.StatementListener;
+import com.webcohesion.ofx4j.client.net.OFXConnection;
+import com.webcohesion.ofx4j.client.net.StreamingOFXConnection;
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.TransactionWrappedRequestMessage;
+import com.webcohesion.ofx4j.domain.data.TransactionWrappedResponseMessage;
+import com.webcohesion.ofx4j.domain.data.common.StatementResponse;
+import com.webcohesion.ofx4j.domain.data.common.StatusHolder;
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionList;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementResponse;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentBankTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentTransactionList;
+import com.webcohesion.ofx4j.domain.data.signon.SignonResponse;
+import com.webcohesion.ofx4j.io.AggregateListener;
+
+import java.net.URL;
+
+/**
+ * Reads a statement, delivering it to a statement listener as it is read. If the connection is a
+ * {@link StreamingOFXConnection}, the response is parsed off the response stream and the transactions are delivered
+ * (and dropped) as soon as they are read. Otherwise, the statement is read as a whole then replayed to the listener.
+ *
+ * @author Ryan Heaton
+ */
+class StatementStreamer implements AggregateListener {
+
+  private final FinancialInstitutionImpl institution;
+  private final TransactionWrappedRequestMessage requestTransaction;
+  private final StatementListener listener;
+  private boolean headerDelivered = false;
+
+  StatementStreamer(FinancialInstitutionImpl institution, TransactionWrappedRequestMessage requestTransaction, StatementListener listener) {
+    this.institution = institution;
+    this.requestTransaction = requestTransaction;
+    this.listener = listener;
+  }
+
+  /**
+   * Send the request and deliver the statement to the listener.
+   *
+   * @param request The request (holding the statement request transaction).
+   * @param url The URL.
+   * @param reader The reader of the statement from the (validated) response.
+   */
+  void read(RequestEnvelope request, URL url, FinancialInstitutionImpl.ResponseReader<? extends AccountStatement> reader) throws OFXException {
+    OFXConnection connection = this.institution.getConnection();
+    if (connection instanceof StreamingOFXConnection) {
+      ResponseEnvelope response;
+      try {
+        response = ((StreamingOFXConnection) connection).sendRequest(request, url, this);
+      }
+      catch (StreamAbortedException e) {
+        throw e.error;
+      }
+      this.institution.doGeneralValidationChecks(request, response);
+      reader.read(response);
+    }
+    else {
+      ResponseEnvelope response = this.institution.sendRequest(request, url);
+      this.institution.doGeneralValidationChecks(request, response);
+      replay(reader.read(response));
+    }
+  }
+
+  /**
+   * Deliver a statement that was read as a whole.
+   *
+   * @param statement The statement.
+   */
+  protected void replay(AccountStatement statement) {
+    this.listener.onHeader(statement);
+    TransactionList transactionList = statement.getTransactionList();
+    if (transactionList != null && transactionList.getTransactions() != null) {
+      for (Transaction transaction : transactionList.getTransactions()) {
+        this.listener.onTransaction(transaction);
+      }
+    }
+
+    if (statement instanceof InvestmentStatementResponse) {
+      InvestmentTransactionList investmentTransactionList = ((InvestmentStatementResponse) statement).getInvestmentTransactionList();
+      if (investmentTransactionList != null && investmentTransactionList.getInvestmentTransactions() != null) {
+        for (BaseInvestmentTransaction transaction : investmentTransactionList.getInvestmentTransactions()) {
+          this.listener.onInvestmentTransaction(transaction);
+        }
+      }
+      if (investmentTransactionList != null && investmentTransactionList.getBankTransactions() != null) {
+        for (InvestmentBankTransaction transaction : investmentTransactionList.getBankTransactions()) {
+          this.listener.onInvestmentBankTransaction(transaction);
+        }
+      }
+    }
+    this.listener.onBalances(statement);
+  }
+
+  // Inherited.
+  public boolean appliesTo(Class aggregateType) {
+    return SignonResponse.class.isAssignableFrom(aggregateType)
+      || StatementResponse.class.isAssignableFrom(aggregateType)
+      || TransactionList.class.isAssignableFrom(aggregateType)
+      || InvestmentTransactionList.class.isAssignableFrom(aggregateType)
+      || Transaction.class.isAssignableFrom(aggregateType)
+      || BaseInvestmentTransaction.class.isAssignableFrom(aggregateType)
+      || InvestmentBankTransaction.class.isAssignableFrom(aggregateType);
+  }
+
+  // Inherited.
+  public void aggregateStarted(Object aggregate, Object parent) {
+    if (aggregate instanceof StatementResponse && parent instanceof TransactionWrappedResponseMessage) {
+      //the transaction id and status precede the statement.
+      TransactionWrappedResponseMessage responseTransaction = (TransactionWrappedResponseMessage) parent;
+      if (!this.requestTransaction.getUID().equals(responseTransaction.getUID())) {
+        throw new StreamAbortedException(new OFXTransactionException("Response to an unknown transaction: " + responseTransaction.getUID() + "."));
+      }
+      validateStatus(responseTransaction);
+    }
+    else if ((aggregate instanceof TransactionList || aggregate instanceof InvestmentTransactionList) && parent instanceof StatementResponse) {
+      deliverHeader((StatementResponse) parent);
+    }
+  }
+
+  // Inherited.
+  public boolean aggregateEnded(Object aggregate, Object parent) {
+    if (aggregate instanceof SignonResponse) {
+      //the signon precedes the statement.
+      validateStatus((SignonResponse) aggregate);
+    }
+    else if (aggregate instanceof Transaction && parent instanceof TransactionList) {
+      this.listener.onTransaction((Transaction) aggregate);
+      return false;
+    }
+    else if (aggregate instanceof BaseInvestmentTransaction && parent instanceof InvestmentTransactionList) {
+      this.listener.onInvestmentTransaction((BaseInvestmentTransaction) aggregate);
+      return false;
+    }
+    else if (aggregate instanceof InvestmentBankTransaction && parent instanceof InvestmentTransactionList) {
+      this.listener.onInvestmentBankTransaction((InvestmentBankTransaction) aggregate);
+      return false;
+    }
+    else if (aggregate instanceof StatementResponse) {
+      StatementResponse statement = (StatementResponse) aggregate;
+      deliverHeader(statement);
+      this.listener.onBalances(statement);
+    }
+    return true;
+  }
+
+  private void deliverHeader(StatementResponse statement) {
+    if (!this.headerDelivered) {
+      this.headerDelivered = true;
+      this.listener.onHeader(statement);
+    }
+  }
+
+  private void validateStatus(StatusHolder statusHolder) {
+    try {
+      this.institution.validateStatus(statusHolder);
+    }
+    catch (OFXException e) {
+      throw new StreamAbortedException(e);
+    }
+  }
+
+  /**
+   * Aborts the parse of a response that failed validation.
+   */
+  private static class StreamAbortedException extends RuntimeException {
+
+    private final OFXException error;
+
+    private StreamAbortedException(OFXException error) {
+      super(error);
+      this.error = error;
+    }
+  }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+
+import java.net.URL;
+import java.util.concurrent.Future;
+
+/**
+ * Connection to an OFX interface that can send requests without blocking the caller.
+ *
+ * @author Ryan Heaton
+ */
+public interface AsyncOFXConnection extends OFXConnection {
+
+  /**
+   * Send a request asynchronously. Failures (including {@link OFXConnectionException}s) are reported through the
+   * returned future and the callback, never thrown.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param callback The callback to notify when the response is available (may be null).
+   * @return The future response.
+   */
+  Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback);
+
+}
@@ -0,0 +1,1085 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.client.net;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of keep-alive HTTP/1.1 connections, so that requests to the same host don't each pay for a TCP (and TLS)
+ * handshake. Connections are pooled per host (scheme, host and port) with a limit on the number of connections to each
+ * host; acquiring a connection to a host that's at its limit waits for one to be released. Connections that have been
+ * idle for longer than the maximum idle time are closed, either as connections are acquired or when
+ * {@link #evictIdleConnections()} is called. New TLS connections to a host resume the session of previous connections
+ * to it, as long as they're created by the same SSL socket factory. An idle connection is checked before it's reused,
+ * so that a connection the server has closed in the meantime is replaced by a new one.<br/><br/>
+ *
+ * Only direct connections are supported (i.e. no proxies or authentication): requests to a URL for which the default
+ * {@link ProxySelector} (which honors the http(s).proxyHost system properties) selects a proxy are to be sent some other
+ * way (see {@link #isDirect(URL)}). The pool is thread-safe.
+ *
+ * @author Ryan Heaton
+ */
+public class HttpConnectionPool {
+
+  public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+  public static final long DEFAULT_MAX_IDLE_TIME = 30000;
+  public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+  public static final int DEFAULT_READ_TIMEOUT = 120000;
+  public static final long DEFAULT_CONNECTION_REQUEST_TIMEOUT = 60000;
+
+  private static final Log LOG = LogFactory.getLog(HttpConnectionPool.class);
+  private static final int MAX_LINE_LENGTH = 8192;
+  private static final int MAX_DRAIN_LENGTH = 65536;
+
+  private final Map<String, Route> routes = new HashMap<String, Route>();
+  private final AtomicLong connectionsOpened = new AtomicLong();
+  private volatile boolean shutdown = false;
+  private int maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+  private long maxIdleTime = DEFAULT_MAX_IDLE_TIME;
+  private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+  private int readTimeout = DEFAULT_READ_TIMEOUT;
+  private long connectionRequestTimeout = DEFAULT_CONNECTION_REQUEST_TIMEOUT;
+  private boolean keepAlive = true;
+  private SSLSocketFactory sslSocketFactory;
+  private HostnameVerifier hostnameVerifier;
+
+  /**
+   * POST the specified entity to the specified URL. If writing the request to a reused connection fails before any of
+   * it has been flushed to the connection, the server has most likely closed the connection while it was idle, so the
+   * idle connections to the host are closed and the request is retried once on a new connection. Once any of the
+   * request has been flushed, the server may have acted on it, so the request isn't retried.
+   *
+   * @param url The URL.
+   * @param headers The request headers (other than Host, Content-Length and Connection).
+   * @param entity The request entity.
+   * @return The response. Its body must be closed to return the connection to the pool.
+   */
+  public HttpResponse post(URL url, Map<String, String> headers, RequestEntity entity) throws IOException {
+    Route route = getRoute(url);
+    boolean retried = false;
+    while (true) {
+      PooledConnection connection = acquire(route);
+      HttpResponse response;
+      try {
+        writeRequest(connection, url, headers, entity);
+        response = readResponse(connection);
+      }
+      catch (IOException e) {
+        release(connection, false);
+        if (connection.reused && !retried && !connection.socketOut.flushed && !(e instanceof InterruptedIOException)) {
+          LOG.debug(String.format("Reused connection to %s failed (%s); retrying on a new connection.", route, e.getMessage()));
+          closeIdleConnections(route);
+          retried = true;
+          continue;
+        }
+        throw e;
+      }
+      catch (RuntimeException e) {
+        release(connection, false);
+        throw e;
+      }
+      return response;
+    }
+  }
+
+  /**
+   * Whether requests to the specified URL go directly to the server, i.e. whether the default {@link ProxySelector}
+   * selects no proxy for it. The pool doesn't connect through proxies.
+   *
+   * @param url The URL.
+   * @return Whether requests to the specified URL go directly to the server.
+   */
+  public boolean isDirect(URL url) {
+    ProxySelector selector = ProxySelector.getDefault();
+    if (selector == null) {
+      return true;
+    }
+
+    List<Proxy> proxies;
+    try {
+      proxies = selector.select(url.toURI());
+    }
+    catch (URISyntaxException e) {
+      return false;
+    }
+    catch (IllegalArgumentException e) {
+      return false;
+    }
+    return proxies == null || proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+  }
+
+  /**
+   * Close the idle connections that have been idle for longer than the maximum idle time.
+   */
+  public void evictIdleConnections() {
+    for (Route route : getRoutes()) {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      synchronized (route) {
+        pollExpired(route, expired);
+      }
+      closeAll(expired);
+    }
+  }
+
+  /**
+   * Shut down the pool, closing the idle connections. Leased connections are closed when they're released.
+   */
+  public void shutdown() {
+    this.shutdown = true;
+    for (Route route : getRoutes()) {
+      closeIdleConnections(route);
+    }
+  }
+
+  /**
+   * The number of connections that have been opened by this pool.
+   *
+   * @return The number of connections that have been opened by this pool.
+   */
+  public long getConnectionsOpened() {
+    return this.connectionsOpened.get();
+  }
+
+  /**
+   * The number of idle connections in the pool.
+   *
+   * @return The number of idle connections in the pool.
+   */
+  public int getIdleConnectionCount() {
+    int count = 0;
+    for (Route route : getRoutes()) {
+      synchronized (route) {
+        count += route.idle.size();
+      }
+    }
+    return count;
+  }
+
+  private List<Route> getRoutes() {
+    synchronized (this.routes) {
+      return new ArrayList<Route>(this.routes.values());
+    }
+  }
+
+  private Route getRoute(URL url) {
+    String scheme = url.getProtocol().toLowerCase();
+    boolean secure = "https".equals(scheme);
+    if (!secure && !"http".equals(scheme)) {
+      throw new IllegalArgumentException("Invalid URL: " + url + " only http(s) is supported.");
+    }
+
+    String host = url.getHost();
+    if (host.startsWith("[") && host.endsWith("]")) {
+      host = host.substring(1, host.length() - 1);
+    }
+    int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+    String key = scheme + "://" + host + ":" + port;
+    synchronized (this.routes) {
+      Route route = this.routes.get(key);
+      if (route == null) {
+        route = new Route(key, host, port, secure, getMaxConnectionsPerHost());
+        this.routes.put(key, route);
+      }
+      return route;
+    }
+  }
+
+  /**
+   * Acquire a connection to the specified host, waiting for one to be released if the host is at its limit.
+   *
+   * @param route The host.
+   * @return The connection.
+   */
+  private PooledConnection acquire(Route route) throws IOException {
+    if (this.shutdown) {
+      throw new IOException("The connection pool has been shut down.");
+    }
+
+    try {
+      if (!route.permits.tryAcquire(getConnectionRequestTimeout(), TimeUnit.MILLISECONDS)) {
+        throw new IOException(String.format("Timed out waiting for a connection to %s.", route));
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(String.format("Interrupted while waiting for a connection to %s.", route));
+    }
+
+    try {
+      List<PooledConnection> expired = new ArrayList<PooledConnection>();
+      while (true) {
+        PooledConnection connection;
+        synchronized (route) {
+          pollExpired(route, expired);
+          connection = route.idle.pollLast();
+        }
+        closeAll(expired);
+        expired.clear();
+
+        if (connection == null) {
+          return connect(route);
+        }
+        else if (connection.isStale()) {
+          LOG.debug(String.format("Idle connection to %s was closed by the server.", route));
+          connection.close();
+        }
+        else {
+          connection.reused = true;
+          return connection;
+        }
+      }
+    }
+    catch (IOException e) {
+      route.permits.release();
+      throw e;
+    }
+    catch (RuntimeException e) {
+      route.permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Release a connection, returning it to the pool if it's reusable.
+   *
+   * @param connection The connection.
+   * @param reusable Whether the connection can be reused.
+   */
+  private void release(PooledConnection connection, boolean reusable) {
+    Route route = connection.route;
+    try {
+      if (reusable && isKeepAlive() && !this.shutdown) {
+        connection.lastUsed = System.currentTimeMillis();
+        synchronized (route) {
+          route.idle.addLast(connection);
+        }
+      }
+      else {
+        connection.close();
+      }
+    }
+    finally {
+      route.permits.release();
+    }
+  }
+
+  private void pollExpired(Route route, List<PooledConnection> expired) {
+    //the idle connections are in the order they were released, so the expired ones are at the head.
+    long expiry = System.currentTimeMillis() - getMaxIdleTime();
+    while (!route.idle.isEmpty() && route.idle.peekFirst().lastUsed < expiry) {
+      expired.add(route.idle.pollFirst());
+    }
+  }
+
+  private void closeIdleConnections(Route route) {
+    List<PooledConnection> idle;
+    synchronized (route) {
+      idle = new ArrayList<PooledConnection>(route.idle);
+      route.idle.clear();
+    }
+    closeAll(idle);
+  }
+
+  private static void closeAll(List<PooledConnection> connections) {
+    for (PooledConnection connection : connections) {
+      connection.close();
+    }
+  }
+
+  /**
+   * Open a new connection to the specified host.
+   *
+   * @param route The host.
+   * @return The connection.
+   */
+  protected PooledConnection connect(Route route) throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      socket.connect(new InetSocketAddress(route.host, route.port), getConnectTimeout());
+      socket.setSoTimeout(getReadTimeout());
+      if (route.secure) {
+        socket = startTLS(socket, route);
+      }
+    }
+    catch (IOException e) {
+      try {
+        socket.close();
+      }
+      catch (IOException ce) {
+        //fall through.
+      }
+      throw e;
+    }
+
+    this.connectionsOpened.incrementAndGet();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Opened a new connection to " + route);
+    }
+    return new PooledConnection(route, socket);
+  }
+
+  /**
+   * Layer TLS over the specified socket, verifying the host name of the server.
+   *
+   * @param socket The (connected) socket.
+   * @param route The host.
+   * @return The TLS socket.
+   */
+  protected Socket startTLS(Socket socket, Route route) throws IOException {
+    SSLSocketFactory factory = getSslSocketFactory();
+    if (factory == null) {
+      factory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+    }
+
+    SSLSocket sslSocket = (SSLSocket) factory.createSocket(socket, route.host, route.port, true);
+    HostnameVerifier verifier = getHostnameVerifier();
+    if (verifier == null && !enableEndpointIdentification(sslSocket)) {
+      sslSocket.close();
+      throw new SSLPeerUnverifiedException("Unable to verify the host name of " + route + ": no hostname verifier is configured.");
+    }
+
+    sslSocket.startHandshake();
+    if (verifier != null && !verifier.verify(route.host, sslSocket.getSession())) {
+      sslSocket.close();
+      throw new SSLPeerUnverifiedException("The certificate of " + route + " doesn't match its host name.");
+    }
+    return sslSocket;
+  }
+
+  /**
+   * Have the TLS handshake verify the host name of the server against its certificate.
+   *
+   * @param socket The TLS socket.
+   * @return Whether host name verification was enabled.
+   */
+  private static boolean enableEndpointIdentification(SSLSocket socket) {
+    SSLParameters parameters = socket.getSSLParameters();
+    try {
+      //SSLParameters.setEndpointIdentificationAlgorithm is only available as of Java 7.
+      SSLParameters.class.getMethod("setEndpointIdentificationAlgorithm", String.class).invoke(parameters, "HTTPS");
+    }
+    catch (Exception e) {
+      return false;
+    }
+    socket.setSSLParameters(parameters);
+    return true;
+  }
+
+  private void writeRequest(PooledConnection connection, URL url, Map<String, String> headers, RequestEntity entity) throws IOException {
+    String path = url.getFile();
+    if (path == null || path.length() == 0) {
+      path = "/";
+    }
+
+    long contentLength = entity.getContentLength();
+    StringBuilder head = new StringBuilder(256);
+    head.append("POST ").append(path).append(" HTTP/1.1\r\n");
+    head.append("Host: ").append(url.getHost());
+    if (url.getPort() >= 0 && url.getPort() != url.getDefaultPort()) {
+      head.append(':').append(url.getPort());
+    }
+    head.append("\r\n");
+    if (headers != null) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+      }
+    }
+    head.append("Content-Length: ").append(contentLength).append("\r\n");
+    if (!isKeepAlive()) {
+      head.append("Connection: close\r\n");
+    }
+    head.append("\r\n");
+
+    OutputStream out = connection.out;
+    connection.socketOut.flushed = false;
+    out.write(head.toString().getBytes("ISO-8859-1"));
+    EntityOutputStream entityOut = new EntityOutputStream(out);
+    entity.writeTo(entityOut);
+    if (entityOut.count != contentLength) {
+      throw new IOException(String.format("Request entity was %s bytes, but its content length is %s.", entityOut.count, contentLength));
+    }
+    out.flush();
+  }
+
+  private HttpResponse readResponse(PooledConnection connection) throws IOException {
+    InputStream in = connection.in;
+    String statusLine;
+    int statusCode;
+    Map<String, String> headers;
+    do {
+      statusLine = readLine(in);
+      if (statusLine == null) {
+        throw new EOFException("The connection was closed before the response was received.");
+      }
+
+      int codeStart = statusLine.indexOf(' ');
+      if (!statusLine.startsWith("HTTP/") || codeStart < 0 || statusLine.length() < codeStart + 4) {
+        throw new IOException("Invalid HTTP status line: " + statusLine);
+      }
+      try {
+        statusCode = Integer.parseInt(statusLine.substring(codeStart + 1, codeStart + 4));
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("Invalid HTTP status line: " + statusLine);
+      }
+      headers = readHeaders(in);
+    }
+    //skip interim responses (e.g. "100 Continue").
+    while (statusCode >= 100 && statusCode < 200);
+
+    String reasonPhrase = statusLine.length() > 13 ? statusLine.substring(13).trim() : "";
+    String connectionHeader = headers.get("connection");
+    boolean reusable = statusLine.startsWith("HTTP/1.1")
+      ? !"close".equalsIgnoreCase(connectionHeader)
+      : "keep-alive".equalsIgnoreCase(connectionHeader);
+
+    InputStream body;
+    String transferEncoding = headers.get("transfer-encoding");
+    String contentLength = headers.get("content-length");
+    if (statusCode == 204 || statusCode == 304) {
+      body = new ContentLengthInputStream(in, 0);
+    }
+    else if (transferEncoding != null && !"identity".equalsIgnoreCase(transferEncoding)) {
+      if (!transferEncoding.toLowerCase().endsWith("chunked")) {
+        throw new IOException("Unsupported transfer encoding: " + transferEncoding);
+      }
+      body = new ChunkedInputStream(in);
+    }
+    else if (contentLength != null) {
+      try {
+        body = new ContentLengthInputStream(in, Long.parseLong(contentLength.trim()));
+      }
+      catch (NumberFormatException e) {
+        throw new IOException("Invalid content length: " + contentLength);
+      }
+    }
+    else {
+      //the body is delimited by the end of the connection.
+      body = in;
+      reusable = false;
+    }
+
+    return new HttpResponse(statusCode, reasonPhrase, headers, new ResponseBody(body, connection, reusable));
+  }
+
+  private static Map<String, String> readHeaders(InputStream in) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    String line;
+    while ((line = readLine(in)) != null && line.length() > 0) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        String name = line.substring(0, colon).trim().toLowerCase();
+        String value = line.substring(colon + 1).trim();
+        String previous = headers.get(name);
+        headers.put(name, previous == null ? value : previous + ", " + value);
+      }
+    }
+
+    if (line == null) {
+      throw new EOFException("The connection was closed in the middle of the response headers.");
+    }
+    return headers;
+  }
+
+  /**
+   * Read a CRLF- (or LF-) terminated line.
+   *
+   * @param in The stream.
+   * @return The line, or null if the stream ended before any character was read.
+   */
+  private static String readLine(InputStream in) throws IOException {
+    StringBuilder line = new StringBuilder(64);
+    int ch;
+    while ((ch = in.read()) >= 0) {
+      if (ch == '\n') {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') {
+          line.setLength(length - 1);
+        }
+        return line.toString();
+      }
+
+      if (line.length() >= MAX_LINE_LENGTH) {
+        throw new IOException("HTTP response line too long.");
+      }
+      line.append((char) ch);
+    }
+
+    if (line.length() > 0) {
+      throw new EOFException("The connection was closed in the middle of a line.");
+    }
+    return null;
+  }
+
+  /**
+   * The maximum number of connections to each host. Changes only apply to hosts that haven't been connected to yet.
+   *
+   * @return The maximum number of connections to each host.
+   */
+  public int getMaxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
+
+  /**
+   * The maximum number of connections to each host. Changes only apply to hosts that haven't been connected to yet.
+   *
+   * @param maxConnectionsPerHost The maximum number of connections to each host.
+   */
+  public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+    if (maxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("The maximum number of connections per host must be positive.");
+    }
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+  }
+
+  /**
+   * The time (in milliseconds) after which an idle connection is closed.
+   *
+   * @return The time after which an idle connection is closed.
+   */
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  /**
+   * The time (in milliseconds) after which an idle connection is closed.
+   *
+   * @param maxIdleTime The time after which an idle connection is closed.
+   */
+  public void setMaxIdleTime(long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  /**
+   * The connect timeout (in milliseconds, 0 for none).
+   *
+   * @return The connect timeout.
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * The connect timeout (in milliseconds, 0 for none).
+   *
+   * @param connectTimeout The connect timeout.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * The read timeout (in milliseconds, 0 for none). Applies to new connections.
+   *
+   * @return The read timeout.
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * The read timeout (in milliseconds, 0 for none). Applies to new connections.
+   *
+   * @param readTimeout The read timeout.
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * The time (in milliseconds) to wait for a connection to a host that's at its limit.
+   *
+   * @return The time to wait for a connection to a host that's at its limit.
+   */
+  public long getConnectionRequestTimeout() {
+    return connectionRequestTimeout;
+  }
+
+  /**
+   * The time (in milliseconds) to wait for a connection to a host that's at its limit.
+   *
+   * @param connectionRequestTimeout The time to wait for a connection to a host that's at its limit.
+   */
+  public void setConnectionRequestTimeout(long connectionRequestTimeout) {
+    this.connectionRequestTimeout = connectionRequestTimeout;
+  }
+
+  /**
+   * Whether connections are kept alive (default). If not, each request asks the server to close its connection.
+   *
+   * @return Whether connections are kept alive.
+   */
+  public boolean isKeepAlive() {
+    return keepAlive;
+  }
+
+  /**
+   * Whether connections are kept alive (default). If not, each request asks the server to close its connection.
+   *
+   * @param keepAlive Whether connections are kept alive.
+   */
+  public void setKeepAlive(boolean keepAlive) {
+    this.keepAlive = keepAlive;
+  }
+
+  /**
+   * The factory for TLS connections (default: the default SSL socket factory).
+   *
+   * @return The factory for TLS connections.
+   */
+  public SSLSocketFactory getSslSocketFactory() {
+    return sslSocketFactory;
+  }
+
+  /**
+   * The factory for TLS connections (default: the default SSL socket factory).
+   *
+   * @param sslSocketFactory The factory for TLS connections.
+   */
+  public void setSslSocketFactory(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+  }
+
+  /**
+   * The verifier of the host names of TLS connections (default: the host name is verified during the handshake).
+   *
+   * @return The verifier of the host names of TLS connections.
+   */
+  public HostnameVerifier getHostnameVerifier() {
+    return hostnameVerifier;
+  }
+
+  /**
+   * The verifier of the host names of TLS connections (default: the host name is verified during the handshake).
+   *
+   * @param hostnameVerifier The verifier of the host names of TLS connections.
+   */
+  public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
+    this.hostnameVerifier = hostnameVerifier;
+  }
+
+  /**
+   * An entity to be sent in a request, of a known length. Entities must be repeatable, since a request on a stale
+   * connection is retried.
+   */
+  public interface RequestEntity {
+
+    /**
+     * The length of the entity.
+     *
+     * @return The length of the entity.
+     */
+    long getContentLength();
+
+    /**
+     * Write the entity. The stream ignores attempts to close it.
+     *
+     * @param out The stream.
+     */
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  /**
+   * A host (scheme, host and port), with its idle connections and the permits for new leases.
+   */
+  protected static final class Route {
+
+    private final String key;
+    private final String host;
+    private final int port;
+    private final boolean secure;
+    private final Semaphore permits;
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+    private Route(String key, String host, int port, boolean secure, int maxConnections) {
+      this.key = key;
+      this.host = host;
+      this.port = port;
+      this.secure = secure;
+      this.permits = new Semaphore(maxConnections, true);
+    }
+
+    public String getHost() {
+      return host;
+    }
+
+    public int getPort() {
+      return port;
+    }
+
+    public boolean isSecure() {
+      return secure;
+    }
+
+    @Override
+    public String toString() {
+      return this.key;
+    }
+  }
+
+  /**
+   * A pooled connection.
+   */
+  protected static final class PooledConnection {
+
+    private final Route route;
+    private final Socket socket;
+    private final InputStream in;
+    private final SocketOutputStream socketOut;
+    private final OutputStream out;
+    private long lastUsed;
+    private boolean reused = false;
+
+    public PooledConnection(Route route, Socket socket) throws IOException {
+      this.route = route;
+      this.socket = socket;
+      this.in = new BufferedInputStream(socket.getInputStream(), 8192);
+      this.socketOut = new SocketOutputStream(socket.getOutputStream());
+      this.out = new BufferedOutputStream(this.socketOut, 8192);
+    }
+
+    /**
+     * Whether the (idle) connection is no longer usable, i.e. the server has closed it or has sent something unexpected.
+     * Waits at most a millisecond for the server.
+     *
+     * @return Whether the connection is no longer usable.
+     */
+    private boolean isStale() {
+      try {
+        if (this.in.available() > 0) {
+          return true;
+        }
+
+        int timeout = this.socket.getSoTimeout();
+        this.socket.setSoTimeout(1);
+        try {
+          return this.in.read() >= -1;
+        }
+        catch (SocketTimeoutException e) {
+          //nothing to read: the connection is still open.
+          return false;
+        }
+        finally {
+          this.socket.setSoTimeout(timeout);
+        }
+      }
+      catch (IOException e) {
+        return true;
+      }
+    }
+
+    private void close() {
+      try {
+        this.socket.close();
+      }
+      catch (IOException e) {
+        //fall through.
+      }
+    }
+  }
+
+  /**
+   * The body of a response, which releases its connection when it's closed.
+   */
+  private class ResponseBody extends FilterInputStream {
+
+    private final PooledConnection connection;
+    private boolean reusable;
+    private boolean released = false;
+
+    private ResponseBody(InputStream in, PooledConnection connection, boolean reusable) {
+      super(in);
+      this.connection = connection;
+      this.reusable = reusable;
+    }
+
+    @Override
+    public int read() throws IOException {
+      try {
+        return super.read();
+      }
+      catch (IOException e) {
+        this.reusable = false;
+        throw e;
+      }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      try {
+        return super.read(b, off, len);
+      }
+      catch (IOException e) {
+        this.reusable = false;
+        throw e;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (this.released) {
+        return;
+      }
+      this.released = true;
+
+      boolean reusable = this.reusable;
+      if (reusable) {
+        //the rest of the body has to be read before the connection can be reused.
+        try {
+          byte[] buffer = new byte[4096];
+          long drained = 0;
+          int len;
+          while ((len = this.in.read(buffer)) >= 0) {
+            drained += len;
+            if (drained > MAX_DRAIN_LENGTH) {
+              reusable = false;
+              break;
+            }
+          }
+        }
+        catch (IOException e) {
+          reusable = false;
+        }
+      }
+      release(this.connection, reusable);
+    }
+  }
+
+  /**
+   * A body delimited by a content length.
+   */
+  private static class ContentLengthInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    private ContentLengthInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+
+      int b = this.in.read();
+      if (b < 0) {
+        throw new EOFException("The connection was closed before the end of the response.");
+      }
+      this.remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      }
+
+      int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+      if (read < 0) {
+        throw new EOFException("The connection was closed before the end of the response.");
+      }
+      this.remaining -= read;
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(this.in.available(), this.remaining);
+    }
+
+    @Override
+    public void close() {
+      //the connection is closed (or released) by the response body.
+    }
+  }
+
+  /**
+   * A body in the chunked transfer encoding.
+   */
+  private static class ChunkedInputStream extends FilterInputStream {
+
+    private long remaining = 0;
+    private boolean eof = false;
+
+    private ChunkedInputStream(InputStream in) {
+      super(in);
+    }
+
+    private boolean nextChunk() throws IOException {
+      if (this.eof) {
+        return false;
+      }
+
+      if (this.remaining == 0) {
+        String line = readLine(this.in);
+        if (line == null) {
+          throw new EOFException("The connection was closed before the end of the response.");
+        }
+        int extension = line.indexOf(';');
+        String size = (extension < 0 ? line : line.substring(0, extension)).trim();
+        try {
+          this.remaining = Long.parseLong(size, 16);
+        }
+        catch (NumberFormatException e) {
+          throw new IOException("Invalid chunk size: " + line);
+        }
+
+        if (this.remaining == 0) {
+          //the last chunk is followed by the (ignored) trailers.
+          readHeaders(this.in);
+          this.eof = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void chunkRead(long read) throws IOException {
+      this.remaining -= read;
+      if (this.remaining == 0 && readLine(this.in) == null) {
+        throw new EOFException("The connection was closed before the end of the response.");
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+
+      int b = this.in.read();
+      if (b < 0) {
+        throw new EOFException("The connection was closed before the end of the response.");
+      }
+      chunkRead(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (!nextChunk()) {
+        return -1;
+      }
+
+      int read = this.in.read(b, off, (int) Math.min(len, this.remaining));
+      if (read < 0) {
+        throw new EOFException("The connection was closed before the end of the response.");
+      }
+      chunkRead(read);
+      return read;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return this.eof ? 0 : (int) Math.min(this.in.available(), this.remaining);
+    }
+
+    @Override
+    public void close() {
+      //the connection is closed (or released) by the response body.
+    }
+  }
+
+  /**
+   * The stream to the socket of a connection, which keeps track of whether anything has been flushed to the socket.
+   */
+  private static class SocketOutputStream extends FilterOutputStream {
+
+    private boolean flushed = false;
+
+    private SocketOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.flushed = true;
+      this.out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.flushed = true;
+      this.out.write(b, off, len);
+    }
+  }
+
+  /**
+   * The stream an entity is written to, which counts the bytes and ignores attempts to close it.
+   */
+  private static class EntityOutputStream extends FilterOutputStream {
+
+    private long count = 0;
+
+    private EntityOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      this.out.write(b);
+      this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      this.out.write(b, off, len);
+      this.count += len;
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.client.net;
+
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * A response read from a connection of an {@link HttpConnectionPool}. The body must be closed when it's no longer
+ * needed, which returns the connection to the pool (once the rest of the body has been read).
+ *
+ * @author Ryan Heaton
+ */
+public class HttpResponse {
+
+  private final int statusCode;
+  private final String reasonPhrase;
+  private final Map<String, String> headers;
+  private final InputStream body;
+
+  public HttpResponse(int statusCode, String reasonPhrase, Map<String, String> headers, InputStream body) {
+    this.statusCode = statusCode;
+    this.reasonPhrase = reasonPhrase;
+    this.headers = headers;
+    this.body = body;
+  }
+
+  /**
+   * The status code.
+   *
+   * @return The status code.
+   */
+  public int getStatusCode() {
+    return statusCode;
+  }
+
+  /**
+   * The reason phrase of the status line.
+   *
+   * @return The reason phrase of the status line.
+   */
+  public String getReasonPhrase() {
+    return reasonPhrase;
+  }
+
+  /**
+   * Get the value of a header.
+   *
+   * @param name The name of the header (case-insensitive).
+   * @return The value of the header, or null if the header wasn't sent.
+   */
+  public String getHeader(String name) {
+    return this.headers.get(name.toLowerCase());
+  }
+
+  /**
+   * The headers, by lower-case name.
+   *
+   * @return The headers.
+   */
+  public Map<String, String> getHeaders() {
+    return headers;
+  }
+
+  /**
+   * The body.
+   *
+   * @return The body.
+   */
+  public InputStream getBody() {
+    return body;
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+/**
+ * Callback notified when an asynchronous OFX operation completes. The callback is invoked on the thread that completed
+ * the operation (e.g. a thread of the executor the last stage ran on), so it shouldn't block.
+ *
+ * @author Ryan Heaton
+ */
+public interface OFXCallback<T> {
+
+  /**
+   * Notification that the operation completed successfully.
+   *
+   * @param result The result of the operation.
+   */
+  void completed(T result);
+
+  /**
+   * Notification that the operation failed or was cancelled.
+   *
+   * @param error The error (a {@link java.util.concurrent.CancellationException} if the operation was cancelled).
+   */
+  void failed(Throwable error);
+}
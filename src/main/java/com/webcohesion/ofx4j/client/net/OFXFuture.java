@@ -0,0 +1,149 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The future result of an asynchronous OFX operation. The future is completed explicitly by the last stage of the
+ * operation, and notifies its (optional) callback when it's done. Cancelling the future cancels the futures of the
+ * underlying operations it {@link #propagateCancellation(Future) propagates its cancellation to}.
+ *
+ * @author Ryan Heaton
+ */
+public class OFXFuture<T> extends FutureTask<T> {
+
+  private final OFXCallback<T> callback;
+  private final List<Future<?>> dependencies = new ArrayList<Future<?>>();
+  private boolean cancelled = false;
+  private boolean mayInterruptIfRunning = false;
+
+  public OFXFuture(OFXCallback<T> callback) {
+    super(new Callable<T>() {
+      public T call() throws Exception {
+        throw new IllegalStateException("An OFX future is completed explicitly.");
+      }
+    });
+    this.callback = callback;
+  }
+
+  /**
+   * Complete this future with the specified result. Has no effect if this future is already done.
+   *
+   * @param result The result.
+   */
+  public void complete(T result) {
+    set(result);
+  }
+
+  /**
+   * Complete this future with the specified error. Has no effect if this future is already done.
+   *
+   * @param error The error.
+   */
+  public void fail(Throwable error) {
+    setException(error);
+  }
+
+  /**
+   * Cancel the specified future (of an underlying operation) when this future is cancelled. If this future is already
+   * cancelled, the specified future is cancelled right away.
+   *
+   * @param dependency The future to cancel with this future.
+   */
+  public void propagateCancellation(Future<?> dependency) {
+    boolean cancelNow;
+    boolean interrupt;
+    synchronized (this.dependencies) {
+      cancelNow = this.cancelled;
+      interrupt = this.mayInterruptIfRunning;
+      if (!cancelNow && !isDone()) {
+        this.dependencies.add(dependency);
+      }
+    }
+
+    if (cancelNow) {
+      dependency.cancel(interrupt);
+    }
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    if (!super.cancel(mayInterruptIfRunning)) {
+      return false;
+    }
+
+    List<Future<?>> dependencies;
+    synchronized (this.dependencies) {
+      this.cancelled = true;
+      this.mayInterruptIfRunning = mayInterruptIfRunning;
+      dependencies = new ArrayList<Future<?>>(this.dependencies);
+      this.dependencies.clear();
+    }
+
+    for (Future<?> dependency : dependencies) {
+      dependency.cancel(mayInterruptIfRunning);
+    }
+    return true;
+  }
+
+  /**
+   * An OFX future is completed explicitly; running it has no effect.
+   */
+  @Override
+  public void run() {
+  }
+
+  @Override
+  protected void done() {
+    if (!isCancelled()) {
+      //completed: nothing left to cancel.
+      synchronized (this.dependencies) {
+        this.dependencies.clear();
+      }
+    }
+
+    if (this.callback != null) {
+      T result;
+      try {
+        result = get();
+      }
+      catch (CancellationException e) {
+        this.callback.failed(e);
+        return;
+      }
+      catch (ExecutionException e) {
+        this.callback.failed(e.getCause());
+        return;
+      }
+      catch (InterruptedException e) {
+        //can't happen; the future is done.
+        Thread.currentThread().interrupt();
+        this.callback.failed(e);
+        return;
+      }
+
+      this.callback.completed(result);
+    }
+  }
+}
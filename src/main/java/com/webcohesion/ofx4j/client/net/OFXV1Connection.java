@@ -18,15 +18,25 @@ package com.webcohesion.ofx4j.client.net;
 
 import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
 import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateListener;
 import com.webcohesion.ofx4j.io.OFXParseException;
 import com.webcohesion.ofx4j.io.OFXWriter;
 import com.webcohesion.ofx4j.io.AggregateMarshaller;
-import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
 import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
 
 import java.io.*;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -36,34 +46,213 @@ import org.apache.commons.logging.LogFactory;
  *
  * @author Ryan Heaton
  */
-public class OFXV1Connection implements OFXConnection {
+public class OFXV1Connection implements AsyncOFXConnection, StreamingOFXConnection {
 
   private static final Log LOG = LogFactory.getLog(OFXV1Connection.class);
 
+  public static final int DEFAULT_IO_THREADS = 8;
+
   private AggregateMarshaller marshaller = new AggregateMarshaller();
   private AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+  private RequestBufferPool bufferPool = new RequestBufferPool();
+  private boolean twoPassMarshal = false;
+  private HttpConnectionPool connectionPool;
+  private Executor marshalExecutor;
+  private Executor ioExecutor;
+  private boolean defaultIoExecutor = false;
+  private Executor parseExecutor;
 
   // Inherited.
   public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+    return sendRequest(request, url, null);
+  }
+
+  // Inherited.
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
     try {
       if (!url.getProtocol().toLowerCase().startsWith("http")) {
         throw new IllegalArgumentException("Invalid URL: " + url + " only http(s) is supported.");
       }
 
-      //marshal to memory so we can determine the size...
-      ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
-      OFXWriter ofxWriter = newOFXWriter(outBuffer);
-      getMarshaller().marshal(request, ofxWriter);
-      ofxWriter.close();
-      logRequest(outBuffer);
-      InputStream in = sendBuffer(url, outBuffer);
-      return unmarshal(in);
+      InputStream in;
+      if (isTwoPassMarshal()) {
+        in = sendStreaming(url, request);
+      }
+      else {
+        //marshal to memory so we can determine the size...
+        RequestBuffer outBuffer = getBufferPool().acquire();
+        try {
+          OFXWriter ofxWriter = newOFXWriter(outBuffer);
+          getMarshaller().marshal(request, ofxWriter);
+          ofxWriter.close();
+          logRequest(outBuffer);
+          in = sendBuffer(url, outBuffer);
+        }
+        finally {
+          getBufferPool().release(outBuffer);
+        }
+      }
+      try {
+        return listener == null ? unmarshal(in) : unmarshal(in, listener);
+      }
+      finally {
+        //releases the connection (for reuse, if the response was read to the end).
+        in.close();
+      }
     }
     catch (IOException e) {
       throw new OFXConnectionException(e);
     }
   }
 
+  /**
+   * Send a request asynchronously. The request goes through three stages: it's marshalled on the
+   * {@link #getMarshalExecutor() marshal executor}, sent (and its response read into memory) on the
+   * {@link #getIoExecutor() I/O executor}, then unmarshalled on the {@link #getParseExecutor() parse executor}. The I/O
+   * is blocking: each request in flight holds a thread of the I/O executor for the whole exchange, so the size of the
+   * I/O executor bounds the number of requests in flight and the other requests wait in its queue. Cancelling the
+   * returned future skips the stages that haven't started; an exchange already in progress runs to its end, but its
+   * response is discarded.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param callback The callback to notify when the response is available (may be null).
+   * @return The future response.
+   */
+  public Future<ResponseEnvelope> sendRequestAsync(final RequestEnvelope request, final URL url, OFXCallback<ResponseEnvelope> callback) {
+    final OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+    if (!url.getProtocol().toLowerCase().startsWith("http")) {
+      future.fail(new IllegalArgumentException("Invalid URL: " + url + " only http(s) is supported."));
+      return future;
+    }
+
+    execute(getMarshalExecutor(), future, new Stage() {
+      public void run() throws Exception {
+        final RequestBuffer outBuffer;
+        if (isTwoPassMarshal()) {
+          //the request is marshalled on the I/O stage.
+          outBuffer = null;
+        }
+        else {
+          outBuffer = getBufferPool().acquire();
+          boolean marshalled = false;
+          try {
+            OFXWriter ofxWriter = newOFXWriter(outBuffer);
+            getMarshaller().marshal(request, ofxWriter);
+            ofxWriter.close();
+            logRequest(outBuffer);
+            marshalled = true;
+          }
+          finally {
+            if (!marshalled) {
+              getBufferPool().release(outBuffer);
+            }
+          }
+        }
+
+        execute(getIoExecutor(), future, new Stage() {
+          public void run() throws Exception {
+            final byte[] response;
+            try {
+              response = readResponse(outBuffer == null ? sendStreaming(url, request) : sendBuffer(url, outBuffer));
+            }
+            finally {
+              release(outBuffer);
+            }
+
+            execute(getParseExecutor(), future, new Stage() {
+              public void run() throws Exception {
+                future.complete(unmarshal(new ByteArrayInputStream(response)));
+              }
+            });
+          }
+
+          @Override
+          void skipped() {
+            //cancelled or rejected: the buffer won't be sent.
+            release(outBuffer);
+          }
+        });
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Release a request buffer to the pool.
+   *
+   * @param outBuffer The buffer, or null if the request wasn't buffered.
+   */
+  private void release(RequestBuffer outBuffer) {
+    if (outBuffer != null) {
+      getBufferPool().release(outBuffer);
+    }
+  }
+
+  /**
+   * Run a stage of an asynchronous request on the specified executor, failing the future if the stage fails. A stage
+   * that isn't run (because the request is cancelled or the executor rejects it) is notified that it's skipped.
+   *
+   * @param executor The executor, or null to run the stage on the current thread.
+   * @param future The future of the request.
+   * @param stage The stage.
+   */
+  private void execute(Executor executor, final OFXFuture<?> future, final Stage stage) {
+    Runnable task = new Runnable() {
+      public void run() {
+        if (future.isDone()) {
+          //cancelled.
+          stage.skipped();
+          return;
+        }
+
+        try {
+          stage.run();
+        }
+        catch (IOException e) {
+          future.fail(new OFXConnectionException(e));
+        }
+        catch (Throwable e) {
+          future.fail(e);
+        }
+      }
+    };
+
+    if (executor == null) {
+      task.run();
+    }
+    else {
+      try {
+        executor.execute(task);
+      }
+      catch (RejectedExecutionException e) {
+        stage.skipped();
+        future.fail(new OFXConnectionException("Unable to schedule the request.", e));
+      }
+    }
+  }
+
+  /**
+   * Read the specified response stream into memory, so it can be unmarshalled off the I/O thread.
+   *
+   * @param in The response stream.
+   * @return The bytes of the response.
+   */
+  protected byte[] readResponse(InputStream in) throws IOException {
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int len;
+      while ((len = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, len);
+      }
+      return out.toByteArray();
+    }
+    finally {
+      in.close();
+    }
+  }
+
   /**
    * Log a request buffer.
    *
@@ -85,7 +274,19 @@ public class OFXV1Connection implements OFXConnection {
    * @param outBuffer The buffer.
    * @return The response.
    */
-  protected InputStream sendBuffer(URL url, ByteArrayOutputStream outBuffer) throws IOException, OFXConnectionException {
+  protected InputStream sendBuffer(URL url, final ByteArrayOutputStream outBuffer) throws IOException, OFXConnectionException {
+    if (getConnectionPool() != null && getConnectionPool().isDirect(url)) {
+      return getResponseStream(getConnectionPool().post(url, getRequestHeaders(), new HttpConnectionPool.RequestEntity() {
+        public long getContentLength() {
+          return outBuffer.size();
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+          outBuffer.writeTo(out);
+        }
+      }));
+    }
+
     HttpURLConnection connection = openConnection(url);
     connection.setRequestMethod("POST");
     connection.setRequestProperty("Content-Type", "application/x-ofx");
@@ -95,8 +296,84 @@ public class OFXV1Connection implements OFXConnection {
     connection.connect();
 
     OutputStream out  = connection.getOutputStream();
-    out.write(outBuffer.toByteArray());
+    outBuffer.writeTo(out);
 
+    return getResponseStream(connection);
+  }
+
+  /**
+   * Send the specified request to the specified URL without buffering it: the request is marshalled once to compute
+   * its size, then marshalled again straight to the connection in fixed-length streaming mode. If debug logging is
+   * enabled, the first pass is buffered so that the request can be logged.
+   *
+   * @param url The URL.
+   * @param request The request.
+   * @return The response.
+   */
+  protected InputStream sendStreaming(URL url, final RequestEnvelope request) throws IOException, OFXConnectionException {
+    final int length;
+    OFXWriter ofxWriter;
+    if (LOG.isDebugEnabled()) {
+      RequestBuffer logBuffer = getBufferPool().acquire();
+      try {
+        ofxWriter = newOFXWriter(logBuffer);
+        getMarshaller().marshal(request, ofxWriter);
+        ofxWriter.close();
+        logRequest(logBuffer);
+        length = logBuffer.size();
+      }
+      finally {
+        getBufferPool().release(logBuffer);
+      }
+    }
+    else {
+      CountingOutputStream counter = new CountingOutputStream();
+      ofxWriter = newOFXWriter(counter);
+      getMarshaller().marshal(request, ofxWriter);
+      ofxWriter.close();
+      length = counter.count;
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Marshalling " + length + " bytes of the OFX request.");
+      }
+    }
+
+    if (getConnectionPool() != null && getConnectionPool().isDirect(url)) {
+      return getResponseStream(getConnectionPool().post(url, getRequestHeaders(), new HttpConnectionPool.RequestEntity() {
+        public long getContentLength() {
+          return length;
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+          OFXWriter ofxWriter = newOFXWriter(out);
+          getMarshaller().marshal(request, ofxWriter);
+          ofxWriter.close();
+        }
+      }));
+    }
+
+    HttpURLConnection connection = openConnection(url);
+    connection.setRequestMethod("POST");
+    connection.setRequestProperty("Content-Type", "application/x-ofx");
+    connection.setRequestProperty("Accept", "*/*, application/x-ofx");
+    connection.setFixedLengthStreamingMode(length);
+    connection.setDoOutput(true);
+    connection.connect();
+
+    OutputStream out = connection.getOutputStream();
+    ofxWriter = newOFXWriter(out);
+    getMarshaller().marshal(request, ofxWriter);
+    ofxWriter.close();
+
+    return getResponseStream(connection);
+  }
+
+  /**
+   * Get the response stream of the specified connection, checking the response code.
+   *
+   * @param connection The connection.
+   * @return The response stream.
+   */
+  protected InputStream getResponseStream(HttpURLConnection connection) throws IOException, OFXConnectionException {
     InputStream in;
     int responseCode = connection.getResponseCode();
     if (responseCode >= 200 && responseCode < 300) {
@@ -112,6 +389,39 @@ public class OFXV1Connection implements OFXConnection {
     return in;
   }
 
+  /**
+   * Get the body of the specified pooled response, checking the response code.
+   *
+   * @param response The response.
+   * @return The body of the response.
+   */
+  protected InputStream getResponseStream(HttpResponse response) throws IOException, OFXConnectionException {
+    int responseCode = response.getStatusCode();
+    if (responseCode >= 200 && responseCode < 300) {
+      return response.getBody();
+    }
+
+    response.getBody().close();
+    if (responseCode >= 400 && responseCode < 500) {
+      throw new OFXServerException("Error with client request: " + response.getReasonPhrase(), responseCode);
+    }
+    else {
+      throw new OFXServerException("Invalid response code from OFX server: " + response.getReasonPhrase(), responseCode);
+    }
+  }
+
+  /**
+   * The headers of a request sent through the connection pool.
+   *
+   * @return The headers of a request.
+   */
+  protected Map<String, String> getRequestHeaders() {
+    Map<String, String> headers = new LinkedHashMap<String, String>();
+    headers.put("Content-Type", "application/x-ofx");
+    headers.put("Accept", "*/*, application/x-ofx");
+    return headers;
+  }
+
   /**
    * Unmarshal the input stream.
    *
@@ -127,6 +437,22 @@ public class OFXV1Connection implements OFXConnection {
     }
   }
 
+  /**
+   * Unmarshal the input stream, notifying the specified listener as the aggregates are read.
+   *
+   * @param in The input stream.
+   * @param listener The listener.
+   * @return The response envelope.
+   */
+  protected ResponseEnvelope unmarshal(InputStream in, AggregateListener listener) throws IOException, OFXConnectionException {
+    try {
+      return getUnmarshaller().unmarshal(in, null, listener);
+    }
+    catch (OFXParseException e) {
+      throw new OFXConnectionException("Unable to parse the OFX response.", e);
+    }
+  }
+
   /**
    * Open a connection to the specified URL.
    *
@@ -144,7 +470,149 @@ public class OFXV1Connection implements OFXConnection {
    * @return The OFX writer.
    */
   protected OFXWriter newOFXWriter(OutputStream out) {
-    return new OFXV1Writer(out);
+    return new OFXV1ByteWriter(out);
+  }
+
+  /**
+   * The pool of the buffers requests are rendered into.
+   *
+   * @return The pool of the buffers requests are rendered into.
+   */
+  public RequestBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+  /**
+   * The pool of the buffers requests are rendered into.
+   *
+   * @param bufferPool The pool of the buffers requests are rendered into.
+   */
+  public void setBufferPool(RequestBufferPool bufferPool) {
+    this.bufferPool = bufferPool;
+  }
+
+  /**
+   * Whether to marshal each request twice (once to compute its size, once to the connection) and stream it in
+   * fixed-length mode instead of buffering it. Trades CPU for memory; note that in streaming mode the connection can't
+   * automatically handle authentication or redirects.
+   *
+   * @return Whether to marshal each request twice and stream it.
+   */
+  public boolean isTwoPassMarshal() {
+    return twoPassMarshal;
+  }
+
+  /**
+   * Whether to marshal each request twice (once to compute its size, once to the connection) and stream it in
+   * fixed-length mode instead of buffering it.
+   *
+   * @param twoPassMarshal Whether to marshal each request twice and stream it.
+   */
+  public void setTwoPassMarshal(boolean twoPassMarshal) {
+    this.twoPassMarshal = twoPassMarshal;
+  }
+
+  /**
+   * The pool of keep-alive connections requests are sent over, or null to open a new {@link HttpURLConnection} for
+   * each request. Requests that are to go through a proxy are sent over a new {@link HttpURLConnection} regardless.
+   *
+   * @return The pool of keep-alive connections requests are sent over.
+   */
+  public HttpConnectionPool getConnectionPool() {
+    return connectionPool;
+  }
+
+  /**
+   * The pool of keep-alive connections requests are sent over, or null to open a new {@link HttpURLConnection} for
+   * each request. Requests that are to go through a proxy are sent over a new {@link HttpURLConnection} regardless.
+   *
+   * @param connectionPool The pool of keep-alive connections requests are sent over.
+   */
+  public void setConnectionPool(HttpConnectionPool connectionPool) {
+    this.connectionPool = connectionPool;
+  }
+
+  /**
+   * The executor asynchronous requests are marshalled on, or null to marshal them on the calling thread.
+   *
+   * @return The executor asynchronous requests are marshalled on.
+   */
+  public Executor getMarshalExecutor() {
+    return marshalExecutor;
+  }
+
+  /**
+   * The executor asynchronous requests are marshalled on, or null to marshal them on the calling thread.
+   *
+   * @param marshalExecutor The executor asynchronous requests are marshalled on.
+   */
+  public void setMarshalExecutor(Executor marshalExecutor) {
+    this.marshalExecutor = marshalExecutor;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on. Defaults to a pool of {@link #DEFAULT_IO_THREADS} daemon threads,
+   * created when it's first needed and shut down by {@link #shutdown()}. Its size bounds the number of requests in
+   * flight.
+   *
+   * @return The executor asynchronous requests are sent on.
+   */
+  public synchronized Executor getIoExecutor() {
+    if (this.ioExecutor == null) {
+      this.ioExecutor = Executors.newFixedThreadPool(DEFAULT_IO_THREADS, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ofx-io-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      this.defaultIoExecutor = true;
+    }
+    return ioExecutor;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on.
+   *
+   * @param ioExecutor The executor asynchronous requests are sent on.
+   */
+  public synchronized void setIoExecutor(Executor ioExecutor) {
+    shutdown();
+    this.ioExecutor = ioExecutor;
+    this.defaultIoExecutor = false;
+  }
+
+  /**
+   * Shut down the default {@link #getIoExecutor() I/O executor}, if this connection created it: the requests in flight
+   * and queued are sent, then its threads end, and later asynchronous requests fail. The executors that were set on
+   * this connection and the {@link #getConnectionPool() connection pool} belong to the caller, who shuts them down.
+   */
+  public synchronized void shutdown() {
+    if (this.defaultIoExecutor) {
+      ((ExecutorService) this.ioExecutor).shutdown();
+    }
+  }
+
+  /**
+   * The executor the responses of asynchronous requests are unmarshalled on, or null to unmarshal them on the I/O
+   * thread that read them.
+   *
+   * @return The executor the responses of asynchronous requests are unmarshalled on.
+   */
+  public Executor getParseExecutor() {
+    return parseExecutor;
+  }
+
+  /**
+   * The executor the responses of asynchronous requests are unmarshalled on, or null to unmarshal them on the I/O
+   * thread that read them.
+   *
+   * @param parseExecutor The executor the responses of asynchronous requests are unmarshalled on.
+   */
+  public void setParseExecutor(Executor parseExecutor) {
+    this.parseExecutor = parseExecutor;
   }
 
   /**
@@ -182,4 +650,36 @@ public class OFXV1Connection implements OFXConnection {
   public void setUnmarshaller(AggregateUnmarshaller<ResponseEnvelope> unmarshaller) {
     this.unmarshaller = unmarshaller;
   }
+
+  /**
+   * A stage of an asynchronous request.
+   */
+  private abstract static class Stage {
+
+    abstract void run() throws Exception;
+
+    /**
+     * Notified instead of running the stage if the request is cancelled or the stage can't be scheduled.
+     */
+    void skipped() {
+    }
+  }
+
+  /**
+   * Output stream that only counts the bytes written to it.
+   */
+  private static class CountingOutputStream extends OutputStream {
+
+    private int count = 0;
+
+    @Override
+    public void write(int b) {
+      this.count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      this.count += len;
+    }
+  }
 }
@@ -17,7 +17,7 @@
 package com.webcohesion.ofx4j.client.net;
 
 import com.webcohesion.ofx4j.io.OFXWriter;
-import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
 
 import java.io.OutputStream;
 
@@ -28,6 +28,6 @@ public class OFXV2Connection extends OFXV1Connection {
 
   @Override
   protected OFXWriter newOFXWriter(OutputStream out) {
-    return new OFXV2Writer(out);
+    return new OFXV2ByteWriter(out);
   }
 }
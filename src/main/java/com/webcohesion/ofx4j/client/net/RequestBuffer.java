@@ -0,0 +1,41 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * A growable in-memory buffer for rendering a request, reused through a {@link RequestBufferPool}. The contents can
+ * be written out with {@link #writeTo(java.io.OutputStream)}, which doesn't copy them.
+ *
+ * @author Ryan Heaton
+ */
+public class RequestBuffer extends ByteArrayOutputStream {
+
+  public RequestBuffer(int initialCapacity) {
+    super(initialCapacity);
+  }
+
+  /**
+   * The current capacity of the buffer.
+   *
+   * @return The current capacity of the buffer.
+   */
+  public synchronized int capacity() {
+    return this.buf.length;
+  }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import java.util.LinkedList;
+
+/**
+ * A bounded pool of request buffers. Buffers keep the capacity they've grown to, so after warming up rendering a
+ * request doesn't allocate. Buffers that have grown beyond the maximum retained capacity are dropped instead of being
+ * pooled, so that a single huge request doesn't pin its memory.
+ *
+ * @author Ryan Heaton
+ */
+public class RequestBufferPool {
+
+  public static final int DEFAULT_INITIAL_CAPACITY = 4096;
+  public static final int DEFAULT_MAX_RETAINED_CAPACITY = 1024 * 1024;
+  public static final int DEFAULT_MAX_POOLED = 16;
+
+  private final LinkedList<RequestBuffer> buffers = new LinkedList<RequestBuffer>();
+  private int initialCapacity = DEFAULT_INITIAL_CAPACITY;
+  private int maxRetainedCapacity = DEFAULT_MAX_RETAINED_CAPACITY;
+  private int maxPooled = DEFAULT_MAX_POOLED;
+
+  /**
+   * Acquire an (empty) buffer from the pool, creating one if the pool is empty.
+   *
+   * @return The buffer.
+   */
+  public RequestBuffer acquire() {
+    synchronized (this.buffers) {
+      if (!this.buffers.isEmpty()) {
+        return this.buffers.removeFirst();
+      }
+    }
+    return new RequestBuffer(getInitialCapacity());
+  }
+
+  /**
+   * Release a buffer back to the pool.
+   *
+   * @param buffer The buffer.
+   */
+  public void release(RequestBuffer buffer) {
+    if (buffer.capacity() > getMaxRetainedCapacity()) {
+      return;
+    }
+
+    buffer.reset();
+    synchronized (this.buffers) {
+      if (this.buffers.size() < getMaxPooled()) {
+        this.buffers.addFirst(buffer);
+      }
+    }
+  }
+
+  /**
+   * The number of buffers currently in the pool.
+   *
+   * @return The number of buffers currently in the pool.
+   */
+  public int size() {
+    synchronized (this.buffers) {
+      return this.buffers.size();
+    }
+  }
+
+  /**
+   * The initial capacity of new buffers.
+   *
+   * @return The initial capacity of new buffers.
+   */
+  public int getInitialCapacity() {
+    return initialCapacity;
+  }
+
+  /**
+   * The initial capacity of new buffers.
+   *
+   * @param initialCapacity The initial capacity of new buffers.
+   */
+  public void setInitialCapacity(int initialCapacity) {
+    this.initialCapacity = initialCapacity;
+  }
+
+  /**
+   * The capacity beyond which a released buffer is dropped instead of pooled.
+   *
+   * @return The capacity beyond which a released buffer is dropped.
+   */
+  public int getMaxRetainedCapacity() {
+    return maxRetainedCapacity;
+  }
+
+  /**
+   * The capacity beyond which a released buffer is dropped instead of pooled.
+   *
+   * @param maxRetainedCapacity The capacity beyond which a released buffer is dropped.
+   */
+  public void setMaxRetainedCapacity(int maxRetainedCapacity) {
+    this.maxRetainedCapacity = maxRetainedCapacity;
+  }
+
+  /**
+   * The maximum number of buffers kept in the pool.
+   *
+   * @return The maximum number of buffers kept in the pool.
+   */
+  public int getMaxPooled() {
+    return maxPooled;
+  }
+
+  /**
+   * The maximum number of buffers kept in the pool.
+   *
+   * @param maxPooled The maximum number of buffers kept in the pool.
+   */
+  public void setMaxPooled(int maxPooled) {
+    this.maxPooled = maxPooled;
+  }
+}
@@ -0,0 +1,933 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.RequestMessage;
+import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityListRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.signon.SignonRequest;
+import com.webcohesion.ofx4j.domain.data.signup.AccountInfoRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.tax1099.Tax1099RequestTransaction;
+import com.webcohesion.ofx4j.io.AggregateListener;
+import com.webcohesion.ofx4j.io.AggregateReplayer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connection that makes the requests sent through another connection resilient to failures of the hosts:
+ *
+ * <ul>
+ *   <li>Requests that fail with a transient error (a 429 or 5xx response, or an I/O failure) are retried, with an
+ *   exponential backoff and full jitter. A retry sends the same request envelope, so the envelope and all its
+ *   transactions keep their UIDs (TRNUID) and the institution can detect the duplicates.</li>
+ *   <li>Idempotent reads (signon, profile, account info, statements, security lists) can be hedged: if the response
+ *   takes longer than a percentile of the recent latencies of the host, the same request is sent again and the first
+ *   response wins.</li>
+ *   <li>Each host has a circuit breaker: after a number of consecutive transient failures, requests to the host fail
+ *   fast for a while, then a single trial request decides whether to close the circuit again.</li>
+ * </ul>
+ *
+ * <p>Asynchronous requests are sent through the delegate's {@link AsyncOFXConnection asynchronous} support and retried
+ * from a scheduler, without holding a thread while backing off; they aren't hedged. Streaming requests are sent through
+ * the delegate's {@link StreamingOFXConnection streaming} support and aren't hedged either; a failed streaming request
+ * is only retried if none of its aggregates has been reported to the listener yet, so the listener never sees the
+ * same aggregate twice.</p>
+ *
+ * @author Ryan Heaton
+ */
+public class ResilientOFXConnection implements AsyncOFXConnection, StreamingOFXConnection {
+
+  private static final Log LOG = LogFactory.getLog(ResilientOFXConnection.class);
+
+  public static final int DEFAULT_MAX_ATTEMPTS = 3;
+  public static final long DEFAULT_INITIAL_BACKOFF = 200;
+  public static final long DEFAULT_MAX_BACKOFF = 10000;
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  public static final long DEFAULT_OPEN_DURATION = 30000;
+  public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+  public static final int LATENCY_SAMPLES = 100;
+
+  private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<String, HostState>();
+  private final Random random = new Random();
+  private final OFXConnection delegate;
+  private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+  private long initialBackoff = DEFAULT_INITIAL_BACKOFF;
+  private long maxBackoff = DEFAULT_MAX_BACKOFF;
+  private double backoffMultiplier = 2.0;
+  private int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+  private long openDuration = DEFAULT_OPEN_DURATION;
+  private boolean hedgingEnabled = false;
+  private double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+  private int minHedgeSamples = 20;
+  private ExecutorService hedgeExecutor;
+  private boolean defaultHedgeExecutor = false;
+  private Executor executor;
+  private ScheduledExecutorService scheduler;
+
+  public ResilientOFXConnection(OFXConnection delegate) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("A delegate connection must be supplied.");
+    }
+    this.delegate = delegate;
+  }
+
+  // Inherited.
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+    return sendRequest(request, url, null);
+  }
+
+  /**
+   * Send a request, notifying the specified listener as the aggregates of the response are read. If the delegate isn't
+   * a {@link StreamingOFXConnection}, the response is read as a whole, then replayed to the listener.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param listener The listener to notify as the aggregates of the response are read (may be null).
+   * @return The response.
+   */
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+    String key = getHostKey(url);
+    HostState host = getHostState(key);
+    boolean hedged = isHedgingEnabled() && listener == null && isIdempotent(request);
+    DeliveryTracker tracker = listener == null ? null : new DeliveryTracker(listener);
+    for (int attempt = 1; ; attempt++) {
+      if (!host.allowRequest()) {
+        throw new OFXConnectionException("Circuit open for " + key + ": failing fast.");
+      }
+
+      try {
+        return hedged && host.isClosed() ? sendHedged(request, url, host) : send(request, url, tracker, host);
+      }
+      catch (OFXConnectionException e) {
+        if (!isRetryable(e) || attempt >= getMaxAttempts() || (tracker != null && tracker.delivered)) {
+          throw e;
+        }
+
+        long backoff = getBackoff(attempt);
+        if (LOG.isInfoEnabled()) {
+          LOG.info(String.format("Attempt %s of the request to %s failed (%s); retrying in %sms.", attempt, key, e.getMessage(), backoff));
+        }
+
+        try {
+          Thread.sleep(backoff);
+        }
+        catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw new OFXConnectionException(new InterruptedIOException("Interrupted while waiting to retry the OFX request."));
+        }
+      }
+    }
+  }
+
+  /**
+   * Send a request asynchronously, retrying it from the {@link #getScheduler() scheduler}. If the delegate isn't an
+   * {@link AsyncOFXConnection}, the request is sent (and retried) on the {@link #getExecutor() executor} instead.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param callback The callback to notify when the response is available (may be null).
+   * @return The future response.
+   */
+  public Future<ResponseEnvelope> sendRequestAsync(final RequestEnvelope request, final URL url, OFXCallback<ResponseEnvelope> callback) {
+    final OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+    if (this.delegate instanceof AsyncOFXConnection) {
+      sendAsync(request, url, getHostState(getHostKey(url)), 1, future);
+    }
+    else {
+      execute(future, new Callable<ResponseEnvelope>() {
+        public ResponseEnvelope call() throws Exception {
+          return sendRequest(request, url);
+        }
+      });
+    }
+    return future;
+  }
+
+  /**
+   * Send an attempt of an asynchronous request, recording its outcome and scheduling the next attempt if it failed with
+   * a transient error.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param host The state of the host.
+   * @param attempt The (1-based) attempt.
+   * @param future The future to complete.
+   */
+  protected void sendAsync(final RequestEnvelope request, final URL url, final HostState host, final int attempt, final OFXFuture<ResponseEnvelope> future) {
+    if (future.isDone()) {
+      //cancelled.
+      return;
+    }
+
+    if (!host.allowRequest()) {
+      future.fail(new OFXConnectionException("Circuit open for " + host.key + ": failing fast."));
+      return;
+    }
+
+    final long start = System.nanoTime();
+    OFXCallback<ResponseEnvelope> recorded = new OFXCallback<ResponseEnvelope>() {
+      public void completed(ResponseEnvelope response) {
+        host.recordSuccess(System.nanoTime() - start);
+        future.complete(response);
+      }
+
+      public void failed(Throwable error) {
+        if (!(error instanceof OFXConnectionException)) {
+          //e.g. cancelled.
+          host.recordAborted();
+        }
+        else if (!isRetryable((OFXConnectionException) error)) {
+          //the host answered.
+          host.recordSuccess(-1);
+        }
+        else {
+          host.recordFailure();
+          if (attempt < getMaxAttempts() && !future.isDone()) {
+            long backoff = getBackoff(attempt);
+            if (LOG.isInfoEnabled()) {
+              LOG.info(String.format("Attempt %s of the request to %s failed (%s); retrying in %sms.", attempt, host.key, error.getMessage(), backoff));
+            }
+
+            try {
+              future.propagateCancellation(getScheduler().schedule(new Runnable() {
+                public void run() {
+                  sendAsync(request, url, host, attempt + 1, future);
+                }
+              }, backoff, TimeUnit.MILLISECONDS));
+              return;
+            }
+            catch (RejectedExecutionException e) {
+              //fall through to the failure.
+            }
+          }
+        }
+        future.fail(error);
+      }
+    };
+
+    try {
+      future.propagateCancellation(((AsyncOFXConnection) this.delegate).sendRequestAsync(request, url, recorded));
+    }
+    catch (RuntimeException e) {
+      recorded.failed(e);
+    }
+  }
+
+  /**
+   * Complete the specified future with the result of the specified task, run on the {@link #getExecutor() executor}.
+   *
+   * @param future The future.
+   * @param task The task.
+   */
+  private void execute(final OFXFuture<ResponseEnvelope> future, final Callable<ResponseEnvelope> task) {
+    FutureTask<Void> run = new FutureTask<Void>(new Runnable() {
+      public void run() {
+        if (future.isDone()) {
+          //cancelled.
+          return;
+        }
+
+        try {
+          future.complete(task.call());
+        }
+        catch (Throwable e) {
+          future.fail(e);
+        }
+      }
+    }, null);
+    future.propagateCancellation(run);
+
+    if (getExecutor() == null) {
+      run.run();
+    }
+    else {
+      try {
+        getExecutor().execute(run);
+      }
+      catch (RejectedExecutionException e) {
+        future.fail(new OFXConnectionException("Unable to schedule the request.", e));
+      }
+    }
+  }
+
+  /**
+   * Send a single attempt of a request, recording its outcome.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param host The state of the host.
+   * @return The response.
+   */
+  protected ResponseEnvelope send(RequestEnvelope request, URL url, HostState host) throws OFXConnectionException {
+    return send(request, url, null, host);
+  }
+
+  /**
+   * Send a single attempt of a request, recording its outcome.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param listener The listener to notify as the aggregates of the response are read, or null.
+   * @param host The state of the host.
+   * @return The response.
+   */
+  protected ResponseEnvelope send(RequestEnvelope request, URL url, AggregateListener listener, HostState host) throws OFXConnectionException {
+    long start = System.nanoTime();
+    boolean recorded = false;
+    try {
+      ResponseEnvelope response = sendToDelegate(request, url, listener);
+      host.recordSuccess(System.nanoTime() - start);
+      recorded = true;
+      return response;
+    }
+    catch (OFXConnectionException e) {
+      if (isRetryable(e)) {
+        host.recordFailure();
+      }
+      else {
+        //the host answered.
+        host.recordSuccess(-1);
+      }
+      recorded = true;
+      throw e;
+    }
+    finally {
+      if (!recorded) {
+        //anything else (e.g. a runtime exception) fails the trial, if this was one, so the circuit can't stay half-open.
+        host.recordAborted();
+      }
+    }
+  }
+
+  /**
+   * Send a request through the delegate.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param listener The listener to notify as the aggregates of the response are read, or null.
+   * @return The response.
+   */
+  protected ResponseEnvelope sendToDelegate(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+    if (listener == null) {
+      return this.delegate.sendRequest(request, url);
+    }
+    else if (this.delegate instanceof StreamingOFXConnection) {
+      return ((StreamingOFXConnection) this.delegate).sendRequest(request, url, listener);
+    }
+
+    ResponseEnvelope response = this.delegate.sendRequest(request, url);
+    AggregateReplayer.replay(response, listener);
+    return response;
+  }
+
+  /**
+   * Send an attempt of a request, sending it again if the first response takes longer than the hedge delay of the
+   * host. The first response wins.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param host The state of the host.
+   * @return The response.
+   */
+  protected ResponseEnvelope sendHedged(final RequestEnvelope request, final URL url, final HostState host) throws OFXConnectionException {
+    long delay = host.getHedgeDelay();
+    if (delay < 0) {
+      //not enough samples yet.
+      return send(request, url, host);
+    }
+
+    Callable<ResponseEnvelope> attempt = new Callable<ResponseEnvelope>() {
+      public ResponseEnvelope call() throws Exception {
+        return send(request, url, host);
+      }
+    };
+
+    CompletionService<ResponseEnvelope> completion = new ExecutorCompletionService<ResponseEnvelope>(getHedgeExecutor());
+    List<Future<ResponseEnvelope>> attempts = new ArrayList<Future<ResponseEnvelope>>(2);
+    try {
+      attempts.add(completion.submit(attempt));
+      Future<ResponseEnvelope> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+      if (done == null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug(String.format("Hedging the request to %s after %sms.", host.key, TimeUnit.NANOSECONDS.toMillis(delay)));
+        }
+        attempts.add(completion.submit(attempt));
+      }
+
+      OFXConnectionException failure = null;
+      for (int pending = attempts.size(); pending > 0; pending--) {
+        if (done == null) {
+          done = completion.take();
+        }
+
+        try {
+          return done.get();
+        }
+        catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof OFXConnectionException) {
+            failure = (OFXConnectionException) cause;
+          }
+          else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+          }
+          else {
+            failure = new OFXConnectionException(cause);
+          }
+        }
+        done = null;
+      }
+      throw failure;
+    }
+    catch (RejectedExecutionException e) {
+      throw new OFXConnectionException("Unable to schedule the request.", e);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OFXConnectionException(new InterruptedIOException("Interrupted while waiting for the OFX response."));
+    }
+    finally {
+      for (Future<ResponseEnvelope> future : attempts) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Whether the specified failure is transient, i.e. worth a retry (and a sign the host is in trouble).
+   *
+   * @param e The failure.
+   * @return Whether the failure is transient.
+   */
+  protected boolean isRetryable(OFXConnectionException e) {
+    if (e instanceof OFXServerException) {
+      int code = ((OFXServerException) e).getHttpCode();
+      return code == 429 || (code >= 500 && code != 501 && code != 505);
+    }
+    return e.getCause() instanceof IOException && !(e.getCause() instanceof InterruptedIOException);
+  }
+
+  /**
+   * Whether the specified request only reads data, so that it can be hedged.
+   *
+   * @param request The request.
+   * @return Whether the request only reads data.
+   */
+  protected boolean isIdempotent(RequestEnvelope request) {
+    if (request.getMessageSets() == null) {
+      return false;
+    }
+
+    for (RequestMessageSet messageSet : request.getMessageSets()) {
+      for (RequestMessage message : messageSet.getRequestMessages()) {
+        if (!isIdempotent(message)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the specified request message only reads data.
+   *
+   * @param message The request message.
+   * @return Whether the request message only reads data.
+   */
+  protected boolean isIdempotent(RequestMessage message) {
+    return message instanceof SignonRequest
+      || message instanceof ProfileRequestTransaction
+      || message instanceof AccountInfoRequestTransaction
+      || message instanceof BankStatementRequestTransaction
+      || message instanceof CreditCardStatementRequestTransaction
+      || message instanceof InvestmentStatementRequestTransaction
+      || message instanceof SecurityListRequestTransaction
+      || message instanceof Tax1099RequestTransaction;
+  }
+
+  /**
+   * The backoff (in milliseconds) before the retry following the specified attempt: an exponential backoff with full
+   * jitter.
+   *
+   * @param attempt The (1-based) attempt that failed.
+   * @return The backoff.
+   */
+  protected long getBackoff(int attempt) {
+    double backoff = Math.min(getMaxBackoff(), getInitialBackoff() * Math.pow(getBackoffMultiplier(), attempt - 1));
+    return (long) (this.random.nextDouble() * backoff);
+  }
+
+  /**
+   * The key of the host of the specified URL.
+   *
+   * @param url The URL.
+   * @return The host key.
+   */
+  protected String getHostKey(URL url) {
+    return url.getHost().toLowerCase();
+  }
+
+  /**
+   * Get (or create) the state of the specified host.
+   *
+   * @param key The host key.
+   * @return The state of the host.
+   */
+  protected HostState getHostState(String key) {
+    HostState host = this.hosts.get(key);
+    if (host == null) {
+      HostState created = new HostState(key);
+      host = this.hosts.putIfAbsent(key, created);
+      if (host == null) {
+        host = created;
+      }
+    }
+    return host;
+  }
+
+  /**
+   * Whether the circuit of the specified host is open (i.e. requests to it fail fast).
+   *
+   * @param host The host.
+   * @return Whether the circuit of the host is open.
+   */
+  public boolean isCircuitOpen(String host) {
+    return getHostState(host.toLowerCase()).isOpen();
+  }
+
+  /**
+   * The connection requests are sent through.
+   *
+   * @return The connection requests are sent through.
+   */
+  public OFXConnection getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * The maximum number of attempts of a request (including the first one).
+   *
+   * @return The maximum number of attempts of a request.
+   */
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * The maximum number of attempts of a request (including the first one).
+   *
+   * @param maxAttempts The maximum number of attempts of a request.
+   */
+  public void setMaxAttempts(int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  /**
+   * The (maximum) backoff before the first retry, in milliseconds.
+   *
+   * @return The backoff before the first retry.
+   */
+  public long getInitialBackoff() {
+    return initialBackoff;
+  }
+
+  /**
+   * The (maximum) backoff before the first retry, in milliseconds.
+   *
+   * @param initialBackoff The backoff before the first retry.
+   */
+  public void setInitialBackoff(long initialBackoff) {
+    this.initialBackoff = initialBackoff;
+  }
+
+  /**
+   * The maximum backoff before a retry, in milliseconds.
+   *
+   * @return The maximum backoff before a retry.
+   */
+  public long getMaxBackoff() {
+    return maxBackoff;
+  }
+
+  /**
+   * The maximum backoff before a retry, in milliseconds.
+   *
+   * @param maxBackoff The maximum backoff before a retry.
+   */
+  public void setMaxBackoff(long maxBackoff) {
+    this.maxBackoff = maxBackoff;
+  }
+
+  /**
+   * The factor the backoff grows by with each retry.
+   *
+   * @return The factor the backoff grows by with each retry.
+   */
+  public double getBackoffMultiplier() {
+    return backoffMultiplier;
+  }
+
+  /**
+   * The factor the backoff grows by with each retry.
+   *
+   * @param backoffMultiplier The factor the backoff grows by with each retry.
+   */
+  public void setBackoffMultiplier(double backoffMultiplier) {
+    this.backoffMultiplier = backoffMultiplier;
+  }
+
+  /**
+   * The number of consecutive transient failures that opens the circuit of a host.
+   *
+   * @return The number of consecutive transient failures that opens the circuit of a host.
+   */
+  public int getFailureThreshold() {
+    return failureThreshold;
+  }
+
+  /**
+   * The number of consecutive transient failures that opens the circuit of a host.
+   *
+   * @param failureThreshold The number of consecutive transient failures that opens the circuit of a host.
+   */
+  public void setFailureThreshold(int failureThreshold) {
+    this.failureThreshold = failureThreshold;
+  }
+
+  /**
+   * How long (in milliseconds) the circuit of a host stays open before a trial request is let through.
+   *
+   * @return How long the circuit of a host stays open.
+   */
+  public long getOpenDuration() {
+    return openDuration;
+  }
+
+  /**
+   * How long (in milliseconds) the circuit of a host stays open before a trial request is let through.
+   *
+   * @param openDuration How long the circuit of a host stays open.
+   */
+  public void setOpenDuration(long openDuration) {
+    this.openDuration = openDuration;
+  }
+
+  /**
+   * Whether idempotent reads are hedged.
+   *
+   * @return Whether idempotent reads are hedged.
+   */
+  public boolean isHedgingEnabled() {
+    return hedgingEnabled;
+  }
+
+  /**
+   * Whether idempotent reads are hedged.
+   *
+   * @param hedgingEnabled Whether idempotent reads are hedged.
+   */
+  public void setHedgingEnabled(boolean hedgingEnabled) {
+    this.hedgingEnabled = hedgingEnabled;
+  }
+
+  /**
+   * The percentile of the recent latencies of a host after which a request to it is hedged.
+   *
+   * @return The percentile of the recent latencies after which a request is hedged.
+   */
+  public double getHedgePercentile() {
+    return hedgePercentile;
+  }
+
+  /**
+   * The percentile of the recent latencies of a host after which a request to it is hedged.
+   *
+   * @param hedgePercentile The percentile of the recent latencies after which a request is hedged.
+   */
+  public void setHedgePercentile(double hedgePercentile) {
+    this.hedgePercentile = hedgePercentile;
+  }
+
+  /**
+   * The number of latencies that must have been recorded for a host before requests to it are hedged.
+   *
+   * @return The number of latencies that must have been recorded before requests are hedged.
+   */
+  public int getMinHedgeSamples() {
+    return minHedgeSamples;
+  }
+
+  /**
+   * The number of latencies that must have been recorded for a host before requests to it are hedged.
+   *
+   * @param minHedgeSamples The number of latencies that must have been recorded before requests are hedged.
+   */
+  public void setMinHedgeSamples(int minHedgeSamples) {
+    this.minHedgeSamples = minHedgeSamples;
+  }
+
+  /**
+   * The executor hedged attempts are run on. Defaults to a pool of daemon threads, created when it's first needed.
+   *
+   * @return The executor hedged attempts are run on.
+   */
+  public synchronized ExecutorService getHedgeExecutor() {
+    if (this.hedgeExecutor == null) {
+      this.defaultHedgeExecutor = true;
+      this.hedgeExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ofx-hedge-" + count.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return hedgeExecutor;
+  }
+
+  /**
+   * The executor hedged attempts are run on.
+   *
+   * @param hedgeExecutor The executor hedged attempts are run on.
+   */
+  public synchronized void setHedgeExecutor(ExecutorService hedgeExecutor) {
+    this.hedgeExecutor = hedgeExecutor;
+    this.defaultHedgeExecutor = false;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on if the delegate isn't an {@link AsyncOFXConnection}, or null to
+   * send them on the calling thread.
+   *
+   * @return The executor asynchronous requests are sent on if the delegate doesn't support them.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on if the delegate isn't an {@link AsyncOFXConnection}, or null to
+   * send them on the calling thread.
+   *
+   * @param executor The executor asynchronous requests are sent on if the delegate doesn't support them.
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * The scheduler the retries of asynchronous requests are sent from. Defaults to a single daemon thread, created when
+   * it's first needed and shut down by {@link #shutdown()}.
+   *
+   * @return The scheduler the retries of asynchronous requests are sent from.
+   */
+  protected synchronized ScheduledExecutorService getScheduler() {
+    if (this.scheduler == null) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ofx-retry");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return scheduler;
+  }
+
+  /**
+   * Shut down the threads this connection created: the scheduler of the asynchronous retries and the default hedge
+   * executor. The delegate and the executors that were supplied are left to their owner.
+   */
+  public synchronized void shutdown() {
+    if (this.scheduler != null) {
+      this.scheduler.shutdown();
+    }
+    if (this.defaultHedgeExecutor) {
+      this.hedgeExecutor.shutdown();
+    }
+  }
+
+  /**
+   * A listener that remembers whether any aggregate has been reported to it.
+   */
+  private static class DeliveryTracker implements AggregateListener {
+
+    private final AggregateListener listener;
+    private volatile boolean delivered = false;
+
+    private DeliveryTracker(AggregateListener listener) {
+      this.listener = listener;
+    }
+
+    // Inherited.
+    public boolean appliesTo(Class aggregateType) {
+      return this.listener.appliesTo(aggregateType);
+    }
+
+    // Inherited.
+    public void aggregateStarted(Object aggregate, Object parent) {
+      this.delivered = true;
+      this.listener.aggregateStarted(aggregate, parent);
+    }
+
+    // Inherited.
+    public boolean aggregateEnded(Object aggregate, Object parent) {
+      this.delivered = true;
+      return this.listener.aggregateEnded(aggregate, parent);
+    }
+  }
+
+  /**
+   * The state of a host: its circuit and its recent latencies.
+   */
+  protected class HostState {
+
+    private final String key;
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int sampleCount = 0;
+    private int consecutiveFailures = 0;
+    private boolean open = false;
+    private boolean halfOpen = false;
+    private boolean trialInFlight = false;
+    private long openUntil;
+
+    protected HostState(String key) {
+      this.key = key;
+    }
+
+    /**
+     * Whether a request may be sent to the host.
+     *
+     * @return Whether a request may be sent to the host.
+     */
+    synchronized boolean allowRequest() {
+      if (this.open) {
+        if (System.nanoTime() - this.openUntil < 0) {
+          return false;
+        }
+        this.open = false;
+        this.halfOpen = true;
+        this.trialInFlight = false;
+      }
+
+      if (this.halfOpen) {
+        if (this.trialInFlight) {
+          return false;
+        }
+        this.trialInFlight = true;
+      }
+      return true;
+    }
+
+    /**
+     * Record that the host answered.
+     *
+     * @param latency The latency of the answer in nanoseconds, or -1 if it shouldn't be sampled.
+     */
+    synchronized void recordSuccess(long latency) {
+      if (this.halfOpen && LOG.isInfoEnabled()) {
+        LOG.info("Circuit of " + this.key + " closed.");
+      }
+      this.consecutiveFailures = 0;
+      this.open = false;
+      this.halfOpen = false;
+      this.trialInFlight = false;
+      if (latency >= 0) {
+        this.latencies[this.sampleCount++ % LATENCY_SAMPLES] = latency;
+      }
+    }
+
+    /**
+     * Record a transient failure of the host.
+     */
+    synchronized void recordFailure() {
+      this.consecutiveFailures++;
+      this.trialInFlight = false;
+      if (!this.open && (this.halfOpen || this.consecutiveFailures >= getFailureThreshold())) {
+        LOG.warn("Circuit of " + this.key + " opened after " + this.consecutiveFailures + " consecutive failures.");
+        this.open = true;
+        this.halfOpen = false;
+        this.openUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getOpenDuration());
+      }
+    }
+
+    /**
+     * Record that a request to the host ended without an outcome (e.g. it threw a runtime exception). If it was the
+     * trial request of the half-open circuit, the trial failed.
+     */
+    synchronized void recordAborted() {
+      if (this.halfOpen && this.trialInFlight) {
+        recordFailure();
+      }
+    }
+
+    /**
+     * The delay after which a request is hedged: the hedge percentile of the recent latencies.
+     *
+     * @return The delay in nanoseconds, or -1 if not enough latencies have been recorded.
+     */
+    synchronized long getHedgeDelay() {
+      int count = Math.min(this.sampleCount, LATENCY_SAMPLES);
+      if (count == 0 || this.sampleCount < getMinHedgeSamples()) {
+        return -1;
+      }
+
+      long[] samples = Arrays.copyOf(this.latencies, count);
+      Arrays.sort(samples);
+      return samples[Math.min(count - 1, (int) (count * getHedgePercentile()))];
+    }
+
+    synchronized boolean isOpen() {
+      return this.open && System.nanoTime() - this.openUntil < 0;
+    }
+
+    synchronized boolean isClosed() {
+      return !this.open && !this.halfOpen;
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateListener;
+
+import java.net.URL;
+
+/**
+ * Connection to an OFX interface that can parse the response directly off the response stream, notifying a listener
+ * as the aggregates of the response are read.
+ *
+ * @author Ryan Heaton
+ */
+public interface StreamingOFXConnection extends OFXConnection {
+
+  /**
+   * Send a request, notifying the specified listener as the aggregates of the response are read. Runtime exceptions
+   * thrown by the listener abort the parse and are propagated.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param listener The listener to notify as the aggregates of the response are read.
+   * @return The response (without the aggregates the listener didn't add to their parent).
+   */
+  ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException;
+
+}
@@ -0,0 +1,854 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.RequestMessage;
+import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateListener;
+import com.webcohesion.ofx4j.io.AggregateReplayer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection that throttles the requests sent through another connection, per host:
+ *
+ * <ul>
+ *   <li>The number of concurrent requests to a host is capped by an adaptive limit (AIMD): the limit grows by one per
+ *   "round" of successful requests, and is multiplied by the backoff ratio when a request shows congestion (a 429 or
+ *   5xx response, an I/O failure, or a latency well above the baseline latency of the host for the same
+ *   {@link #getRequestKind(RequestEnvelope) kind} of request). The limit is decreased at most once per window: the
+ *   congestion shown by the requests that were sent before the last decrease is already accounted for.</li>
+ *   <li>Requests to a host can also be rate limited by a token bucket, configured per host.</li>
+ *   <li>A request that can't get a token and a slot within the maximum queue time fails fast with an
+ *   {@link OFXConnectionException} instead of piling up.</li>
+ * </ul>
+ *
+ * <p>Asynchronous and streaming requests are throttled the same way, and are sent through the delegate's
+ * {@link AsyncOFXConnection asynchronous} and {@link StreamingOFXConnection streaming} support. An asynchronous request
+ * waits for its token and slot in a queue, without holding a thread.</p>
+ *
+ * @author Ryan Heaton
+ */
+public class ThrottlingOFXConnection implements AsyncOFXConnection, StreamingOFXConnection {
+
+  private static final Log LOG = LogFactory.getLog(ThrottlingOFXConnection.class);
+
+  public static final int DEFAULT_INITIAL_LIMIT = 4;
+  public static final int DEFAULT_MAX_LIMIT = 256;
+  public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+  public static final double DEFAULT_LATENCY_TOLERANCE = 3.0;
+  public static final long DEFAULT_MAX_QUEUE_TIME = 30000;
+
+  private final ConcurrentHashMap<String, HostThrottle> throttles = new ConcurrentHashMap<String, HostThrottle>();
+  private final OFXConnection delegate;
+  private int initialLimit = DEFAULT_INITIAL_LIMIT;
+  private int minLimit = 1;
+  private int maxLimit = DEFAULT_MAX_LIMIT;
+  private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+  private double latencyTolerance = DEFAULT_LATENCY_TOLERANCE;
+  private long maxQueueTime = DEFAULT_MAX_QUEUE_TIME;
+  private Map<String, Double> rateLimits = new ConcurrentHashMap<String, Double>();
+  private double defaultRateLimit = 0;
+  private int rateLimitBurst = 1;
+  private Executor executor;
+  private ScheduledExecutorService scheduler;
+
+  public ThrottlingOFXConnection(OFXConnection delegate) {
+    if (delegate == null) {
+      throw new IllegalArgumentException("A delegate connection must be supplied.");
+    }
+    this.delegate = delegate;
+  }
+
+  // Inherited.
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+    return sendRequest(request, url, null);
+  }
+
+  /**
+   * Send a request, notifying the specified listener as the aggregates of the response are read. If the delegate isn't
+   * a {@link StreamingOFXConnection}, the response is read as a whole, then replayed to the listener.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param listener The listener to notify as the aggregates of the response are read (may be null).
+   * @return The response.
+   */
+  public ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+    String host = getHostKey(url);
+    HostThrottle throttle = getThrottle(host);
+    String kind = getRequestKind(request);
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMaxQueueTime());
+    long ticket;
+    try {
+      ticket = throttle.acquire(deadline);
+      if (ticket < 0) {
+        throw new OFXConnectionException(String.format("Request to %s throttled: no capacity within %sms (limit %s, rate %s/s).", host, getMaxQueueTime(), throttle.getLimit(), throttle.rate));
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new OFXConnectionException(new InterruptedIOException("Interrupted while waiting to send the OFX request."));
+    }
+
+    long start = System.nanoTime();
+    boolean congested = false;
+    try {
+      return sendToDelegate(request, url, listener);
+    }
+    catch (OFXConnectionException e) {
+      congested = isCongestion(e);
+      throw e;
+    }
+    finally {
+      throttle.release(ticket, kind, System.nanoTime() - start, congested);
+    }
+  }
+
+  /**
+   * Send a request asynchronously. The request waits for its token and slot in the queue of the host, without holding
+   * a thread, then is sent through the delegate. If the delegate isn't an {@link AsyncOFXConnection}, the request is
+   * sent (and throttled) on the {@link #getExecutor() executor} instead.
+   *
+   * @param request The request to send.
+   * @param url The URL to which to send the request.
+   * @param callback The callback to notify when the response is available (may be null).
+   * @return The future response.
+   */
+  public Future<ResponseEnvelope> sendRequestAsync(final RequestEnvelope request, final URL url, OFXCallback<ResponseEnvelope> callback) {
+    final OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+    if (!(this.delegate instanceof AsyncOFXConnection)) {
+      execute(future, new Callable<ResponseEnvelope>() {
+        public ResponseEnvelope call() throws Exception {
+          return sendRequest(request, url);
+        }
+      });
+      return future;
+    }
+
+    final String host = getHostKey(url);
+    final HostThrottle throttle = getThrottle(host);
+    final String kind = getRequestKind(request);
+    throttle.acquire(new Waiter(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMaxQueueTime())) {
+      void acquired(final long ticket) {
+        if (future.isDone()) {
+          //cancelled while queued.
+          throttle.release(ticket, kind, -1, false);
+          return;
+        }
+
+        final long start = System.nanoTime();
+        OFXCallback<ResponseEnvelope> released = new OFXCallback<ResponseEnvelope>() {
+          public void completed(ResponseEnvelope response) {
+            throttle.release(ticket, kind, System.nanoTime() - start, false);
+            future.complete(response);
+          }
+
+          public void failed(Throwable error) {
+            boolean congested = error instanceof OFXConnectionException && isCongestion((OFXConnectionException) error);
+            throttle.release(ticket, kind, System.nanoTime() - start, congested);
+            future.fail(error);
+          }
+        };
+
+        try {
+          future.propagateCancellation(((AsyncOFXConnection) getDelegate()).sendRequestAsync(request, url, released));
+        }
+        catch (RuntimeException e) {
+          released.failed(e);
+        }
+      }
+
+      void expired() {
+        future.fail(new OFXConnectionException(String.format("Request to %s throttled: no capacity within %sms (limit %s, rate %s/s).", host, getMaxQueueTime(), throttle.getLimit(), throttle.rate)));
+      }
+    });
+    return future;
+  }
+
+  /**
+   * Send a request through the delegate.
+   *
+   * @param request The request.
+   * @param url The URL.
+   * @param listener The listener to notify as the aggregates of the response are read, or null.
+   * @return The response.
+   */
+  protected ResponseEnvelope sendToDelegate(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+    if (listener == null) {
+      return this.delegate.sendRequest(request, url);
+    }
+    else if (this.delegate instanceof StreamingOFXConnection) {
+      return ((StreamingOFXConnection) this.delegate).sendRequest(request, url, listener);
+    }
+
+    ResponseEnvelope response = this.delegate.sendRequest(request, url);
+    AggregateReplayer.replay(response, listener);
+    return response;
+  }
+
+  /**
+   * Complete the specified future with the result of the specified task, run on the {@link #getExecutor() executor}.
+   *
+   * @param future The future.
+   * @param task The task.
+   */
+  private void execute(final OFXFuture<ResponseEnvelope> future, final Callable<ResponseEnvelope> task) {
+    FutureTask<Void> run = new FutureTask<Void>(new Runnable() {
+      public void run() {
+        if (future.isDone()) {
+          //cancelled.
+          return;
+        }
+
+        try {
+          future.complete(task.call());
+        }
+        catch (Throwable e) {
+          future.fail(e);
+        }
+      }
+    }, null);
+    future.propagateCancellation(run);
+
+    if (getExecutor() == null) {
+      run.run();
+    }
+    else {
+      try {
+        getExecutor().execute(run);
+      }
+      catch (RejectedExecutionException e) {
+        future.fail(new OFXConnectionException("Unable to schedule the request.", e));
+      }
+    }
+  }
+
+  /**
+   * Schedule the specified task on the {@link #getScheduler() scheduler}.
+   *
+   * @param task The task.
+   * @param delay The delay in nanoseconds.
+   * @return Whether the task was scheduled.
+   */
+  private boolean schedule(Runnable task, long delay) {
+    try {
+      getScheduler().schedule(task, delay, TimeUnit.NANOSECONDS);
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Shut down the scheduler of the queued asynchronous requests, if this connection created it. The delegate and the
+   * executor are left to their owner.
+   */
+  public synchronized void shutdown() {
+    if (this.scheduler != null) {
+      this.scheduler.shutdown();
+    }
+  }
+
+  /**
+   * The kind of the specified request, by which the baseline latencies of a host are kept: a profile request and a
+   * download of several statements can't be compared. Defaults to the types of the (non-signon) request messages.
+   *
+   * @param request The request.
+   * @return The kind of the request.
+   */
+  protected String getRequestKind(RequestEnvelope request) {
+    StringBuilder kind = new StringBuilder();
+    if (request.getMessageSets() != null) {
+      for (RequestMessageSet messageSet : request.getMessageSets()) {
+        if (messageSet.getType() != MessageSetType.signon) {
+          for (RequestMessage message : messageSet.getRequestMessages()) {
+            if (message != null) {
+              kind.append(message.getClass().getSimpleName()).append(';');
+            }
+          }
+        }
+      }
+    }
+    return kind.toString();
+  }
+
+  /**
+   * Whether the specified failure is a sign that the host is congested.
+   *
+   * @param e The failure.
+   * @return Whether the failure is a sign that the host is congested.
+   */
+  protected boolean isCongestion(OFXConnectionException e) {
+    if (e instanceof OFXServerException) {
+      int code = ((OFXServerException) e).getHttpCode();
+      return code == 429 || code >= 500;
+    }
+    return e.getCause() instanceof IOException;
+  }
+
+  /**
+   * The key of the host of the specified URL, by which requests are throttled.
+   *
+   * @param url The URL.
+   * @return The host key.
+   */
+  protected String getHostKey(URL url) {
+    return url.getHost().toLowerCase();
+  }
+
+  /**
+   * Get (or create) the throttle of the specified host.
+   *
+   * @param host The host key.
+   * @return The throttle.
+   */
+  protected HostThrottle getThrottle(String host) {
+    HostThrottle throttle = this.throttles.get(host);
+    if (throttle == null) {
+      Double rate = getRateLimits() == null ? null : getRateLimits().get(host);
+      HostThrottle created = new HostThrottle(host, rate == null ? getDefaultRateLimit() : rate);
+      throttle = this.throttles.putIfAbsent(host, created);
+      if (throttle == null) {
+        throttle = created;
+      }
+    }
+    return throttle;
+  }
+
+  /**
+   * The current concurrency limit of the specified host.
+   *
+   * @param host The host.
+   * @return The current concurrency limit.
+   */
+  public int getLimit(String host) {
+    return getThrottle(host.toLowerCase()).getLimit();
+  }
+
+  /**
+   * The number of requests in flight to the specified host.
+   *
+   * @param host The host.
+   * @return The number of requests in flight.
+   */
+  public int getInFlight(String host) {
+    return getThrottle(host.toLowerCase()).getInFlight();
+  }
+
+  /**
+   * The connection requests are sent through.
+   *
+   * @return The connection requests are sent through.
+   */
+  public OFXConnection getDelegate() {
+    return delegate;
+  }
+
+  /**
+   * The concurrency limit a host starts with.
+   *
+   * @return The concurrency limit a host starts with.
+   */
+  public int getInitialLimit() {
+    return initialLimit;
+  }
+
+  /**
+   * The concurrency limit a host starts with.
+   *
+   * @param initialLimit The concurrency limit a host starts with.
+   */
+  public void setInitialLimit(int initialLimit) {
+    this.initialLimit = initialLimit;
+  }
+
+  /**
+   * The minimum concurrency limit of a host.
+   *
+   * @return The minimum concurrency limit of a host.
+   */
+  public int getMinLimit() {
+    return minLimit;
+  }
+
+  /**
+   * The minimum concurrency limit of a host.
+   *
+   * @param minLimit The minimum concurrency limit of a host.
+   */
+  public void setMinLimit(int minLimit) {
+    this.minLimit = minLimit;
+  }
+
+  /**
+   * The maximum concurrency limit of a host.
+   *
+   * @return The maximum concurrency limit of a host.
+   */
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+  /**
+   * The maximum concurrency limit of a host.
+   *
+   * @param maxLimit The maximum concurrency limit of a host.
+   */
+  public void setMaxLimit(int maxLimit) {
+    this.maxLimit = maxLimit;
+  }
+
+  /**
+   * The ratio the concurrency limit of a host is multiplied by when a request shows congestion (at most once per window).
+   *
+   * @return The ratio the concurrency limit of a host is multiplied by when a request shows congestion.
+   */
+  public double getBackoffRatio() {
+    return backoffRatio;
+  }
+
+  /**
+   * The ratio the concurrency limit of a host is multiplied by when a request shows congestion.
+   *
+   * @param backoffRatio The ratio the concurrency limit of a host is multiplied by when a request shows congestion.
+   */
+  public void setBackoffRatio(double backoffRatio) {
+    this.backoffRatio = backoffRatio;
+  }
+
+  /**
+   * How many times the baseline latency of a host (for the same kind of request) a successful request may take before
+   * it counts as congestion, or 0 to ignore latency.
+   *
+   * @return The latency tolerance.
+   */
+  public double getLatencyTolerance() {
+    return latencyTolerance;
+  }
+
+  /**
+   * How many times the baseline latency of a host (for the same kind of request) a successful request may take before
+   * it counts as congestion, or 0 to ignore latency.
+   *
+   * @param latencyTolerance The latency tolerance.
+   */
+  public void setLatencyTolerance(double latencyTolerance) {
+    this.latencyTolerance = latencyTolerance;
+  }
+
+  /**
+   * The maximum time (in milliseconds) a request waits for a token and a slot before failing.
+   *
+   * @return The maximum time a request waits for a token and a slot.
+   */
+  public long getMaxQueueTime() {
+    return maxQueueTime;
+  }
+
+  /**
+   * The maximum time (in milliseconds) a request waits for a token and a slot before failing.
+   *
+   * @param maxQueueTime The maximum time a request waits for a token and a slot.
+   */
+  public void setMaxQueueTime(long maxQueueTime) {
+    this.maxQueueTime = maxQueueTime;
+  }
+
+  /**
+   * The rate limits (requests per second) by host. Applies to the hosts first seen after it's set.
+   *
+   * @return The rate limits by host.
+   */
+  public Map<String, Double> getRateLimits() {
+    return rateLimits;
+  }
+
+  /**
+   * The rate limits (requests per second) by host. Applies to the hosts first seen after it's set.
+   *
+   * @param rateLimits The rate limits by host.
+   */
+  public void setRateLimits(Map<String, Double> rateLimits) {
+    this.rateLimits = rateLimits;
+  }
+
+  /**
+   * The rate limit (requests per second) of the hosts without a specific rate limit, or 0 for none.
+   *
+   * @return The default rate limit.
+   */
+  public double getDefaultRateLimit() {
+    return defaultRateLimit;
+  }
+
+  /**
+   * The rate limit (requests per second) of the hosts without a specific rate limit, or 0 for none.
+   *
+   * @param defaultRateLimit The default rate limit.
+   */
+  public void setDefaultRateLimit(double defaultRateLimit) {
+    this.defaultRateLimit = defaultRateLimit;
+  }
+
+  /**
+   * The number of requests a rate-limited host may receive in a burst.
+   *
+   * @return The number of requests a rate-limited host may receive in a burst.
+   */
+  public int getRateLimitBurst() {
+    return rateLimitBurst;
+  }
+
+  /**
+   * The number of requests a rate-limited host may receive in a burst.
+   *
+   * @param rateLimitBurst The number of requests a rate-limited host may receive in a burst.
+   */
+  public void setRateLimitBurst(int rateLimitBurst) {
+    this.rateLimitBurst = rateLimitBurst;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on if the delegate isn't an {@link AsyncOFXConnection}, or null to
+   * send them on the calling thread.
+   *
+   * @return The executor asynchronous requests are sent on if the delegate doesn't support them.
+   */
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * The executor asynchronous requests are sent on if the delegate isn't an {@link AsyncOFXConnection}, or null to
+   * send them on the calling thread.
+   *
+   * @param executor The executor asynchronous requests are sent on if the delegate doesn't support them.
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * The scheduler that wakes the queued asynchronous requests when a token is available and fails them at their
+   * deadline. Defaults to a single daemon thread, created when it's first needed and shut down by {@link #shutdown()}.
+   *
+   * @return The scheduler of the queued asynchronous requests.
+   */
+  protected synchronized ScheduledExecutorService getScheduler() {
+    if (this.scheduler == null) {
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "ofx-throttle");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return scheduler;
+  }
+
+  /**
+   * An asynchronous request waiting for a token and a slot.
+   */
+  protected abstract static class Waiter {
+
+    private final long deadline;
+
+    protected Waiter(long deadline) {
+      this.deadline = deadline;
+    }
+
+    /**
+     * Notified when the token and slot have been acquired.
+     *
+     * @param ticket The ticket of the request.
+     */
+    abstract void acquired(long ticket);
+
+    /**
+     * Notified when the deadline passed before the token and slot could be acquired.
+     */
+    abstract void expired();
+  }
+
+  /**
+   * The throttle of a single host: an adaptive concurrency limit and an optional token bucket.
+   */
+  protected class HostThrottle {
+
+    private final String host;
+    private final double rate;
+    private double limit;
+    private final Map<String, Long> baselineLatencies = new HashMap<String, Long>();
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    private int inFlight = 0;
+    private long sent = 0;
+    private long recovery = 0;
+    private double tokens;
+    private long refilled;
+
+    protected HostThrottle(String host, double rate) {
+      this.host = host;
+      this.rate = rate;
+      this.limit = Math.max(getMinLimit(), Math.min(getMaxLimit(), getInitialLimit()));
+      this.tokens = Math.max(1, getRateLimitBurst());
+      this.refilled = System.nanoTime();
+    }
+
+    /**
+     * Acquire a token and a slot, waiting until the deadline at most.
+     *
+     * @param deadline The deadline (in terms of {@link System#nanoTime()}).
+     * @return The ticket of the request (the sequence in which it was sent), or -1 if the token and slot weren't acquired.
+     */
+    synchronized long acquire(long deadline) throws InterruptedException {
+      if (this.rate > 0) {
+        //token bucket: reserve the next token, unless it won't be available before the deadline.
+        refill();
+        long now = this.refilled;
+        long wait = this.tokens >= 1 ? 0 : (long) (((1 - this.tokens) / this.rate) * 1e9);
+        if (now + wait - deadline > 0) {
+          return -1;
+        }
+        this.tokens -= 1;
+        long available = now + wait;
+        while ((wait = available - System.nanoTime()) > 0) {
+          TimeUnit.NANOSECONDS.timedWait(this, wait);
+        }
+      }
+
+      while (this.inFlight >= (int) this.limit) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining <= 0) {
+          return -1;
+        }
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      }
+      this.inFlight++;
+      return this.sent++;
+    }
+
+    /**
+     * Acquire a token and a slot without blocking: the waiter is notified as soon as they are acquired (right away, on
+     * the calling thread, if they are available), or when its deadline passes.
+     *
+     * @param waiter The waiter.
+     */
+    void acquire(final Waiter waiter) {
+      long ticket;
+      long tokenDelay = 0;
+      synchronized (this) {
+        ticket = this.waiters.isEmpty() ? tryAcquire() : -1;
+        if (ticket < 0) {
+          this.waiters.add(waiter);
+          tokenDelay = getTokenDelay();
+        }
+      }
+
+      if (ticket >= 0) {
+        waiter.acquired(ticket);
+        return;
+      }
+
+      boolean scheduled = schedule(new Runnable() {
+        public void run() {
+          if (remove(waiter)) {
+            waiter.expired();
+          }
+        }
+      }, Math.max(0, waiter.deadline - System.nanoTime()));
+      if (!scheduled && remove(waiter)) {
+        waiter.expired();
+      }
+      else if (tokenDelay > 0) {
+        scheduleDispatch(tokenDelay);
+      }
+    }
+
+    /**
+     * Acquire a token and a slot if both are available right away.
+     *
+     * @return The ticket of the request, or -1 if the token and slot aren't available.
+     */
+    private long tryAcquire() {
+      if (this.inFlight >= (int) this.limit) {
+        return -1;
+      }
+
+      if (this.rate > 0) {
+        refill();
+        if (this.tokens < 1) {
+          return -1;
+        }
+        this.tokens -= 1;
+      }
+      this.inFlight++;
+      return this.sent++;
+    }
+
+    private void refill() {
+      long now = System.nanoTime();
+      this.tokens = Math.min(Math.max(1, getRateLimitBurst()), this.tokens + ((now - this.refilled) / 1e9) * this.rate);
+      this.refilled = now;
+    }
+
+    /**
+     * The time until the next token is available, if a token is what the next waiter waits for.
+     *
+     * @return The time in nanoseconds until the next token is available, or 0.
+     */
+    private long getTokenDelay() {
+      if (this.rate <= 0) {
+        return 0;
+      }
+      refill();
+      return this.tokens >= 1 ? 0 : (long) (((1 - this.tokens) / this.rate) * 1e9);
+    }
+
+    private synchronized boolean remove(Waiter waiter) {
+      return this.waiters.remove(waiter);
+    }
+
+    private boolean scheduleDispatch(long delay) {
+      return schedule(new Runnable() {
+        public void run() {
+          dispatch();
+        }
+      }, delay);
+    }
+
+    /**
+     * Hand the available tokens and slots to the queued waiters.
+     */
+    void dispatch() {
+      List<Waiter> ready = new ArrayList<Waiter>();
+      List<Long> tickets = new ArrayList<Long>();
+      long tokenDelay = 0;
+      synchronized (this) {
+        while (!this.waiters.isEmpty()) {
+          long ticket = tryAcquire();
+          if (ticket < 0) {
+            tokenDelay = getTokenDelay();
+            break;
+          }
+          ready.add(this.waiters.removeFirst());
+          tickets.add(ticket);
+        }
+      }
+
+      for (int i = 0; i < ready.size(); i++) {
+        ready.get(i).acquired(tickets.get(i));
+      }
+      if (tokenDelay > 0) {
+        scheduleDispatch(tokenDelay);
+      }
+    }
+
+    /**
+     * Release a slot, adapting the limit to the outcome of the request.
+     *
+     * @param ticket The ticket of the request.
+     * @param kind The kind of the request.
+     * @param latency The latency of the request in nanoseconds, or -1 if it wasn't sent.
+     * @param congested Whether the request failed with a sign of congestion.
+     */
+    void release(long ticket, String kind, long latency, boolean congested) {
+      boolean queued;
+      synchronized (this) {
+        adapt(ticket, kind, latency, congested);
+        notifyAll();
+        queued = !this.waiters.isEmpty();
+      }
+
+      //the queued requests are sent from the scheduler, so that a delegate that completes on the calling thread
+      //doesn't recurse through the whole queue.
+      if (queued && !scheduleDispatch(0)) {
+        dispatch();
+      }
+    }
+
+    private void adapt(long ticket, String kind, long latency, boolean congested) {
+      boolean saturated = this.inFlight >= this.limit / 2;
+      this.inFlight--;
+      if (latency < 0) {
+        return;
+      }
+
+      if (!congested && getLatencyTolerance() > 0) {
+        Long baseline = this.baselineLatencies.get(kind);
+        if (baseline == null || latency < baseline) {
+          this.baselineLatencies.put(kind, latency);
+        }
+        else {
+          //let the baseline drift up slowly, so a single fast response doesn't pin it forever.
+          baseline += Math.max(1, baseline / 100);
+          this.baselineLatencies.put(kind, baseline);
+          congested = latency > baseline * getLatencyTolerance();
+        }
+      }
+
+      double previous = this.limit;
+      if (congested) {
+        if (ticket >= this.recovery) {
+          this.limit = Math.max(getMinLimit(), this.limit * getBackoffRatio());
+          //the requests in flight were sent under the old limit: their congestion is accounted for by this decrease.
+          this.recovery = this.sent;
+        }
+      }
+      else if (saturated) {
+        //only grow a limit that's actually being used.
+        this.limit = Math.min(getMaxLimit(), this.limit + (1 / this.limit));
+      }
+
+      if ((int) previous != (int) this.limit && LOG.isDebugEnabled()) {
+        LOG.debug(String.format("Concurrency limit of %s: %s -> %s.", this.host, (int) previous, (int) this.limit));
+      }
+    }
+
+    public synchronized int getLimit() {
+      return (int) this.limit;
+    }
+
+    public synchronized int getInFlight() {
+      return this.inFlight;
+    }
+  }
+}
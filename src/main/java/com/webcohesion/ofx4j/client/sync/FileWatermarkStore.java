@@ -0,0 +1,151 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Watermark store that keeps each watermark in a properties file in a directory. The end of the watermark is the
+ * "end" property and each transaction id is a "fitid." property, both in milliseconds since the epoch.
+ *
+ * @author Ryan Heaton
+ */
+public class FileWatermarkStore implements WatermarkStore {
+
+  private static final String END_PROPERTY = "end";
+  private static final String TRANSACTION_ID_PREFIX = "fitid.";
+
+  private final File directory;
+
+  public FileWatermarkStore(File directory) {
+    if (directory == null) {
+      throw new IllegalArgumentException("A directory must be supplied.");
+    }
+    this.directory = directory;
+  }
+
+  // Inherited.
+  public SyncWatermark load(String accountKey) throws IOException {
+    File file = getFile(accountKey);
+    if (!file.exists()) {
+      return null;
+    }
+
+    Properties properties = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      properties.load(in);
+    }
+    finally {
+      in.close();
+    }
+
+    SyncWatermark watermark = new SyncWatermark();
+    try {
+      for (String name : properties.stringPropertyNames()) {
+        String value = properties.getProperty(name);
+        if (END_PROPERTY.equals(name)) {
+          watermark.setEnd(new Date(Long.parseLong(value)));
+        }
+        else if (name.startsWith(TRANSACTION_ID_PREFIX)) {
+          watermark.getTransactionIds().put(name.substring(TRANSACTION_ID_PREFIX.length()), value.length() == 0 ? null : new Date(Long.parseLong(value)));
+        }
+      }
+    }
+    catch (NumberFormatException e) {
+      throw new IOException("Invalid watermark " + file + ": " + e.getMessage());
+    }
+    return watermark;
+  }
+
+  // Inherited.
+  public void store(String accountKey, SyncWatermark watermark) throws IOException {
+    Properties properties = new Properties();
+    if (watermark.getEnd() != null) {
+      properties.setProperty(END_PROPERTY, String.valueOf(watermark.getEnd().getTime()));
+    }
+    for (Map.Entry<String, Date> transactionId : watermark.getTransactionIds().entrySet()) {
+      properties.setProperty(TRANSACTION_ID_PREFIX + transactionId.getKey(), transactionId.getValue() == null ? "" : String.valueOf(transactionId.getValue().getTime()));
+    }
+
+    if (!this.directory.exists() && !this.directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + this.directory + ".");
+    }
+
+    //write to a temporary file first, so that a crash never leaves a partial watermark.
+    File file = getFile(accountKey);
+    File temp = new File(this.directory, file.getName() + ".tmp");
+    OutputStream out = new FileOutputStream(temp);
+    try {
+      properties.store(out, accountKey);
+    }
+    finally {
+      out.close();
+    }
+
+    if (!temp.renameTo(file)) {
+      //some platforms won't rename over an existing file.
+      file.delete();
+      if (!temp.renameTo(file)) {
+        temp.delete();
+        throw new IOException("Unable to rename " + temp + " to " + file + ".");
+      }
+    }
+  }
+
+  // Inherited.
+  public void delete(String accountKey) throws IOException {
+    File file = getFile(accountKey);
+    if (file.exists() && !file.delete()) {
+      throw new IOException("Unable to delete " + file + ".");
+    }
+  }
+
+  /**
+   * The file the watermark of the specified account is kept in.
+   *
+   * @param accountKey The key of the account.
+   * @return The file.
+   */
+  protected File getFile(String accountKey) {
+    try {
+      return new File(this.directory, URLEncoder.encode(accountKey, "utf-8") + ".watermark");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The directory the watermarks are kept in.
+   *
+   * @return The directory the watermarks are kept in.
+   */
+  public File getDirectory() {
+    return directory;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Watermark store that keeps the watermarks in memory.
+ *
+ * @author Ryan Heaton
+ */
+public class InMemoryWatermarkStore implements WatermarkStore {
+
+  private final ConcurrentMap<String, SyncWatermark> watermarks = new ConcurrentHashMap<String, SyncWatermark>();
+
+  // Inherited.
+  public SyncWatermark load(String accountKey) {
+    SyncWatermark watermark = this.watermarks.get(accountKey);
+    return watermark == null ? null : copy(watermark);
+  }
+
+  // Inherited.
+  public void store(String accountKey, SyncWatermark watermark) {
+    this.watermarks.put(accountKey, copy(watermark));
+  }
+
+  // Inherited.
+  public void delete(String accountKey) {
+    this.watermarks.remove(accountKey);
+  }
+
+  private static SyncWatermark copy(SyncWatermark watermark) {
+    SyncWatermark copy = new SyncWatermark();
+    copy.setEnd(watermark.getEnd());
+    copy.setTransactionIds(new HashMap<String, Date>(watermark.getTransactionIds()));
+    return copy;
+  }
+}
@@ -0,0 +1,344 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.FinancialInstitutionAccount;
+import com.webcohesion.ofx4j.client.StatementListener;
+import com.webcohesion.ofx4j.client.StreamingAccount;
+import com.webcohesion.ofx4j.client.impl.BaseAccountImpl;
+import com.webcohesion.ofx4j.client.impl.InvestmentAccountImpl;
+import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionList;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
+import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementResponse;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentBankTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentTransactionList;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Synchronizes the statements of accounts incrementally. Each account has a {@link SyncWatermark watermark} in a local
+ * {@link WatermarkStore store}: the end of the last synchronized statement. A sync only requests the statement from
+ * the watermark (less an overlap margin, for the transactions the institution posts late) to now, and the transactions
+ * of the overlap that were already delivered are recognized by their id (FITID) and dropped, so that the listener only
+ * sees new transactions. The watermark is only advanced once the statement has been read successfully. The statement
+ * of a {@link StreamingAccount} is streamed; the statement of any other account is read as a whole, then delivered.
+ *
+ * @author Ryan Heaton
+ */
+public class StatementSyncManager {
+
+  public static final long DAY = 24L * 60 * 60 * 1000;
+
+  private final WatermarkStore store;
+  private long overlap = 7 * DAY;
+  private long initialWindow = 90 * DAY;
+
+  public StatementSyncManager(WatermarkStore store) {
+    if (store == null) {
+      throw new IllegalArgumentException("A watermark store must be supplied.");
+    }
+    this.store = store;
+  }
+
+  /**
+   * Synchronize the statement of the specified account, keyed by its {@link #getAccountKey(FinancialInstitutionAccount) details}.
+   *
+   * @param account The account.
+   * @param listener The listener to deliver the new transactions to.
+   * @return The result.
+   */
+  public SyncResult sync(FinancialInstitutionAccount account, StatementListener listener) throws OFXException {
+    return sync(getAccountKey(account), account, listener);
+  }
+
+  /**
+   * Synchronize the statement of the specified account.
+   *
+   * @param accountKey The key of the account in the watermark store.
+   * @param account The account.
+   * @param listener The listener to deliver the new transactions to.
+   * @return The result.
+   */
+  public SyncResult sync(String accountKey, FinancialInstitutionAccount account, StatementListener listener) throws OFXException {
+    SyncWatermark watermark;
+    try {
+      watermark = this.store.load(accountKey);
+    }
+    catch (IOException e) {
+      throw new OFXException("Unable to load the watermark of " + accountKey + ".", e);
+    }
+
+    Date now = now();
+    Date start;
+    Map<String, Date> transactionIds = new HashMap<String, Date>();
+    if (watermark == null || watermark.getEnd() == null) {
+      start = new Date(now.getTime() - getInitialWindow());
+    }
+    else {
+      start = new Date(Math.min(watermark.getEnd().getTime(), now.getTime()) - getOverlap());
+      transactionIds.putAll(watermark.getTransactionIds());
+    }
+
+    DeduplicatingListener deduplicatingListener = new DeduplicatingListener(listener, transactionIds);
+    readStatement(account, start, now, deduplicatingListener);
+
+    //the watermark never goes past now, nor back.
+    Date end = deduplicatingListener.statementEnd == null || deduplicatingListener.statementEnd.after(now) ? now : deduplicatingListener.statementEnd;
+    if (watermark != null && watermark.getEnd() != null && watermark.getEnd().after(end)) {
+      end = watermark.getEnd();
+    }
+
+    //only the ids within the overlap margin of the new watermark need to be remembered.
+    long threshold = end.getTime() - getOverlap();
+    Iterator<Date> dates = transactionIds.values().iterator();
+    while (dates.hasNext()) {
+      Date date = dates.next();
+      if (date == null || date.getTime() < threshold) {
+        dates.remove();
+      }
+    }
+
+    SyncWatermark next = new SyncWatermark();
+    next.setEnd(end);
+    next.setTransactionIds(transactionIds);
+    try {
+      this.store.store(accountKey, next);
+    }
+    catch (IOException e) {
+      throw new OFXException("Unable to store the watermark of " + accountKey + ".", e);
+    }
+
+    return new SyncResult(start, now, end, deduplicatingListener.newCount, deduplicatingListener.duplicateCount);
+  }
+
+  /**
+   * Reset the watermark of the specified account, so that its next sync starts from scratch.
+   *
+   * @param accountKey The key of the account.
+   */
+  public void reset(String accountKey) throws OFXException {
+    try {
+      this.store.delete(accountKey);
+    }
+    catch (IOException e) {
+      throw new OFXException("Unable to delete the watermark of " + accountKey + ".", e);
+    }
+  }
+
+  /**
+   * Read the statement of the specified account, delivering it to the specified listener.
+   *
+   * @param account The account.
+   * @param start The start date of the statement.
+   * @param end The end date of the statement.
+   * @param listener The listener.
+   */
+  protected void readStatement(FinancialInstitutionAccount account, Date start, Date end, StatementListener listener) throws OFXException {
+    if (account instanceof StreamingAccount) {
+      ((StreamingAccount) account).readStatement(start, end, listener);
+      return;
+    }
+
+    AccountStatement statement = account.readStatement(start, end);
+    listener.onHeader(statement);
+    TransactionList transactionList = statement.getTransactionList();
+    if (transactionList != null && transactionList.getTransactions() != null) {
+      for (Transaction transaction : transactionList.getTransactions()) {
+        listener.onTransaction(transaction);
+      }
+    }
+
+    if (statement instanceof InvestmentStatementResponse) {
+      InvestmentTransactionList investmentTransactionList = ((InvestmentStatementResponse) statement).getInvestmentTransactionList();
+      if (investmentTransactionList != null && investmentTransactionList.getInvestmentTransactions() != null) {
+        for (BaseInvestmentTransaction transaction : investmentTransactionList.getInvestmentTransactions()) {
+          listener.onInvestmentTransaction(transaction);
+        }
+      }
+      if (investmentTransactionList != null && investmentTransactionList.getBankTransactions() != null) {
+        for (InvestmentBankTransaction transaction : investmentTransactionList.getBankTransactions()) {
+          listener.onInvestmentBankTransaction(transaction);
+        }
+      }
+    }
+    listener.onBalances(statement);
+  }
+
+  /**
+   * The key of the specified account in the watermark store, derived from its details.
+   *
+   * @param account The account.
+   * @return The key of the account.
+   * @throws IllegalArgumentException If the details of the account are unknown.
+   */
+  protected String getAccountKey(FinancialInstitutionAccount account) {
+    Object details = null;
+    if (account instanceof BaseAccountImpl) {
+      details = ((BaseAccountImpl) account).getDetails();
+    }
+    else if (account instanceof InvestmentAccountImpl) {
+      details = ((InvestmentAccountImpl) account).getDetails();
+    }
+
+    if (details instanceof BankAccountDetails) {
+      BankAccountDetails bankDetails = (BankAccountDetails) details;
+      return "bank:" + bankDetails.getBankId() + ':' + bankDetails.getAccountNumber() + ':' + bankDetails.getAccountType();
+    }
+    else if (details instanceof CreditCardAccountDetails) {
+      return "creditcard:" + ((CreditCardAccountDetails) details).getAccountNumber();
+    }
+    else if (details instanceof InvestmentAccountDetails) {
+      InvestmentAccountDetails investmentDetails = (InvestmentAccountDetails) details;
+      return "investment:" + investmentDetails.getBrokerId() + ':' + investmentDetails.getAccountNumber();
+    }
+    throw new IllegalArgumentException("Unable to determine the key of account " + account + ".");
+  }
+
+  /**
+   * The current time.
+   *
+   * @return The current time.
+   */
+  protected Date now() {
+    return new Date();
+  }
+
+  /**
+   * The store of the watermarks.
+   *
+   * @return The store of the watermarks.
+   */
+  public WatermarkStore getStore() {
+    return store;
+  }
+
+  /**
+   * The overlap margin (in milliseconds) before the watermark that is requested again, for the transactions that are
+   * posted late.
+   *
+   * @return The overlap margin.
+   */
+  public long getOverlap() {
+    return overlap;
+  }
+
+  /**
+   * The overlap margin (in milliseconds) before the watermark that is requested again, for the transactions that are
+   * posted late.
+   *
+   * @param overlap The overlap margin.
+   */
+  public void setOverlap(long overlap) {
+    this.overlap = overlap;
+  }
+
+  /**
+   * The window (in milliseconds) requested for an account that has never been synchronized.
+   *
+   * @return The window requested for an account that has never been synchronized.
+   */
+  public long getInitialWindow() {
+    return initialWindow;
+  }
+
+  /**
+   * The window (in milliseconds) requested for an account that has never been synchronized.
+   *
+   * @param initialWindow The window requested for an account that has never been synchronized.
+   */
+  public void setInitialWindow(long initialWindow) {
+    this.initialWindow = initialWindow;
+  }
+
+  /**
+   * Drops the transactions that were already delivered and notes the end of the statement.
+   */
+  private static class DeduplicatingListener implements StatementListener {
+
+    private final StatementListener delegate;
+    private final Map<String, Date> transactionIds;
+    private Date statementEnd;
+    private int newCount = 0;
+    private int duplicateCount = 0;
+
+    private DeduplicatingListener(StatementListener delegate, Map<String, Date> transactionIds) {
+      this.delegate = delegate;
+      this.transactionIds = transactionIds;
+    }
+
+    public void onHeader(AccountStatement statement) {
+      this.delegate.onHeader(statement);
+    }
+
+    public void onTransaction(Transaction transaction) {
+      if (isNew(transaction.getId(), transaction.getDatePosted())) {
+        this.delegate.onTransaction(transaction);
+      }
+    }
+
+    public void onInvestmentTransaction(BaseInvestmentTransaction transaction) {
+      if (isNew(transaction.getTransactionId(), transaction.getTradeDate())) {
+        this.delegate.onInvestmentTransaction(transaction);
+      }
+    }
+
+    public void onInvestmentBankTransaction(InvestmentBankTransaction transaction) {
+      Transaction bankTransaction = transaction.getTransaction();
+      if (bankTransaction == null || isNew(bankTransaction.getId(), bankTransaction.getDatePosted())) {
+        this.delegate.onInvestmentBankTransaction(transaction);
+      }
+    }
+
+    public void onBalances(AccountStatement statement) {
+      if (statement instanceof InvestmentStatementResponse) {
+        InvestmentStatementResponse investmentStatement = (InvestmentStatementResponse) statement;
+        InvestmentTransactionList transactionList = investmentStatement.getInvestmentTransactionList();
+        this.statementEnd = transactionList != null && transactionList.getEnd() != null ? transactionList.getEnd() : investmentStatement.getDateOfStatement();
+      }
+      else if (statement.getTransactionList() != null) {
+        this.statementEnd = statement.getTransactionList().getEnd();
+      }
+      this.delegate.onBalances(statement);
+    }
+
+    private boolean isNew(String transactionId, Date date) {
+      if (transactionId == null) {
+        //can't tell.
+        this.newCount++;
+        return true;
+      }
+      else if (this.transactionIds.containsKey(transactionId)) {
+        this.duplicateCount++;
+        return false;
+      }
+
+      this.transactionIds.put(transactionId, date);
+      this.newCount++;
+      return true;
+    }
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import java.util.Date;
+
+/**
+ * The result of synchronizing the statement of an account.
+ *
+ * @author Ryan Heaton
+ */
+public class SyncResult {
+
+  private final Date start;
+  private final Date end;
+  private final Date watermark;
+  private final int newTransactionCount;
+  private final int duplicateTransactionCount;
+
+  public SyncResult(Date start, Date end, Date watermark, int newTransactionCount, int duplicateTransactionCount) {
+    this.start = start;
+    this.end = end;
+    this.watermark = watermark;
+    this.newTransactionCount = newTransactionCount;
+    this.duplicateTransactionCount = duplicateTransactionCount;
+  }
+
+  /**
+   * The start of the requested statement.
+   *
+   * @return The start of the requested statement.
+   */
+  public Date getStart() {
+    return start;
+  }
+
+  /**
+   * The end of the requested statement.
+   *
+   * @return The end of the requested statement.
+   */
+  public Date getEnd() {
+    return end;
+  }
+
+  /**
+   * The new watermark of the account.
+   *
+   * @return The new watermark of the account.
+   */
+  public Date getWatermark() {
+    return watermark;
+  }
+
+  /**
+   * The number of new transactions delivered.
+   *
+   * @return The number of new transactions delivered.
+   */
+  public int getNewTransactionCount() {
+    return newTransactionCount;
+  }
+
+  /**
+   * The number of transactions of the overlap that had already been delivered (and were dropped).
+   *
+   * @return The number of transactions that had already been delivered.
+   */
+  public int getDuplicateTransactionCount() {
+    return duplicateTransactionCount;
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How far the statements of an account have been synchronized: the end of the last synchronized statement (DTEND, or
+ * DTASOF for investment statements) and the ids (FITID) of the transactions already delivered within the overlap
+ * margin before it, by transaction date.
+ *
+ * @author Ryan Heaton
+ */
+public class SyncWatermark {
+
+  private Date end;
+  private Map<String, Date> transactionIds = new HashMap<String, Date>();
+
+  /**
+   * The end of the last synchronized statement.
+   *
+   * @return The end of the last synchronized statement.
+   */
+  public Date getEnd() {
+    return end;
+  }
+
+  /**
+   * The end of the last synchronized statement.
+   *
+   * @param end The end of the last synchronized statement.
+   */
+  public void setEnd(Date end) {
+    this.end = end;
+  }
+
+  /**
+   * The ids of the transactions already delivered within the overlap margin, by transaction date.
+   *
+   * @return The ids of the transactions already delivered within the overlap margin.
+   */
+  public Map<String, Date> getTransactionIds() {
+    return transactionIds;
+  }
+
+  /**
+   * The ids of the transactions already delivered within the overlap margin, by transaction date.
+   *
+   * @param transactionIds The ids of the transactions already delivered within the overlap margin.
+   */
+  public void setTransactionIds(Map<String, Date> transactionIds) {
+    this.transactionIds = transactionIds;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import java.io.IOException;
+
+/**
+ * Local store of the sync watermarks of the accounts.
+ *
+ * @author Ryan Heaton
+ */
+public interface WatermarkStore {
+
+  /**
+   * Load the watermark of the specified account.
+   *
+   * @param accountKey The key of the account.
+   * @return The watermark, or null if the account has never been synchronized.
+   */
+  SyncWatermark load(String accountKey) throws IOException;
+
+  /**
+   * Store the watermark of the specified account.
+   *
+   * @param accountKey The key of the account.
+   * @param watermark The watermark.
+   */
+  void store(String accountKey, SyncWatermark watermark) throws IOException;
+
+  /**
+   * Delete the watermark of the specified account, so that it's synchronized from scratch.
+   *
+   * @param accountKey The key of the account.
+   */
+  void delete(String accountKey) throws IOException;
+}
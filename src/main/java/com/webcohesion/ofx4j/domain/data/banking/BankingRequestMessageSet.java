@@ -23,6 +23,7 @@ import com.webcohesion.ofx4j.meta.Aggregate;
 import com.webcohesion.ofx4j.meta.ChildAggregate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,36 +32,59 @@ import java.util.List;
 @Aggregate("BANKMSGSRQV1")
 public class BankingRequestMessageSet extends RequestMessageSet {
 
-    private BankStatementRequestTransaction statementRequest;
+    private List<BankStatementRequestTransaction> statementRequests;
 
     public MessageSetType getType() {
         return MessageSetType.banking;
     }
 
     /**
-     * The statement request.
+     * The statement requests. Most requests have a single statement request, but a request may batch the
+     * statement requests of several accounts, each in its own transaction.
      *
-     * @return The statement request.
+     * @return The statement requests.
      */
     @ChildAggregate(order = 0)
+    public List<BankStatementRequestTransaction> getStatementRequests() {
+        return statementRequests;
+    }
+
+    /**
+     * The statement requests.
+     *
+     * @param statementRequests The statement requests.
+     */
+    public void setStatementRequests(List<BankStatementRequestTransaction> statementRequests) {
+        this.statementRequests = statementRequests;
+    }
+
+    /**
+     * The first statement request.
+     *
+     * @return The first statement request.
+     */
     public BankStatementRequestTransaction getStatementRequest() {
-        return statementRequest;
+        return statementRequests == null || statementRequests.isEmpty() ? null : statementRequests.get(0);
     }
 
     /**
-     * The statement request.
+     * The statement request (null for none).
      *
      * @param statementRequest The statement request.
      */
     public void setStatementRequest(BankStatementRequestTransaction statementRequest) {
-        this.statementRequest = statementRequest;
+        this.statementRequests = statementRequest == null ? null : Collections.singletonList(statementRequest);
     }
 
     // Inherited.
     public List<RequestMessage> getRequestMessages() {
         ArrayList<RequestMessage> requestMessages = new ArrayList<RequestMessage>();
-        if (getStatementRequest() != null) {
-            requestMessages.add(getStatementRequest());
+        if (getStatementRequests() != null) {
+            for (RequestMessage statementRequest : getStatementRequests()) {
+                if (statementRequest != null) {
+                    requestMessages.add(statementRequest);
+                }
+            }
         }
         return requestMessages;
     }
@@ -70,7 +94,7 @@ public class BankingRequestMessageSet extends RequestMessageSet {
         String inherited = super.toString().replaceFirst("^\\w+\\{", "").replaceAll("}$", "");
         return "BankingRequestMessageSet{" +
                 (inherited.trim().isEmpty() ? "" : (inherited + ", ")) +
-                "statementRequest=" + statementRequest +
+                "statementRequests=" + statementRequests +
                 '}';
     }
 }
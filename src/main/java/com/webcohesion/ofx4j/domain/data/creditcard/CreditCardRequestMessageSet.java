@@ -23,6 +23,7 @@ import com.webcohesion.ofx4j.meta.Aggregate;
 import com.webcohesion.ofx4j.meta.ChildAggregate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,36 +32,59 @@ import java.util.List;
 @Aggregate("CREDITCARDMSGSRQV1")
 public class CreditCardRequestMessageSet extends RequestMessageSet {
 
-    private CreditCardStatementRequestTransaction statementRequest;
+    private List<CreditCardStatementRequestTransaction> statementRequests;
 
     public MessageSetType getType() {
         return MessageSetType.creditcard;
     }
 
     /**
-     * The request.
+     * The statement requests. Most requests have a single statement request, but a request may batch the
+     * statement requests of several accounts, each in its own transaction.
      *
-     * @return The request.
+     * @return The statement requests.
      */
     @ChildAggregate(order = 0)
+    public List<CreditCardStatementRequestTransaction> getStatementRequests() {
+        return statementRequests;
+    }
+
+    /**
+     * The statement requests.
+     *
+     * @param statementRequests The statement requests.
+     */
+    public void setStatementRequests(List<CreditCardStatementRequestTransaction> statementRequests) {
+        this.statementRequests = statementRequests;
+    }
+
+    /**
+     * The first statement request.
+     *
+     * @return The first statement request.
+     */
     public CreditCardStatementRequestTransaction getStatementRequest() {
-        return statementRequest;
+        return statementRequests == null || statementRequests.isEmpty() ? null : statementRequests.get(0);
     }
 
     /**
-     * The request.
+     * The statement request (null for none).
      *
-     * @param statementRequest The request.
+     * @param statementRequest The statement request.
      */
     public void setStatementRequest(CreditCardStatementRequestTransaction statementRequest) {
-        this.statementRequest = statementRequest;
+        this.statementRequests = statementRequest == null ? null : Collections.singletonList(statementRequest);
     }
 
     // Inherited.
     public List<RequestMessage> getRequestMessages() {
         ArrayList<RequestMessage> requestMessages = new ArrayList<RequestMessage>();
-        if (getStatementRequest() != null) {
-            requestMessages.add(getStatementRequest());
+        if (getStatementRequests() != null) {
+            for (RequestMessage statementRequest : getStatementRequests()) {
+                if (statementRequest != null) {
+                    requestMessages.add(statementRequest);
+                }
+            }
         }
         return requestMessages;
     }
@@ -70,7 +94,7 @@ public class CreditCardRequestMessageSet extends RequestMessageSet {
         String inherited = super.toString().replaceFirst("^\\w+\\{", "").replaceAll("}$", "");
         return "CreditCardRequestMessageSet{" +
                 (inherited.trim().isEmpty() ? "" : (inherited + ", ")) +
-                "statementRequest=" + statementRequest +
+                "statementRequests=" + statementRequests +
                 '}';
     }
 }
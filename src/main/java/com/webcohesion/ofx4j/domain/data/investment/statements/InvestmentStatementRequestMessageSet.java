@@ -23,6 +23,7 @@ import com.webcohesion.ofx4j.meta.Aggregate;
 import com.webcohesion.ofx4j.meta.ChildAggregate;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -34,36 +35,59 @@ import java.util.List;
 @Aggregate("INVSTMTMSGSRQV1")
 public class InvestmentStatementRequestMessageSet extends RequestMessageSet {
 
-    private InvestmentStatementRequestTransaction statementRequest;
+    private List<InvestmentStatementRequestTransaction> statementRequests;
 
     public MessageSetType getType() {
         return MessageSetType.investment;
     }
 
     /**
-     * Gets the statement request.
+     * The statement requests. Most requests have a single statement request, but a request may batch the
+     * statement requests of several accounts, each in its own transaction.
      *
-     * @return the request
+     * @return The statement requests.
      */
     @ChildAggregate(order = 0)
+    public List<InvestmentStatementRequestTransaction> getStatementRequests() {
+        return statementRequests;
+    }
+
+    /**
+     * The statement requests.
+     *
+     * @param statementRequests The statement requests.
+     */
+    public void setStatementRequests(List<InvestmentStatementRequestTransaction> statementRequests) {
+        this.statementRequests = statementRequests;
+    }
+
+    /**
+     * The first statement request.
+     *
+     * @return The first statement request.
+     */
     public InvestmentStatementRequestTransaction getStatementRequest() {
-        return statementRequest;
+        return statementRequests == null || statementRequests.isEmpty() ? null : statementRequests.get(0);
     }
 
     /**
-     * Sets the statement request.
+     * The statement request (null for none).
      *
-     * @param statementRequest the request
+     * @param statementRequest The statement request.
      */
     public void setStatementRequest(InvestmentStatementRequestTransaction statementRequest) {
-        this.statementRequest = statementRequest;
+        this.statementRequests = statementRequest == null ? null : Collections.singletonList(statementRequest);
     }
 
     // Inherited.
     public List<RequestMessage> getRequestMessages() {
         ArrayList<RequestMessage> requestMessages = new ArrayList<RequestMessage>();
-        if (getStatementRequest() != null) {
-            requestMessages.add(getStatementRequest());
+        if (getStatementRequests() != null) {
+            for (RequestMessage statementRequest : getStatementRequests()) {
+                if (statementRequest != null) {
+                    requestMessages.add(statementRequest);
+                }
+            }
         }
         return requestMessages;
     }
@@ -73,7 +97,7 @@ public class InvestmentStatementRequestMessageSet extends RequestMessageSet {
         String inherited = super.toString().replaceFirst("^\\w+\\{", "").replaceAll("}$", "");
         return "InvestmentStatementRequestMessageSet{" +
                 (inherited.trim().isEmpty() ? "" : (inherited + ", ")) +
-                "statementRequest=" + statementRequest +
+                "statementRequests=" + statementRequests +
                 "}";
     }
 }
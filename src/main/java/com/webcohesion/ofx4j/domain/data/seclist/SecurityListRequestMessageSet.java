@@ -38,7 +38,7 @@ public class SecurityListRequestMessageSet extends RequestMessageSet {
     private SecurityListRequestTransaction securityListRequest;
 
     public MessageSetType getType() {
-        return MessageSetType.investment;
+        return MessageSetType.investment_security;
     }
 
     /**
@@ -46,6 +46,7 @@ public class AggregateAttribute implements Comparable<AggregateAttribute> {
   private final Class attributeType;
   private final Class collectionEntryType;
   private final String name;
+  private final String propertyName;
   private final int order;
   private final boolean required;
   private final Type type;
@@ -67,6 +68,7 @@ public class AggregateAttribute implements Comparable<AggregateAttribute> {
     this.attributeType = this.readMethod.getReturnType();
     this.collectionEntryType = null;
     this.name = elementInfo.name();
+    this.propertyName = property.getName();
     this.order = elementInfo.order();
     this.required = elementInfo.required();
     this.type = Type.ELEMENT;
@@ -93,6 +95,7 @@ public class AggregateAttribute implements Comparable<AggregateAttribute> {
 
     this.readMethod.getGenericReturnType();
     this.attributeType = this.readMethod.getReturnType();
+    this.propertyName = property.getName();
     this.collection = Collection.class.isAssignableFrom(this.attributeType);
     if (this.collection) {
       this.name = null;
@@ -152,6 +155,14 @@ public class AggregateAttribute implements Comparable<AggregateAttribute> {
     return null;
   }
 
+  Method getReadMethod() {
+    return readMethod;
+  }
+
+  Method getWriteMethod() {
+    return writeMethod;
+  }
+
   public Object get(Object instance) throws Exception {
     return this.readMethod.invoke(instance);
   }
@@ -209,6 +220,10 @@ public class AggregateAttribute implements Comparable<AggregateAttribute> {
     return name;
   }
 
+  public String getPropertyName() {
+    return propertyName;
+  }
+
   public boolean isRequired() {
     return required;
   }
@@ -0,0 +1,54 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+/**
+ * Filter applied to "records" (e.g. transactions) while they are being unmarshalled. A record is the outermost
+ * aggregate on the stack whose type the filter {@link #appliesTo(Class) applies to}. The record is checked when
+ * it starts and for each element read within it (including the elements of nested aggregates). As soon as a record
+ * is rejected, the rest of it is skipped without conversion and it isn't added to its parent.
+ *
+ * @author Ryan Heaton
+ */
+public interface AggregateFilter {
+
+  /**
+   * Whether this filter applies to aggregates of the specified type.
+   *
+   * @param aggregateType The aggregate type.
+   * @return Whether this filter applies to aggregates of the specified type.
+   */
+  boolean appliesTo(Class aggregateType);
+
+  /**
+   * Whether to accept a record of the specified type, checked when the record starts.
+   *
+   * @param recordType The type of the record.
+   * @return Whether to accept the record.
+   */
+  boolean accept(Class recordType);
+
+  /**
+   * Whether to accept a record given the raw value of an element read within it.
+   *
+   * @param recordType The type of the record.
+   * @param elementName The name of the element.
+   * @param value The (unconverted) value of the element.
+   * @return Whether to accept the record.
+   */
+  boolean accept(Class recordType, String elementName, String value);
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the pre-rendered contents of aggregates that are written the same way in every document (e.g. the
+ * profile, signon info and message set info of a server, or a large security list). Aggregates are registered by
+ * instance identity, optionally with a version, and their contents are rendered once per
+ * {@link OFXFragmentWriter#getFlavor() writer flavor} and then spliced into the output of the
+ * {@link AggregateMarshaller#setFragmentCache(AggregateFragmentCache) marshaller}.<br/><br/>
+ *
+ * The cache doesn't track changes to the aggregates: a registered aggregate that changes must be
+ * {@link #invalidate(Object) invalidated} (or {@link #update(Object, long) updated} to a new version), otherwise
+ * the previous rendering will continue to be written. The cache is thread-safe.
+ *
+ * @author Ryan Heaton
+ */
+public class AggregateFragmentCache {
+
+  private final Map<Object, Fragments> entries = new IdentityHashMap<Object, Fragments>();
+  private final Map<Class, Boolean> registeredTypes = new ConcurrentHashMap<Class, Boolean>();
+
+  /**
+   * Register the specified aggregate.
+   *
+   * @param aggregate The aggregate.
+   */
+  public void register(Object aggregate) {
+    register(aggregate, 0);
+  }
+
+  /**
+   * Register the specified aggregate at the specified version. If the aggregate is already registered at a
+   * different version, its fragments are invalidated.
+   *
+   * @param aggregate The aggregate.
+   * @param version The version of the aggregate.
+   */
+  public void register(Object aggregate, long version) {
+    if (AggregateIntrospector.getAggregateInfo(aggregate.getClass()) == null) {
+      throw new IllegalArgumentException(String.format("Unable to cache object of type %s (no aggregate metadata found).", aggregate.getClass().getName()));
+    }
+
+    synchronized (this.entries) {
+      Fragments fragments = this.entries.get(aggregate);
+      if (fragments == null || fragments.version != version) {
+        this.entries.put(aggregate, new Fragments(version));
+      }
+      this.registeredTypes.put(aggregate.getClass(), Boolean.TRUE);
+    }
+  }
+
+  /**
+   * Update the version of the specified aggregate, invalidating its fragments if the version has changed. Same as
+   * {@link #register(Object, long)}.
+   *
+   * @param aggregate The aggregate.
+   * @param version The (new) version of the aggregate.
+   */
+  public void update(Object aggregate, long version) {
+    register(aggregate, version);
+  }
+
+  /**
+   * Invalidate the fragments of the specified aggregate. The aggregate stays registered, and will be rendered again
+   * the next time it's written.
+   *
+   * @param aggregate The aggregate.
+   */
+  public void invalidate(Object aggregate) {
+    synchronized (this.entries) {
+      Fragments fragments = this.entries.get(aggregate);
+      if (fragments != null) {
+        this.entries.put(aggregate, new Fragments(fragments.version));
+      }
+    }
+  }
+
+  /**
+   * Unregister the specified aggregate, dropping its fragments.
+   *
+   * @param aggregate The aggregate.
+   */
+  public void unregister(Object aggregate) {
+    synchronized (this.entries) {
+      this.entries.remove(aggregate);
+    }
+  }
+
+  /**
+   * Unregister all aggregates.
+   */
+  public void clear() {
+    synchronized (this.entries) {
+      this.entries.clear();
+      this.registeredTypes.clear();
+    }
+  }
+
+  /**
+   * Whether the specified aggregate is registered.
+   *
+   * @param aggregate The aggregate.
+   * @return Whether the specified aggregate is registered.
+   */
+  public boolean isRegistered(Object aggregate) {
+    return lookup(aggregate) != null;
+  }
+
+  /**
+   * The version at which the specified aggregate is registered.
+   *
+   * @param aggregate The aggregate.
+   * @return The version, or null if the aggregate isn't registered.
+   */
+  public Long getVersion(Object aggregate) {
+    Fragments fragments = lookup(aggregate);
+    return fragments == null ? null : fragments.version;
+  }
+
+  /**
+   * Look up the fragments of the specified aggregate. Aggregates of types that have never been registered are
+   * rejected without taking the lock.
+   *
+   * @param aggregate The aggregate.
+   * @return The fragments, or null if the aggregate isn't registered.
+   */
+  Fragments lookup(Object aggregate) {
+    if (!this.registeredTypes.containsKey(aggregate.getClass())) {
+      return null;
+    }
+
+    synchronized (this.entries) {
+      return this.entries.get(aggregate);
+    }
+  }
+
+  /**
+   * The fragments of a registered aggregate (at a given version), by writer flavor. Invalidation replaces the
+   * fragments of the aggregate, so a rendering that was started before the invalidation is never cached after it.
+   */
+  static final class Fragments {
+
+    private final long version;
+    private final Map<String, byte[]> byFlavor = new ConcurrentHashMap<String, byte[]>();
+
+    private Fragments(long version) {
+      this.version = version;
+    }
+
+    byte[] get(String flavor) {
+      return this.byFlavor.get(flavor);
+    }
+
+    void put(String flavor, byte[] fragment) {
+      this.byFlavor.put(flavor, fragment);
+    }
+  }
+}
@@ -24,6 +24,7 @@ import com.webcohesion.ofx4j.meta.Header;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
 import java.util.*;
 
 /**
@@ -179,6 +180,19 @@ public class AggregateInfo {
     return !this.headers.isEmpty();
   }
 
+  /**
+   * The read methods of the headers, sorted by header name.
+   *
+   * @return The read methods of the headers.
+   */
+  SortedMap<String, Method> getHeaderReadMethods() {
+    SortedMap<String, Method> readMethods = new TreeMap<String, Method>();
+    for (Map.Entry<String, PropertyDescriptor> header : this.headers.entrySet()) {
+      readMethods.put(header.getKey(), header.getValue().getReadMethod());
+    }
+    return readMethods;
+  }
+
   /**
    * Get the headers defined by the specific aggregate instance.
    *
@@ -63,6 +63,28 @@ public class AggregateIntrospector {
     return info;
   }
 
+  /**
+   * The names of all the known aggregates and of their attributes, i.e. the tags that the aggregates of this library
+   * are written with.
+   *
+   * @return The names of the known tags.
+   */
+  public static Set<String> getKnownTagNames() {
+    Set<String> names = new TreeSet<String>();
+    synchronized (AGGREGATE_CLASSES_BY_NAME) {
+      for (Class clazz : AGGREGATE_CLASSES_BY_NAME.values()) {
+        AggregateInfo info = getAggregateInfo(clazz);
+        names.add(info.getName());
+        for (AggregateAttribute attribute : info.getAttributes()) {
+          if (attribute.getName() != null) {
+            names.add(attribute.getName());
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableSet(names);
+  }
+
   /**
    * Find the aggregate class by name.
    *
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+/**
+ * Listener notified as aggregates are unmarshalled, e.g. to consume the transactions of a statement as they are read
+ * instead of after the whole document has been read. An aggregate is reported when it starts (empty, but its parent
+ * holds everything that preceded it) and when it ends (complete). The listener decides whether a complete aggregate is
+ * added to its parent, so that consumed aggregates don't accumulate in memory. Aggregates skipped by the unmarshaller
+ * (unsupported or rejected by a filter) aren't reported.<br/><br/>
+ *
+ * A record that an {@link AggregateFilter} applies to can be rejected until it ends, so it's reported (started, then
+ * ended) only once it has ended; the aggregates within it aren't reported separately. Every reported start is followed
+ * by its end.
+ *
+ * @author Ryan Heaton
+ */
+public interface AggregateListener {
+
+  /**
+   * Whether this listener applies to aggregates of the specified type.
+   *
+   * @param aggregateType The aggregate type.
+   * @return Whether this listener applies to aggregates of the specified type.
+   */
+  boolean appliesTo(Class aggregateType);
+
+  /**
+   * Notified when an aggregate starts.
+   *
+   * @param aggregate The (new) aggregate.
+   * @param parent The parent aggregate.
+   */
+  void aggregateStarted(Object aggregate, Object parent);
+
+  /**
+   * Notified when an aggregate ends.
+   *
+   * @param aggregate The complete aggregate.
+   * @param parent The parent aggregate.
+   * @return Whether to add the aggregate to its parent.
+   */
+  boolean aggregateEnded(Object aggregate, Object parent);
+}
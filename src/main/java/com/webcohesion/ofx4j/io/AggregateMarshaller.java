@@ -19,8 +19,15 @@ package com.webcohesion.ofx4j.io;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * Marshaller for aggregate objects.
@@ -29,9 +36,19 @@ import java.util.*;
  */
 public class AggregateMarshaller {
 
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 8192;
+  public static final int DEFAULT_SEGMENT_SIZE = 1024;
+
   private static final Log LOG = LogFactory.getLog(AggregateMarshaller.class);
 
+  private final boolean attributesOverridden = overridesWriteAggregateAttributes(getClass());
   private StringConversion conversion = new DefaultStringConversion();
+  private boolean defaultConversion = true;
+  private AggregateFragmentCache fragmentCache;
+  private ExecutorService executor;
+  private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+  private int segmentSize = DEFAULT_SEGMENT_SIZE;
+  private int maxPendingSegments = Runtime.getRuntime().availableProcessors() * 2;
 
   /**
    * Marshal the specified aggregate object.
@@ -40,28 +57,316 @@ public class AggregateMarshaller {
    * @param writer    The writer.
    */
   public void marshal(Object aggregate, OFXWriter writer) throws IOException {
-    AggregateInfo aggregateInfo = AggregateIntrospector.getAggregateInfo(aggregate.getClass());
-    if (aggregateInfo == null) {
+    marshal(aggregate, writer, null);
+  }
+
+  /**
+   * Marshal the specified aggregate object, pulling the entries of collection-valued child aggregates from the
+   * specified source (where it supplies them) while they are written.
+   *
+   * @param aggregate The aggregate to marshal.
+   * @param writer    The writer.
+   * @param source    The source of streamed child aggregates, or null if all values are to be read from the aggregates.
+   */
+  public void marshal(Object aggregate, OFXWriter writer, ChildAggregateSource source) throws IOException {
+    AggregateWritePlan plan = AggregateWritePlan.getWritePlan(aggregate.getClass());
+    if (plan == null) {
       throw new IllegalArgumentException(String.format("Unable to marshal object of type %s (no aggregate metadata found).", aggregate.getClass().getName()));
     }
 
-    if (aggregateInfo.hasHeaders()) {
-      Map<String, Object> headerValues = aggregateInfo.getHeaders(aggregate);
-      Map<String, String> convertedValues = new TreeMap<String, String>();
-      for (String header : headerValues.keySet()) {
-        convertedValues.put(header, getConversion().toString(headerValues.get(header)));
+    if (plan.hasHeaders()) {
+      //the header names of the plan are already sorted.
+      String[] headerNames = plan.getHeaderNames();
+      Map<String, String> convertedValues = new LinkedHashMap<String, String>(headerNames.length * 2);
+      for (int i = 0; i < headerNames.length; i++) {
+        convertedValues.put(headerNames[i], toString(plan.getHeaderFormat(i), plan.getHeaderValue(aggregate, i)));
       }
       writer.writeHeaders(convertedValues);
     }
 
-    writer.writeStartAggregate(aggregateInfo.getName());
-    SortedSet<AggregateAttribute> AggregateAttributes = aggregateInfo.getAttributes();
-    writeAggregateAttributes(aggregate, writer, AggregateAttributes);
-    writer.writeEndAggregate(aggregateInfo.getName());
+    writer.writeStartAggregate(plan.getName());
+    if (this.attributesOverridden) {
+      writeAggregateAttributes(aggregate, writer, AggregateIntrospector.getAggregateInfo(aggregate.getClass()).getAttributes());
+    }
+    else {
+      writeAggregate(aggregate, writer, plan, source);
+    }
+    writer.writeEndAggregate(plan.getName());
+  }
+
+  /**
+   * Whether the specified marshaller class overrides {@link #writeAggregateAttributes(Object, OFXWriter, SortedSet)}.
+   *
+   * @param clazz The marshaller class.
+   * @return Whether the class overrides it.
+   */
+  private static boolean overridesWriteAggregateAttributes(Class<?> clazz) {
+    for (Class<?> type = clazz; type != AggregateMarshaller.class; type = type.getSuperclass()) {
+      try {
+        type.getDeclaredMethod("writeAggregateAttributes", Object.class, OFXWriter.class, SortedSet.class);
+        return true;
+      }
+      catch (NoSuchMethodException e) {
+        //keep looking.
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Convert a value to a string, skipping the conversion if it's the default one and the format of the value is known.
+   *
+   * @param format The format of the value.
+   * @param value The value.
+   * @return The string.
+   */
+  private String toString(AggregateWritePlan.ValueFormat format, Object value) {
+    if (value == null || !this.defaultConversion) {
+      return getConversion().toString(value);
+    }
+    return format.toString(value, this.conversion);
+  }
+
+  /**
+   * Write the attributes of the specified aggregate according to its precompiled write plan.
+   *
+   * @param aggregate The aggregate.
+   * @param writer    The writer.
+   * @param plan      The write plan of the aggregate.
+   * @param source    The source of streamed child aggregates, or null.
+   */
+  protected void writeAggregate(Object aggregate, OFXWriter writer, AggregateWritePlan plan, ChildAggregateSource source) throws IOException {
+    for (AggregateWritePlan.Step step : plan.getSteps()) {
+      if (source != null && step.isCollection()) {
+        Iterator<?> entries = source.getChildAggregates(aggregate, step.getAttribute());
+        if (entries != null) {
+          writeStreamedEntries(entries, writer, step, source);
+          continue;
+        }
+      }
+
+      Object childValue = null;
+      try {
+        childValue = step.get(aggregate);
+      }
+      catch (Exception e) {
+        LOG.error(String.format("Unable to get %s", step.toString()), e);
+      }
+
+      if (childValue != null) {
+        switch (step.getType()) {
+          case CHILD_AGGREGATE:
+            if (!step.isCollection()) {
+              AggregateWritePlan childPlan = step.getPlan(childValue.getClass());
+              writer.writeStartAggregate(step.getName());
+              writeChildAggregate(childValue, writer, childPlan, source);
+              writer.writeEndAggregate(step.getName());
+            }
+            else if (childValue instanceof List && childValue instanceof RandomAccess) {
+              List childValues = (List) childValue;
+              if (isSegmented(childValues.size(), writer, source)) {
+                writeSegmentedEntries(childValues, (OFXFragmentWriter) writer, step);
+              }
+              else {
+                for (int i = 0; i < childValues.size(); i++) {
+                  writeCollectionEntry(childValues.get(i), writer, step, source);
+                }
+              }
+            }
+            else {
+              for (Object value : (Collection) childValue) {
+                writeCollectionEntry(value, writer, step, source);
+              }
+            }
+            break;
+          case ELEMENT:
+            String value = toString(step.getFormat(), childValue);
+            if (!isBlank(value)) {
+              writer.writeElement(step.getName(), value);
+            }
+            break;
+          default:
+            throw new IllegalStateException("Unknown aggregate attribute type: " + step.getType());
+        }
+      }
+      else if (step.isRequired()) {
+        throw new RequiredAttributeException("Required " + step.toString() + " is null or empty.");
+      }
+    }
+  }
+
+  /**
+   * Write an entry of a collection of child aggregates, named by its own aggregate name.
+   *
+   * @param value  The entry.
+   * @param writer The writer.
+   * @param step   The step of the collection attribute.
+   * @param source The source of streamed child aggregates, or null.
+   */
+  private void writeCollectionEntry(Object value, OFXWriter writer, AggregateWritePlan.Step step, ChildAggregateSource source) throws IOException {
+    AggregateWritePlan entryPlan = step.getPlan(value.getClass());
+    writer.writeStartAggregate(entryPlan.getName());
+    writeChildAggregate(value, writer, entryPlan, source);
+    writer.writeEndAggregate(entryPlan.getName());
+  }
+
+  /**
+   * Write the attributes of a child aggregate, splicing in its pre-rendered contents if it's registered with the
+   * fragment cache and the writer supports fragments. The contents of a cached aggregate are rendered from the
+   * aggregate itself (i.e. not from the source of streamed child aggregates).
+   *
+   * @param aggregate The child aggregate.
+   * @param writer    The writer.
+   * @param plan      The write plan of the child aggregate.
+   * @param source    The source of streamed child aggregates, or null.
+   */
+  private void writeChildAggregate(Object aggregate, OFXWriter writer, AggregateWritePlan plan, ChildAggregateSource source) throws IOException {
+    AggregateFragmentCache.Fragments fragments = null;
+    if (this.fragmentCache != null && writer instanceof OFXFragmentWriter) {
+      fragments = this.fragmentCache.lookup(aggregate);
+    }
+
+    if (fragments == null) {
+      writeAggregate(aggregate, writer, plan, source);
+      return;
+    }
+
+    OFXFragmentWriter fragmentWriter = (OFXFragmentWriter) writer;
+    String flavor = fragmentWriter.getFlavor();
+    byte[] fragment = fragments.get(flavor);
+    if (fragment == null) {
+      ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+      OFXFragmentWriter renderer = fragmentWriter.newFragmentWriter(rendered);
+      writeAggregate(aggregate, renderer, plan, null);
+      renderer.flush();
+      fragment = rendered.toByteArray();
+      fragments.put(flavor, fragment);
+    }
+    fragmentWriter.writeFragment(fragment, 0, fragment.length);
   }
 
   /**
-   * Write the aggregate attributes for the specified aggregate.
+   * Whether a list of child aggregates of the specified size is to be rendered in parallel segments. Requires an
+   * executor, a writer that supports fragments and no source of streamed child aggregates (which isn't thread-safe).
+   *
+   * @param size   The size of the list.
+   * @param writer The writer.
+   * @param source The source of streamed child aggregates, or null.
+   * @return Whether the list is to be rendered in parallel segments.
+   */
+  private boolean isSegmented(int size, OFXWriter writer, ChildAggregateSource source) {
+    return this.executor != null && source == null && writer instanceof OFXFragmentWriter
+      && size >= this.parallelThreshold && size > this.segmentSize;
+  }
+
+  /**
+   * Write the entries of a large list of child aggregates in segments that are rendered in parallel by the executor.
+   * Each segment is rendered by a fragment writer of the same flavor as the writer and the segments are spliced in
+   * order, so the output is the same as writing the entries one at a time. No more than the maximum number of pending
+   * segments are rendered ahead of the output.
+   *
+   * @param entries The entries.
+   * @param writer  The writer.
+   * @param step    The step of the collection attribute.
+   */
+  private void writeSegmentedEntries(final List entries, final OFXFragmentWriter writer, final AggregateWritePlan.Step step) throws IOException {
+    LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+    int size = entries.size();
+    int next = 0;
+    try {
+      while (next < size || !pending.isEmpty()) {
+        while (next < size && pending.size() < this.maxPendingSegments) {
+          final int start = next;
+          final int end = Math.min(size, start + this.segmentSize);
+          pending.add(this.executor.submit(new Callable<byte[]>() {
+            public byte[] call() throws Exception {
+              ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+              OFXFragmentWriter segmentWriter = writer.newFragmentWriter(rendered);
+              for (int i = start; i < end; i++) {
+                writeCollectionEntry(entries.get(i), segmentWriter, step, null);
+              }
+              segmentWriter.flush();
+              return rendered.toByteArray();
+            }
+          }));
+          next = end;
+        }
+
+        byte[] segment = pending.removeFirst().get();
+        writer.writeFragment(segment, 0, segment.length);
+      }
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while writing " + step.toString());
+    }
+    catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+    finally {
+      for (Future<byte[]> segment : pending) {
+        segment.cancel(true);
+      }
+    }
+  }
+
+  /**
+   * Write the streamed entries of a collection of child aggregates, pulling them one at a time. The iterator is
+   * closed afterwards if it's {@link Closeable}.
+   *
+   * @param entries The entries.
+   * @param writer  The writer.
+   * @param step    The step of the collection attribute.
+   * @param source  The source of streamed child aggregates.
+   */
+  private void writeStreamedEntries(Iterator<?> entries, OFXWriter writer, AggregateWritePlan.Step step, ChildAggregateSource source) throws IOException {
+    try {
+      while (entries.hasNext()) {
+        Object value = entries.next();
+        if (value != null) {
+          writeCollectionEntry(value, writer, step, source);
+        }
+      }
+    }
+    finally {
+      if (entries instanceof Closeable) {
+        ((Closeable) entries).close();
+      }
+    }
+  }
+
+  /**
+   * Whether the specified value is null or contains only whitespace (without trimming it into a new string).
+   *
+   * @param value The value.
+   * @return Whether the value is blank.
+   */
+  private static boolean isBlank(String value) {
+    if (value != null) {
+      for (int i = 0; i < value.length(); i++) {
+        if (value.charAt(i) > ' ') {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write the aggregate attributes for the specified aggregate, introspecting each child value as it goes.
+   * {@link #marshal(Object, OFXWriter)} uses the precompiled {@link AggregateWritePlan} instead, unless a subclass
+   * overrides this method: the whole aggregate is then written through it, without the write plan, the source of
+   * streamed child aggregates, the fragment cache or the parallel segments.
    *
    * @param aggregate           The aggregate.
    * @param writer              The writer.
@@ -136,5 +441,104 @@ public class AggregateMarshaller {
    */
   public void setConversion(StringConversion conversion) {
     this.conversion = conversion;
+    this.defaultConversion = conversion != null && conversion.getClass() == DefaultStringConversion.class;
+  }
+
+  /**
+   * The cache of pre-rendered aggregates, or null if nothing is cached.
+   *
+   * @return The cache of pre-rendered aggregates.
+   */
+  public AggregateFragmentCache getFragmentCache() {
+    return fragmentCache;
+  }
+
+  /**
+   * The cache of pre-rendered aggregates, or null if nothing is cached.
+   *
+   * @param fragmentCache The cache of pre-rendered aggregates.
+   */
+  public void setFragmentCache(AggregateFragmentCache fragmentCache) {
+    this.fragmentCache = fragmentCache;
+  }
+
+  /**
+   * The executor used to render large lists of child aggregates in parallel segments, or null to render everything on
+   * the calling thread. Only applies to writers that support fragments (see {@link OFXFragmentWriter}).
+   *
+   * @return The executor used to render large lists of child aggregates.
+   */
+  public ExecutorService getExecutor() {
+    return executor;
+  }
+
+  /**
+   * The executor used to render large lists of child aggregates in parallel segments, or null to render everything on
+   * the calling thread. Only applies to writers that support fragments (see {@link OFXFragmentWriter}).
+   *
+   * @param executor The executor used to render large lists of child aggregates.
+   */
+  public void setExecutor(ExecutorService executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * The minimum size of a list of child aggregates for it to be rendered in parallel segments.
+   *
+   * @return The minimum size of a list of child aggregates for it to be rendered in parallel segments.
+   */
+  public int getParallelThreshold() {
+    return parallelThreshold;
+  }
+
+  /**
+   * The minimum size of a list of child aggregates for it to be rendered in parallel segments.
+   *
+   * @param parallelThreshold The minimum size of a list of child aggregates for it to be rendered in parallel segments.
+   */
+  public void setParallelThreshold(int parallelThreshold) {
+    this.parallelThreshold = parallelThreshold;
+  }
+
+  /**
+   * The number of entries in each segment of a list rendered in parallel.
+   *
+   * @return The number of entries in each segment.
+   */
+  public int getSegmentSize() {
+    return segmentSize;
+  }
+
+  /**
+   * The number of entries in each segment of a list rendered in parallel.
+   *
+   * @param segmentSize The number of entries in each segment.
+   */
+  public void setSegmentSize(int segmentSize) {
+    if (segmentSize < 1) {
+      throw new IllegalArgumentException("Segment size must be positive.");
+    }
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * The maximum number of segments rendered ahead of the output (default: twice the number of processors).
+   *
+   * @return The maximum number of segments rendered ahead of the output.
+   */
+  public int getMaxPendingSegments() {
+    return maxPendingSegments;
+  }
+
+  /**
+   * The maximum number of segments rendered ahead of the output (default: twice the number of processors).
+   *
+   * @param maxPendingSegments The maximum number of segments rendered ahead of the output.
+   */
+  public void setMaxPendingSegments(int maxPendingSegments) {
+    if (maxPendingSegments < 1) {
+      throw new IllegalArgumentException("The maximum number of pending segments must be positive.");
+    }
+    this.maxPendingSegments = maxPendingSegments;
   }
 }
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * Replays an aggregate that was read as a whole to an {@link AggregateListener}, as if it was being unmarshalled: each
+ * child aggregate is reported (in document order) when it starts and when it ends, and the children the listener
+ * doesn't add to their parent are removed from it. Lets a response that couldn't be parsed off the stream be delivered
+ * to a listener written for streaming. Unlike during unmarshalling, an aggregate is already complete when it's
+ * reported to start.
+ *
+ * @author Ryan Heaton
+ */
+public class AggregateReplayer {
+
+  /**
+   * Replay the child aggregates of the specified (root) aggregate to the specified listener.
+   *
+   * @param root The root aggregate.
+   * @param listener The listener.
+   */
+  public static void replay(Object root, AggregateListener listener) {
+    replayChildren(root, listener);
+  }
+
+  private static boolean replay(Object aggregate, Object parent, AggregateListener listener) {
+    boolean applies = listener.appliesTo(aggregate.getClass());
+    if (applies) {
+      listener.aggregateStarted(aggregate, parent);
+    }
+    replayChildren(aggregate, listener);
+    return !applies || listener.aggregateEnded(aggregate, parent);
+  }
+
+  private static void replayChildren(Object aggregate, AggregateListener listener) {
+    AggregateInfo info = AggregateIntrospector.getAggregateInfo(aggregate.getClass());
+    if (info == null) {
+      return;
+    }
+
+    for (AggregateAttribute attribute : info.getAttributes()) {
+      if (attribute.getType() != AggregateAttribute.Type.CHILD_AGGREGATE) {
+        continue;
+      }
+
+      try {
+        Object value = attribute.get(aggregate);
+        if (value instanceof Collection) {
+          Iterator children = ((Collection) value).iterator();
+          while (children.hasNext()) {
+            Object child = children.next();
+            if (child != null && !replay(child, aggregate, listener)) {
+              children.remove();
+            }
+          }
+        }
+        else if (value != null && !replay(value, aggregate, listener)) {
+          attribute.set(null, aggregate);
+        }
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new IllegalStateException("Unable to replay " + attribute + ".", e);
+      }
+    }
+  }
+}
@@ -0,0 +1,976 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary codec for aggregate graphs ("snapshots"), driven by the same metadata as the marshaller. A snapshot
+ * is much cheaper to write and read than the OFX text of the same graph: there are no tags to format or parse, dates
+ * and numbers are written in binary, and each distinct string is written once.
+ *
+ * <h3>Format</h3>
+ *
+ * <ul>
+ *   <li>The magic bytes "OFXS" and the format version (varint).</li>
+ *   <li>The string table: the number of strings (varint), then each string as a varint length and its UTF-8 bytes.
+ *   Every string in the snapshot (values, enum constants, header names, class names) is a varint index into this table.</li>
+ *   <li>The root aggregate.</li>
+ * </ul>
+ *
+ * An aggregate is a class tag (0 if the class is the declared type of the attribute, otherwise the index of the class
+ * name plus one), followed by its non-null headers and attributes, followed by a 0 byte. Each attribute is a varint tag
+ * (the attribute order shifted left by four bits, or'ed with the wire type) followed by the value. Unsigned integers
+ * are varints; signed integers (including booleans and dates, as milliseconds) are zigzag varints; floating-point
+ * numbers are eight bytes; decimals are the zigzag scale followed by the unscaled value, either as a zigzag varint
+ * (preceded by a 0 length) or as the length and bytes of its two's complement. Collections are the number of entries
+ * followed by each entry as an aggregate, so that each entry carries its own class tag (e.g. the different
+ * transaction types of an {@link com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentTransactionList}).
+ *
+ * <h3>Compatibility</h3>
+ *
+ * <ul>
+ *   <li>Snapshots of a later format version than {@link #FORMAT_VERSION} are rejected. The format version only changes
+ *   for changes that can't be skipped by older readers.</li>
+ *   <li>Attributes are identified by their order, so attributes added to an aggregate since a snapshot was written are
+ *   left unset and attributes that have since been removed are skipped. Changing the order of an existing attribute
+ *   isn't compatible.</li>
+ *   <li>An attribute whose wire type has changed is skipped. Otherwise, values are converted to the current type of the
+ *   attribute (e.g. Integer to Long, String to an enum).</li>
+ *   <li>Enum constants that no longer exist, and classes that can't be loaded or aren't (or are no longer) aggregates
+ *   of the declared type, are dropped.</li>
+ * </ul>
+ *
+ * The codec is thread-safe.
+ *
+ * @author Ryan Heaton
+ */
+public class AggregateSnapshotCodec {
+
+  /**
+   * The version of the snapshot format written by this codec.
+   */
+  public static final int FORMAT_VERSION = 1;
+
+  static final int WIRE_VARINT = 1;
+  static final int WIRE_FIXED64 = 2;
+  static final int WIRE_STRING = 3;
+  static final int WIRE_DECIMAL = 4;
+  static final int WIRE_DATE = 5;
+  static final int WIRE_AGGREGATE = 6;
+  static final int WIRE_COLLECTION = 7;
+  static final int WIRE_HEADER = 8;
+  static final int WIRE_TYPE_BITS = 4;
+  static final int WIRE_TYPE_MASK = (1 << WIRE_TYPE_BITS) - 1;
+  static final int END = 0;
+
+  private static final byte[] MAGIC = {'O', 'F', 'X', 'S'};
+  private static final Map<Class, SnapshotPlan> PLANS = new ConcurrentHashMap<Class, SnapshotPlan>();
+
+  private StringConversion conversion = new DefaultStringConversion();
+  private ClassLoader classLoader;
+
+  /**
+   * Encode the specified aggregate.
+   *
+   * @param aggregate The aggregate.
+   * @return The snapshot.
+   */
+  public byte[] encode(Object aggregate) {
+    SnapshotOutput body = encodeBody(aggregate);
+    SnapshotOutput snapshot = new SnapshotOutput(body.count + 64 + (body.table.size() * 16));
+    writePreamble(body, snapshot);
+    snapshot.write(body.buffer, 0, body.count);
+    byte[] bytes = new byte[snapshot.count];
+    System.arraycopy(snapshot.buffer, 0, bytes, 0, snapshot.count);
+    return bytes;
+  }
+
+  /**
+   * Encode the specified aggregate to the specified stream. The stream isn't closed.
+   *
+   * @param aggregate The aggregate.
+   * @param out The stream.
+   */
+  public void encode(Object aggregate, OutputStream out) throws IOException {
+    SnapshotOutput body = encodeBody(aggregate);
+    SnapshotOutput preamble = new SnapshotOutput(64 + (body.table.size() * 16));
+    writePreamble(body, preamble);
+    out.write(preamble.buffer, 0, preamble.count);
+    out.write(body.buffer, 0, body.count);
+  }
+
+  private SnapshotOutput encodeBody(Object aggregate) {
+    SnapshotOutput body = new SnapshotOutput(1024);
+    try {
+      writeAggregate(aggregate, null, body);
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+    return body;
+  }
+
+  private void writePreamble(SnapshotOutput body, SnapshotOutput out) {
+    out.write(MAGIC, 0, MAGIC.length);
+    out.writeVarLong(FORMAT_VERSION);
+    out.writeVarLong(body.table.size());
+    for (String value : body.table) {
+      byte[] bytes = utf8(value);
+      out.writeVarLong(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Write an aggregate.
+   *
+   * @param aggregate The aggregate.
+   * @param declaredType The declared type of the aggregate, or null if the class of the aggregate is always to be tagged.
+   * @param out The output.
+   */
+  protected void writeAggregate(Object aggregate, Class declaredType, SnapshotOutput out) throws Exception {
+    Class type = aggregate.getClass();
+    SnapshotPlan plan = getPlan(type);
+    if (plan == null) {
+      throw new IllegalArgumentException(String.format("Unable to encode object of type %s (no aggregate metadata found).", type.getName()));
+    }
+
+    out.writeVarLong(type == declaredType ? 0 : out.indexOf(type.getName()) + 1);
+
+    AggregateWritePlan writePlan = plan.writePlan;
+    String[] headerNames = writePlan.getHeaderNames();
+    for (int i = 0; i < headerNames.length; i++) {
+      Object value = writePlan.getHeaderValue(aggregate, i);
+      if (value != null) {
+        out.writeVarLong(WIRE_HEADER);
+        out.writeString(headerNames[i]);
+        out.writeString(getConversion().toString(value));
+      }
+    }
+
+    for (Field field : plan.fields) {
+      Object value = field.step.get(aggregate);
+      if (value != null) {
+        out.writeVarLong(field.tag);
+        writeValue(field, value, out);
+      }
+    }
+
+    out.writeVarLong(END);
+  }
+
+  /**
+   * Write the value of a field.
+   *
+   * @param field The field.
+   * @param value The (non-null) value.
+   * @param out The output.
+   */
+  protected void writeValue(Field field, Object value, SnapshotOutput out) throws Exception {
+    switch (field.kind) {
+      case Field.STRING:
+        out.writeString((String) value);
+        break;
+      case Field.ENUM:
+        out.writeString(((Enum) value).name());
+        break;
+      case Field.BOOLEAN:
+        out.writeZigZag(((Boolean) value) ? 1 : 0);
+        break;
+      case Field.INTEGER:
+      case Field.LONG:
+      case Field.SHORT:
+      case Field.BYTE:
+        out.writeZigZag(((Number) value).longValue());
+        break;
+      case Field.DOUBLE:
+      case Field.FLOAT:
+        out.writeFixed64(Double.doubleToLongBits(((Number) value).doubleValue()));
+        break;
+      case Field.DECIMAL:
+        writeDecimal((BigDecimal) value, out);
+        break;
+      case Field.DATE:
+        out.writeZigZag(((Date) value).getTime());
+        break;
+      case Field.AGGREGATE:
+        writeAggregate(value, field.declaredType, out);
+        break;
+      case Field.COLLECTION:
+        Collection entries = (Collection) value;
+        int count = 0;
+        for (Object entry : entries) {
+          if (entry != null) {
+            count++;
+          }
+        }
+        out.writeVarLong(count);
+        for (Object entry : entries) {
+          if (entry != null) {
+            writeAggregate(entry, field.declaredType, out);
+          }
+        }
+        break;
+      default:
+        out.writeString(getConversion().toString(value));
+    }
+  }
+
+  private void writeDecimal(BigDecimal value, SnapshotOutput out) {
+    out.writeZigZag(value.scale());
+    BigInteger unscaled = value.unscaledValue();
+    if (unscaled.bitLength() < 64) {
+      out.writeVarLong(0);
+      out.writeZigZag(unscaled.longValue());
+    }
+    else {
+      byte[] bytes = unscaled.toByteArray();
+      out.writeVarLong(bytes.length);
+      out.write(bytes, 0, bytes.length);
+    }
+  }
+
+  /**
+   * Decode the specified snapshot.
+   *
+   * @param snapshot The snapshot.
+   * @return The root aggregate.
+   */
+  public Object decode(byte[] snapshot) throws OFXParseException {
+    return decode(snapshot, 0, snapshot.length);
+  }
+
+  /**
+   * Decode the specified snapshot, checking the type of the root aggregate.
+   *
+   * @param snapshot The snapshot.
+   * @param type The expected type of the root aggregate.
+   * @return The root aggregate.
+   */
+  public <A> A decode(byte[] snapshot, Class<A> type) throws OFXParseException {
+    Object aggregate = decode(snapshot);
+    if (!type.isInstance(aggregate)) {
+      throw new OFXParseException(String.format("Snapshot of %s isn't a snapshot of %s.", aggregate.getClass().getName(), type.getName()));
+    }
+    return type.cast(aggregate);
+  }
+
+  /**
+   * Decode a snapshot from the specified stream. The stream is read to the end, but isn't closed.
+   *
+   * @param in The stream.
+   * @return The root aggregate.
+   */
+  public Object decode(InputStream in) throws IOException, OFXParseException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int len;
+    while ((len = in.read(buffer)) >= 0) {
+      bytes.write(buffer, 0, len);
+    }
+    return decode(bytes.toByteArray());
+  }
+
+  /**
+   * Decode the snapshot in the specified range of the specified buffer.
+   *
+   * @param buffer The buffer.
+   * @param offset The offset of the snapshot.
+   * @param length The length of the snapshot.
+   * @return The root aggregate.
+   */
+  public Object decode(byte[] buffer, int offset, int length) throws OFXParseException {
+    SnapshotInput in = new SnapshotInput(buffer, offset, offset + length);
+    for (byte magic : MAGIC) {
+      if (in.readByte() != magic) {
+        throw new OFXParseException("Not an aggregate snapshot.");
+      }
+    }
+
+    int version = in.readVarInt();
+    if (version > FORMAT_VERSION) {
+      throw new OFXParseException(String.format("Unsupported snapshot format version %s (the latest supported version is %s).", version, FORMAT_VERSION));
+    }
+
+    int stringCount = in.readVarInt();
+    if (stringCount > length) {
+      //each string takes at least a byte.
+      throw new OFXParseException("Invalid snapshot string table.");
+    }
+    String[] strings = new String[stringCount];
+    for (int i = 0; i < stringCount; i++) {
+      int stringLength = in.readVarInt();
+      strings[i] = in.readUTF8(stringLength);
+    }
+    in.strings = strings;
+    in.classes = new Class[stringCount];
+    in.resolved = new boolean[stringCount];
+
+    Object aggregate;
+    try {
+      aggregate = readAggregate(null, in);
+    }
+    catch (OFXParseException e) {
+      throw e;
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+
+    if (aggregate == null) {
+      throw new OFXParseException("Unable to decode the root aggregate of the snapshot (unknown class).");
+    }
+    return aggregate;
+  }
+
+  /**
+   * Read an aggregate.
+   *
+   * @param declaredType The declared type of the aggregate, or null if the class of the aggregate is always tagged.
+   * @param in The input.
+   * @return The aggregate, or null if its class is unknown (in which case it's skipped).
+   */
+  protected Object readAggregate(Class declaredType, SnapshotInput in) throws Exception {
+    int classTag = in.readVarInt();
+    Class type;
+    if (classTag == 0) {
+      if (declaredType == null) {
+        throw new OFXParseException("Untagged aggregate of undeclared type.");
+      }
+      type = declaredType;
+    }
+    else {
+      type = resolveClass(classTag - 1, in);
+      if (type != null && declaredType != null && !declaredType.isAssignableFrom(type)) {
+        type = null;
+      }
+    }
+
+    SnapshotPlan plan = type == null ? null : getPlan(type);
+    if (plan == null) {
+      in.skipFields();
+      return null;
+    }
+
+    Object aggregate = plan.newInstance();
+    Field[] fields = plan.fields;
+    int cursor = 0;
+    long tag;
+    while ((tag = in.readVarLong()) != END) {
+      int wireType = (int) (tag & WIRE_TYPE_MASK);
+      if (wireType == WIRE_HEADER) {
+        String name = in.readString();
+        String value = in.readString();
+        Class headerType = plan.info.getHeaderType(name);
+        if (headerType != null) {
+          plan.info.setHeader(aggregate, name, getConversion().fromString(headerType, value));
+        }
+        continue;
+      }
+
+      //fields are written in order, so the matching field is found by advancing the cursor.
+      long order = tag >> WIRE_TYPE_BITS;
+      while (cursor < fields.length && fields[cursor].order < order) {
+        cursor++;
+      }
+
+      if (cursor < fields.length && fields[cursor].order == order && fields[cursor].wireType == wireType) {
+        Field field = fields[cursor];
+        Object value = readValue(field, in);
+        if (value != null) {
+          field.set(aggregate, value);
+        }
+      }
+      else {
+        in.skipValue(wireType);
+      }
+    }
+    return aggregate;
+  }
+
+  /**
+   * Read the value of a field.
+   *
+   * @param field The field.
+   * @param in The input.
+   * @return The value, or null if the value is to be dropped.
+   */
+  protected Object readValue(Field field, SnapshotInput in) throws Exception {
+    switch (field.kind) {
+      case Field.STRING:
+        return in.readString();
+      case Field.ENUM:
+        String name = in.readString();
+        try {
+          return Enum.valueOf(field.valueType, name);
+        }
+        catch (IllegalArgumentException e) {
+          return null;
+        }
+      case Field.BOOLEAN:
+        return in.readZigZag() != 0;
+      case Field.INTEGER:
+        return (int) in.readZigZag();
+      case Field.LONG:
+        return in.readZigZag();
+      case Field.SHORT:
+        return (short) in.readZigZag();
+      case Field.BYTE:
+        return (byte) in.readZigZag();
+      case Field.DOUBLE:
+        return Double.longBitsToDouble(in.readFixed64());
+      case Field.FLOAT:
+        return (float) Double.longBitsToDouble(in.readFixed64());
+      case Field.DECIMAL:
+        return readDecimal(in);
+      case Field.DATE:
+        long time = in.readZigZag();
+        return field.dateConstructor == null ? new Date(time) : field.dateConstructor.newInstance(time);
+      case Field.AGGREGATE:
+        return readAggregate(field.declaredType, in);
+      case Field.COLLECTION:
+        int count = in.readVarInt();
+        Collection entries = field.step.getAttribute().newCollectionInstance();
+        for (int i = 0; i < count; i++) {
+          Object entry = readAggregate(field.declaredType, in);
+          if (entry != null) {
+            entries.add(entry);
+          }
+        }
+        return entries;
+      default:
+        return getConversion().fromString(field.valueType, in.readString());
+    }
+  }
+
+  private BigDecimal readDecimal(SnapshotInput in) throws OFXParseException {
+    int scale = (int) in.readZigZag();
+    int length = in.readVarInt();
+    if (length == 0) {
+      return BigDecimal.valueOf(in.readZigZag(), scale);
+    }
+    else {
+      return new BigDecimal(new BigInteger(in.readBytes(length)), scale);
+    }
+  }
+
+  private Class resolveClass(int index, SnapshotInput in) throws OFXParseException {
+    if (index >= in.classes.length) {
+      throw new OFXParseException("Invalid snapshot string reference: " + index);
+    }
+
+    if (!in.resolved[index]) {
+      in.classes[index] = loadClass(in.strings[index]);
+      in.resolved[index] = true;
+    }
+    return in.classes[index];
+  }
+
+  /**
+   * Load the aggregate class of the specified name.
+   *
+   * @param className The class name.
+   * @return The class, or null if the class can't be loaded.
+   */
+  protected Class loadClass(String className) {
+    ClassLoader loader = getClassLoader();
+    if (loader == null) {
+      loader = AggregateSnapshotCodec.class.getClassLoader();
+    }
+
+    try {
+      return Class.forName(className, false, loader);
+    }
+    catch (ClassNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Get the snapshot plan for the specified class.
+   *
+   * @param clazz The class.
+   * @return The snapshot plan, or null if the class isn't an aggregate.
+   */
+  protected SnapshotPlan getPlan(Class clazz) {
+    SnapshotPlan plan = PLANS.get(clazz);
+    if (plan == null) {
+      AggregateWritePlan writePlan = AggregateWritePlan.getWritePlan(clazz);
+      if (writePlan == null) {
+        return null;
+      }
+
+      plan = new SnapshotPlan(clazz, writePlan, AggregateIntrospector.getAggregateInfo(clazz));
+      PLANS.put(clazz, plan);
+    }
+    return plan;
+  }
+
+  private static byte[] utf8(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * The conversion used for headers and for element values that have no binary encoding.
+   *
+   * @return The conversion.
+   */
+  public StringConversion getConversion() {
+    return conversion;
+  }
+
+  /**
+   * The conversion used for headers and for element values that have no binary encoding.
+   *
+   * @param conversion The conversion.
+   */
+  public void setConversion(StringConversion conversion) {
+    this.conversion = conversion;
+  }
+
+  /**
+   * The class loader used to load the tagged aggregate classes (default: the class loader of this class).
+   *
+   * @return The class loader used to load the tagged aggregate classes.
+   */
+  public ClassLoader getClassLoader() {
+    return classLoader;
+  }
+
+  /**
+   * The class loader used to load the tagged aggregate classes (default: the class loader of this class).
+   *
+   * @param classLoader The class loader used to load the tagged aggregate classes.
+   */
+  public void setClassLoader(ClassLoader classLoader) {
+    this.classLoader = classLoader;
+  }
+
+  /**
+   * The plan for encoding and decoding instances of an aggregate class, with the fields in order.
+   */
+  protected static final class SnapshotPlan {
+
+    private final AggregateWritePlan writePlan;
+    private final AggregateInfo info;
+    private final Field[] fields;
+    private final Constructor constructor;
+
+    private SnapshotPlan(Class clazz, AggregateWritePlan writePlan, AggregateInfo info) {
+      this.writePlan = writePlan;
+      this.info = info;
+      AggregateWritePlan.Step[] steps = writePlan.getSteps();
+      this.fields = new Field[steps.length];
+      for (int i = 0; i < steps.length; i++) {
+        this.fields[i] = new Field(steps[i]);
+      }
+
+      Constructor constructor;
+      try {
+        constructor = clazz.getDeclaredConstructor();
+        constructor.setAccessible(true);
+      }
+      catch (Exception e) {
+        //not instantiable (e.g. abstract); it will only ever be a declared type.
+        constructor = null;
+      }
+      this.constructor = constructor;
+    }
+
+    private Object newInstance() throws Exception {
+      if (this.constructor == null) {
+        throw new OFXParseException("Unable to instantiate aggregate: no default constructor.");
+      }
+      return this.constructor.newInstance();
+    }
+  }
+
+  /**
+   * A field of a snapshot plan, for a single attribute of the aggregate.
+   */
+  protected static final class Field {
+
+    static final int STRING = 0;
+    static final int ENUM = 1;
+    static final int BOOLEAN = 2;
+    static final int INTEGER = 3;
+    static final int LONG = 4;
+    static final int SHORT = 5;
+    static final int BYTE = 6;
+    static final int DOUBLE = 7;
+    static final int FLOAT = 8;
+    static final int DECIMAL = 9;
+    static final int DATE = 10;
+    static final int AGGREGATE = 11;
+    static final int COLLECTION = 12;
+    static final int CONVERTED = 13;
+
+    private final AggregateWritePlan.Step step;
+    private final Method writeMethod;
+    private final int order;
+    private final int kind;
+    private final int wireType;
+    private final long tag;
+    private final Class valueType;
+    private final Class declaredType;
+    private final Constructor dateConstructor;
+
+    private Field(AggregateWritePlan.Step step) {
+      AggregateAttribute attribute = step.getAttribute();
+      this.step = step;
+      this.writeMethod = attribute.getWriteMethod();
+      try {
+        this.writeMethod.setAccessible(true);
+      }
+      catch (SecurityException e) {
+        //fine; we'll just take the access check.
+      }
+      this.order = attribute.getOrder();
+      this.valueType = attribute.getAttributeType();
+      this.declaredType = attribute.isCollection() ? attribute.getCollectionEntryType() : this.valueType;
+
+      Constructor dateConstructor = null;
+      Class type = this.valueType;
+      if (attribute.isCollection()) {
+        this.kind = COLLECTION;
+      }
+      else if (attribute.getType() == AggregateAttribute.Type.CHILD_AGGREGATE) {
+        this.kind = AGGREGATE;
+      }
+      else if (type == String.class) {
+        this.kind = STRING;
+      }
+      else if (type.isEnum()) {
+        this.kind = ENUM;
+      }
+      else if (type == Boolean.class || type == Boolean.TYPE) {
+        this.kind = BOOLEAN;
+      }
+      else if (type == Integer.class || type == Integer.TYPE) {
+        this.kind = INTEGER;
+      }
+      else if (type == Long.class || type == Long.TYPE) {
+        this.kind = LONG;
+      }
+      else if (type == Short.class || type == Short.TYPE) {
+        this.kind = SHORT;
+      }
+      else if (type == Byte.class || type == Byte.TYPE) {
+        this.kind = BYTE;
+      }
+      else if (type == Double.class || type == Double.TYPE) {
+        this.kind = DOUBLE;
+      }
+      else if (type == Float.class || type == Float.TYPE) {
+        this.kind = FLOAT;
+      }
+      else if (type == BigDecimal.class) {
+        this.kind = DECIMAL;
+      }
+      else if (type == Date.class) {
+        this.kind = DATE;
+      }
+      else if (Date.class.isAssignableFrom(type) && (dateConstructor = findDateConstructor(type)) != null) {
+        this.kind = DATE;
+      }
+      else {
+        this.kind = CONVERTED;
+      }
+      this.dateConstructor = dateConstructor;
+
+      switch (this.kind) {
+        case BOOLEAN:
+        case INTEGER:
+        case LONG:
+        case SHORT:
+        case BYTE:
+          this.wireType = WIRE_VARINT;
+          break;
+        case DOUBLE:
+        case FLOAT:
+          this.wireType = WIRE_FIXED64;
+          break;
+        case DECIMAL:
+          this.wireType = WIRE_DECIMAL;
+          break;
+        case DATE:
+          this.wireType = WIRE_DATE;
+          break;
+        case AGGREGATE:
+          this.wireType = WIRE_AGGREGATE;
+          break;
+        case COLLECTION:
+          this.wireType = WIRE_COLLECTION;
+          break;
+        default:
+          this.wireType = WIRE_STRING;
+      }
+      this.tag = (((long) this.order) << WIRE_TYPE_BITS) | this.wireType;
+    }
+
+    private static Constructor findDateConstructor(Class type) {
+      try {
+        return type.getConstructor(Long.TYPE);
+      }
+      catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+
+    private void set(Object instance, Object value) throws Exception {
+      this.writeMethod.invoke(instance, value);
+    }
+
+    @Override
+    public String toString() {
+      return this.step.toString();
+    }
+  }
+
+  /**
+   * The (growable) output of a snapshot, with its string table.
+   */
+  protected static final class SnapshotOutput {
+
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+    private final List<String> table = new ArrayList<String>();
+    private byte[] buffer;
+    private int count;
+
+    private SnapshotOutput(int capacity) {
+      this.buffer = new byte[capacity];
+    }
+
+    private void ensureCapacity(int length) {
+      if (this.count + length > this.buffer.length) {
+        byte[] expanded = new byte[Math.max(this.buffer.length << 1, this.count + length)];
+        System.arraycopy(this.buffer, 0, expanded, 0, this.count);
+        this.buffer = expanded;
+      }
+    }
+
+    private void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, offset, this.buffer, this.count, length);
+      this.count += length;
+    }
+
+    private void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        this.buffer[this.count++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      this.buffer[this.count++] = (byte) value;
+    }
+
+    private void writeZigZag(long value) {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeFixed64(long value) {
+      ensureCapacity(8);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        this.buffer[this.count++] = (byte) (value >>> shift);
+      }
+    }
+
+    private int indexOf(String value) {
+      Integer index = this.indexes.get(value);
+      if (index == null) {
+        index = this.table.size();
+        this.indexes.put(value, index);
+        this.table.add(value);
+      }
+      return index;
+    }
+
+    private void writeString(String value) {
+      writeVarLong(indexOf(value));
+    }
+  }
+
+  /**
+   * The input of a snapshot, with its string table and the classes resolved from it.
+   */
+  protected static final class SnapshotInput {
+
+    private final byte[] buffer;
+    private final int limit;
+    private int position;
+    private String[] strings;
+    private Class[] classes;
+    private boolean[] resolved;
+
+    private SnapshotInput(byte[] buffer, int offset, int limit) {
+      this.buffer = buffer;
+      this.position = offset;
+      this.limit = limit;
+    }
+
+    private byte readByte() throws OFXParseException {
+      if (this.position >= this.limit) {
+        throw new OFXParseException("Unexpected end of snapshot.");
+      }
+      return this.buffer[this.position++];
+    }
+
+    private long readVarLong() throws OFXParseException {
+      long value = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        byte b = readByte();
+        value |= ((long) (b & 0x7F)) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+      throw new OFXParseException("Malformed varint in snapshot.");
+    }
+
+    private int readVarInt() throws OFXParseException {
+      long value = readVarLong();
+      if (value < 0 || value > Integer.MAX_VALUE) {
+        throw new OFXParseException("Malformed varint in snapshot.");
+      }
+      return (int) value;
+    }
+
+    private long readZigZag() throws OFXParseException {
+      long value = readVarLong();
+      return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readFixed64() throws OFXParseException {
+      long value = 0;
+      for (int i = 0; i < 8; i++) {
+        value = (value << 8) | (readByte() & 0xFF);
+      }
+      return value;
+    }
+
+    private byte[] readBytes(int length) throws OFXParseException {
+      checkRemaining(length);
+      byte[] bytes = new byte[length];
+      System.arraycopy(this.buffer, this.position, bytes, 0, length);
+      this.position += length;
+      return bytes;
+    }
+
+    private String readUTF8(int length) throws OFXParseException {
+      checkRemaining(length);
+      try {
+        String value = new String(this.buffer, this.position, length, "UTF-8");
+        this.position += length;
+        return value;
+      }
+      catch (UnsupportedEncodingException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+
+    private void checkRemaining(int length) throws OFXParseException {
+      if (length > this.limit - this.position) {
+        throw new OFXParseException("Unexpected end of snapshot.");
+      }
+    }
+
+    private String readString() throws OFXParseException {
+      int index = readVarInt();
+      if (index >= this.strings.length) {
+        throw new OFXParseException("Invalid snapshot string reference: " + index);
+      }
+      return this.strings[index];
+    }
+
+    private void skipFields() throws OFXParseException {
+      long tag;
+      while ((tag = readVarLong()) != END) {
+        skipValue((int) (tag & WIRE_TYPE_MASK));
+      }
+    }
+
+    private void skipValue(int wireType) throws OFXParseException {
+      switch (wireType) {
+        case WIRE_VARINT:
+        case WIRE_DATE:
+        case WIRE_STRING:
+          readVarLong();
+          break;
+        case WIRE_FIXED64:
+          checkRemaining(8);
+          this.position += 8;
+          break;
+        case WIRE_DECIMAL:
+          readVarLong();
+          int length = readVarInt();
+          if (length == 0) {
+            readVarLong();
+          }
+          else {
+            checkRemaining(length);
+            this.position += length;
+          }
+          break;
+        case WIRE_AGGREGATE:
+          readVarLong();
+          skipFields();
+          break;
+        case WIRE_COLLECTION:
+          int count = readVarInt();
+          for (int i = 0; i < count; i++) {
+            readVarLong();
+            skipFields();
+          }
+          break;
+        case WIRE_HEADER:
+          readVarLong();
+          readVarLong();
+          break;
+        default:
+          throw new OFXParseException("Unknown wire type in snapshot: " + wireType);
+      }
+    }
+  }
+}
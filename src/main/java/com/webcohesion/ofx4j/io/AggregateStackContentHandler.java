@@ -30,11 +30,29 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
 
   private static final Log LOG = LogFactory.getLog(AggregateStackContentHandler.class);
 
+  /**
+   * By default, a detailed message is logged for the first and then every 1000th occurrence of an unsupported element.
+   */
+  public static final int DEFAULT_UNSUPPORTED_DETAIL_SAMPLE_RATE = 1000;
+
   private final Stack<AggregateInfoHolder> stack = new Stack<AggregateInfoHolder>();
   private final StringConversion conversion;
+  private final DefaultStringConversion checkedConversion;
+  private final AggregateFilter filter;
+  private final UnsupportedElementStatistics unsupportedElements = new UnsupportedElementStatistics();
+  private UnsupportedElementStatistics globalUnsupportedElements;
+  private int unsupportedDetailSampleRate = DEFAULT_UNSUPPORTED_DETAIL_SAMPLE_RATE;
+  private ParseDiagnostics diagnostics;
+  private AggregateListener listener;
+  private int skippedAggregateCount = 0;
+  private int conversionFailureCount = 0;
   private boolean parsingRoot = false;
 
   public AggregateStackContentHandler(A root, StringConversion conversion) {
+    this(root, conversion, null);
+  }
+
+  public AggregateStackContentHandler(A root, StringConversion conversion, AggregateFilter filter) {
     AggregateInfo aggregateInfo = AggregateIntrospector.getAggregateInfo(root.getClass());
     if (aggregateInfo == null) {
       throw new IllegalArgumentException(String.format("Unable to marshal object of type %s (no aggregate metadata found).", root.getClass().getName()));
@@ -42,6 +60,9 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
 
     this.stack.push(new AggregateInfoHolder(root, aggregateInfo, aggregateInfo.getName()));
     this.conversion = conversion;
+    //values are only checked up front if they're converted by the default conversion (and not an override of it).
+    this.checkedConversion = conversion != null && conversion.getClass() == DefaultStringConversion.class ? (DefaultStringConversion) conversion : null;
+    this.filter = filter;
   }
 
   public void onHeader(String name, String value) throws OFXSyntaxException {
@@ -52,23 +73,39 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
   }
 
   public void onElement(String name, String value) throws OFXSyntaxException {
+    AggregateInfoHolder record = this.stack.peek().record;
+    if (record != null && !record.rejected && !this.filter.accept(record.aggregate.getClass(), name, value)) {
+      //the record was rejected by the filter; skip the rest of it.
+      record.rejected = true;
+      this.skippedAggregateCount++;
+    }
+
     if (!this.stack.peek().isBeingSkipped()) {
       AggregateAttribute attribute = this.stack.peek().info.getAttribute(name, this.stack.peek().currentAttributeIndex);
       if (attribute != null && attribute.getType() == AggregateAttribute.Type.ELEMENT) {
-        try {
-          attribute.set(this.conversion.fromString(attribute.getAttributeType(), value), this.stack.peek().aggregate);
+        if (this.diagnostics != null && this.checkedConversion != null && !this.checkedConversion.isConvertible(attribute.getAttributeType(), value)) {
+          //in lenient mode, invalid values are expected, so they're recorded without throwing an exception for each.
+          this.conversionFailureCount++;
+          this.diagnostics.add(new ParseDiagnostic(getPath(), name, value, "Unable to set " + attribute.toString() + ": invalid value."));
         }
-        catch (Exception e) {
-          LOG.error("Unable to set " + attribute.toString(), e);
+        else {
+          try {
+            attribute.set(this.conversion.fromString(attribute.getAttributeType(), value), this.stack.peek().aggregate);
+          }
+          catch (Exception e) {
+            this.conversionFailureCount++;
+            if (this.diagnostics != null) {
+              this.diagnostics.add(new ParseDiagnostic(getPath(), name, value, "Unable to set " + attribute.toString() + ": " + e.getMessage()));
+            }
+            else {
+              LOG.error("Unable to set " + attribute.toString(), e);
+            }
+          }
         }
         this.stack.peek().currentAttributeIndex = attribute.getOrder();
       }
-      else if (LOG.isInfoEnabled()) {
-        LOG.info(String.format("Element %s is not supported on aggregate %s (class %s) at index %s.",
-                               name,
-                               this.stack.peek().info.getName(),
-                               this.stack.peek().aggregate.getClass().getName(),
-                               this.stack.peek().currentAttributeIndex));
+      else {
+        unsupported("Element", name, "no element by that name after the current index");
       }
     }
   }
@@ -116,44 +153,46 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
             }
 
             infoHolder = new AggregateInfoHolder(aggregate, aggregateInfo, aggregateName);
+            if (this.stack.peek().record != null) {
+              infoHolder.record = this.stack.peek().record;
+            }
+            else if (this.filter != null && this.filter.appliesTo(aggregateType)) {
+              infoHolder.record = infoHolder;
+              infoHolder.rejected = !this.filter.accept(aggregateType);
+              if (infoHolder.rejected) {
+                this.skippedAggregateCount++;
+              }
+            }
+
+            //a record (or an aggregate within one) may still be rejected by the filter, so it isn't reported yet.
+            if (infoHolder.record == null && this.listener != null && this.listener.appliesTo(aggregateType)) {
+              this.listener.aggregateStarted(aggregate, this.stack.peek().aggregate);
+            }
           }
           else {
-            if (LOG.isInfoEnabled()) {
-              LOG.info(String.format("Child aggregate %s is not supported on aggregate %s (class %s): name not assigned a type.",
-                                     aggregateName,
-                                     this.stack.peek().info.getName(),
-                                     this.stack.peek().aggregate.getClass().getName()));
-            }
+            unsupported("Child aggregate", aggregateName, "name not assigned a type");
 
             //element not supported.  push a skipping aggregate on the stack.
             infoHolder = new AggregateInfoHolder(aggregateName);
+            this.skippedAggregateCount++;
           }
 
           this.stack.peek().currentAttributeIndex = attribute.getOrder();
         }
         else {
-          if (LOG.isInfoEnabled()) {
-            LOG.info(String.format("Child aggregate %s is not supported on aggregate %s (class %s): no child aggregate, but there does exist an element by that name.",
-                                   aggregateName,
-                                   this.stack.peek().info.getName(),
-                                   this.stack.peek().aggregate.getClass().getName()));
-          }
+          unsupported("Child aggregate", aggregateName, "no child aggregate, but there does exist an element by that name");
 
           //child aggregate not supported.  push a skipping aggregate on the stack.
           infoHolder = new AggregateInfoHolder(aggregateName);
+          this.skippedAggregateCount++;
         }
       }
       else {
-        if (LOG.isInfoEnabled()) {
-          LOG.info(String.format("Child aggregate %s is not supported on aggregate %s (class %s): no attributes found by that name after index %s.",
-                                 aggregateName,
-                                 this.stack.peek().info.getName(),
-                                 this.stack.peek().aggregate.getClass().getName(),
-                                 this.stack.peek().currentAttributeIndex));
-        }
+        unsupported("Child aggregate", aggregateName, "no attributes found by that name after the current index");
 
         //child aggregate not supported.  push a skipping aggregate on the stack.
         infoHolder = new AggregateInfoHolder(aggregateName);
+        this.skippedAggregateCount++;
       }
 
       this.stack.push(infoHolder);
@@ -163,8 +202,19 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
   public void endAggregate(String aggregateName) throws OFXSyntaxException {
     AggregateInfoHolder infoHolder = this.stack.pop();
     if (!aggregateName.equals(infoHolder.aggregateName)) {
-      throw new OFXSyntaxException("Unexpected end aggregate " + aggregateName + ". (Perhaps " +
-        infoHolder.aggregateName + " is an element with an empty value, making it impossible to parse.)");
+      String message = "Unexpected end aggregate " + aggregateName + ". (Perhaps " +
+        infoHolder.aggregateName + " is an element with an empty value, making it impossible to parse.)";
+      if (this.diagnostics == null) {
+        throw new OFXSyntaxException(message);
+      }
+
+      this.stack.push(infoHolder);
+      this.diagnostics.add(new ParseDiagnostic(getPath(), aggregateName, null, message));
+      if (!resynchronize(aggregateName)) {
+        //no aggregate by that name was started; ignore the end tag.
+        return;
+      }
+      infoHolder = this.stack.pop();
     }
 
     if (!this.stack.isEmpty()) {
@@ -172,28 +222,209 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
         //we're not skipping the top aggregate, so process it.
         AggregateAttribute attribute = this.stack.peek().info.getAttribute(
             aggregateName, this.stack.peek().currentAttributeIndex, infoHolder.aggregate.getClass());
+        boolean add = true;
+        if (attribute != null && this.listener != null && this.listener.appliesTo(infoHolder.aggregate.getClass())) {
+          if (infoHolder.record == infoHolder) {
+            //the filter can no longer reject the record, so it's reported (as a whole).
+            this.listener.aggregateStarted(infoHolder.aggregate, this.stack.peek().aggregate);
+            add = this.listener.aggregateEnded(infoHolder.aggregate, this.stack.peek().aggregate);
+          }
+          else if (infoHolder.record == null) {
+            add = this.listener.aggregateEnded(infoHolder.aggregate, this.stack.peek().aggregate);
+          }
+        }
         try {
           if (attribute != null) {
-            attribute.set(infoHolder.aggregate, this.stack.peek().aggregate);
-          } else {
-            if (LOG.isInfoEnabled()) {
-              LOG.info(String.format("Child aggregate %s is not supported on aggregate %s (class %s): no attributes found by that name after index %s.",
-                                     aggregateName,
-                                     this.stack.peek().info.getName(),
-                                     this.stack.peek().aggregate.getClass().getName(),
-                                     this.stack.peek().currentAttributeIndex));
+            if (add) {
+              attribute.set(infoHolder.aggregate, this.stack.peek().aggregate);
             }
+          } else {
+            unsupported("Child aggregate", aggregateName, "no attributes of a matching type found by that name after the current index");
           }
         }
         catch (Exception e) {
-          LOG.error("Unable to set " + attribute.toString(), e);
+          if (this.diagnostics != null) {
+            this.diagnostics.add(new ParseDiagnostic(getPath(), aggregateName, null, "Unable to set " + attribute.toString() + ": " + e.getMessage()));
+          }
+          else {
+            LOG.error("Unable to set " + attribute.toString(), e);
+          }
+        }
+        if (attribute != null) {
+          this.stack.peek().currentAttributeIndex = attribute.getOrder();
         }
-        this.stack.peek().currentAttributeIndex = attribute.getOrder();
       }
     }
     else {
       //ended the root element.
+      if (!this.unsupportedElements.isEmpty()) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info(this.unsupportedElements.toString());
+        }
+
+        if (this.globalUnsupportedElements != null) {
+          this.globalUnsupportedElements.merge(this.unsupportedElements);
+        }
+      }
+    }
+  }
+
+  /**
+   * Resynchronize the stack with an end tag: discard the aggregates that were started after the most recent
+   * aggregate by the specified name.
+   *
+   * @param aggregateName The name of the aggregate being ended.
+   * @return Whether an aggregate by the specified name was found on the stack (and is now at the top of it).
+   */
+  protected boolean resynchronize(String aggregateName) {
+    int index = this.stack.size() - 1;
+    while (index >= 0 && !aggregateName.equals(this.stack.get(index).aggregateName)) {
+      index--;
     }
+
+    if (index < 0) {
+      return false;
+    }
+
+    while (this.stack.size() > index + 1) {
+      this.stack.pop();
+      this.skippedAggregateCount++;
+    }
+    return true;
+  }
+
+  /**
+   * The path of the aggregate at the top of the stack, e.g. "OFX/BANKMSGSRSV1/STMTTRNRS".
+   *
+   * @return The path of the aggregate at the top of the stack.
+   */
+  protected String getPath() {
+    StringBuilder path = new StringBuilder();
+    for (AggregateInfoHolder holder : this.stack) {
+      if (path.length() > 0) {
+        path.append('/');
+      }
+      path.append(holder.aggregateName);
+    }
+    return path.toString();
+  }
+
+  /**
+   * Record an element or child aggregate that isn't supported by the aggregate at the top of the stack. The occurrence
+   * is counted; a detailed (debug) message is only logged for a sample of the occurrences.
+   *
+   * @param kind The kind of the unsupported item (element or child aggregate).
+   * @param name The name of the unsupported item.
+   * @param reason The reason it isn't supported.
+   */
+  protected void unsupported(String kind, String name, String reason) {
+    AggregateInfoHolder parent = this.stack.peek();
+    int count = this.unsupportedElements.record(parent.aggregateName, name);
+    if (this.unsupportedDetailSampleRate > 0 && (count - 1) % this.unsupportedDetailSampleRate == 0 && LOG.isDebugEnabled()) {
+      LOG.debug(String.format("%s %s is not supported on aggregate %s (class %s) at index %s: %s. (Occurrence %s.)",
+                              kind, name, parent.info.getName(), parent.aggregate.getClass().getName(), parent.currentAttributeIndex, reason, count));
+    }
+  }
+
+  /**
+   * The unsupported elements and aggregates encountered by this handler.
+   *
+   * @return The unsupported elements and aggregates encountered by this handler.
+   */
+  public UnsupportedElementStatistics getUnsupportedElements() {
+    return unsupportedElements;
+  }
+
+  /**
+   * The diagnostics of a lenient parse, or null if the parse is strict. When in lenient mode, problems that can be
+   * recovered from are recorded in the diagnostics instead of being logged or failing the parse.
+   *
+   * @return The diagnostics of a lenient parse.
+   */
+  public ParseDiagnostics getDiagnostics() {
+    return diagnostics;
+  }
+
+  /**
+   * The diagnostics of a lenient parse, or null if the parse is strict. When in lenient mode, problems that can be
+   * recovered from are recorded in the diagnostics instead of being logged or failing the parse.
+   *
+   * @param diagnostics The diagnostics of a lenient parse.
+   */
+  public void setDiagnostics(ParseDiagnostics diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
+  /**
+   * The listener notified as aggregates are unmarshalled, or null.
+   *
+   * @return The listener notified as aggregates are unmarshalled.
+   */
+  public AggregateListener getListener() {
+    return listener;
+  }
+
+  /**
+   * The listener notified as aggregates are unmarshalled, or null.
+   *
+   * @param listener The listener notified as aggregates are unmarshalled.
+   */
+  public void setListener(AggregateListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * The number of aggregates (subtrees) that were skipped, either because they aren't supported or because they were rejected by the filter.
+   *
+   * @return The number of aggregates that were skipped.
+   */
+  public int getSkippedAggregateCount() {
+    return skippedAggregateCount;
+  }
+
+  /**
+   * The number of element values that couldn't be converted and set.
+   *
+   * @return The number of element values that couldn't be converted and set.
+   */
+  public int getConversionFailureCount() {
+    return conversionFailureCount;
+  }
+
+  /**
+   * Shared statistics into which the unsupported elements of this handler are merged at the end of the parse, or null.
+   *
+   * @return Shared statistics into which the unsupported elements of this handler are merged.
+   */
+  public UnsupportedElementStatistics getGlobalUnsupportedElements() {
+    return globalUnsupportedElements;
+  }
+
+  /**
+   * Shared statistics into which the unsupported elements of this handler are merged at the end of the parse, or null.
+   *
+   * @param globalUnsupportedElements Shared statistics into which the unsupported elements of this handler are merged.
+   */
+  public void setGlobalUnsupportedElements(UnsupportedElementStatistics globalUnsupportedElements) {
+    this.globalUnsupportedElements = globalUnsupportedElements;
+  }
+
+  /**
+   * The rate at which detailed messages about unsupported elements are logged (1 logs every occurrence, 0 logs none).
+   *
+   * @return The rate at which detailed messages about unsupported elements are logged.
+   */
+  public int getUnsupportedDetailSampleRate() {
+    return unsupportedDetailSampleRate;
+  }
+
+  /**
+   * The rate at which detailed messages about unsupported elements are logged (1 logs every occurrence, 0 logs none).
+   *
+   * @param unsupportedDetailSampleRate The rate at which detailed messages about unsupported elements are logged.
+   */
+  public void setUnsupportedDetailSampleRate(int unsupportedDetailSampleRate) {
+    this.unsupportedDetailSampleRate = unsupportedDetailSampleRate;
   }
 
   private class AggregateInfoHolder {
@@ -202,6 +433,8 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
     private final AggregateInfo info;
     private final String aggregateName;
     private int currentAttributeIndex = 0;
+    private AggregateInfoHolder record = null;
+    private boolean rejected = false;
 
     private AggregateInfoHolder(String ignoredAggregateName) {
       this.aggregate = null;
@@ -216,7 +449,7 @@ public class AggregateStackContentHandler<A> implements OFXHandler {
     }
 
     public boolean isBeingSkipped() {
-      return this.aggregate == null || this.info == null;
+      return this.aggregate == null || this.info == null || (this.record != null && this.record.rejected);
     }
 
     public boolean isSkipping(String aggregateName) {
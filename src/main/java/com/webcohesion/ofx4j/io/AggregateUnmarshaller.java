@@ -31,16 +31,44 @@ public class AggregateUnmarshaller<A> {
 
   private final Class<A> clazz;
   private StringConversion conversion = new DefaultStringConversion();
+  private AggregateFilter filter;
+  private UnsupportedElementStatistics unsupportedElements;
+  private int unsupportedDetailSampleRate = AggregateStackContentHandler.DEFAULT_UNSUPPORTED_DETAIL_SAMPLE_RATE;
 
   public AggregateUnmarshaller(Class<A> clazz) {
     this.clazz = clazz;
   }
 
   public A unmarshal(InputStream stream) throws IOException, OFXParseException {
+    return unmarshal(stream, null);
+  }
+
+  /**
+   * Unmarshal the specified stream, leniently if diagnostics are supplied.
+   *
+   * @param stream The stream.
+   * @param diagnostics The diagnostics into which recoverable problems are recorded, or null for a strict parse.
+   * @return The aggregate.
+   */
+  public A unmarshal(InputStream stream, ParseDiagnostics diagnostics) throws IOException, OFXParseException {
+    return unmarshal(stream, diagnostics, null);
+  }
+
+  /**
+   * Unmarshal the specified stream, notifying the specified listener as aggregates are read.
+   *
+   * @param stream The stream.
+   * @param diagnostics The diagnostics into which recoverable problems are recorded, or null for a strict parse.
+   * @param listener The listener to notify as aggregates are read, or null.
+   * @return The aggregate (without the aggregates the listener didn't add to their parent).
+   */
+  public A unmarshal(InputStream stream, ParseDiagnostics diagnostics, AggregateListener listener) throws IOException, OFXParseException {
     try {
       A aggregate = clazz.newInstance();
       OFXReader reader = newReader();
-      reader.setContentHandler(new AggregateStackContentHandler<A>(aggregate, getConversion()));
+      AggregateStackContentHandler<A> handler = newContentHandler(aggregate, diagnostics);
+      handler.setListener(listener);
+      reader.setContentHandler(handler);
       reader.parse(stream);
       return aggregate;
     }
@@ -56,10 +84,21 @@ public class AggregateUnmarshaller<A> {
   }
 
   public A unmarshal(Reader reader) throws IOException, OFXParseException {
+    return unmarshal(reader, null);
+  }
+
+  /**
+   * Unmarshal the specified reader, leniently if diagnostics are supplied.
+   *
+   * @param reader The reader.
+   * @param diagnostics The diagnostics into which recoverable problems are recorded, or null for a strict parse.
+   * @return The aggregate.
+   */
+  public A unmarshal(Reader reader, ParseDiagnostics diagnostics) throws IOException, OFXParseException {
     try {
       A aggregate = clazz.newInstance();
       OFXReader ofxReader = newReader();
-      ofxReader.setContentHandler(new AggregateStackContentHandler<A>(aggregate, getConversion()));
+      ofxReader.setContentHandler(newContentHandler(aggregate, diagnostics));
       ofxReader.parse(reader);
       return aggregate;
     }
@@ -71,6 +110,21 @@ public class AggregateUnmarshaller<A> {
     }
   }
 
+  /**
+   * New content handler for unmarshalling into the specified aggregate.
+   *
+   * @param aggregate The aggregate.
+   * @param diagnostics The diagnostics of a lenient parse, or null for a strict parse.
+   * @return The content handler.
+   */
+  protected AggregateStackContentHandler<A> newContentHandler(A aggregate, ParseDiagnostics diagnostics) {
+    AggregateStackContentHandler<A> handler = new AggregateStackContentHandler<A>(aggregate, getConversion(), getFilter());
+    handler.setDiagnostics(diagnostics);
+    handler.setGlobalUnsupportedElements(getUnsupportedElements());
+    handler.setUnsupportedDetailSampleRate(getUnsupportedDetailSampleRate());
+    return handler;
+  }
+
   /**
    * New OFX reader.
    *
@@ -97,4 +151,58 @@ public class AggregateUnmarshaller<A> {
   public void setConversion(StringConversion conversion) {
     this.conversion = conversion;
   }
+
+  /**
+   * The filter applied to records (e.g. transactions) as they are unmarshalled, or null if none.
+   *
+   * @return The filter applied to records as they are unmarshalled.
+   */
+  public AggregateFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * The filter applied to records (e.g. transactions) as they are unmarshalled, or null if none.
+   *
+   * @param filter The filter applied to records as they are unmarshalled.
+   */
+  public void setFilter(AggregateFilter filter) {
+    this.filter = filter;
+  }
+
+  /**
+   * Statistics into which the unsupported elements of each parse are merged, or null.
+   *
+   * @return Statistics into which the unsupported elements of each parse are merged.
+   */
+  public UnsupportedElementStatistics getUnsupportedElements() {
+    return unsupportedElements;
+  }
+
+  /**
+   * Statistics into which the unsupported elements of each parse are merged, or null.
+   *
+   * @param unsupportedElements Statistics into which the unsupported elements of each parse are merged.
+   */
+  public void setUnsupportedElements(UnsupportedElementStatistics unsupportedElements) {
+    this.unsupportedElements = unsupportedElements;
+  }
+
+  /**
+   * The rate at which detailed messages about unsupported elements are logged (1 logs every occurrence, 0 logs none).
+   *
+   * @return The rate at which detailed messages about unsupported elements are logged.
+   */
+  public int getUnsupportedDetailSampleRate() {
+    return unsupportedDetailSampleRate;
+  }
+
+  /**
+   * The rate at which detailed messages about unsupported elements are logged (1 logs every occurrence, 0 logs none).
+   *
+   * @param unsupportedDetailSampleRate The rate at which detailed messages about unsupported elements are logged.
+   */
+  public void setUnsupportedDetailSampleRate(int unsupportedDetailSampleRate) {
+    this.unsupportedDetailSampleRate = unsupportedDetailSampleRate;
+  }
 }
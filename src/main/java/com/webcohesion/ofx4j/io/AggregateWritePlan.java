@@ -0,0 +1,350 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A precompiled plan for writing instances of an aggregate class: the ordered steps (one per attribute) and the
+ * headers, with the read methods, names and types of each resolved once per class. Plans are immutable and
+ * shared between threads.
+ *
+ * @author Ryan Heaton
+ */
+public class AggregateWritePlan {
+
+  private static final Map<Class, AggregateWritePlan> PLANS = new ConcurrentHashMap<Class, AggregateWritePlan>();
+
+  private final String name;
+  private final Step[] steps;
+  private final String[] headerNames;
+  private final Method[] headerReadMethods;
+  private final ValueFormat[] headerFormats;
+
+  /**
+   * Get the write plan for the specified class.
+   *
+   * @param clazz The aggregate class.
+   * @return The write plan, or null if the class isn't an aggregate.
+   */
+  public static AggregateWritePlan getWritePlan(Class clazz) {
+    AggregateWritePlan plan = PLANS.get(clazz);
+    if (plan == null) {
+      AggregateInfo info = AggregateIntrospector.getAggregateInfo(clazz);
+      if (info == null) {
+        return null;
+      }
+
+      //racing threads compile equivalent plans; the last one in wins.
+      plan = new AggregateWritePlan(info);
+      PLANS.put(clazz, plan);
+    }
+    return plan;
+  }
+
+  private AggregateWritePlan(AggregateInfo info) {
+    this.name = info.getName();
+
+    SortedSet<AggregateAttribute> attributes = info.getAttributes();
+    this.steps = new Step[attributes.size()];
+    int index = 0;
+    for (AggregateAttribute attribute : attributes) {
+      this.steps[index++] = new Step(attribute);
+    }
+
+    Map<String, Method> headers = info.getHeaderReadMethods();
+    this.headerNames = headers.keySet().toArray(new String[headers.size()]);
+    this.headerReadMethods = headers.values().toArray(new Method[headers.size()]);
+    this.headerFormats = new ValueFormat[this.headerReadMethods.length];
+    for (int i = 0; i < this.headerReadMethods.length; i++) {
+      makeAccessible(this.headerReadMethods[i]);
+      this.headerFormats[i] = ValueFormat.of(this.headerReadMethods[i].getReturnType());
+    }
+  }
+
+  private static void makeAccessible(Method method) {
+    try {
+      //skips the access check on each invocation.
+      method.setAccessible(true);
+    }
+    catch (SecurityException e) {
+      //fine; we'll just take the access check.
+    }
+  }
+
+  /**
+   * The name of the aggregate.
+   *
+   * @return The name of the aggregate.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The steps, in the order they are to be written.
+   *
+   * @return The steps.
+   */
+  public Step[] getSteps() {
+    return steps;
+  }
+
+  /**
+   * The header names, in sorted order.
+   *
+   * @return The header names.
+   */
+  public String[] getHeaderNames() {
+    return headerNames;
+  }
+
+  /**
+   * Whether the aggregate has headers.
+   *
+   * @return Whether the aggregate has headers.
+   */
+  public boolean hasHeaders() {
+    return this.headerNames.length > 0;
+  }
+
+  /**
+   * Get the value of the header at the specified index (see {@link #getHeaderNames()}).
+   *
+   * @param instance The aggregate instance.
+   * @param index The index of the header.
+   * @return The value of the header.
+   */
+  public Object getHeaderValue(Object instance, int index) {
+    try {
+      return this.headerReadMethods[index].invoke(instance);
+    }
+    catch (RuntimeException e) {
+      throw e;
+    }
+    catch (Exception e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Get the format of the header at the specified index (see {@link #getHeaderNames()}).
+   *
+   * @param index The index of the header.
+   * @return The format of the header.
+   */
+  public ValueFormat getHeaderFormat(int index) {
+    return this.headerFormats[index];
+  }
+
+  /**
+   * How the value of an element or header is converted to a string, resolved from its declared type. Only the
+   * {@link DefaultStringConversion default conversion} can be bypassed this way: any other conversion is always used.
+   */
+  public enum ValueFormat {
+
+    /**
+     * The value is a string.
+     */
+    STRING,
+
+    /**
+     * The value is a boolean, written as Y or N.
+     */
+    BOOLEAN,
+
+    /**
+     * The value (a number, a character or an enum) is written as {@link String#valueOf(Object)}.
+     */
+    VALUE_OF,
+
+    /**
+     * The value is converted by the conversion (e.g. dates, or values of undeclared types).
+     */
+    CONVERSION;
+
+    /**
+     * The format of values of the specified declared type.
+     *
+     * @param type The declared type.
+     * @return The format.
+     */
+    public static ValueFormat of(Class type) {
+      if (type == String.class) {
+        return STRING;
+      }
+      else if (type == Boolean.class || type == Boolean.TYPE) {
+        return BOOLEAN;
+      }
+      else if (type.isPrimitive() || Number.class.isAssignableFrom(type) || type == Character.class || type.isEnum()) {
+        return VALUE_OF;
+      }
+      return CONVERSION;
+    }
+
+    /**
+     * Convert a (non-null) value to a string, as the default conversion would.
+     *
+     * @param value The value.
+     * @param conversion The default conversion, for the values it has to convert.
+     * @return The string.
+     */
+    public String toString(Object value, StringConversion conversion) {
+      switch (this) {
+        case STRING:
+          return (String) value;
+        case BOOLEAN:
+          return ((Boolean) value) ? "Y" : "N";
+        case VALUE_OF:
+          return String.valueOf(value);
+        default:
+          return conversion.toString(value);
+      }
+    }
+  }
+
+  /**
+   * A step of a write plan, for a single attribute of the aggregate.
+   */
+  public static final class Step {
+
+    private final AggregateAttribute attribute;
+    private final Method readMethod;
+    private final AggregateAttribute.Type type;
+    private final boolean collection;
+    private final String name;
+    private final boolean required;
+    private final ValueFormat format;
+    private volatile PlanCache lastPlan;
+
+    private Step(AggregateAttribute attribute) {
+      this.attribute = attribute;
+      this.readMethod = attribute.getReadMethod();
+      this.type = attribute.getType();
+      this.collection = attribute.isCollection();
+      this.name = attribute.getName();
+      this.required = attribute.isRequired();
+      this.format = ValueFormat.of(this.readMethod.getReturnType());
+      makeAccessible(this.readMethod);
+    }
+
+    /**
+     * Get the value of the attribute.
+     *
+     * @param instance The aggregate instance.
+     * @return The value of the attribute.
+     */
+    public Object get(Object instance) throws Exception {
+      return this.readMethod.invoke(instance);
+    }
+
+    /**
+     * Get the write plan for a child aggregate value. The plan of the last class seen is cached on the step,
+     * so the lookup is skipped for the (usual) case that the values of an attribute are all of the same class.
+     *
+     * @param valueType The class of the value.
+     * @return The write plan.
+     * @throws IllegalArgumentException If the class isn't an aggregate.
+     */
+    public AggregateWritePlan getPlan(Class valueType) {
+      PlanCache cache = this.lastPlan;
+      if (cache != null && cache.type == valueType) {
+        return cache.plan;
+      }
+
+      AggregateWritePlan plan = getWritePlan(valueType);
+      if (plan == null) {
+        throw new IllegalArgumentException(String.format("Unable to marshal object of type %s (no aggregate metadata found).", valueType.getName()));
+      }
+      this.lastPlan = new PlanCache(valueType, plan);
+      return plan;
+    }
+
+    /**
+     * The attribute this step writes.
+     *
+     * @return The attribute this step writes.
+     */
+    public AggregateAttribute getAttribute() {
+      return attribute;
+    }
+
+    /**
+     * The type of the attribute.
+     *
+     * @return The type of the attribute.
+     */
+    public AggregateAttribute.Type getType() {
+      return type;
+    }
+
+    /**
+     * Whether the attribute is a collection.
+     *
+     * @return Whether the attribute is a collection.
+     */
+    public boolean isCollection() {
+      return collection;
+    }
+
+    /**
+     * The name of the attribute (null for collections, the entries of which are named by their own aggregate name).
+     *
+     * @return The name of the attribute.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Whether the attribute is required.
+     *
+     * @return Whether the attribute is required.
+     */
+    public boolean isRequired() {
+      return required;
+    }
+
+    /**
+     * The format of the value of the attribute (elements only).
+     *
+     * @return The format of the value of the attribute.
+     */
+    public ValueFormat getFormat() {
+      return format;
+    }
+
+    @Override
+    public String toString() {
+      return this.attribute.toString();
+    }
+  }
+
+  private static final class PlanCache {
+
+    private final Class type;
+    private final AggregateWritePlan plan;
+
+    private PlanCache(Class type, AggregateWritePlan plan) {
+      this.type = type;
+      this.plan = plan;
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.Iterator;
+
+/**
+ * Source of the entries of collection-valued child aggregates, consulted by the {@link AggregateMarshaller} before it
+ * reads the value of the attribute. The entries are pulled from the iterator one at a time as they are written, so an
+ * unbounded sequence (e.g. a database cursor) can be marshalled with constant memory. If the iterator also implements
+ * {@link java.io.Closeable}, it's closed when the marshaller is done with it.
+ *
+ * @author Ryan Heaton
+ */
+public interface ChildAggregateSource {
+
+  /**
+   * Get the entries of a collection-valued child aggregate attribute.
+   *
+   * @param aggregate The aggregate being written.
+   * @param attribute The collection-valued attribute.
+   * @return The entries to write in place of the value of the attribute, or null to write the value of the attribute.
+   */
+  Iterator<?> getChildAggregates(Object aggregate, AggregateAttribute attribute);
+}
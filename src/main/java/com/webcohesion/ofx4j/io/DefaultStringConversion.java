@@ -112,6 +112,151 @@ public class DefaultStringConversion implements StringConversion {
     return (E) value;
   }
 
+  /**
+   * Whether the specified value can be converted to the specified type by {@link #fromString(Class, String)}, checked
+   * without the cost of throwing (and catching) an exception for an invalid value. URLs aren't checked.
+   *
+   * @param clazz The type.
+   * @param value The value.
+   * @return Whether the value can be converted to the type.
+   */
+  public boolean isConvertible(Class<?> clazz, String value) {
+    if (value == null || String.class.isAssignableFrom(clazz)) {
+      return true;
+    }
+    else if (StatusCode.class.isAssignableFrom(clazz)) {
+      return isInteger(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+    else if (Enum.class.isAssignableFrom(clazz)) {
+      for (Object constant : clazz.getEnumConstants()) {
+        if (((Enum) constant).name().equals(value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    else if ((Integer.class.isAssignableFrom(clazz)) || (Integer.TYPE == clazz)) {
+      return isInteger(value, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+    else if ((Short.class.isAssignableFrom(clazz)) || (Short.TYPE == clazz)) {
+      return isInteger(value, Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+    else if ((Float.class.isAssignableFrom(clazz)) || (Float.TYPE == clazz) || (Double.class.isAssignableFrom(clazz)) || (Double.TYPE == clazz)) {
+      return isDecimal(value.trim());
+    }
+    else if (Time.class.isAssignableFrom(clazz)) {
+      char[] parseableTime = new char[TIME_FORMAT_LENGTH];
+      Arrays.fill(parseableTime, '0');
+      value.getChars(0, Math.min(parseableTime.length, value.length()), parseableTime, 0);
+      return isDigits(parseableTime, 0, 2) && isDigits(parseableTime, 2, 2) && isDigits(parseableTime, 4, 2) && isDigits(parseableTime, 7, 3);
+    }
+    else if (Date.class.isAssignableFrom(clazz)) {
+      char[] parseableDate = new char[DATE_FORMAT_LENGTH];
+      Arrays.fill(parseableDate, '0');
+      int index = value.indexOf('[');
+      int length = Math.min(DATE_FORMAT_LENGTH, index < 0 ? value.length() : index);
+      value.getChars(0, length, parseableDate, 0);
+      return isDigits(parseableDate, 0, 4) && isDigits(parseableDate, 4, 2) && isDigits(parseableDate, 6, 2)
+        && isDigits(parseableDate, 8, 2) && isDigits(parseableDate, 10, 2) && isDigits(parseableDate, 12, 2)
+        && isDigits(parseableDate, 15, 3);
+    }
+    return true;
+  }
+
+  /**
+   * Whether the specified characters can be parsed by {@link Integer#parseInt(String)} (an optional sign followed by
+   * digits).
+   */
+  private static boolean isDigits(char[] chars, int offset, int length) {
+    int start = offset;
+    if (chars[start] == '-' || chars[start] == '+') {
+      start++;
+    }
+    if (start == offset + length) {
+      return false;
+    }
+    for (int i = start; i < offset + length; i++) {
+      if (Character.digit(chars[i], 10) < 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Whether the specified value is an integer within the specified range.
+   */
+  private static boolean isInteger(String value, long min, long max) {
+    int length = value.length();
+    if (length == 0 || !isDigits(value.toCharArray(), 0, length)) {
+      return false;
+    }
+
+    boolean negative = value.charAt(0) == '-';
+    long number = 0;
+    for (int i = (negative || value.charAt(0) == '+') ? 1 : 0; i < length; i++) {
+      number = number * 10 + Character.digit(value.charAt(i), 10);
+      if (number > max + 1) {
+        return false;
+      }
+    }
+    number = negative ? -number : number;
+    return number >= min && number <= max;
+  }
+
+  /**
+   * Whether the specified (trimmed) value is a decimal number as parsed by {@link Double#parseDouble(String)}: an
+   * optional sign, followed by "NaN", "Infinity" or digits with an optional decimal point, exponent and type suffix.
+   * Hexadecimal values aren't supported.
+   */
+  private static boolean isDecimal(String value) {
+    int index = 0;
+    int length = value.length();
+    if (index < length && (value.charAt(index) == '-' || value.charAt(index) == '+')) {
+      index++;
+    }
+    String rest = value.substring(index);
+    if ("NaN".equals(rest) || "Infinity".equals(rest)) {
+      return true;
+    }
+
+    int digits = 0;
+    while (index < length && value.charAt(index) >= '0' && value.charAt(index) <= '9') {
+      index++;
+      digits++;
+    }
+    if (index < length && value.charAt(index) == '.') {
+      index++;
+      while (index < length && value.charAt(index) >= '0' && value.charAt(index) <= '9') {
+        index++;
+        digits++;
+      }
+    }
+    if (digits == 0) {
+      return false;
+    }
+
+    if (index < length && (value.charAt(index) == 'e' || value.charAt(index) == 'E')) {
+      index++;
+      if (index < length && (value.charAt(index) == '-' || value.charAt(index) == '+')) {
+        index++;
+      }
+      int exponentDigits = 0;
+      while (index < length && value.charAt(index) >= '0' && value.charAt(index) <= '9') {
+        index++;
+        exponentDigits++;
+      }
+      if (exponentDigits == 0) {
+        return false;
+      }
+    }
+
+    if (index < length && "fFdD".indexOf(value.charAt(index)) >= 0) {
+      index++;
+    }
+    return index == length;
+  }
+
   /**
    * Parses a date according to OFX.
    *
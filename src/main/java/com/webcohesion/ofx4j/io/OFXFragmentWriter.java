@@ -0,0 +1,61 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An OFX writer that can render parts of a document ("fragments") into separate streams and splice pre-rendered
+ * fragments into its own output. A fragment rendered by a writer of a given {@link #getFlavor() flavor} may be
+ * spliced into any writer of the same flavor.
+ *
+ * @author Ryan Heaton
+ */
+public interface OFXFragmentWriter extends OFXWriter {
+
+  /**
+   * The flavor of this writer, identifying everything that determines the bytes it writes (e.g. OFX version,
+   * encoding, line breaks).
+   *
+   * @return The flavor of this writer.
+   */
+  String getFlavor();
+
+  /**
+   * Create a writer of the same flavor that renders a fragment (i.e. without headers) into the specified stream.
+   *
+   * @param out The stream.
+   * @return The fragment writer.
+   */
+  OFXFragmentWriter newFragmentWriter(OutputStream out);
+
+  /**
+   * Splice a pre-rendered fragment of the same flavor into the output.
+   *
+   * @param fragment The fragment.
+   * @param offset The offset of the fragment.
+   * @param length The length of the fragment.
+   */
+  void writeFragment(byte[] fragment, int offset, int length) throws IOException;
+
+  /**
+   * Flush the output written so far to the underlying stream, without closing it.
+   */
+  void flush() throws IOException;
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.io.nanoxml.NanoXMLOFXReader;
+import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
+import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Splits a multi-account OFX response into independent OFX documents, one per statement transaction
+ * wrapper (e.g. STMTTRNRS, CCSTMTTRNRS, INVSTMTTRNRS). The document is walked once; only the signon
+ * and the wrapper currently being read are held in memory. Each emitted document contains the headers
+ * and the signon of the original response, so it can be parsed on its own (e.g. by a different worker).
+ *
+ * @author Ryan Heaton
+ */
+public class OFXStatementSplitter {
+
+  /**
+   * The default names of the statement transaction wrappers that are split out.
+   */
+  public static final Set<String> DEFAULT_WRAPPER_NAMES = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList("STMTTRNRS", "CCSTMTTRNRS", "INVSTMTTRNRS")));
+
+  private Set<String> wrapperNames = DEFAULT_WRAPPER_NAMES;
+  private boolean OFXVersion2 = false;
+
+  /**
+   * Listener for the documents split out of a response.
+   */
+  public interface Listener {
+
+    /**
+     * Handle a split document.
+     *
+     * @param messageSetName The name of the message set that enclosed the wrapper (e.g. BANKMSGSRSV1).
+     * @param wrapperName The name of the statement transaction wrapper (e.g. STMTTRNRS).
+     * @param document The standalone OFX document.
+     */
+    void onStatement(String messageSetName, String wrapperName, String document) throws IOException;
+  }
+
+  /**
+   * Split the specified stream.
+   *
+   * @param stream The stream.
+   * @param listener The listener to receive the split documents.
+   */
+  public void split(InputStream stream, Listener listener) throws IOException, OFXParseException {
+    OFXReader reader = newReader();
+    SplittingHandler handler = new SplittingHandler(listener);
+    reader.setContentHandler(handler);
+    reader.parse(stream);
+    handler.rethrow();
+  }
+
+  /**
+   * Split the specified reader.
+   *
+   * @param reader The reader.
+   * @param listener The listener to receive the split documents.
+   */
+  public void split(Reader reader, Listener listener) throws IOException, OFXParseException {
+    OFXReader ofxReader = newReader();
+    SplittingHandler handler = new SplittingHandler(listener);
+    ofxReader.setContentHandler(handler);
+    ofxReader.parse(reader);
+    handler.rethrow();
+  }
+
+  /**
+   * Split the specified stream into a list of standalone documents.
+   *
+   * @param stream The stream.
+   * @return The split documents, in document order.
+   */
+  public List<String> split(InputStream stream) throws IOException, OFXParseException {
+    final List<String> documents = new ArrayList<String>();
+    split(stream, new Listener() {
+      public void onStatement(String messageSetName, String wrapperName, String document) {
+        documents.add(document);
+      }
+    });
+    return documents;
+  }
+
+  /**
+   * New OFX reader.
+   *
+   * @return new OFX reader.
+   */
+  protected OFXReader newReader() {
+    return new NanoXMLOFXReader();
+  }
+
+  /**
+   * Create the OFX writer for a split document.
+   *
+   * @param out The output.
+   * @return The writer.
+   */
+  protected OFXWriter newWriter(Writer out) {
+    return isOFXVersion2() ? new OFXV2Writer(out) : new OFXV1Writer(out);
+  }
+
+  /**
+   * The names of the statement transaction wrappers that are split out.
+   *
+   * @return The names of the statement transaction wrappers that are split out.
+   */
+  public Set<String> getWrapperNames() {
+    return wrapperNames;
+  }
+
+  /**
+   * The names of the statement transaction wrappers that are split out.
+   *
+   * @param wrapperNames The names of the statement transaction wrappers that are split out.
+   */
+  public void setWrapperNames(Set<String> wrapperNames) {
+    this.wrapperNames = wrapperNames;
+  }
+
+  /**
+   * Whether the split documents are written as OFX version 2.
+   *
+   * @return Whether the split documents are written as OFX version 2.
+   */
+  public boolean isOFXVersion2() {
+    return OFXVersion2;
+  }
+
+  /**
+   * Whether the split documents are written as OFX version 2.
+   *
+   * @param OFXVersion2 Whether the split documents are written as OFX version 2.
+   */
+  public void setOFXVersion2(boolean OFXVersion2) {
+    this.OFXVersion2 = OFXVersion2;
+  }
+
+  /**
+   * A recorded parse event.
+   */
+  private static class Event {
+
+    private final boolean element;
+    private final boolean start;
+    private final String name;
+    private final String value;
+
+    private Event(boolean element, boolean start, String name, String value) {
+      this.element = element;
+      this.start = start;
+      this.name = name;
+      this.value = value;
+    }
+
+    private void replay(OFXWriter writer) throws IOException {
+      if (element) {
+        writer.writeElement(name, value);
+      }
+      else if (start) {
+        writer.writeStartAggregate(name);
+      }
+      else {
+        writer.writeEndAggregate(name);
+      }
+    }
+  }
+
+  private class SplittingHandler implements OFXHandler {
+
+    private final Listener listener;
+    private final Map<String, String> headers = new TreeMap<String, String>();
+    private final LinkedList<String> path = new LinkedList<String>();
+    private final List<Event> signon = new ArrayList<Event>();
+    private List<Event> recording = null;
+    private int recordingDepth = -1;
+    private IOException listenerError = null;
+
+    private SplittingHandler(Listener listener) {
+      this.listener = listener;
+    }
+
+    public void onHeader(String name, String value) {
+      this.headers.put(name, value);
+    }
+
+    public void onElement(String name, String value) {
+      if (this.recording != null) {
+        this.recording.add(new Event(true, false, name, value));
+      }
+    }
+
+    public void startAggregate(String aggregateName) {
+      this.path.addLast(aggregateName);
+      int depth = this.path.size();
+      if (this.recording != null) {
+        this.recording.add(new Event(false, true, aggregateName, null));
+      }
+      else if (depth == 2 && "SIGNONMSGSRSV1".equals(aggregateName)) {
+        startRecording(this.signon, depth);
+      }
+      else if (depth == 3 && getWrapperNames().contains(aggregateName)) {
+        startRecording(new ArrayList<Event>(), depth);
+      }
+    }
+
+    public void endAggregate(String aggregateName) throws OFXSyntaxException {
+      int depth = this.path.size();
+      if (this.recording != null) {
+        this.recording.add(new Event(false, false, aggregateName, null));
+        if (depth == this.recordingDepth) {
+          List<Event> recorded = this.recording;
+          this.recording = null;
+          this.recordingDepth = -1;
+          if (recorded != this.signon) {
+            emit(this.path.get(1), aggregateName, recorded);
+          }
+        }
+      }
+
+      if (!this.path.isEmpty()) {
+        this.path.removeLast();
+      }
+    }
+
+    private void startRecording(List<Event> events, int depth) {
+      events.add(new Event(false, true, this.path.getLast(), null));
+      this.recording = events;
+      this.recordingDepth = depth;
+    }
+
+    private void emit(String messageSetName, String wrapperName, List<Event> events) throws OFXSyntaxException {
+      if (this.listenerError != null) {
+        //a previous listener invocation failed; don't bother with the rest.
+        return;
+      }
+
+      try {
+        StringWriter document = new StringWriter();
+        OFXWriter writer = newWriter(document);
+        writer.writeHeaders(this.headers);
+        writer.writeStartAggregate("OFX");
+        for (Event event : this.signon) {
+          event.replay(writer);
+        }
+        writer.writeStartAggregate(messageSetName);
+        for (Event event : events) {
+          event.replay(writer);
+        }
+        writer.writeEndAggregate(messageSetName);
+        writer.writeEndAggregate("OFX");
+        writer.close();
+        this.listener.onStatement(messageSetName, wrapperName, document.toString());
+      }
+      catch (IOException e) {
+        this.listenerError = e;
+      }
+    }
+
+    private void rethrow() throws IOException {
+      if (this.listenerError != null) {
+        throw this.listenerError;
+      }
+    }
+  }
+}
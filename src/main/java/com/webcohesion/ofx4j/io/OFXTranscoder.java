@@ -0,0 +1,254 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.io.nanoxml.NanoXMLOFXReader;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
+import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
+import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Transcodes OFX documents between version 1 (SGML) and version 2 (XML) by piping the parse events of an
+ * {@link OFXReader} straight into an {@link OFXWriter}, without building an object model. Only the stack of open
+ * aggregates is held in memory, so memory use is proportional to the depth of the document. Tags that aren't known
+ * to the domain model (e.g. proprietary "INTU.XXX" elements) are passed through.<br/><br/>
+ *
+ * SGML elements don't have end tags; the version 2 writer writes them. Aggregates that are never explicitly closed
+ * (e.g. because the reader took an element with an empty value for an aggregate) are closed when an enclosing
+ * aggregate ends, or at the end of the document.
+ *
+ * @author Ryan Heaton
+ */
+public class OFXTranscoder {
+
+  private static final Log LOG = LogFactory.getLog(OFXTranscoder.class);
+
+  /**
+   * The headers that carry over from one OFX version to the other. The rest (e.g. VERSION, DATA, ENCODING) are
+   * specific to the version being written, and are supplied by the writer.
+   */
+  public static final Set<String> TRANSLATED_HEADERS = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList("SECURITY", "OLDFILEUID", "NEWFILEUID")));
+
+  private boolean OFXVersion2 = true;
+
+  /**
+   * Transcode the specified stream to the specified output. The output is closed when done.
+   *
+   * @param in The stream to transcode.
+   * @param out The output.
+   */
+  public void transcode(InputStream in, OutputStream out) throws IOException, OFXParseException {
+    OFXWriter writer = newWriter(out);
+    transcode(in, writer);
+    writer.close();
+  }
+
+  /**
+   * Transcode the specified reader to the specified output. The output is closed when done.
+   *
+   * @param in The reader to transcode.
+   * @param out The output.
+   */
+  public void transcode(Reader in, Writer out) throws IOException, OFXParseException {
+    OFXWriter writer = newWriter(out);
+    transcode(in, writer);
+    writer.close();
+  }
+
+  /**
+   * Transcode the specified stream to the specified OFX writer. The writer is not closed.
+   *
+   * @param in The stream to transcode.
+   * @param writer The writer.
+   */
+  public void transcode(InputStream in, OFXWriter writer) throws IOException, OFXParseException {
+    OFXReader reader = newReader();
+    TranscodingHandler handler = new TranscodingHandler(writer);
+    reader.setContentHandler(handler);
+    reader.parse(in);
+    handler.finish();
+  }
+
+  /**
+   * Transcode the specified reader to the specified OFX writer. The writer is not closed.
+   *
+   * @param in The reader to transcode.
+   * @param writer The writer.
+   */
+  public void transcode(Reader in, OFXWriter writer) throws IOException, OFXParseException {
+    OFXReader reader = newReader();
+    TranscodingHandler handler = new TranscodingHandler(writer);
+    reader.setContentHandler(handler);
+    reader.parse(in);
+    handler.finish();
+  }
+
+  /**
+   * Translate the headers of the source document to the headers to be written.
+   *
+   * @param headers The headers of the source document.
+   * @return The headers to be written.
+   */
+  protected Map<String, String> translateHeaders(Map<String, String> headers) {
+    Map<String, String> translated = new TreeMap<String, String>();
+    for (String name : TRANSLATED_HEADERS) {
+      String value = headers.get(name);
+      if (value != null && value.trim().length() > 0) {
+        translated.put(name, value.trim());
+      }
+    }
+    return translated;
+  }
+
+  /**
+   * New OFX reader.
+   *
+   * @return new OFX reader.
+   */
+  protected OFXReader newReader() {
+    return new NanoXMLOFXReader();
+  }
+
+  /**
+   * Create the OFX writer for the specified output stream.
+   *
+   * @param out The output stream.
+   * @return The writer.
+   */
+  protected OFXWriter newWriter(OutputStream out) {
+    return isOFXVersion2() ? new OFXV2ByteWriter(out) : new OFXV1ByteWriter(out);
+  }
+
+  /**
+   * Create the OFX writer for the specified output.
+   *
+   * @param out The output.
+   * @return The writer.
+   */
+  protected OFXWriter newWriter(Writer out) {
+    return isOFXVersion2() ? new OFXV2Writer(out) : new OFXV1Writer(out);
+  }
+
+  /**
+   * Whether to transcode to OFX version 2 (as opposed to version 1).
+   *
+   * @return Whether to transcode to OFX version 2.
+   */
+  public boolean isOFXVersion2() {
+    return OFXVersion2;
+  }
+
+  /**
+   * Whether to transcode to OFX version 2 (as opposed to version 1).
+   *
+   * @param OFXVersion2 Whether to transcode to OFX version 2.
+   */
+  public void setOFXVersion2(boolean OFXVersion2) {
+    this.OFXVersion2 = OFXVersion2;
+  }
+
+  private class TranscodingHandler implements OFXHandler {
+
+    private final OFXWriter writer;
+    private final Map<String, String> headers = new TreeMap<String, String>();
+    private final List<String> openAggregates = new ArrayList<String>();
+    private boolean headersWritten = false;
+    private IOException writerError = null;
+
+    private TranscodingHandler(OFXWriter writer) {
+      this.writer = writer;
+    }
+
+    public void onHeader(String name, String value) {
+      this.headers.put(name, value);
+    }
+
+    public void onElement(String name, String value) {
+      if (this.writerError != null) {
+        return;
+      }
+
+      try {
+        if (value != null && value.length() > 0) {
+          this.writer.writeElement(name, value);
+        }
+      }
+      catch (IOException e) {
+        this.writerError = e;
+      }
+    }
+
+    public void startAggregate(String aggregateName) {
+      if (this.writerError != null) {
+        return;
+      }
+
+      try {
+        if (!this.headersWritten) {
+          this.writer.writeHeaders(translateHeaders(this.headers));
+          this.headersWritten = true;
+        }
+
+        this.writer.writeStartAggregate(aggregateName);
+        this.openAggregates.add(aggregateName);
+      }
+      catch (IOException e) {
+        this.writerError = e;
+      }
+    }
+
+    public void endAggregate(String aggregateName) {
+      if (this.writerError != null) {
+        return;
+      }
+
+      int index = this.openAggregates.lastIndexOf(aggregateName);
+      if (index < 0) {
+        LOG.warn("Dropping end tag " + aggregateName + ": no aggregate by that name is open.");
+        return;
+      }
+
+      try {
+        //synthesize the end tags of the aggregates that were never closed.
+        closeTo(index);
+      }
+      catch (IOException e) {
+        this.writerError = e;
+      }
+    }
+
+    private void closeTo(int index) throws IOException {
+      while (this.openAggregates.size() > index) {
+        this.writer.writeEndAggregate(this.openAggregates.remove(this.openAggregates.size() - 1));
+      }
+    }
+
+    private void finish() throws IOException {
+      if (this.writerError != null) {
+        throw this.writerError;
+      }
+
+      closeTo(0);
+    }
+  }
+}
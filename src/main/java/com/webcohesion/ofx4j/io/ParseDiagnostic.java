@@ -0,0 +1,78 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+/**
+ * A problem that was recovered from while unmarshalling in lenient mode.
+ *
+ * @author Ryan Heaton
+ */
+public class ParseDiagnostic {
+
+  private final String path;
+  private final String name;
+  private final String value;
+  private final String message;
+
+  public ParseDiagnostic(String path, String name, String value, String message) {
+    this.path = path;
+    this.name = name;
+    this.value = value;
+    this.message = message;
+  }
+
+  /**
+   * The path of the aggregate in which the problem occurred (e.g. "OFX/BANKMSGSRSV1/STMTTRNRS").
+   *
+   * @return The path of the aggregate in which the problem occurred.
+   */
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * The name of the element or aggregate that caused the problem.
+   *
+   * @return The name of the element or aggregate that caused the problem.
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * The raw value of the element, or null if the problem wasn't with an element value.
+   *
+   * @return The raw value of the element.
+   */
+  public String getValue() {
+    return value;
+  }
+
+  /**
+   * A description of the problem.
+   *
+   * @return A description of the problem.
+   */
+  public String getMessage() {
+    return message;
+  }
+
+  @Override
+  public String toString() {
+    return path + "/" + name + (value != null ? " (value '" + value + "')" : "") + ": " + message;
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The diagnostics of an unmarshal in lenient mode. Problems that can be recovered from (values that can't be
+ * converted, unexpected end tags) are recorded here instead of failing the parse, until the error budget is exceeded.
+ *
+ * @author Ryan Heaton
+ */
+public class ParseDiagnostics {
+
+  /**
+   * The default error budget.
+   */
+  public static final int DEFAULT_ERROR_BUDGET = 100;
+
+  private final List<ParseDiagnostic> diagnostics = new ArrayList<ParseDiagnostic>();
+  private final int errorBudget;
+
+  public ParseDiagnostics() {
+    this(DEFAULT_ERROR_BUDGET);
+  }
+
+  /**
+   * @param errorBudget The number of problems that will be recovered from before the parse fails.
+   */
+  public ParseDiagnostics(int errorBudget) {
+    this.errorBudget = errorBudget;
+  }
+
+  /**
+   * Record a diagnostic.
+   *
+   * @param diagnostic The diagnostic.
+   * @throws ErrorBudgetExceededException If the diagnostic exceeds the error budget.
+   */
+  public void add(ParseDiagnostic diagnostic) throws ErrorBudgetExceededException {
+    this.diagnostics.add(diagnostic);
+    if (this.diagnostics.size() > this.errorBudget) {
+      throw new ErrorBudgetExceededException("Error budget of " + this.errorBudget + " exceeded: " + diagnostic, this);
+    }
+  }
+
+  /**
+   * The recorded diagnostics.
+   *
+   * @return The recorded diagnostics.
+   */
+  public List<ParseDiagnostic> getDiagnostics() {
+    return Collections.unmodifiableList(diagnostics);
+  }
+
+  /**
+   * Whether any problems were recorded.
+   *
+   * @return Whether any problems were recorded.
+   */
+  public boolean hasErrors() {
+    return !this.diagnostics.isEmpty();
+  }
+
+  /**
+   * The number of problems that will be recovered from before the parse fails.
+   *
+   * @return The error budget.
+   */
+  public int getErrorBudget() {
+    return errorBudget;
+  }
+}
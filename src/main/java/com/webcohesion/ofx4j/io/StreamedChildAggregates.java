@@ -0,0 +1,94 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Registry of the streamed entries of collection-valued child aggregates, by aggregate instance and property name.
+ * For example, to stream the transactions of a statement:
+ *
+ * <pre>
+ * TransactionList transactions = new TransactionList();
+ * streams.stream(transactions, "transactions", cursor);
+ * </pre>
+ *
+ * Each registered iterator can only be written once; iterables are asked for a new iterator each time they are written.
+ *
+ * @author Ryan Heaton
+ */
+public class StreamedChildAggregates implements ChildAggregateSource {
+
+  private final Map<Object, Map<String, Object>> streams = new IdentityHashMap<Object, Map<String, Object>>();
+
+  /**
+   * Stream the entries of the specified collection-valued property of the specified aggregate.
+   *
+   * @param aggregate The aggregate.
+   * @param property The name of the (collection-valued, child aggregate) property.
+   * @param entries The entries.
+   */
+  public void stream(Object aggregate, String property, Iterable<?> entries) {
+    put(aggregate, property, entries);
+  }
+
+  /**
+   * Stream the entries of the specified collection-valued property of the specified aggregate.
+   *
+   * @param aggregate The aggregate.
+   * @param property The name of the (collection-valued, child aggregate) property.
+   * @param entries The entries.
+   */
+  public void stream(Object aggregate, String property, Iterator<?> entries) {
+    put(aggregate, property, entries);
+  }
+
+  private void put(Object aggregate, String property, Object entries) {
+    Map<String, Object> properties = this.streams.get(aggregate);
+    if (properties == null) {
+      properties = new HashMap<String, Object>();
+      this.streams.put(aggregate, properties);
+    }
+    properties.put(property, entries);
+  }
+
+  // Inherited.
+  public Iterator<?> getChildAggregates(Object aggregate, AggregateAttribute attribute) {
+    Map<String, Object> properties = this.streams.get(aggregate);
+    Object entries = properties == null ? null : properties.get(attribute.getPropertyName());
+    if (entries instanceof Iterable) {
+      return ((Iterable<?>) entries).iterator();
+    }
+    else if (entries != null) {
+      //an iterator can only be written once.
+      properties.remove(attribute.getPropertyName());
+    }
+    return (Iterator<?>) entries;
+  }
+
+  /**
+   * Whether no streams are registered.
+   *
+   * @return Whether no streams are registered.
+   */
+  public boolean isEmpty() {
+    return this.streams.isEmpty();
+  }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionType;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentBankTransaction;
+
+import java.math.BigDecimal;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Declarative filter for banking/credit card transactions ({@link Transaction}) and investment transactions
+ * ({@link BaseInvestmentTransaction}, {@link InvestmentBankTransaction}). Criteria that are left null aren't applied.
+ *
+ * <ul>
+ *   <li>The date range is matched against DTPOSTED for banking transactions and DTTRADE for investment transactions.</li>
+ *   <li>The amount bounds are matched against TRNAMT for banking transactions and TOTAL for investment transactions.</li>
+ *   <li>The transaction ids are matched against FITID.</li>
+ * </ul>
+ *
+ * @author Ryan Heaton
+ */
+public class TransactionFilter implements AggregateFilter {
+
+  private final Map<Class, com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType> investmentTypes = new ConcurrentHashMap<Class, com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType>();
+  private StringConversion conversion = new DefaultStringConversion();
+  private Date start;
+  private Date end;
+  private BigDecimal minimumAmount;
+  private BigDecimal maximumAmount;
+  private Set<TransactionType> transactionTypes;
+  private Set<com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType> investmentTransactionTypes;
+  private Set<String> transactionIds;
+
+  // Inherited.
+  public boolean appliesTo(Class aggregateType) {
+    return Transaction.class.isAssignableFrom(aggregateType)
+      || BaseInvestmentTransaction.class.isAssignableFrom(aggregateType)
+      || InvestmentBankTransaction.class.isAssignableFrom(aggregateType);
+  }
+
+  // Inherited.
+  public boolean accept(Class recordType) {
+    if (this.investmentTransactionTypes != null && BaseInvestmentTransaction.class.isAssignableFrom(recordType)) {
+      return this.investmentTransactionTypes.contains(getInvestmentTransactionType(recordType));
+    }
+    return true;
+  }
+
+  // Inherited.
+  public boolean accept(Class recordType, String elementName, String value) {
+    try {
+      if ("FITID".equals(elementName)) {
+        return this.transactionIds == null || this.transactionIds.contains(value);
+      }
+      else if ("TRNTYPE".equals(elementName)) {
+        return this.transactionTypes == null || this.transactionTypes.contains(TransactionType.valueOf(value));
+      }
+      else if ("DTPOSTED".equals(elementName) || "DTTRADE".equals(elementName)) {
+        return (this.start == null && this.end == null) || isInRange(getConversion().fromString(Date.class, value));
+      }
+      else if ("TRNAMT".equals(elementName) || "TOTAL".equals(elementName)) {
+        return (this.minimumAmount == null && this.maximumAmount == null) || isInBounds(new BigDecimal(value.replace(",", ".")));
+      }
+    }
+    catch (Exception e) {
+      //unable to read the value; leave it to the unmarshaller to deal with it.
+    }
+    return true;
+  }
+
+  /**
+   * Whether the specified date is within the date range.
+   *
+   * @param date The date.
+   * @return Whether the specified date is within the date range.
+   */
+  protected boolean isInRange(Date date) {
+    return (this.start == null || !date.before(this.start)) && (this.end == null || date.before(this.end));
+  }
+
+  /**
+   * Whether the specified amount is within the amount bounds.
+   *
+   * @param amount The amount.
+   * @return Whether the specified amount is within the amount bounds.
+   */
+  protected boolean isInBounds(BigDecimal amount) {
+    return (this.minimumAmount == null || amount.compareTo(this.minimumAmount) >= 0) && (this.maximumAmount == null || amount.compareTo(this.maximumAmount) <= 0);
+  }
+
+  /**
+   * Get the investment transaction type of the specified investment transaction class.
+   *
+   * @param recordType The investment transaction class.
+   * @return The investment transaction type.
+   */
+  protected com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType getInvestmentTransactionType(Class recordType) {
+    com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType type = this.investmentTypes.get(recordType);
+    if (type == null) {
+      try {
+        type = ((BaseInvestmentTransaction) recordType.newInstance()).getTransactionType();
+      }
+      catch (RuntimeException e) {
+        throw e;
+      }
+      catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+      this.investmentTypes.put(recordType, type);
+    }
+    return type;
+  }
+
+  /**
+   * The conversion used to read dates.
+   *
+   * @return The conversion used to read dates.
+   */
+  public StringConversion getConversion() {
+    return conversion;
+  }
+
+  /**
+   * The conversion used to read dates.
+   *
+   * @param conversion The conversion used to read dates.
+   */
+  public void setConversion(StringConversion conversion) {
+    this.conversion = conversion;
+  }
+
+  /**
+   * The start of the date range (inclusive).
+   *
+   * @return The start of the date range (inclusive).
+   */
+  public Date getStart() {
+    return start;
+  }
+
+  /**
+   * The start of the date range (inclusive).
+   *
+   * @param start The start of the date range (inclusive).
+   */
+  public void setStart(Date start) {
+    this.start = start;
+  }
+
+  /**
+   * The end of the date range (exclusive).
+   *
+   * @return The end of the date range (exclusive).
+   */
+  public Date getEnd() {
+    return end;
+  }
+
+  /**
+   * The end of the date range (exclusive).
+   *
+   * @param end The end of the date range (exclusive).
+   */
+  public void setEnd(Date end) {
+    this.end = end;
+  }
+
+  /**
+   * The minimum amount (inclusive).
+   *
+   * @return The minimum amount (inclusive).
+   */
+  public BigDecimal getMinimumAmount() {
+    return minimumAmount;
+  }
+
+  /**
+   * The minimum amount (inclusive).
+   *
+   * @param minimumAmount The minimum amount (inclusive).
+   */
+  public void setMinimumAmount(BigDecimal minimumAmount) {
+    this.minimumAmount = minimumAmount;
+  }
+
+  /**
+   * The maximum amount (inclusive).
+   *
+   * @return The maximum amount (inclusive).
+   */
+  public BigDecimal getMaximumAmount() {
+    return maximumAmount;
+  }
+
+  /**
+   * The maximum amount (inclusive).
+   *
+   * @param maximumAmount The maximum amount (inclusive).
+   */
+  public void setMaximumAmount(BigDecimal maximumAmount) {
+    this.maximumAmount = maximumAmount;
+  }
+
+  /**
+   * The accepted banking transaction types.
+   *
+   * @return The accepted banking transaction types.
+   */
+  public Set<TransactionType> getTransactionTypes() {
+    return transactionTypes;
+  }
+
+  /**
+   * The accepted banking transaction types.
+   *
+   * @param transactionTypes The accepted banking transaction types.
+   */
+  public void setTransactionTypes(Set<TransactionType> transactionTypes) {
+    this.transactionTypes = transactionTypes;
+  }
+
+  /**
+   * The accepted investment transaction types.
+   *
+   * @return The accepted investment transaction types.
+   */
+  public Set<com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType> getInvestmentTransactionTypes() {
+    return investmentTransactionTypes;
+  }
+
+  /**
+   * The accepted investment transaction types.
+   *
+   * @param investmentTransactionTypes The accepted investment transaction types.
+   */
+  public void setInvestmentTransactionTypes(Set<com.webcohesion.ofx4j.domain.data.investment.transactions.TransactionType> investmentTransactionTypes) {
+    this.investmentTransactionTypes = investmentTransactionTypes;
+  }
+
+  /**
+   * The accepted transaction ids (FITID).
+   *
+   * @return The accepted transaction ids.
+   */
+  public Set<String> getTransactionIds() {
+    return transactionIds;
+  }
+
+  /**
+   * The accepted transaction ids (FITID).
+   *
+   * @param transactionIds The accepted transaction ids.
+   */
+  public void setTransactionIds(Set<String> transactionIds) {
+    this.transactionIds = transactionIds;
+  }
+}
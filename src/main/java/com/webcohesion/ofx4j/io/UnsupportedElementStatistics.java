@@ -0,0 +1,148 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Counts of the elements and aggregates that weren't supported while unmarshalling, by parent aggregate.
+ * Instances used for a single parse don't need to be thread-safe, but {@link #merge(UnsupportedElementStatistics) merging}
+ * into a shared (e.g. global) instance is synchronized.
+ *
+ * @author Ryan Heaton
+ */
+public class UnsupportedElementStatistics {
+
+  private final Map<String, Map<String, int[]>> counts = new TreeMap<String, Map<String, int[]>>();
+  private int total = 0;
+
+  /**
+   * Record an unsupported element or aggregate.
+   *
+   * @param parentAggregate The name of the parent aggregate.
+   * @param name The name of the unsupported element or aggregate.
+   * @return The number of times the specified name has been recorded on the parent, including this one.
+   */
+  public synchronized int record(String parentAggregate, String name) {
+    return add(parentAggregate, name, 1);
+  }
+
+  private int add(String parentAggregate, String name, int count) {
+    Map<String, int[]> names = this.counts.get(parentAggregate);
+    if (names == null) {
+      names = new TreeMap<String, int[]>();
+      this.counts.put(parentAggregate, names);
+    }
+
+    int[] counter = names.get(name);
+    if (counter == null) {
+      counter = new int[1];
+      names.put(name, counter);
+    }
+
+    counter[0] += count;
+    this.total += count;
+    return counter[0];
+  }
+
+  /**
+   * Merge the specified statistics into these statistics.
+   *
+   * @param other The statistics to merge.
+   */
+  public void merge(UnsupportedElementStatistics other) {
+    Map<String, Map<String, Integer>> otherCounts = other.getCounts();
+    synchronized (this) {
+      for (Map.Entry<String, Map<String, Integer>> parent : otherCounts.entrySet()) {
+        for (Map.Entry<String, Integer> name : parent.getValue().entrySet()) {
+          add(parent.getKey(), name.getKey(), name.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * The number of times the specified name was recorded on the specified parent aggregate.
+   *
+   * @param parentAggregate The name of the parent aggregate.
+   * @param name The name of the unsupported element or aggregate.
+   * @return The count.
+   */
+  public synchronized int getCount(String parentAggregate, String name) {
+    Map<String, int[]> names = this.counts.get(parentAggregate);
+    int[] counter = names == null ? null : names.get(name);
+    return counter == null ? 0 : counter[0];
+  }
+
+  /**
+   * A copy of the counts, keyed by parent aggregate name, then by unsupported element/aggregate name.
+   *
+   * @return A copy of the counts.
+   */
+  public synchronized Map<String, Map<String, Integer>> getCounts() {
+    Map<String, Map<String, Integer>> copy = new TreeMap<String, Map<String, Integer>>();
+    for (Map.Entry<String, Map<String, int[]>> parent : this.counts.entrySet()) {
+      Map<String, Integer> names = new TreeMap<String, Integer>();
+      for (Map.Entry<String, int[]> name : parent.getValue().entrySet()) {
+        names.put(name.getKey(), name.getValue()[0]);
+      }
+      copy.put(parent.getKey(), names);
+    }
+    return copy;
+  }
+
+  /**
+   * The total number of unsupported elements and aggregates recorded.
+   *
+   * @return The total number of unsupported elements and aggregates recorded.
+   */
+  public synchronized int getTotal() {
+    return total;
+  }
+
+  /**
+   * Whether nothing has been recorded.
+   *
+   * @return Whether nothing has been recorded.
+   */
+  public synchronized boolean isEmpty() {
+    return this.total == 0;
+  }
+
+  /**
+   * Clear the statistics.
+   */
+  public synchronized void clear() {
+    this.counts.clear();
+    this.total = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append(this.total).append(" unsupported elements/aggregates");
+    String separator = ": ";
+    for (Map.Entry<String, Map<String, int[]>> parent : this.counts.entrySet()) {
+      for (Map.Entry<String, int[]> name : parent.getValue().entrySet()) {
+        builder.append(separator).append(parent.getKey()).append('/').append(name.getKey()).append(" (").append(name.getValue()[0]).append(')');
+        separator = ", ";
+      }
+    }
+    return builder.toString();
+  }
+}
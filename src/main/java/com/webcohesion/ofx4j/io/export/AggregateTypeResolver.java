@@ -0,0 +1,158 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateAttribute;
+import com.webcohesion.ofx4j.io.AggregateInfo;
+import com.webcohesion.ofx4j.io.AggregateIntrospector;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Tracks the aggregate metadata (see {@link AggregateIntrospector}) of the aggregates opened by a stream of parse
+ * events, so that the types of the elements can be resolved while the document is being read. Aggregates unknown to
+ * the domain model resolve to null types, as do their children.
+ *
+ * @author Ryan Heaton
+ */
+public class AggregateTypeResolver {
+
+  private final List<Frame> stack = new ArrayList<Frame>();
+  private final Class rootType;
+
+  /**
+   * Resolver for response documents.
+   */
+  public AggregateTypeResolver() {
+    this(ResponseEnvelope.class);
+  }
+
+  /**
+   * @param rootType The type of the root aggregate (since e.g. requests and responses share the same root name).
+   */
+  public AggregateTypeResolver(Class rootType) {
+    this.rootType = rootType;
+  }
+
+  /**
+   * Push an aggregate that was started.
+   *
+   * @param aggregateName The name of the aggregate.
+   * @return Whether the aggregate is an entry of a list of its parent (as opposed to a set, the entries of which are
+   * distinct aggregates, e.g. the message sets of an envelope).
+   */
+  public boolean startAggregate(String aggregateName) {
+    Class aggregateClass = null;
+    boolean collectionEntry = false;
+    Frame parent = this.stack.isEmpty() ? null : this.stack.get(this.stack.size() - 1);
+    if (parent == null) {
+      AggregateInfo rootInfo = this.rootType == null ? null : AggregateIntrospector.getAggregateInfo(this.rootType);
+      aggregateClass = rootInfo != null && rootInfo.getName().equals(aggregateName) ? this.rootType : AggregateIntrospector.findAggregateByName(aggregateName);
+    }
+    else {
+      if (parent.info != null) {
+        Class namedClass = AggregateIntrospector.findAggregateByName(aggregateName);
+        AggregateAttribute attribute = parent.info.getAttribute(aggregateName, parent.index, namedClass);
+        if (attribute != null && attribute.getType() == AggregateAttribute.Type.CHILD_AGGREGATE) {
+          parent.index = attribute.getOrder();
+          collectionEntry = attribute.isCollection() && !Set.class.isAssignableFrom(attribute.getAttributeType());
+          if (attribute.isCollection() || (namedClass != null && attribute.getAttributeType().isAssignableFrom(namedClass))) {
+            aggregateClass = namedClass;
+          }
+          else {
+            aggregateClass = attribute.getAttributeType();
+          }
+        }
+      }
+    }
+
+    AggregateInfo info = aggregateClass == null ? null : AggregateIntrospector.getAggregateInfo(aggregateClass);
+    this.stack.add(new Frame(aggregateName, info == null ? null : aggregateClass, info));
+    return collectionEntry;
+  }
+
+  /**
+   * Pop the aggregate that was ended.
+   */
+  public void endAggregate() {
+    if (!this.stack.isEmpty()) {
+      this.stack.remove(this.stack.size() - 1);
+    }
+  }
+
+  /**
+   * Resolve the type of an element of the current aggregate.
+   *
+   * @param elementName The name of the element.
+   * @return The type of the element, or null if unknown.
+   */
+  public Class getElementType(String elementName) {
+    Frame frame = this.stack.isEmpty() ? null : this.stack.get(this.stack.size() - 1);
+    if (frame != null && frame.info != null) {
+      AggregateAttribute attribute = frame.info.getAttribute(elementName, frame.index);
+      if (attribute != null && attribute.getType() == AggregateAttribute.Type.ELEMENT) {
+        frame.index = attribute.getOrder();
+        return attribute.getAttributeType();
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The class of the current aggregate.
+   *
+   * @return The class of the current aggregate, or null if unknown.
+   */
+  public Class getAggregateType() {
+    return this.stack.isEmpty() ? null : this.stack.get(this.stack.size() - 1).type;
+  }
+
+  /**
+   * The name of the current aggregate.
+   *
+   * @return The name of the current aggregate, or null if none is open.
+   */
+  public String getAggregateName() {
+    return this.stack.isEmpty() ? null : this.stack.get(this.stack.size() - 1).name;
+  }
+
+  /**
+   * The number of open aggregates.
+   *
+   * @return The number of open aggregates.
+   */
+  public int getDepth() {
+    return this.stack.size();
+  }
+
+  private static class Frame {
+
+    private final String name;
+    private final Class type;
+    private final AggregateInfo info;
+    private int index = 0;
+
+    private Frame(String name, Class type, AggregateInfo info) {
+      this.name = name;
+      this.type = type;
+      this.info = info;
+    }
+  }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import com.webcohesion.ofx4j.io.DefaultStringConversion;
+import com.webcohesion.ofx4j.io.OFXHandler;
+import com.webcohesion.ofx4j.io.StringConversion;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.sql.Time;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Base for handlers that export parse events straight to an output stream. The types of the elements are resolved
+ * from the aggregate metadata, so that values can be written typed: numbers as {@link BigDecimal}s, booleans as
+ * {@link Boolean}s and dates as ISO-8601 strings (in UTC). Values that are unknown to the domain model, or that can't
+ * be read as their type, are written as they are.<br/><br/>
+ *
+ * Since the handler events can't throw I/O errors, the first error is held and thrown by {@link #flush()} or
+ * {@link #close()}.
+ *
+ * @author Ryan Heaton
+ */
+public abstract class BaseExportHandler implements OFXHandler {
+
+  private final Writer writer;
+  private final AggregateTypeResolver resolver = new AggregateTypeResolver();
+  private final SimpleDateFormat dateFormat = newFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+  private final SimpleDateFormat timeFormat = newFormat("HH:mm:ss.SSS'Z'");
+  private StringConversion conversion = new DefaultStringConversion();
+  private IOException error;
+
+  protected BaseExportHandler(OutputStream out) {
+    try {
+      this.writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+    }
+    catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  protected BaseExportHandler(Writer writer) {
+    this.writer = writer;
+  }
+
+  private static SimpleDateFormat newFormat(String pattern) {
+    SimpleDateFormat format = new SimpleDateFormat(pattern);
+    format.setTimeZone(DefaultStringConversion.GMT_TIME_ZONE);
+    return format;
+  }
+
+  public void onHeader(String name, String value) {
+    //headers aren't exported.
+  }
+
+  /**
+   * Convert an element value to its typed value.
+   *
+   * @param type The type of the element (null if unknown).
+   * @param value The (raw) value of the element.
+   * @return A {@link BigDecimal}, a {@link Boolean} or a string.
+   */
+  protected Object toTypedValue(Class type, String value) {
+    if (type == null || value == null) {
+      return value;
+    }
+
+    try {
+      if (Number.class.isAssignableFrom(type) || (type.isPrimitive() && type != Boolean.TYPE && type != Character.TYPE)) {
+        return new BigDecimal(value.trim().replace(',', '.'));
+      }
+      else if (Boolean.class == type || Boolean.TYPE == type) {
+        return getConversion().fromString(Boolean.class, value);
+      }
+      else if (Time.class.isAssignableFrom(type)) {
+        return this.timeFormat.format(getConversion().fromString(Time.class, value));
+      }
+      else if (Date.class.isAssignableFrom(type)) {
+        return this.dateFormat.format(getConversion().fromString(Date.class, value));
+      }
+    }
+    catch (Exception e) {
+      //not a valid value for its type; export it as it is.
+    }
+    return value;
+  }
+
+  /**
+   * Write a typed value as JSON.
+   *
+   * @param value The value.
+   */
+  protected void writeJSONValue(Object value) throws IOException {
+    if (value == null) {
+      write("null");
+    }
+    else if (value instanceof BigDecimal) {
+      write(((BigDecimal) value).toPlainString());
+    }
+    else if (value instanceof Boolean) {
+      write(value.toString());
+    }
+    else {
+      writeJSONString(value.toString());
+    }
+  }
+
+  /**
+   * Write a JSON string literal.
+   *
+   * @param value The string.
+   */
+  protected void writeJSONString(String value) throws IOException {
+    this.writer.write('"');
+    int start = 0;
+    for (int i = 0; i < value.length(); i++) {
+      char ch = value.charAt(i);
+      String escape;
+      if (ch == '"') {
+        escape = "\\\"";
+      }
+      else if (ch == '\\') {
+        escape = "\\\\";
+      }
+      else if (ch == '\n') {
+        escape = "\\n";
+      }
+      else if (ch == '\r') {
+        escape = "\\r";
+      }
+      else if (ch == '\t') {
+        escape = "\\t";
+      }
+      else if (ch < 0x20) {
+        escape = String.format("\\u%04x", (int) ch);
+      }
+      else {
+        continue;
+      }
+
+      this.writer.write(value, start, i - start);
+      this.writer.write(escape);
+      start = i + 1;
+    }
+    this.writer.write(value, start, value.length() - start);
+    this.writer.write('"');
+  }
+
+  /**
+   * Write raw characters.
+   *
+   * @param chars The characters.
+   */
+  protected void write(String chars) throws IOException {
+    this.writer.write(chars);
+  }
+
+  /**
+   * Write a raw character.
+   *
+   * @param ch The character.
+   */
+  protected void write(char ch) throws IOException {
+    this.writer.write(ch);
+  }
+
+  /**
+   * Hold an I/O error, to be thrown on {@link #flush()} or {@link #close()}.
+   *
+   * @param e The error.
+   */
+  protected void fail(IOException e) {
+    if (this.error == null) {
+      this.error = e;
+    }
+  }
+
+  /**
+   * Whether an I/O error has occurred, after which nothing more is written.
+   *
+   * @return Whether an I/O error has occurred.
+   */
+  protected boolean isFailed() {
+    return this.error != null;
+  }
+
+  /**
+   * Flush the output.
+   *
+   * @throws IOException If an error occurred while exporting.
+   */
+  public void flush() throws IOException {
+    if (this.error != null) {
+      throw this.error;
+    }
+    this.writer.flush();
+  }
+
+  /**
+   * Flush and close the output.
+   *
+   * @throws IOException If an error occurred while exporting.
+   */
+  public void close() throws IOException {
+    try {
+      flush();
+    }
+    finally {
+      this.writer.close();
+    }
+  }
+
+  /**
+   * The type resolver for the aggregates of the document.
+   *
+   * @return The type resolver.
+   */
+  protected AggregateTypeResolver getResolver() {
+    return resolver;
+  }
+
+  /**
+   * The conversion used to read the values of dates and booleans.
+   *
+   * @return The conversion.
+   */
+  public StringConversion getConversion() {
+    return conversion;
+  }
+
+  /**
+   * The conversion used to read the values of dates and booleans.
+   *
+   * @param conversion The conversion.
+   */
+  public void setConversion(StringConversion conversion) {
+    this.conversion = conversion;
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exports the transactions of an OFX document as CSV (RFC 4180): one row per transaction record
+ * (see {@link RecordExportHandler}), with a configurable list of columns. A column is either the path of a field
+ * relative to the record (e.g. "PAYEE.NAME"), a field of the account context (e.g. "ACCTID"), or
+ * {@link #RECORD_TYPE_FIELD}. If no field has the exact name of a column that is a simple name, the first field
+ * by that name in a nested aggregate is used, so that e.g. "FITID" also matches the "INVTRAN.FITID" of investment
+ * transactions. Numbers are written as they are, and dates in ISO-8601.
+ *
+ * @author Ryan Heaton
+ */
+public class CSVExportHandler extends RecordExportHandler {
+
+  /**
+   * The default columns.
+   */
+  public static final List<String> DEFAULT_COLUMNS = Collections.unmodifiableList(Arrays.asList(RECORD_TYPE_FIELD, "BANKID", "ACCTID", "CURDEF", "FITID", "TRNTYPE", "DTPOSTED", "DTTRADE", "TRNAMT", "TOTAL", "NAME", "MEMO"));
+
+  private static final String LINE_SEPARATOR = "\r\n";
+
+  private List<String> columns = DEFAULT_COLUMNS;
+  private char delimiter = ',';
+  private boolean writeHeader = true;
+  private boolean headerWritten = false;
+
+  public CSVExportHandler(OutputStream out) {
+    super(out);
+  }
+
+  public CSVExportHandler(Writer writer) {
+    super(writer);
+  }
+
+  @Override
+  protected void writeRecord(Map<String, Object> record) throws IOException {
+    if (isWriteHeader() && !this.headerWritten) {
+      for (int i = 0; i < this.columns.size(); i++) {
+        if (i > 0) {
+          write(this.delimiter);
+        }
+        writeField(this.columns.get(i));
+      }
+      write(LINE_SEPARATOR);
+      this.headerWritten = true;
+    }
+
+    for (int i = 0; i < this.columns.size(); i++) {
+      if (i > 0) {
+        write(this.delimiter);
+      }
+
+      Object value = getColumnValue(record, this.columns.get(i));
+      if (value instanceof BigDecimal) {
+        write(((BigDecimal) value).toPlainString());
+      }
+      else if (value != null) {
+        writeField(value.toString());
+      }
+    }
+    write(LINE_SEPARATOR);
+  }
+
+  /**
+   * Get the value of a column of a record.
+   *
+   * @param record The record.
+   * @param column The column.
+   * @return The value, or null if the record has no value for the column.
+   */
+  protected Object getColumnValue(Map<String, Object> record, String column) {
+    Object value = record.get(column);
+    if (value == null && column.indexOf('.') < 0) {
+      String suffix = "." + column;
+      for (Map.Entry<String, Object> field : record.entrySet()) {
+        if (field.getKey().endsWith(suffix)) {
+          return field.getValue();
+        }
+      }
+    }
+    return value;
+  }
+
+  /**
+   * Write a field, quoting it if it contains a delimiter, a quote or a line break.
+   *
+   * @param value The value of the field.
+   */
+  protected void writeField(String value) throws IOException {
+    boolean quote = false;
+    for (int i = 0; i < value.length() && !quote; i++) {
+      char ch = value.charAt(i);
+      quote = ch == this.delimiter || ch == '"' || ch == '\n' || ch == '\r';
+    }
+
+    if (quote) {
+      write('"');
+      write(value.replace("\"", "\"\""));
+      write('"');
+    }
+    else {
+      write(value);
+    }
+  }
+
+  /**
+   * The columns.
+   *
+   * @return The columns.
+   */
+  public List<String> getColumns() {
+    return columns;
+  }
+
+  /**
+   * The columns.
+   *
+   * @param columns The columns.
+   */
+  public void setColumns(List<String> columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * The field delimiter.
+   *
+   * @return The field delimiter.
+   */
+  public char getDelimiter() {
+    return delimiter;
+  }
+
+  /**
+   * The field delimiter.
+   *
+   * @param delimiter The field delimiter.
+   */
+  public void setDelimiter(char delimiter) {
+    this.delimiter = delimiter;
+  }
+
+  /**
+   * Whether to write a header row (of the column names) before the first record.
+   *
+   * @return Whether to write a header row.
+   */
+  public boolean isWriteHeader() {
+    return writeHeader;
+  }
+
+  /**
+   * Whether to write a header row (of the column names) before the first record.
+   *
+   * @param writeHeader Whether to write a header row.
+   */
+  public void setWriteHeader(boolean writeHeader) {
+    this.writeHeader = writeHeader;
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exports an OFX document as a single nested JSON object, written on a single line (so that a sequence of documents
+ * exported to the same output forms JSON Lines). Aggregates are written as objects, elements as typed members
+ * (see {@link BaseExportHandler}), and the entries of lists (e.g. the STMTTRN aggregates of a transaction list)
+ * as arrays. For example:
+ *
+ * <pre>
+ * {"OFX":{"SIGNONMSGSRSV1":{...},"BANKMSGSRSV1":{"STMTTRNRS":[{"TRNUID":"1001",...}]}}}
+ * </pre>
+ *
+ * Only the stack of open aggregates is kept in memory.
+ *
+ * @author Ryan Heaton
+ */
+public class JSONExportHandler extends BaseExportHandler {
+
+  private final List<ObjectFrame> frames = new ArrayList<ObjectFrame>();
+
+  public JSONExportHandler(OutputStream out) {
+    super(out);
+  }
+
+  public JSONExportHandler(Writer writer) {
+    super(writer);
+  }
+
+  public void onElement(String name, String value) {
+    Class type = getResolver().getElementType(name);
+    if (isFailed() || this.frames.isEmpty()) {
+      return;
+    }
+
+    try {
+      writeMember(name, false);
+      writeJSONValue(toTypedValue(type, value));
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  public void startAggregate(String aggregateName) {
+    boolean collectionEntry = getResolver().startAggregate(aggregateName);
+    if (isFailed()) {
+      return;
+    }
+
+    try {
+      if (this.frames.isEmpty()) {
+        write('{');
+        writeJSONString(aggregateName);
+        write(':');
+      }
+      else {
+        writeMember(aggregateName, collectionEntry);
+      }
+      write('{');
+      this.frames.add(new ObjectFrame());
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  public void endAggregate(String aggregateName) {
+    getResolver().endAggregate();
+    if (isFailed() || this.frames.isEmpty()) {
+      return;
+    }
+
+    try {
+      ObjectFrame frame = this.frames.remove(this.frames.size() - 1);
+      if (frame.openArray != null) {
+        write(']');
+      }
+      write('}');
+      if (this.frames.isEmpty()) {
+        write("}\n");
+      }
+    }
+    catch (IOException e) {
+      fail(e);
+    }
+  }
+
+  /**
+   * Write the start of a member of the current object, opening, continuing or closing the array of collection entries.
+   *
+   * @param name The name of the member.
+   * @param collectionEntry Whether the member is an entry of a collection.
+   */
+  private void writeMember(String name, boolean collectionEntry) throws IOException {
+    ObjectFrame frame = this.frames.get(this.frames.size() - 1);
+    if (frame.openArray != null && !(collectionEntry && name.equals(frame.openArray))) {
+      write(']');
+      frame.openArray = null;
+    }
+
+    if (frame.openArray != null) {
+      write(',');
+    }
+    else {
+      if (!frame.first) {
+        write(',');
+      }
+      writeJSONString(name);
+      write(':');
+      if (collectionEntry) {
+        write('[');
+        frame.openArray = name;
+      }
+    }
+    frame.first = false;
+  }
+
+  private static class ObjectFrame {
+
+    private boolean first = true;
+    private String openArray = null;
+  }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Exports the transactions of an OFX document as JSON Lines: one flat JSON object per transaction record
+ * (see {@link RecordExportHandler}), with typed values. For example:
+ *
+ * <pre>
+ * {"RECORDTYPE":"STMTTRN","CURDEF":"USD","BANKID":"000000123","ACCTID":"123456","TRNTYPE":"CREDIT","DTPOSTED":"2007-03-01T00:00:00.000Z","TRNAMT":150.00,...}
+ * </pre>
+ *
+ * @author Ryan Heaton
+ */
+public class JSONLinesExportHandler extends RecordExportHandler {
+
+  public JSONLinesExportHandler(OutputStream out) {
+    super(out);
+  }
+
+  public JSONLinesExportHandler(Writer writer) {
+    super(writer);
+  }
+
+  @Override
+  protected void writeRecord(Map<String, Object> record) throws IOException {
+    write('{');
+    boolean first = true;
+    for (Map.Entry<String, Object> field : record.entrySet()) {
+      if (!first) {
+        write(',');
+      }
+      writeJSONString(field.getKey());
+      write(':');
+      writeJSONValue(field.getValue());
+      first = false;
+    }
+    write("}\n");
+  }
+}
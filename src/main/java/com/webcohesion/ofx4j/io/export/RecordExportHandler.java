@@ -0,0 +1,204 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentBankTransaction;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.*;
+
+/**
+ * Base for exporters that write one flat record per transaction: banking/credit card transactions (STMTTRN) and
+ * investment transactions. The fields of a record are keyed by their path relative to the record, e.g. "TRNAMT" or
+ * "PAYEE.NAME", and the record is prefixed with its {@link #RECORD_TYPE_FIELD type} and the account context of the
+ * statement it's in: the elements of the account aggregate (e.g. BANKID, ACCTID) and the currency (CURDEF). Only the
+ * record currently being read is kept in memory.
+ *
+ * @author Ryan Heaton
+ */
+public abstract class RecordExportHandler extends BaseExportHandler {
+
+  /**
+   * The field holding the name of the record aggregate (e.g. STMTTRN, BUYSTOCK).
+   */
+  public static final String RECORD_TYPE_FIELD = "RECORDTYPE";
+
+  /**
+   * The default aggregates whose elements are the account context.
+   */
+  public static final Set<String> DEFAULT_CONTEXT_AGGREGATES = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList("BANKACCTFROM", "CCACCTFROM", "INVACCTFROM")));
+
+  /**
+   * The default elements (of any aggregate outside of a record) that are part of the account context.
+   */
+  public static final Set<String> DEFAULT_CONTEXT_ELEMENTS = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList("CURDEF")));
+
+  /**
+   * The default statement aggregates, at the start of which the account context is reset.
+   */
+  public static final Set<String> DEFAULT_STATEMENT_AGGREGATES = Collections.unmodifiableSet(new TreeSet<String>(Arrays.asList("STMTRS", "CCSTMTRS", "INVSTMTRS")));
+
+  private final Map<String, Object> context = new LinkedHashMap<String, Object>();
+  private final List<String> recordPath = new ArrayList<String>();
+  private Map<String, Object> record = null;
+  private int recordDepth = -1;
+  private Set<String> contextAggregates = DEFAULT_CONTEXT_AGGREGATES;
+  private Set<String> contextElements = DEFAULT_CONTEXT_ELEMENTS;
+  private Set<String> statementAggregates = DEFAULT_STATEMENT_AGGREGATES;
+
+  protected RecordExportHandler(OutputStream out) {
+    super(out);
+  }
+
+  protected RecordExportHandler(Writer writer) {
+    super(writer);
+  }
+
+  public void onElement(String name, String value) {
+    Object typedValue = toTypedValue(getResolver().getElementType(name), value);
+    if (this.record != null) {
+      StringBuilder key = new StringBuilder();
+      for (String aggregate : this.recordPath) {
+        key.append(aggregate).append('.');
+      }
+      key.append(name);
+      this.record.put(key.toString(), typedValue);
+    }
+    else if (getContextAggregates().contains(getResolver().getAggregateName()) || getContextElements().contains(name)) {
+      this.context.put(name, typedValue);
+    }
+  }
+
+  public void startAggregate(String aggregateName) {
+    getResolver().startAggregate(aggregateName);
+    if (this.record != null) {
+      this.recordPath.add(aggregateName);
+    }
+    else if (isRecord(aggregateName, getResolver().getAggregateType())) {
+      this.record = new LinkedHashMap<String, Object>();
+      this.record.put(RECORD_TYPE_FIELD, aggregateName);
+      this.record.putAll(this.context);
+      this.recordDepth = getResolver().getDepth();
+      this.recordPath.clear();
+    }
+    else if (getStatementAggregates().contains(aggregateName)) {
+      this.context.clear();
+    }
+  }
+
+  public void endAggregate(String aggregateName) {
+    int depth = getResolver().getDepth();
+    getResolver().endAggregate();
+    if (this.record != null) {
+      if (depth == this.recordDepth) {
+        Map<String, Object> record = this.record;
+        this.record = null;
+        this.recordDepth = -1;
+        if (!isFailed()) {
+          try {
+            writeRecord(record);
+          }
+          catch (IOException e) {
+            fail(e);
+          }
+        }
+      }
+      else if (!this.recordPath.isEmpty()) {
+        this.recordPath.remove(this.recordPath.size() - 1);
+      }
+    }
+  }
+
+  /**
+   * Whether the specified aggregate is a record. The default implementation matches banking/credit card transactions
+   * and investment transactions.
+   *
+   * @param aggregateName The name of the aggregate.
+   * @param aggregateType The type of the aggregate (null if unknown).
+   * @return Whether the aggregate is a record.
+   */
+  protected boolean isRecord(String aggregateName, Class aggregateType) {
+    return aggregateType != null && (Transaction.class.isAssignableFrom(aggregateType)
+      || BaseInvestmentTransaction.class.isAssignableFrom(aggregateType)
+      || InvestmentBankTransaction.class.isAssignableFrom(aggregateType));
+  }
+
+  /**
+   * Write a record.
+   *
+   * @param record The record: its typed fields, by path.
+   */
+  protected abstract void writeRecord(Map<String, Object> record) throws IOException;
+
+  /**
+   * The aggregates whose elements are the account context.
+   *
+   * @return The aggregates whose elements are the account context.
+   */
+  public Set<String> getContextAggregates() {
+    return contextAggregates;
+  }
+
+  /**
+   * The aggregates whose elements are the account context.
+   *
+   * @param contextAggregates The aggregates whose elements are the account context.
+   */
+  public void setContextAggregates(Set<String> contextAggregates) {
+    this.contextAggregates = contextAggregates;
+  }
+
+  /**
+   * The elements (of any aggregate outside of a record) that are part of the account context.
+   *
+   * @return The elements that are part of the account context.
+   */
+  public Set<String> getContextElements() {
+    return contextElements;
+  }
+
+  /**
+   * The elements (of any aggregate outside of a record) that are part of the account context.
+   *
+   * @param contextElements The elements that are part of the account context.
+   */
+  public void setContextElements(Set<String> contextElements) {
+    this.contextElements = contextElements;
+  }
+
+  /**
+   * The statement aggregates, at the start of which the account context is reset.
+   *
+   * @return The statement aggregates.
+   */
+  public Set<String> getStatementAggregates() {
+    return statementAggregates;
+  }
+
+  /**
+   * The statement aggregates, at the start of which the account context is reset.
+   *
+   * @param statementAggregates The statement aggregates.
+   */
+  public void setStatementAggregates(Set<String> statementAggregates) {
+    this.statementAggregates = statementAggregates;
+  }
+}
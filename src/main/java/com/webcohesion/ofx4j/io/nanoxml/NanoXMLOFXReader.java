@@ -23,6 +23,8 @@ import com.webcohesion.ofx4j.io.OFXParseException;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * OFX reader using the <a href="http://nanoxml.cyberelf.be/">NanoXML</a> library.<br/><br/>
@@ -33,7 +35,10 @@ import java.io.StringWriter;
  */
 public class NanoXMLOFXReader extends BaseOFXReader {
 
+  private final List<String> openTags = new ArrayList<String>();
+
   protected void parseV1FromFirstElement(Reader reader) throws IOException, OFXParseException {
+    this.openTags.clear();
     try {
       StdXMLReader xmlReader = new StdXMLReader(reader);
       XMLUtilBackdoor.skipWhitespace(xmlReader, null);
@@ -58,6 +63,7 @@ public class NanoXMLOFXReader extends BaseOFXReader {
    */
   protected String processOFXTag(IXMLReader reader, IXMLEntityResolver entityResolver) throws IOException, XMLParseException, OFXParseException {
     String startTag = readTagName(reader);
+    this.openTags.add(startTag);
     StringBuffer buffer = new StringBuffer(16);
     boolean aggregateStarted = false;
     StringBuilder tagContent = null;
@@ -98,6 +104,7 @@ public class NanoXMLOFXReader extends BaseOFXReader {
             getContentHandler().endAggregate(endTag);
           }
           
+          this.openTags.remove(this.openTags.size() - 1);
           return endTag;
         }
         else if (str.charAt(0) == '!') {
@@ -134,9 +141,12 @@ public class NanoXMLOFXReader extends BaseOFXReader {
               aggregateStarted = true;
             }
             String endTag = processOFXTag(reader, entityResolver);
-            if (endTag.equals(startTag)) {
+            if (endTag.equals(startTag) || isAncestorOpen(endTag)) {
               //we could have processed our own end tag.  If so, we're done.
+              //we could also have processed the end tag of an enclosing aggregate (meaning this tag was never closed,
+              //e.g. an element with an empty value), in which case the handler has been notified, so we're done, too.
               //otherwise, we processed the end tag of a child aggregate, so continue.
+              this.openTags.remove(this.openTags.size() - 1);
               return endTag;
             }
           }
@@ -144,6 +154,7 @@ public class NanoXMLOFXReader extends BaseOFXReader {
             getContentHandler().onElement(startTag, tagContent.toString().trim());
             tagContent = null;
             startTag = readTagName(reader);
+            this.openTags.set(this.openTags.size() - 1, startTag);
           }
         }
       }
@@ -169,6 +180,18 @@ public class NanoXMLOFXReader extends BaseOFXReader {
     throw new OFXParseException("Unexpected EOF. We never finished parsing the " + startTag + " tag.");
   }
 
+  /**
+   * Whether a tag by the specified name was started (and not yet ended) by an enclosing call to
+   * {@link #processOFXTag(net.n3.nanoxml.IXMLReader, net.n3.nanoxml.IXMLEntityResolver)}.
+   *
+   * @param tagName The tag name.
+   * @return Whether the tag is open on an enclosing call.
+   */
+  protected boolean isAncestorOpen(String tagName) {
+    int index = this.openTags.lastIndexOf(tagName);
+    return index >= 0 && index < this.openTags.size() - 1;
+  }
+
   protected String readTagName(IXMLReader reader) throws IOException, XMLParseException {
     String fullName = XMLUtilBackdoor.scanIdentifier(reader);
     XMLUtilBackdoor.skipWhitespace(reader, null);
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+import com.webcohesion.ofx4j.io.AggregateStackContentHandler;
+import com.webcohesion.ofx4j.io.DefaultHandler;
+import com.webcohesion.ofx4j.io.OFXHandler;
+import com.webcohesion.ofx4j.io.OFXParseException;
+import com.webcohesion.ofx4j.io.OFXReader;
+import com.webcohesion.ofx4j.io.OFXSyntaxException;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * OFX reader decorator that records the measurements of each parse to a {@link ParseStatisticsRegistry}.
+ *
+ * @author Ryan Heaton
+ */
+public class InstrumentedOFXReader implements OFXReader {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final OFXReader delegate;
+  private final ParseStatisticsRegistry registry;
+  private final String tag;
+  private OFXHandler contentHandler = new DefaultHandler();
+  private ParseRecord lastRecord;
+
+  public InstrumentedOFXReader(OFXReader delegate, ParseStatisticsRegistry registry, String tag) {
+    this.delegate = delegate;
+    this.registry = registry;
+    this.tag = tag;
+  }
+
+  public void setContentHandler(OFXHandler handler) {
+    this.contentHandler = handler;
+  }
+
+  public void parse(InputStream stream) throws IOException, OFXParseException {
+    CountingInputStream counting = new CountingInputStream(stream);
+    InstrumentedHandler handler = start();
+    boolean failed = true;
+    try {
+      this.delegate.parse(counting);
+      failed = false;
+    }
+    finally {
+      handler.record.bytesRead = counting.count;
+      finish(handler, failed);
+    }
+  }
+
+  public void parse(Reader reader) throws IOException, OFXParseException {
+    CountingReader counting = new CountingReader(reader);
+    InstrumentedHandler handler = start();
+    boolean failed = true;
+    try {
+      this.delegate.parse(counting);
+      failed = false;
+    }
+    finally {
+      handler.record.charsRead = counting.count;
+      finish(handler, failed);
+    }
+  }
+
+  private InstrumentedHandler start() {
+    InstrumentedHandler handler = new InstrumentedHandler(this.contentHandler);
+    this.delegate.setContentHandler(handler);
+    handler.cpuStart = currentThreadCpuTime();
+    handler.start = System.nanoTime();
+    return handler;
+  }
+
+  private void finish(InstrumentedHandler handler, boolean failed) {
+    long end = System.nanoTime();
+    long cpuEnd = currentThreadCpuTime();
+    ParseRecord record = handler.record;
+    long bodyStart = handler.bodyStart < 0 ? end : handler.bodyStart;
+    long bodyCpuStart = handler.bodyStart < 0 ? cpuEnd : handler.bodyCpuStart;
+    record.headerNanos = Math.max(0, bodyStart - handler.start - handler.headerConversionNanos);
+    record.bodyNanos = Math.max(0, end - bodyStart - (record.conversionNanos - handler.headerConversionNanos));
+    if (handler.cpuStart >= 0 && bodyCpuStart >= 0 && cpuEnd >= 0) {
+      record.headerCpuNanos = bodyCpuStart - handler.cpuStart;
+      record.bodyCpuNanos = cpuEnd - bodyCpuStart;
+      record.cpuNanos = cpuEnd - handler.cpuStart;
+    }
+    record.failed = failed;
+    if (this.contentHandler instanceof AggregateStackContentHandler) {
+      AggregateStackContentHandler aggregateHandler = (AggregateStackContentHandler) this.contentHandler;
+      record.skippedAggregateCount = aggregateHandler.getSkippedAggregateCount();
+      record.conversionFailureCount = aggregateHandler.getConversionFailureCount();
+    }
+    this.lastRecord = record;
+    this.registry.record(this.tag, record);
+  }
+
+  private static long currentThreadCpuTime() {
+    return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : -1;
+  }
+
+  /**
+   * The record of the last parse of this reader.
+   *
+   * @return The record of the last parse of this reader.
+   */
+  public ParseRecord getLastRecord() {
+    return lastRecord;
+  }
+
+  /**
+   * The tag the parses of this reader are recorded under.
+   *
+   * @return The tag.
+   */
+  public String getTag() {
+    return tag;
+  }
+
+  private static class InstrumentedHandler implements OFXHandler {
+
+    private final OFXHandler delegate;
+    private final ParseRecord record = new ParseRecord();
+    private long start;
+    private long cpuStart;
+    private long bodyStart = -1;
+    private long bodyCpuStart = -1;
+    private long headerConversionNanos;
+    private int depth = 0;
+
+    private InstrumentedHandler(OFXHandler delegate) {
+      this.delegate = delegate;
+    }
+
+    public void onHeader(String name, String value) throws OFXSyntaxException {
+      this.record.headerCount++;
+      long t0 = System.nanoTime();
+      try {
+        this.delegate.onHeader(name, value);
+      }
+      finally {
+        long elapsed = System.nanoTime() - t0;
+        this.record.conversionNanos += elapsed;
+        this.headerConversionNanos += elapsed;
+      }
+    }
+
+    public void onElement(String name, String value) throws OFXSyntaxException {
+      startBody();
+      this.record.elementCount++;
+      long t0 = System.nanoTime();
+      try {
+        this.delegate.onElement(name, value);
+      }
+      finally {
+        this.record.conversionNanos += System.nanoTime() - t0;
+      }
+    }
+
+    public void startAggregate(String aggregateName) throws OFXSyntaxException {
+      startBody();
+      this.record.aggregateCount++;
+      this.depth++;
+      if (this.depth > this.record.maxDepth) {
+        this.record.maxDepth = this.depth;
+      }
+      long t0 = System.nanoTime();
+      try {
+        this.delegate.startAggregate(aggregateName);
+      }
+      finally {
+        this.record.conversionNanos += System.nanoTime() - t0;
+      }
+    }
+
+    public void endAggregate(String aggregateName) throws OFXSyntaxException {
+      this.depth--;
+      long t0 = System.nanoTime();
+      try {
+        this.delegate.endAggregate(aggregateName);
+      }
+      finally {
+        this.record.conversionNanos += System.nanoTime() - t0;
+      }
+    }
+
+    private void startBody() {
+      if (this.bodyStart < 0) {
+        //the CPU time is only sampled at the phase boundaries, so it includes the conversion of each phase.
+        this.bodyCpuStart = currentThreadCpuTime();
+        this.bodyStart = System.nanoTime();
+      }
+    }
+  }
+
+  private static class CountingInputStream extends FilterInputStream {
+
+    private long count = 0;
+
+    private CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b >= 0) {
+        this.count++;
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        this.count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      this.count += skipped;
+      return skipped;
+    }
+  }
+
+  private static class CountingReader extends FilterReader {
+
+    private long count = 0;
+
+    private CountingReader(Reader in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int c = super.read();
+      if (c >= 0) {
+        this.count++;
+      }
+      return c;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+      int read = super.read(cbuf, off, len);
+      if (read > 0) {
+        this.count += read;
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      this.count += skipped;
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+/**
+ * The measurements of a single parse.
+ *
+ * @author Ryan Heaton
+ */
+public class ParseRecord {
+
+  long bytesRead;
+  long charsRead;
+  long headerCount;
+  long elementCount;
+  long aggregateCount;
+  int maxDepth;
+  long skippedAggregateCount;
+  long conversionFailureCount;
+  long headerNanos;
+  long bodyNanos;
+  long conversionNanos;
+  long headerCpuNanos = -1;
+  long bodyCpuNanos = -1;
+  long cpuNanos = -1;
+  boolean failed;
+
+  /**
+   * The number of bytes read (0 if a reader was parsed).
+   *
+   * @return The number of bytes read.
+   */
+  public long getBytesRead() {
+    return bytesRead;
+  }
+
+  /**
+   * The number of characters read (0 if a stream was parsed).
+   *
+   * @return The number of characters read.
+   */
+  public long getCharsRead() {
+    return charsRead;
+  }
+
+  /**
+   * The number of headers.
+   *
+   * @return The number of headers.
+   */
+  public long getHeaderCount() {
+    return headerCount;
+  }
+
+  /**
+   * The number of elements.
+   *
+   * @return The number of elements.
+   */
+  public long getElementCount() {
+    return elementCount;
+  }
+
+  /**
+   * The number of aggregates.
+   *
+   * @return The number of aggregates.
+   */
+  public long getAggregateCount() {
+    return aggregateCount;
+  }
+
+  /**
+   * The maximum aggregate depth.
+   *
+   * @return The maximum aggregate depth.
+   */
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /**
+   * The number of aggregates (subtrees) that were skipped by the handler.
+   *
+   * @return The number of aggregates that were skipped.
+   */
+  public long getSkippedAggregateCount() {
+    return skippedAggregateCount;
+  }
+
+  /**
+   * The number of element values that the handler failed to convert.
+   *
+   * @return The number of conversion failures.
+   */
+  public long getConversionFailureCount() {
+    return conversionFailureCount;
+  }
+
+  /**
+   * The wall time spent reading the headers, in nanoseconds.
+   *
+   * @return The wall time spent reading the headers.
+   */
+  public long getHeaderNanos() {
+    return headerNanos;
+  }
+
+  /**
+   * The wall time spent reading the body (excluding conversion), in nanoseconds.
+   *
+   * @return The wall time spent reading the body.
+   */
+  public long getBodyNanos() {
+    return bodyNanos;
+  }
+
+  /**
+   * The wall time spent in the handler (i.e. converting the events), in nanoseconds.
+   *
+   * @return The wall time spent in the handler.
+   */
+  public long getConversionNanos() {
+    return conversionNanos;
+  }
+
+  /**
+   * The CPU time spent reading (and converting) the headers, in nanoseconds, or -1 if CPU time isn't supported by the
+   * JVM.
+   *
+   * @return The CPU time spent reading the headers.
+   */
+  public long getHeaderCpuNanos() {
+    return headerCpuNanos;
+  }
+
+  /**
+   * The CPU time spent reading (and converting) the body, in nanoseconds, or -1 if CPU time isn't supported by the JVM.
+   *
+   * @return The CPU time spent reading the body.
+   */
+  public long getBodyCpuNanos() {
+    return bodyCpuNanos;
+  }
+
+  /**
+   * The CPU time of the parse, in nanoseconds, or -1 if CPU time isn't supported by the JVM.
+   *
+   * @return The CPU time of the parse.
+   */
+  public long getCpuNanos() {
+    return cpuNanos;
+  }
+
+  /**
+   * Whether the parse failed.
+   *
+   * @return Whether the parse failed.
+   */
+  public boolean isFailed() {
+    return failed;
+  }
+
+  @Override
+  public String toString() {
+    return "ParseRecord{" +
+      "bytesRead=" + bytesRead +
+      ", charsRead=" + charsRead +
+      ", headerCount=" + headerCount +
+      ", elementCount=" + elementCount +
+      ", aggregateCount=" + aggregateCount +
+      ", maxDepth=" + maxDepth +
+      ", skippedAggregateCount=" + skippedAggregateCount +
+      ", conversionFailureCount=" + conversionFailureCount +
+      ", headerNanos=" + headerNanos +
+      ", bodyNanos=" + bodyNanos +
+      ", conversionNanos=" + conversionNanos +
+      ", headerCpuNanos=" + headerCpuNanos +
+      ", bodyCpuNanos=" + bodyCpuNanos +
+      ", cpuNanos=" + cpuNanos +
+      ", failed=" + failed +
+      '}';
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+/**
+ * The accumulated statistics of the parses of an FI (or other tag).
+ *
+ * @author Ryan Heaton
+ */
+public class ParseStatistics implements ParseStatisticsMBean {
+
+  private static final double NANOS_PER_MILLI = 1000000D;
+
+  private final String tag;
+  private long parseCount;
+  private long failedParseCount;
+  private long bytesRead;
+  private long charsRead;
+  private long elementCount;
+  private long aggregateCount;
+  private int maxDepth;
+  private long skippedAggregateCount;
+  private long conversionFailureCount;
+  private long headerNanos;
+  private long bodyNanos;
+  private long conversionNanos;
+  private long headerCpuNanos;
+  private long bodyCpuNanos;
+  private long cpuNanos;
+
+  public ParseStatistics(String tag) {
+    this.tag = tag;
+  }
+
+  /**
+   * Add the specified parse to these statistics.
+   *
+   * @param record The parse record.
+   */
+  public synchronized void add(ParseRecord record) {
+    this.parseCount++;
+    if (record.isFailed()) {
+      this.failedParseCount++;
+    }
+    this.bytesRead += record.getBytesRead();
+    this.charsRead += record.getCharsRead();
+    this.elementCount += record.getElementCount();
+    this.aggregateCount += record.getAggregateCount();
+    this.maxDepth = Math.max(this.maxDepth, record.getMaxDepth());
+    this.skippedAggregateCount += record.getSkippedAggregateCount();
+    this.conversionFailureCount += record.getConversionFailureCount();
+    this.headerNanos += record.getHeaderNanos();
+    this.bodyNanos += record.getBodyNanos();
+    this.conversionNanos += record.getConversionNanos();
+    if (record.getCpuNanos() > 0) {
+      this.headerCpuNanos += record.getHeaderCpuNanos();
+      this.bodyCpuNanos += record.getBodyCpuNanos();
+      this.cpuNanos += record.getCpuNanos();
+    }
+  }
+
+  public String getTag() {
+    return tag;
+  }
+
+  public synchronized long getParseCount() {
+    return parseCount;
+  }
+
+  public synchronized long getFailedParseCount() {
+    return failedParseCount;
+  }
+
+  public synchronized long getBytesRead() {
+    return bytesRead;
+  }
+
+  public synchronized long getCharsRead() {
+    return charsRead;
+  }
+
+  public synchronized long getElementCount() {
+    return elementCount;
+  }
+
+  public synchronized long getAggregateCount() {
+    return aggregateCount;
+  }
+
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public synchronized long getSkippedAggregateCount() {
+    return skippedAggregateCount;
+  }
+
+  public synchronized long getConversionFailureCount() {
+    return conversionFailureCount;
+  }
+
+  public synchronized double getHeaderMillis() {
+    return headerNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized double getBodyMillis() {
+    return bodyNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized double getConversionMillis() {
+    return conversionNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized double getHeaderCpuMillis() {
+    return headerCpuNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized double getBodyCpuMillis() {
+    return bodyCpuNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized double getCpuMillis() {
+    return cpuNanos / NANOS_PER_MILLI;
+  }
+
+  public synchronized void reset() {
+    this.parseCount = 0;
+    this.failedParseCount = 0;
+    this.bytesRead = 0;
+    this.charsRead = 0;
+    this.elementCount = 0;
+    this.aggregateCount = 0;
+    this.maxDepth = 0;
+    this.skippedAggregateCount = 0;
+    this.conversionFailureCount = 0;
+    this.headerNanos = 0;
+    this.bodyNanos = 0;
+    this.conversionNanos = 0;
+    this.headerCpuNanos = 0;
+    this.bodyCpuNanos = 0;
+    this.cpuNanos = 0;
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+/**
+ * Management interface for the accumulated statistics of the parses of an FI (or other tag).
+ *
+ * @author Ryan Heaton
+ */
+public interface ParseStatisticsMBean {
+
+  /**
+   * The tag (e.g. FI id) of the statistics.
+   *
+   * @return The tag of the statistics.
+   */
+  String getTag();
+
+  /**
+   * The number of parses.
+   *
+   * @return The number of parses.
+   */
+  long getParseCount();
+
+  /**
+   * The number of parses that failed.
+   *
+   * @return The number of parses that failed.
+   */
+  long getFailedParseCount();
+
+  /**
+   * The total number of bytes read (by the parses of streams).
+   *
+   * @return The total number of bytes read.
+   */
+  long getBytesRead();
+
+  /**
+   * The total number of characters read (by the parses of readers).
+   *
+   * @return The total number of characters read.
+   */
+  long getCharsRead();
+
+  /**
+   * The total number of elements.
+   *
+   * @return The total number of elements.
+   */
+  long getElementCount();
+
+  /**
+   * The total number of aggregates.
+   *
+   * @return The total number of aggregates.
+   */
+  long getAggregateCount();
+
+  /**
+   * The maximum aggregate depth of any parse.
+   *
+   * @return The maximum aggregate depth.
+   */
+  int getMaxDepth();
+
+  /**
+   * The total number of skipped aggregates.
+   *
+   * @return The total number of skipped aggregates.
+   */
+  long getSkippedAggregateCount();
+
+  /**
+   * The total number of conversion failures.
+   *
+   * @return The total number of conversion failures.
+   */
+  long getConversionFailureCount();
+
+  /**
+   * The total wall time spent reading headers, in milliseconds.
+   *
+   * @return The total wall time spent reading headers.
+   */
+  double getHeaderMillis();
+
+  /**
+   * The total wall time spent reading bodies (excluding conversion), in milliseconds.
+   *
+   * @return The total wall time spent reading bodies.
+   */
+  double getBodyMillis();
+
+  /**
+   * The total wall time spent converting, in milliseconds.
+   *
+   * @return The total wall time spent converting.
+   */
+  double getConversionMillis();
+
+  /**
+   * The total CPU time spent reading (and converting) headers, in milliseconds.
+   *
+   * @return The total CPU time spent reading headers.
+   */
+  double getHeaderCpuMillis();
+
+  /**
+   * The total CPU time spent reading (and converting) bodies, in milliseconds.
+   *
+   * @return The total CPU time spent reading bodies.
+   */
+  double getBodyCpuMillis();
+
+  /**
+   * The total CPU time, in milliseconds.
+   *
+   * @return The total CPU time.
+   */
+  double getCpuMillis();
+
+  /**
+   * Reset the statistics.
+   */
+  void reset();
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+import com.webcohesion.ofx4j.io.OFXReader;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of parse statistics, aggregated per FI or per caller-supplied tag. Statistics can optionally be exposed
+ * as JMX MBeans (one per tag). When the registry is disabled, {@link #instrument(OFXReader, String)} returns the
+ * reader untouched, so there's no overhead.<br/><br/>
+ *
+ * To instrument the unmarshalling of a connection, override {@link com.webcohesion.ofx4j.io.AggregateUnmarshaller#newReader()}
+ * and return the instrumented reader.
+ *
+ * @author Ryan Heaton
+ */
+public class ParseStatisticsRegistry {
+
+  private static final Log LOG = LogFactory.getLog(ParseStatisticsRegistry.class);
+
+  /**
+   * The default JMX domain of the statistics MBeans.
+   */
+  public static final String DEFAULT_DOMAIN = "com.webcohesion.ofx4j";
+
+  private final ConcurrentMap<String, ParseStatistics> statistics = new ConcurrentHashMap<String, ParseStatistics>();
+  private final MBeanServer mbeanServer;
+  private final String domain;
+  private volatile boolean enabled = true;
+
+  /**
+   * A registry that doesn't expose its statistics through JMX.
+   */
+  public ParseStatisticsRegistry() {
+    this(null, DEFAULT_DOMAIN);
+  }
+
+  /**
+   * A registry that exposes its statistics through the specified MBean server.
+   *
+   * @param mbeanServer The MBean server (e.g. {@link ManagementFactory#getPlatformMBeanServer()}), or null for no JMX.
+   * @param domain The JMX domain of the MBeans.
+   */
+  public ParseStatisticsRegistry(MBeanServer mbeanServer, String domain) {
+    this.mbeanServer = mbeanServer;
+    this.domain = domain;
+  }
+
+  /**
+   * Instrument the specified reader so that its parses are recorded under the specified tag.
+   *
+   * @param reader The reader to instrument.
+   * @param tag The tag (e.g. FI id).
+   * @return The instrumented reader, or the reader itself if this registry is disabled.
+   */
+  public OFXReader instrument(OFXReader reader, String tag) {
+    return isEnabled() ? new InstrumentedOFXReader(reader, this, tag) : reader;
+  }
+
+  /**
+   * Record a parse.
+   *
+   * @param tag The tag.
+   * @param record The parse record.
+   */
+  public void record(String tag, ParseRecord record) {
+    if (isEnabled()) {
+      getStatistics(tag).add(record);
+    }
+  }
+
+  /**
+   * Get (or create) the statistics for the specified tag.
+   *
+   * @param tag The tag.
+   * @return The statistics.
+   */
+  public ParseStatistics getStatistics(String tag) {
+    ParseStatistics stats = this.statistics.get(tag);
+    if (stats == null) {
+      ParseStatistics newStats = new ParseStatistics(tag);
+      stats = this.statistics.putIfAbsent(tag, newStats);
+      if (stats == null) {
+        stats = newStats;
+        register(stats);
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * All statistics, by tag.
+   *
+   * @return All statistics, by tag.
+   */
+  public Map<String, ParseStatistics> getAllStatistics() {
+    return new TreeMap<String, ParseStatistics>(this.statistics);
+  }
+
+  /**
+   * Register the specified statistics with the MBean server, if any.
+   *
+   * @param stats The statistics.
+   */
+  protected void register(ParseStatistics stats) {
+    if (this.mbeanServer != null) {
+      try {
+        this.mbeanServer.registerMBean(stats, getObjectName(stats.getTag()));
+      }
+      catch (Exception e) {
+        LOG.warn("Unable to register parse statistics for " + stats.getTag() + ".", e);
+      }
+    }
+  }
+
+  /**
+   * Unregister all statistics MBeans from the MBean server and clear the statistics.
+   */
+  public void clear() {
+    for (String tag : this.statistics.keySet()) {
+      if (this.mbeanServer != null) {
+        try {
+          ObjectName name = getObjectName(tag);
+          if (this.mbeanServer.isRegistered(name)) {
+            this.mbeanServer.unregisterMBean(name);
+          }
+        }
+        catch (Exception e) {
+          LOG.warn("Unable to unregister parse statistics for " + tag + ".", e);
+        }
+      }
+      this.statistics.remove(tag);
+    }
+  }
+
+  /**
+   * The JMX object name for the statistics of the specified tag.
+   *
+   * @param tag The tag.
+   * @return The object name.
+   */
+  protected ObjectName getObjectName(String tag) throws Exception {
+    return new ObjectName(this.domain + ":type=ParseStatistics,name=" + ObjectName.quote(tag));
+  }
+
+  /**
+   * Whether this registry is enabled.
+   *
+   * @return Whether this registry is enabled.
+   */
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Whether this registry is enabled.
+   *
+   * @param enabled Whether this registry is enabled.
+   */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.v1;
+
+import com.webcohesion.ofx4j.io.AggregateIntrospector;
+import com.webcohesion.ofx4j.io.OFXFragmentWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * OFX writer to SGML, suitable for OFX versions < 2.0, that encodes straight to bytes. Writes the same bytes as an
+ * {@link OFXV1Writer} on the same stream, but the tags of the known aggregates are written from bytes pre-encoded once
+ * (other tags, e.g. proprietary ones, are encoded as they are written and never retained), markup characters are
+ * escaped in the same scan that encodes the value, and everything is collected in a single reusable buffer instead
+ * of going through a character encoder.
+ *
+ * @author Ryan Heaton
+ */
+public class OFXV1ByteWriter implements OFXFragmentWriter {
+
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private static final byte[] LINE_SEPARATOR = ascii("\r\n");
+  private static final byte[] AMP = ascii("&amp;");
+  private static final byte[] LT = ascii("&lt;");
+  private static final byte[] GT = ascii("&gt;");
+  private static final Map<String, byte[]> START_TAGS = new HashMap<String, byte[]>();
+  private static final Map<String, byte[]> END_TAGS = new HashMap<String, byte[]>();
+  static {
+    //the tags of the known aggregates only, so the tables are bounded and read-only once built.
+    for (String name : AggregateIntrospector.getKnownTagNames()) {
+      byte[] startTag = tagBytes("<", name);
+      if (startTag != null) {
+        START_TAGS.put(name, startTag);
+        END_TAGS.put(name, tagBytes("</", name));
+      }
+    }
+  }
+
+  protected boolean headersWritten = false;
+  protected final OutputStream out;
+  private final byte[] buffer;
+  private int count = 0;
+  private boolean writeAttributesOnNewLine = false;
+
+  public OFXV1ByteWriter(OutputStream out) {
+    this(out, DEFAULT_BUFFER_SIZE);
+  }
+
+  public OFXV1ByteWriter(OutputStream out, int bufferSize) {
+    if (bufferSize < 4) {
+      throw new IllegalArgumentException("Buffer size must be at least 4 bytes.");
+    }
+
+    this.out = out;
+    this.buffer = new byte[bufferSize];
+  }
+
+  public void writeHeaders(Map<String, String> headers) throws IOException {
+    if (headersWritten) {
+      throw new IllegalStateException("Headers have already been written!");
+    }
+
+    print(OFXV1Writer.formatHeaders(headers));
+
+    this.headersWritten = true;
+  }
+
+  public void writeStartAggregate(String aggregateName) throws IOException {
+    writeStartTag(aggregateName);
+    if (isWriteAttributesOnNewLine()) {
+      println();
+    }
+  }
+
+  public void writeElement(String name, String value) throws IOException {
+    if ((value == null) || ("".equals(value))) {
+      throw new IllegalArgumentException("Illegal element value for element '" + name + "' (value must not be null or empty).");
+    }
+
+    writeStartTag(name);
+    printEscaped(value);
+    if (isWriteAttributesOnNewLine()) {
+      println();
+    }
+  }
+
+  public void writeEndAggregate(String aggregateName) throws IOException {
+    writeEndTag(aggregateName);
+    if (isWriteAttributesOnNewLine()) {
+      println();
+    }
+  }
+
+  public boolean isWriteAttributesOnNewLine() {
+    return writeAttributesOnNewLine;
+  }
+
+  public void setWriteAttributesOnNewLine(boolean writeAttributesOnNewLine) {
+    this.writeAttributesOnNewLine = writeAttributesOnNewLine;
+  }
+
+  // Inherited.
+  public String getFlavor() {
+    return isWriteAttributesOnNewLine() ? "OFXV1/ISO-8859-1/NEWLINES" : "OFXV1/ISO-8859-1";
+  }
+
+  /**
+   * The size of the buffer of this writer.
+   *
+   * @return The size of the buffer of this writer.
+   */
+  protected int getBufferSize() {
+    return this.buffer.length;
+  }
+
+  // Inherited.
+  public OFXFragmentWriter newFragmentWriter(OutputStream out) {
+    OFXV1ByteWriter writer = new OFXV1ByteWriter(out, getBufferSize());
+    writer.setWriteAttributesOnNewLine(isWriteAttributesOnNewLine());
+    return writer;
+  }
+
+  // Inherited.
+  public void writeFragment(byte[] fragment, int offset, int length) throws IOException {
+    if (length > this.buffer.length - this.count) {
+      flushBuffer();
+      if (length > this.buffer.length) {
+        this.out.write(fragment, offset, length);
+        return;
+      }
+    }
+    System.arraycopy(fragment, offset, this.buffer, this.count, length);
+    this.count += length;
+  }
+
+  public void close() throws IOException {
+    flush();
+    this.out.close();
+  }
+
+  public void flush() throws IOException {
+    flushBuffer();
+    this.out.flush();
+  }
+
+  /**
+   * Write a start tag (e.g. "&lt;STMTTRN&gt;").
+   *
+   * @param name The tag name.
+   */
+  protected void writeStartTag(String name) throws IOException {
+    byte[] tag = START_TAGS.get(name);
+    if (tag == null) {
+      print('<');
+      print(name);
+      print('>');
+    }
+    else {
+      write(tag);
+    }
+  }
+
+  /**
+   * Write an end tag (e.g. "&lt;/STMTTRN&gt;").
+   *
+   * @param name The tag name.
+   */
+  protected void writeEndTag(String name) throws IOException {
+    byte[] tag = END_TAGS.get(name);
+    if (tag == null) {
+      print("</");
+      print(name);
+      print('>');
+    }
+    else {
+      write(tag);
+    }
+  }
+
+  /**
+   * Whether the tags of the specified name are pre-encoded.
+   *
+   * @param name The tag name.
+   * @return Whether the tags are pre-encoded.
+   */
+  static boolean isPreEncoded(String name) {
+    return START_TAGS.containsKey(name);
+  }
+
+  /**
+   * The bytes of a tag, which are the same for any supported encoding as long as the tag name is ASCII.
+   *
+   * @param open The opening of the tag.
+   * @param name The tag name.
+   * @return The bytes of the tag, or null if the tag name isn't ASCII.
+   */
+  private static byte[] tagBytes(String open, String name) {
+    byte[] tag = new byte[open.length() + name.length() + 1];
+    int index = 0;
+    for (int i = 0; i < open.length(); i++) {
+      tag[index++] = (byte) open.charAt(i);
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char ch = name.charAt(i);
+      if (ch >= 0x80) {
+        return null;
+      }
+      tag[index++] = (byte) ch;
+    }
+    tag[index] = '>';
+    return tag;
+  }
+
+  private static byte[] ascii(String value) {
+    byte[] bytes = new byte[value.length()];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) value.charAt(i);
+    }
+    return bytes;
+  }
+
+  /**
+   * Print the specified value, escaping the markup characters ('&amp;', '&lt;' and '&gt;') in the same scan that
+   * encodes the value.
+   *
+   * @param value The value to print.
+   */
+  protected void printEscaped(String value) throws IOException {
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      byte[] entity;
+      switch (value.charAt(i)) {
+        case '&':
+          entity = AMP;
+          break;
+        case '<':
+          entity = LT;
+          break;
+        case '>':
+          entity = GT;
+          break;
+        default:
+          continue;
+      }
+
+      encode(value, start, i);
+      write(entity);
+      start = i + 1;
+    }
+    encode(value, start, length);
+  }
+
+  protected void println(String line) throws IOException {
+    print(line);
+    println();
+  }
+
+  protected void println() throws IOException {
+    write(LINE_SEPARATOR);
+  }
+
+  protected void print(String line) throws IOException {
+    if (line == null) {
+      line = "null";
+    }
+    encode(line, 0, line.length());
+  }
+
+  protected void print(char ch) throws IOException {
+    if (ch < 0x80) {
+      ensureCapacity(1);
+      put(ch);
+    }
+    else {
+      encode(String.valueOf(ch), 0, 1);
+    }
+  }
+
+  /**
+   * Encode the specified range of characters into the buffer. This writer encodes ISO-8859-1, replacing each
+   * unmappable character (or surrogate pair) with a '?', the same as the JDK's encoder.
+   *
+   * @param value The characters.
+   * @param start The start of the range (inclusive).
+   * @param end The end of the range (exclusive).
+   */
+  protected void encode(String value, int start, int end) throws IOException {
+    byte[] buffer = this.buffer;
+    for (int i = start; i < end; i++) {
+      if (this.count == buffer.length) {
+        flushBuffer();
+      }
+
+      char ch = value.charAt(i);
+      if (ch < 0x100) {
+        buffer[this.count++] = (byte) ch;
+      }
+      else {
+        if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+          //a surrogate pair is a single unmappable character.
+          i++;
+        }
+        buffer[this.count++] = '?';
+      }
+    }
+  }
+
+  /**
+   * Make room in the buffer for the specified number of bytes, flushing it if needed.
+   *
+   * @param length The number of bytes (no greater than the size of the buffer).
+   */
+  protected final void ensureCapacity(int length) throws IOException {
+    if (this.count + length > this.buffer.length) {
+      flushBuffer();
+    }
+  }
+
+  /**
+   * Put a byte into the buffer. Room must have already been made (see {@link #ensureCapacity(int)}).
+   *
+   * @param b The byte.
+   */
+  protected final void put(int b) {
+    this.buffer[this.count++] = (byte) b;
+  }
+
+  /**
+   * Write the specified (pre-encoded) bytes.
+   *
+   * @param bytes The bytes.
+   */
+  protected final void write(byte[] bytes) throws IOException {
+    writeFragment(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Write the contents of the buffer to the underlying stream.
+   */
+  protected final void flushBuffer() throws IOException {
+    if (this.count > 0) {
+      this.out.write(this.buffer, 0, this.count);
+      this.count = 0;
+    }
+  }
+}
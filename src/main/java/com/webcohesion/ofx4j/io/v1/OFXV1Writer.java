@@ -55,35 +55,31 @@ public class OFXV1Writer implements OFXWriter {
       throw new IllegalStateException("Headers have already been written!");
     }
 
-    //write out the 1.0 headers
-    println("OFXHEADER:100");
-    println("DATA:OFXSGML");
-    println("VERSION:102");
+    print(formatHeaders(headers));
 
-    print("SECURITY:");
+    this.headersWritten = true;
+  }
+
+  /**
+   * Format the (1.0) headers, shared by the OFX v1 writers so that they write the same headers.
+   *
+   * @param headers The headers.
+   * @return The headers, including the blank line that ends them.
+   */
+  static String formatHeaders(Map<String, String> headers) {
     String security = headers.get("SECURITY");
-    if (security == null) {
-      security = "NONE";
-    }
-    println(security);
-    println("ENCODING:USASCII"); //too many ofx v1 servers don't read unicode...
-    println("CHARSET:1252"); //windows-compatible.
-    println("COMPRESSION:NONE");
-    print("OLDFILEUID:");
     String olduid = headers.get("OLDFILEUID");
-    if (olduid == null) {
-      olduid = "NONE";
-    }
-    println(olduid);
-    print("NEWFILEUID:");
     String uid = headers.get("NEWFILEUID");
-    if (uid == null) {
-      uid = "NONE";
-    }
-    println(uid);
-    println();
-
-    this.headersWritten = true;
+    return "OFXHEADER:100" + LINE_SEPARATOR
+      + "DATA:OFXSGML" + LINE_SEPARATOR
+      + "VERSION:102" + LINE_SEPARATOR
+      + "SECURITY:" + (security == null ? "NONE" : security) + LINE_SEPARATOR
+      + "ENCODING:USASCII" + LINE_SEPARATOR //too many ofx v1 servers don't read unicode...
+      + "CHARSET:1252" + LINE_SEPARATOR //windows-compatible.
+      + "COMPRESSION:NONE" + LINE_SEPARATOR
+      + "OLDFILEUID:" + (olduid == null ? "NONE" : olduid) + LINE_SEPARATOR
+      + "NEWFILEUID:" + (uid == null ? "NONE" : uid) + LINE_SEPARATOR
+      + LINE_SEPARATOR;
   }
 
   public void writeStartAggregate(String aggregateName) throws IOException {
@@ -100,23 +96,10 @@ public class OFXV1Writer implements OFXWriter {
       throw new IllegalArgumentException("Illegal element value for element '" + name + "' (value must not be null or empty).");
     }
 
-    //todo: optimize performance of the character escaping
-    if (value.indexOf('&') >= 0) {
-      value = value.replaceAll("\\&", "&amp;");
-    }
-
-    if (value.indexOf('<') >= 0) {
-      value = value.replaceAll("<", "&lt;");
-    }
-
-    if (value.indexOf('>') >= 0) {
-      value = value.replaceAll(">", "&gt;");
-    }
-    
     print('<');
     print(name);
     print('>');
-    print(value);
+    printEscaped(value);
     if (isWriteAttributesOnNewLine()) {
       println();
     }
@@ -164,4 +147,44 @@ public class OFXV1Writer implements OFXWriter {
   protected void print(char ch) throws IOException {
     this.writer.write(ch);
   }
+
+  /**
+   * Print the specified value, escaping the markup characters ('&amp;', '&lt;' and '&gt;') in a single scan. The runs
+   * between markup characters are written straight from the value, without copying.
+   *
+   * @param value The value to print.
+   */
+  protected void printEscaped(String value) throws IOException {
+    int start = 0;
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      String entity;
+      switch (value.charAt(i)) {
+        case '&':
+          entity = "&amp;";
+          break;
+        case '<':
+          entity = "&lt;";
+          break;
+        case '>':
+          entity = "&gt;";
+          break;
+        default:
+          continue;
+      }
+
+      if (i > start) {
+        this.writer.write(value, start, i - start);
+      }
+      print(entity);
+      start = i + 1;
+    }
+
+    if (start == 0) {
+      print(value);
+    }
+    else if (start < length) {
+      this.writer.write(value, start, length - start);
+    }
+  }
 }
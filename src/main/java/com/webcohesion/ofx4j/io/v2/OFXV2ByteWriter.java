@@ -0,0 +1,126 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.v2;
+
+import com.webcohesion.ofx4j.io.OFXFragmentWriter;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * OFX writer to XML, suitable for OFX version 2.0, that encodes straight to UTF-8 bytes. Writes the same bytes as an
+ * {@link OFXV2Writer} on the same stream.
+ *
+ * @author Ryan Heaton
+ */
+public class OFXV2ByteWriter extends OFXV1ByteWriter {
+
+  public OFXV2ByteWriter(OutputStream out) {
+    super(out);
+  }
+
+  public OFXV2ByteWriter(OutputStream out, int bufferSize) {
+    super(out, bufferSize);
+  }
+
+  @Override
+  public void writeHeaders(Map<String, String> headers) throws IOException {
+    if (headersWritten) {
+      throw new IllegalStateException("Headers have already been written!");
+    }
+
+    //write out the XML PI
+    print("<?xml version=\"1.0\" encoding=\"utf-8\" ?>");
+    String security = headers.get("SECURITY");
+    if (security == null) {
+      security = "NONE";
+    }
+    String olduid = headers.get("OLDFILEUID");
+    if (olduid == null) {
+      olduid = "NONE";
+    }
+    String uid = headers.get("NEWFILEUID");
+    if (uid == null) {
+      uid = "NONE";
+    }
+
+    print(String.format("<?OFX OFXHEADER=\"200\" VERSION=\"202\" SECURITY=\"%s\" OLDFILEUID=\"%s\" NEWFILEUID=\"%s\"?>", security, olduid, uid));
+    this.headersWritten = true;
+  }
+
+  @Override
+  public void writeElement(String name, String value) throws IOException {
+    super.writeElement(name, value);
+    writeEndTag(name);
+  }
+
+  @Override
+  public String getFlavor() {
+    return "OFXV2/UTF-8";
+  }
+
+  @Override
+  public OFXFragmentWriter newFragmentWriter(OutputStream out) {
+    return new OFXV2ByteWriter(out, getBufferSize());
+  }
+
+  @Override
+  public boolean isWriteAttributesOnNewLine() {
+    return false;
+  }
+
+  /**
+   * Encodes UTF-8, replacing each unpaired surrogate with a '?', the same as the JDK's encoder.
+   *
+   * @param value The characters.
+   * @param start The start of the range (inclusive).
+   * @param end The end of the range (exclusive).
+   */
+  @Override
+  protected void encode(String value, int start, int end) throws IOException {
+    for (int i = start; i < end; i++) {
+      ensureCapacity(4);
+      char ch = value.charAt(i);
+      if (ch < 0x80) {
+        put(ch);
+      }
+      else if (ch < 0x800) {
+        put(0xC0 | (ch >> 6));
+        put(0x80 | (ch & 0x3F));
+      }
+      else if (ch >= Character.MIN_SURROGATE && ch <= Character.MAX_SURROGATE) {
+        if (Character.isHighSurrogate(ch) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+          int codePoint = Character.toCodePoint(ch, value.charAt(++i));
+          put(0xF0 | (codePoint >> 18));
+          put(0x80 | ((codePoint >> 12) & 0x3F));
+          put(0x80 | ((codePoint >> 6) & 0x3F));
+          put(0x80 | (codePoint & 0x3F));
+        }
+        else {
+          put('?');
+        }
+      }
+      else {
+        put(0xE0 | (ch >> 12));
+        put(0x80 | ((ch >> 6) & 0x3F));
+        put(0x80 | (ch & 0x3F));
+      }
+    }
+  }
+}
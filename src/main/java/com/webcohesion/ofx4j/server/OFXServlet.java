@@ -18,14 +18,17 @@ package com.webcohesion.ofx4j.server;
 
 import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
 import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
 import com.webcohesion.ofx4j.domain.data.signon.FinancialInstitution;
 import com.webcohesion.ofx4j.domain.data.signon.SignonRequestMessageSet;
+import com.webcohesion.ofx4j.io.AggregateFragmentCache;
 import com.webcohesion.ofx4j.io.AggregateMarshaller;
 import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
 import com.webcohesion.ofx4j.io.OFXParseException;
 import com.webcohesion.ofx4j.io.OFXWriter;
-import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
-import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+import com.webcohesion.ofx4j.io.StreamedChildAggregates;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -43,6 +46,7 @@ public class OFXServlet extends HttpServlet {
 
   private OFXServer server;
   private boolean OFXVersion2;
+  private final AggregateFragmentCache fragmentCache = new AggregateFragmentCache();
 
   @Override
   public void init() throws ServletException {
@@ -77,9 +81,16 @@ public class OFXServlet extends HttpServlet {
 	 fi.setId(fid);
 	 fi.setOrganization(org);
 	 signonRequestMessageSet.getSignonRequest().setFinancialInstitution(fi);
-      AggregateMarshaller marshaller = new AggregateMarshaller();
+      AggregateMarshaller marshaller = createMarshaller();
       OFXWriter writer = createOFXWriter(response.getOutputStream());
-      marshaller.marshal(getServer().getResponse(requestEnvelope), writer);
+      if (getServer() instanceof StreamingOFXServer) {
+        StreamedChildAggregates streams = new StreamedChildAggregates();
+        ResponseEnvelope responseEnvelope = ((StreamingOFXServer) getServer()).getResponse(requestEnvelope, streams);
+        marshaller.marshal(responseEnvelope, writer, streams);
+      }
+      else {
+        marshaller.marshal(getServer().getResponse(requestEnvelope), writer);
+      }
       writer.close();
     }
     catch (OFXRequestException e) {
@@ -98,7 +109,18 @@ public class OFXServlet extends HttpServlet {
    * @return The writer.
    */
   protected OFXWriter createOFXWriter(OutputStream out) {
-    return isOFXVersion2() ? new OFXV2Writer(out) : new OFXV1Writer(out);
+    return isOFXVersion2() ? new OFXV2ByteWriter(out) : new OFXV1ByteWriter(out);
+  }
+
+  /**
+   * Create the aggregate marshaller, splicing in the aggregates registered with the {@link #getFragmentCache() fragment cache}.
+   *
+   * @return The aggregate marshaller.
+   */
+  protected AggregateMarshaller createMarshaller() {
+    AggregateMarshaller marshaller = new AggregateMarshaller();
+    marshaller.setFragmentCache(getFragmentCache());
+    return marshaller;
   }
 
   /**
@@ -138,6 +160,16 @@ public class OFXServlet extends HttpServlet {
     return server;
   }
 
+  /**
+   * The cache of pre-rendered aggregates that are sent in every response (e.g. the profile or security list of the
+   * server). Aggregates registered here are rendered once and must be invalidated explicitly when they change.
+   *
+   * @return The cache of pre-rendered aggregates.
+   */
+  public AggregateFragmentCache getFragmentCache() {
+    return fragmentCache;
+  }
+
   /**
    * Whether this servlet is OFX version 2.
    *
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.server;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.StreamedChildAggregates;
+
+/**
+ * An OFX server that can stream the entries of large collections (e.g. the transactions of a statement) instead of
+ * loading them into the response. The entries are pulled while the response is being written.
+ *
+ * @author Ryan Heaton
+ */
+public interface StreamingOFXServer extends OFXServer {
+
+  /**
+   * Get a response for the given request, registering the streamed collections of the response.
+   *
+   * @param request The request.
+   * @param streams The registry of the streamed collections of the response.
+   * @return The response.
+   */
+  ResponseEnvelope getResponse(RequestEnvelope request, StreamedChildAggregates streams);
+}
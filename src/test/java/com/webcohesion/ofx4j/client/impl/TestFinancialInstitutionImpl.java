@@ -0,0 +1,672 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.impl;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.OFXStatusException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.AccountStatementResult;
+import com.webcohesion.ofx4j.client.DefaultStatementListener;
+import com.webcohesion.ofx4j.client.FinancialInstitutionAccount;
+import com.webcohesion.ofx4j.client.FinancialInstitutionProfile;
+import com.webcohesion.ofx4j.client.InvestmentAccount;
+import com.webcohesion.ofx4j.client.StreamingAccount;
+import com.webcohesion.ofx4j.client.net.AsyncOFXConnection;
+import com.webcohesion.ofx4j.client.net.OFXCallback;
+import com.webcohesion.ofx4j.client.net.OFXConnection;
+import com.webcohesion.ofx4j.client.net.OFXConnectionException;
+import com.webcohesion.ofx4j.client.net.OFXFuture;
+import com.webcohesion.ofx4j.client.net.ResilientOFXConnection;
+import com.webcohesion.ofx4j.client.net.StreamingOFXConnection;
+import com.webcohesion.ofx4j.client.net.ThrottlingOFXConnection;
+import com.webcohesion.ofx4j.domain.data.ApplicationSecurity;
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.banking.AccountType;
+import com.webcohesion.ofx4j.domain.data.banking.BankAccountDetails;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementResponse;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementResponseTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankingRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.banking.BankingResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.common.BalanceInfo;
+import com.webcohesion.ofx4j.domain.data.common.Status;
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionList;
+import com.webcohesion.ofx4j.domain.data.common.TransactionType;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardAccountDetails;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardStatementResponse;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardStatementResponseTransaction;
+import com.webcohesion.ofx4j.domain.data.profile.AbstractMessageSetInfo;
+import com.webcohesion.ofx4j.domain.data.profile.CoreMessageSetInfo;
+import com.webcohesion.ofx4j.domain.data.profile.MessageSetInfoList;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileResponse;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileResponseTransaction;
+import com.webcohesion.ofx4j.domain.data.profile.info.BankingMessageSetInfo;
+import com.webcohesion.ofx4j.domain.data.profile.info.BankingV1MessageSetInfo;
+import com.webcohesion.ofx4j.domain.data.investment.accounts.InvestmentAccountDetails;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityList;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityListRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityListResponse;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityListResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityListResponseTransaction;
+import com.webcohesion.ofx4j.domain.data.seclist.SecurityRequest;
+import com.webcohesion.ofx4j.domain.data.signon.SignonRequest;
+import com.webcohesion.ofx4j.domain.data.signon.SignonRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.signon.SignonResponse;
+import com.webcohesion.ofx4j.domain.data.signon.SignonResponseMessageSet;
+import com.webcohesion.ofx4j.io.AggregateListener;
+import com.webcohesion.ofx4j.io.AggregateMarshaller;
+import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
+import com.webcohesion.ofx4j.io.OFXParseException;
+import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestFinancialInstitutionImpl extends TestCase {
+
+  /**
+   * tests batching the statement requests of several accounts in a single request.
+   */
+  public void testReadStatements() throws Exception {
+    BatchConnection connection = new BatchConnection();
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+    FinancialInstitutionAccount checking = institution.loadBankAccount(newBankAccount("1111"), "user", "pass");
+    FinancialInstitutionAccount savings = institution.loadBankAccount(newBankAccount("missing"), "user", "pass");
+    FinancialInstitutionAccount card = institution.loadCreditCardAccount(newCreditCardAccount("3333"), "user", "pass");
+    FinancialInstitutionAccount otherUser = institution.loadBankAccount(newBankAccount("4444"), "other", "pass");
+
+    Map<FinancialInstitutionAccount, AccountStatementResult> results = institution.readStatements(Arrays.asList(checking, savings, card, otherUser), new Date(0), new Date(), null);
+    assertEquals(Arrays.asList(checking, savings, card, otherUser), new ArrayList<FinancialInstitutionAccount>(results.keySet()));
+    assertTrue(results.get(checking).getStatement() instanceof BankStatementResponse);
+    assertFalse(results.get(savings).isSuccessful());
+    assertTrue(results.get(savings).getError() instanceof OFXStatusException);
+    assertTrue(results.get(card).getStatement() instanceof CreditCardStatementResponse);
+    assertTrue(results.get(otherUser).isSuccessful());
+
+    //one request per user.
+    assertEquals(2, connection.requests.size());
+    RequestEnvelope batched = connection.requests.get(0);
+    assertEquals(2, ((BankingRequestMessageSet) batched.getMessageSets().toArray()[1]).getStatementRequests().size());
+
+    //the batch survives a round trip.
+    StringWriter out = new StringWriter();
+    OFXV2Writer writer = new OFXV2Writer(out);
+    new AggregateMarshaller().marshal(batched, writer);
+    writer.close();
+    RequestEnvelope unmarshalled = new AggregateUnmarshaller<RequestEnvelope>(RequestEnvelope.class).unmarshal(new StringReader(out.toString()));
+    assertEquals(3, unmarshalled.getMessageSets().size());
+    for (RequestMessageSet messageSet : unmarshalled.getMessageSets()) {
+      if (messageSet instanceof BankingRequestMessageSet) {
+        assertEquals(2, messageSet.getRequestMessages().size());
+      }
+    }
+
+    connection.requests.clear();
+    institution.setMaxStatementsPerRequest(1);
+    results = institution.readStatements(Arrays.asList(checking, card), new Date(0), new Date(), null);
+    assertEquals(2, connection.requests.size());
+    assertTrue(results.get(checking).isSuccessful());
+    assertTrue(results.get(card).isSuccessful());
+  }
+
+  /**
+   * tests that a cached profile is revalidated with its DTPROFUP and invalidated when the signon says it changed.
+   */
+  public void testProfileCache() throws Exception {
+    BatchConnection connection = new BatchConnection();
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+    institution.setProfileCache(new InMemoryProfileCache());
+
+    FinancialInstitutionProfile profile = institution.readProfile();
+    assertEquals(new Date(0), connection.lastUpdatedSent);
+    assertEquals("Bank 1", profile.getFinancialInstitutionName());
+
+    //up to date: the cached profile is reused.
+    assertSame(profile, institution.readProfile());
+    assertEquals(connection.lastUpdated, connection.lastUpdatedSent);
+
+    //a statement response says the profile changed.
+    connection.lastUpdated = new Date(connection.lastUpdated.getTime() + 1000);
+    institution.readStatements(Arrays.asList(institution.loadBankAccount(newBankAccount("1111"), "user", "pass")), new Date(0), new Date(), null);
+    assertNull(institution.getProfileCache().getProfile(institution.getProfileCacheKey()));
+    profile = institution.readProfile();
+    assertEquals(new Date(0), connection.lastUpdatedSent);
+    assertEquals("Bank 2", profile.getFinancialInstitutionName());
+    assertSame(profile, institution.readProfile());
+  }
+
+  /**
+   * tests that the file profile cache persists the profiles.
+   */
+  public void testFileProfileCache() throws Exception {
+    File directory = File.createTempFile("ofx4j", "profiles");
+    directory.delete();
+    try {
+      BatchConnection connection = new BatchConnection();
+      FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+      institution.setProfileCache(new FileProfileCache(directory));
+      institution.readProfile();
+
+      //a new cache reads the persisted profile.
+      institution.setProfileCache(new FileProfileCache(directory));
+      FinancialInstitutionProfile profile = institution.readProfile();
+      assertEquals(connection.lastUpdated, connection.lastUpdatedSent);
+      assertEquals("Bank 1", profile.getFinancialInstitutionName());
+      assertEquals(connection.lastUpdated, profile.getLastUpdated());
+      BankingMessageSetInfo banking = (BankingMessageSetInfo) ((ProfileResponse) profile).getMessageSetList().getInformationList().get(0);
+      assertEquals("https://ofx.example.com/bank", banking.getVersion1Info().getUrl());
+
+      institution.getProfileCache().invalidate(institution.getProfileCacheKey());
+      assertNull(new FileProfileCache(directory).getProfile(institution.getProfileCacheKey()));
+    }
+    finally {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  /**
+   * tests that cancelling an asynchronous request cancels the request of the connection.
+   */
+  public void testAsyncCancellation() throws Exception {
+    final List<OFXFuture<ResponseEnvelope>> sent = new ArrayList<OFXFuture<ResponseEnvelope>>();
+    AsyncOFXConnection connection = new AsyncOFXConnection() {
+      public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+        OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+        sent.add(future);
+        return future;
+      }
+
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        throw new UnsupportedOperationException();
+      }
+    };
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+
+    Future<FinancialInstitutionProfile> profile = institution.readProfileAsync(null);
+    assertEquals(1, sent.size());
+    assertFalse(sent.get(0).isCancelled());
+    assertTrue(profile.cancel(true));
+    assertTrue(sent.get(0).isCancelled());
+  }
+
+  /**
+   * tests that asynchronous and streaming requests go through the throttling and resilient connections without
+   * blocking and without losing the streaming.
+   */
+  public void testDecorators() throws Exception {
+    final BatchConnection batch = new BatchConnection();
+    final List<Object[]> sent = new ArrayList<Object[]>();
+    AsyncOFXConnection async = new AsyncOFXConnection() {
+      public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+        OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+        sent.add(new Object[]{request, future});
+        return future;
+      }
+
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        throw new UnsupportedOperationException();
+      }
+    };
+    ResilientOFXConnection resilient = new ResilientOFXConnection(async);
+    ThrottlingOFXConnection throttling = new ThrottlingOFXConnection(resilient);
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), throttling);
+    assertNull(institution.getExecutor());
+
+    Future<FinancialInstitutionProfile> profile = institution.readProfileAsync(null);
+    assertFalse(profile.isDone());
+    assertEquals(1, sent.size());
+    ((OFXFuture<ResponseEnvelope>) sent.get(0)[1]).complete(batch.sendRequest((RequestEnvelope) sent.get(0)[0], null));
+    assertEquals("Bank 1", profile.get(5, TimeUnit.SECONDS).getFinancialInstitutionName());
+
+    //the statement is streamed through both connections.
+    StreamingConnection streaming = new StreamingConnection();
+    institution = new FinancialInstitutionImpl(newData(), new ThrottlingOFXConnection(new ResilientOFXConnection(streaming)));
+    RecordingListener listener = new RecordingListener();
+    ((StreamingAccount) institution.loadBankAccount(newBankAccount("1111"), "user", "pass")).readStatement(new Date(0), new Date(), listener);
+    assertEquals(Arrays.asList("header:USD", "transaction:1", "transaction:2", "transaction:3", "balances:0"), listener.events);
+    throttling.shutdown();
+    resilient.shutdown();
+  }
+
+  /**
+   * tests that concurrent profile requests to the same institution share a single call.
+   */
+  public void testCoalescing() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final BatchConnection connection = new BatchConnection();
+    OFXConnection blocking = new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        return connection.sendRequest(request, url);
+      }
+    };
+    RequestCoalescer coalescer = new RequestCoalescer();
+    final List<FinancialInstitutionProfile> profiles = Collections.synchronizedList(new ArrayList<FinancialInstitutionProfile>());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      final FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), blocking);
+      institution.setRequestCoalescer(coalescer);
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            profiles.add(institution.readProfile());
+          }
+          catch (OFXException e) {
+            fail();
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    Thread.sleep(200);
+    assertEquals(1, coalescer.getInFlightCount());
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, connection.requests.size());
+    assertEquals(8, profiles.size());
+    for (FinancialInstitutionProfile profile : profiles) {
+      assertSame(profiles.get(0), profile);
+    }
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  /**
+   * tests that concurrent security list requests are only coalesced for the same user, so that the signon failure of a
+   * user isn't shared with the others.
+   */
+  public void testCoalescingPerUser() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final List<RequestEnvelope> requests = Collections.synchronizedList(new ArrayList<RequestEnvelope>());
+    OFXConnection connection = new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        requests.add(request);
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        return newSecurityListResponse(request);
+      }
+    };
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+    InvestmentAccountDetails details = new InvestmentAccountDetails();
+    details.setBrokerId("broker");
+    details.setAccountNumber("1234");
+    final List<SecurityRequest> securities = new ArrayList<SecurityRequest>();
+    SecurityRequest security = new SecurityRequest();
+    security.setTickerSymbol("ACME");
+    securities.add(security);
+
+    final List<Object> results = Collections.synchronizedList(new ArrayList<Object>());
+    List<Thread> threads = new ArrayList<Thread>();
+    for (String password : new String[] {"good", "good", "bad"}) {
+      final InvestmentAccount account = institution.loadInvestmentAccount(details, "user-" + password, password);
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            results.add(account.readSecurityList(securities));
+          }
+          catch (OFXException e) {
+            results.add(e);
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+
+    Thread.sleep(200);
+    assertEquals(2, institution.getRequestCoalescer().getInFlightCount());
+    release.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(2, requests.size());
+    assertEquals(3, results.size());
+    int lists = 0;
+    int failures = 0;
+    for (Object result : results) {
+      if (result instanceof SecurityList) {
+        lists++;
+      }
+      else {
+        assertTrue(result instanceof OFXStatusException);
+        assertEquals(Status.KnownCode.SIGNON_INVALID, ((OFXStatusException) result).getStatus().getCode());
+        failures++;
+      }
+    }
+    assertEquals(2, lists);
+    assertEquals(1, failures);
+  }
+
+  private static ResponseEnvelope newSecurityListResponse(RequestEnvelope request) {
+    SignonRequest signonRequest = null;
+    SecurityListRequestMessageSet securityListRequest = null;
+    for (RequestMessageSet requestSet : request.getMessageSets()) {
+      if (requestSet instanceof SignonRequestMessageSet) {
+        signonRequest = ((SignonRequestMessageSet) requestSet).getSignonRequest();
+      }
+      else if (requestSet instanceof SecurityListRequestMessageSet) {
+        securityListRequest = (SecurityListRequestMessageSet) requestSet;
+      }
+    }
+
+    SignonResponse signonResponse = new SignonResponse();
+    signonResponse.setStatus(newStatus("bad".equals(signonRequest.getPassword()) ? Status.KnownCode.SIGNON_INVALID : Status.KnownCode.SUCCESS));
+    signonResponse.setTimestamp(new Date());
+    signonResponse.setLanguage("ENG");
+    SignonResponseMessageSet signonSet = new SignonResponseMessageSet();
+    signonSet.setSignonResponse(signonResponse);
+
+    SecurityListResponseTransaction transaction = new SecurityListResponseTransaction();
+    transaction.setUID(securityListRequest.getSecurityListRequest().getUID());
+    transaction.setStatus(newStatus(Status.KnownCode.SUCCESS));
+    transaction.setMessage(new SecurityListResponse());
+    SecurityListResponseMessageSet securityListSet = new SecurityListResponseMessageSet();
+    securityListSet.setSecurityListResponse(transaction);
+    securityListSet.setSecurityList(new SecurityList());
+
+    TreeSet<ResponseMessageSet> messageSets = new TreeSet<ResponseMessageSet>();
+    messageSets.add(signonSet);
+    messageSets.add(securityListSet);
+    ResponseEnvelope response = new ResponseEnvelope();
+    response.setUID(request.getUID());
+    response.setSecurity(ApplicationSecurity.NONE);
+    response.setMessageSets(messageSets);
+    return response;
+  }
+
+  /**
+   * tests streaming a statement off the response, with the validation done before the events are delivered.
+   */
+  public void testStreamStatement() throws Exception {
+    StreamingConnection connection = new StreamingConnection();
+    FinancialInstitutionImpl institution = new FinancialInstitutionImpl(newData(), connection);
+    RecordingListener listener = new RecordingListener();
+    ((StreamingAccount) institution.loadBankAccount(newBankAccount("1111"), "user", "pass")).readStatement(new Date(0), new Date(), listener);
+    assertEquals(Arrays.asList("header:USD", "transaction:1", "transaction:2", "transaction:3", "balances:0"), listener.events);
+
+    //the streamed transactions aren't kept in the response.
+    assertEquals(0, connection.parsed.getTransactionList().getTransactions() == null ? 0 : connection.parsed.getTransactionList().getTransactions().size());
+
+    //the statement transaction is validated before anything is delivered.
+    listener = new RecordingListener();
+    try {
+      ((StreamingAccount) institution.loadBankAccount(newBankAccount("missing"), "user", "pass")).readStatement(new Date(0), new Date(), listener);
+      fail();
+    }
+    catch (OFXStatusException e) {
+      assertTrue(listener.events.isEmpty());
+    }
+
+    //without a streaming connection, the statement is replayed.
+    institution = new FinancialInstitutionImpl(newData(), connection.delegate);
+    listener = new RecordingListener();
+    ((StreamingAccount) institution.loadBankAccount(newBankAccount("1111"), "user", "pass")).readStatement(new Date(0), new Date(), listener);
+    assertEquals(Arrays.asList("header:USD", "transaction:1", "transaction:2", "transaction:3", "balances:3"), listener.events);
+  }
+
+  private static BaseFinancialInstitutionData newData() throws Exception {
+    BaseFinancialInstitutionData data = new BaseFinancialInstitutionData("fi");
+    data.setFinancialInstitutionId("1234");
+    data.setOrganization("ORG");
+    data.setOFXURL(new URL("https://ofx.example.com/"));
+    return data;
+  }
+
+  private static BankAccountDetails newBankAccount(String number) {
+    BankAccountDetails details = new BankAccountDetails();
+    details.setAccountNumber(number);
+    details.setBankId("123456789");
+    details.setAccountType(AccountType.CHECKING);
+    return details;
+  }
+
+  private static CreditCardAccountDetails newCreditCardAccount(String number) {
+    CreditCardAccountDetails details = new CreditCardAccountDetails();
+    details.setAccountNumber(number);
+    return details;
+  }
+
+  private static Status newStatus(Status.KnownCode code) {
+    Status status = new Status();
+    status.setCode(code);
+    return status;
+  }
+
+  private static BankStatementResponse newBankStatement() {
+    List<Transaction> transactions = new ArrayList<Transaction>();
+    for (int i = 1; i <= 3; i++) {
+      Transaction transaction = new Transaction();
+      transaction.setTransactionType(TransactionType.DEBIT);
+      transaction.setDatePosted(new Date());
+      transaction.setAmount(-1.0 * i);
+      transaction.setId(String.valueOf(i));
+      transactions.add(transaction);
+    }
+    TransactionList transactionList = new TransactionList();
+    transactionList.setStart(new Date(0));
+    transactionList.setEnd(new Date());
+    transactionList.setTransactions(transactions);
+    BalanceInfo balance = new BalanceInfo();
+    balance.setAmount(100.0);
+    balance.setAsOfDate(new Date());
+    BankStatementResponse statement = new BankStatementResponse();
+    statement.setCurrencyCode("USD");
+    statement.setAccount(newBankAccount("1111"));
+    statement.setTransactionList(transactionList);
+    statement.setLedgerBalance(balance);
+    return statement;
+  }
+
+  private static ProfileResponse newProfile(String name, Date lastUpdated) {
+    CoreMessageSetInfo core = new CoreMessageSetInfo();
+    core.setVersion("1");
+    core.setUrl("https://ofx.example.com/bank");
+    BankingV1MessageSetInfo bankingV1 = new BankingV1MessageSetInfo();
+    bankingV1.setCore(core);
+    BankingMessageSetInfo banking = new BankingMessageSetInfo();
+    banking.setVersion1Info(bankingV1);
+    MessageSetInfoList messageSetList = new MessageSetInfoList();
+    messageSetList.setInformationList(new ArrayList<AbstractMessageSetInfo>(Arrays.asList(banking)));
+    ProfileResponse profile = new ProfileResponse();
+    profile.setFinancialInstitutionName(name);
+    profile.setTimestamp(lastUpdated);
+    profile.setMessageSetList(messageSetList);
+    return profile;
+  }
+
+  /**
+   * Streaming connection that writes the response of a batch connection and parses it back.
+   */
+  private static class StreamingConnection implements StreamingOFXConnection {
+
+    private final BatchConnection delegate = new BatchConnection();
+    private BankStatementResponse parsed;
+
+    public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+      return sendRequest(request, url, null);
+    }
+
+    public ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+      try {
+        StringWriter out = new StringWriter();
+        OFXV2Writer writer = new OFXV2Writer(out);
+        new AggregateMarshaller().marshal(this.delegate.sendRequest(request, url), writer);
+        writer.close();
+        ResponseEnvelope response = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class).unmarshal(new ByteArrayInputStream(out.toString().getBytes("utf-8")), null, listener);
+        BankingResponseMessageSet bankingSet = (BankingResponseMessageSet) response.getMessageSet(MessageSetType.banking);
+        this.parsed = bankingSet == null ? null : bankingSet.getStatementResponse().getMessage();
+        return response;
+      }
+      catch (IOException e) {
+        throw new OFXConnectionException(e);
+      }
+      catch (OFXParseException e) {
+        throw new OFXConnectionException(e);
+      }
+    }
+  }
+
+  /**
+   * Records the events of a statement.
+   */
+  private static class RecordingListener extends DefaultStatementListener {
+
+    private final List<String> events = new ArrayList<String>();
+
+    @Override
+    public void onHeader(AccountStatement statement) {
+      this.events.add("header:" + statement.getCurrencyCode());
+    }
+
+    @Override
+    public void onTransaction(Transaction transaction) {
+      this.events.add("transaction:" + transaction.getId());
+    }
+
+    @Override
+    public void onBalances(AccountStatement statement) {
+      assertNotNull(statement.getLedgerBalance());
+      List<Transaction> transactions = statement.getTransactionList() == null ? null : statement.getTransactionList().getTransactions();
+      this.events.add("balances:" + (transactions == null ? 0 : transactions.size()));
+    }
+  }
+
+  /**
+   * Connection that answers each statement transaction of a request, failing the accounts numbered "missing", and
+   * profile requests (with "up to date" if the client sends the current DTPROFUP).
+   */
+  private static class BatchConnection implements OFXConnection {
+
+    private final List<RequestEnvelope> requests = new ArrayList<RequestEnvelope>();
+    Date lastUpdated = new Date(1000000000000L);
+    Date lastUpdatedSent;
+    private int profileVersion = 0;
+
+    public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+      this.requests.add(request);
+      ResponseEnvelope response = new ResponseEnvelope();
+      response.setUID(request.getUID());
+      response.setSecurity(ApplicationSecurity.NONE);
+      TreeSet<ResponseMessageSet> messageSets = new TreeSet<ResponseMessageSet>();
+      SignonResponse signonResponse = new SignonResponse();
+      signonResponse.setStatus(newStatus(Status.KnownCode.SUCCESS));
+      signonResponse.setProfileLastUpdated(this.lastUpdated);
+      signonResponse.setTimestamp(new Date());
+      signonResponse.setLanguage("ENG");
+      SignonResponseMessageSet signonSet = new SignonResponseMessageSet();
+      signonSet.setSignonResponse(signonResponse);
+      messageSets.add(signonSet);
+
+      for (RequestMessageSet requestSet : request.getMessageSets()) {
+        if (requestSet instanceof BankingRequestMessageSet) {
+          List<BankStatementResponseTransaction> transactions = new ArrayList<BankStatementResponseTransaction>();
+          for (BankStatementRequestTransaction requestTransaction : ((BankingRequestMessageSet) requestSet).getStatementRequests()) {
+            BankStatementResponseTransaction transaction = new BankStatementResponseTransaction();
+            transaction.setUID(requestTransaction.getUID());
+            boolean missing = "missing".equals(requestTransaction.getMessage().getAccount().getAccountNumber());
+            transaction.setStatus(newStatus(missing ? Status.KnownCode.ACCOUNT_NOT_FOUND : Status.KnownCode.SUCCESS));
+            transaction.setMessage(newBankStatement());
+            transactions.add(transaction);
+          }
+          BankingResponseMessageSet bankingSet = new BankingResponseMessageSet();
+          bankingSet.setStatementResponses(transactions);
+          messageSets.add(bankingSet);
+        }
+        else if (requestSet instanceof CreditCardRequestMessageSet) {
+          List<CreditCardStatementResponseTransaction> transactions = new ArrayList<CreditCardStatementResponseTransaction>();
+          for (CreditCardStatementRequestTransaction requestTransaction : ((CreditCardRequestMessageSet) requestSet).getStatementRequests()) {
+            CreditCardStatementResponseTransaction transaction = new CreditCardStatementResponseTransaction();
+            transaction.setUID(requestTransaction.getUID());
+            transaction.setStatus(newStatus(Status.KnownCode.SUCCESS));
+            transaction.setMessage(new CreditCardStatementResponse());
+            transactions.add(transaction);
+          }
+          CreditCardResponseMessageSet creditCardSet = new CreditCardResponseMessageSet();
+          creditCardSet.setStatementResponses(transactions);
+          messageSets.add(creditCardSet);
+        }
+        else if (requestSet instanceof ProfileRequestMessageSet) {
+          ProfileRequestMessageSet profileRequest = (ProfileRequestMessageSet) requestSet;
+          this.lastUpdatedSent = profileRequest.getProfileRequest().getMessage().getProfileLastUpdated();
+          ProfileResponseTransaction transaction = new ProfileResponseTransaction();
+          transaction.setUID(profileRequest.getProfileRequest().getUID());
+          if (this.lastUpdated.equals(this.lastUpdatedSent)) {
+            transaction.setStatus(newStatus(Status.KnownCode.CLIENT_UP_TO_DATE));
+          }
+          else {
+            transaction.setStatus(newStatus(Status.KnownCode.SUCCESS));
+            transaction.setMessage(newProfile("Bank " + (++this.profileVersion), this.lastUpdated));
+          }
+          ProfileResponseMessageSet profileSet = new ProfileResponseMessageSet();
+          profileSet.setProfileResponse(transaction);
+          messageSets.add(profileSet);
+        }
+      }
+
+      response.setMessageSets(messageSets);
+      return response;
+    }
+  }
+}
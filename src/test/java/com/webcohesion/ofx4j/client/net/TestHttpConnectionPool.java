@@ -0,0 +1,514 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import junit.framework.TestCase;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests (and benchmarks) the pooled transport against a local HTTPS stand-in for an OFX server.
+ *
+ * @author Ryan Heaton
+ */
+public class TestHttpConnectionPool extends TestCase {
+
+  private static final Log LOG = LogFactory.getLog(TestHttpConnectionPool.class);
+
+  private StandInServer server;
+  private HttpConnectionPool pool;
+
+  @Override
+  protected void setUp() throws Exception {
+    this.server = new StandInServer();
+    this.pool = new HttpConnectionPool();
+    this.pool.setSslSocketFactory(newSSLContext(false).getSocketFactory());
+  }
+
+  @Override
+  protected void tearDown() throws Exception {
+    this.pool.shutdown();
+    this.server.close();
+  }
+
+  /**
+   * tests that requests to the same host reuse a single connection.
+   */
+  public void testKeepAlive() throws Exception {
+    OFXV1Connection connection = newConnection();
+    for (int i = 0; i < 10; i++) {
+      ResponseEnvelope response = connection.sendRequest(new RequestEnvelope("uid-" + i), this.server.getURL());
+      assertEquals("01234", response.getSignonResponse().getFinancialInstitution().getId());
+    }
+    assertEquals(1, this.pool.getConnectionsOpened());
+    assertEquals(1, this.server.accepted.get());
+    assertEquals(10, this.server.requests.get());
+    assertEquals(1, this.pool.getIdleConnectionCount());
+
+    this.pool.setMaxIdleTime(0);
+    Thread.sleep(5);
+    this.pool.evictIdleConnections();
+    assertEquals(0, this.pool.getIdleConnectionCount());
+  }
+
+  /**
+   * tests chunked responses and requests streamed in two passes.
+   */
+  public void testChunkedResponse() throws Exception {
+    this.server.chunked = true;
+    OFXV1Connection connection = newConnection();
+    connection.setTwoPassMarshal(true);
+    for (int i = 0; i < 3; i++) {
+      ResponseEnvelope response = connection.sendRequest(new RequestEnvelope("uid-" + i), this.server.getURL());
+      assertEquals("01234", response.getSignonResponse().getFinancialInstitution().getId());
+    }
+    assertEquals(1, this.pool.getConnectionsOpened());
+  }
+
+  /**
+   * tests that an idle connection the server has closed is replaced by a new connection.
+   */
+  public void testStaleConnectionReplaced() throws Exception {
+    this.server.closeAfterResponse = true;
+    OFXV1Connection connection = newConnection();
+    connection.sendRequest(new RequestEnvelope("uid-1"), this.server.getURL());
+    Thread.sleep(100);
+    connection.sendRequest(new RequestEnvelope("uid-2"), this.server.getURL());
+    assertEquals(2, this.pool.getConnectionsOpened());
+    assertEquals(2, this.server.requests.get());
+  }
+
+  /**
+   * tests that a request isn't retried once it has been flushed to a reused connection.
+   */
+  public void testFlushedRequestNotRetried() throws Exception {
+    OFXV1Connection connection = newConnection();
+    connection.sendRequest(new RequestEnvelope("uid-1"), this.server.getURL());
+    this.server.dropRequests = true;
+    try {
+      connection.sendRequest(new RequestEnvelope("uid-2"), this.server.getURL());
+      fail();
+    }
+    catch (OFXConnectionException e) {
+      //fall through.
+    }
+    assertEquals(1, this.pool.getConnectionsOpened());
+    assertEquals(2, this.server.requests.get());
+  }
+
+  /**
+   * tests that requests that are to go through a proxy aren't sent over the pool.
+   */
+  public void testProxiedRequestNotPooled() throws Exception {
+    URL url = this.server.getURL();
+    assertTrue(this.pool.isDirect(url));
+
+    ProxySelector defaultSelector = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList(new Proxy(Proxy.Type.HTTP, new InetSocketAddress("localhost", 3128)));
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress sa, IOException ioe) {
+      }
+    });
+    try {
+      assertFalse(this.pool.isDirect(url));
+      OFXV1Connection connection = newURLConnection();
+      connection.setConnectionPool(this.pool);
+      connection.sendRequest(new RequestEnvelope("uid"), url);
+    }
+    finally {
+      ProxySelector.setDefault(defaultSelector);
+    }
+    assertEquals(0, this.pool.getConnectionsOpened());
+    assertEquals(1, this.server.requests.get());
+  }
+
+  /**
+   * tests that error responses are reported and don't leak their connection.
+   */
+  public void testErrorResponse() throws Exception {
+    this.server.status = "404 Not Found";
+    this.pool.setMaxConnectionsPerHost(1);
+    this.pool.setConnectionRequestTimeout(1000);
+    OFXV1Connection connection = newConnection();
+    for (int i = 0; i < 2; i++) {
+      try {
+        connection.sendRequest(new RequestEnvelope("uid"), this.server.getURL());
+        fail();
+      }
+      catch (OFXServerException e) {
+        assertEquals(404, e.getHttpCode());
+      }
+    }
+    assertEquals(1, this.pool.getConnectionsOpened());
+  }
+
+  /**
+   * tests fanning out asynchronous requests over a small I/O executor.
+   */
+  public void testAsyncRequests() throws Exception {
+    int requests = 40;
+    ExecutorService ioExecutor = Executors.newFixedThreadPool(4);
+    ExecutorService parseExecutor = Executors.newFixedThreadPool(2);
+    try {
+      OFXV1Connection connection = newConnection();
+      connection.setIoExecutor(ioExecutor);
+      connection.setParseExecutor(parseExecutor);
+      final CountDownLatch callbacks = new CountDownLatch(requests);
+      final AtomicInteger failures = new AtomicInteger();
+      List<Future<ResponseEnvelope>> responses = new ArrayList<Future<ResponseEnvelope>>();
+      for (int i = 0; i < requests; i++) {
+        responses.add(connection.sendRequestAsync(new RequestEnvelope("uid-" + i), this.server.getURL(), new OFXCallback<ResponseEnvelope>() {
+          public void completed(ResponseEnvelope result) {
+            callbacks.countDown();
+          }
+
+          public void failed(Throwable error) {
+            failures.incrementAndGet();
+            callbacks.countDown();
+          }
+        }));
+      }
+
+      for (Future<ResponseEnvelope> response : responses) {
+        assertEquals("01234", response.get(10, TimeUnit.SECONDS).getSignonResponse().getFinancialInstitution().getId());
+      }
+      assertTrue(callbacks.await(10, TimeUnit.SECONDS));
+      assertEquals(0, failures.get());
+      assertEquals(requests, this.server.requests.get());
+      assertTrue(this.pool.getConnectionsOpened() <= 4);
+
+      this.server.status = "500 Internal Server Error";
+      try {
+        connection.sendRequestAsync(new RequestEnvelope("uid"), this.server.getURL(), null).get(10, TimeUnit.SECONDS);
+        fail();
+      }
+      catch (ExecutionException e) {
+        assertEquals(500, ((OFXServerException) e.getCause()).getHttpCode());
+      }
+    }
+    finally {
+      ioExecutor.shutdown();
+      parseExecutor.shutdown();
+    }
+  }
+
+  /**
+   * tests that the buffer of a request is released when its I/O stage is cancelled or rejected, and that the default
+   * I/O executor is shut down with the connection.
+   */
+  public void testAsyncCancellation() throws Exception {
+    ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    final CountDownLatch blocked = new CountDownLatch(1);
+    OFXV1Connection connection = newConnection();
+    connection.setIoExecutor(ioExecutor);
+    ioExecutor.execute(new Runnable() {
+      public void run() {
+        try {
+          blocked.await();
+        }
+        catch (InterruptedException e) {
+          //fall through.
+        }
+      }
+    });
+
+    Future<ResponseEnvelope> response = connection.sendRequestAsync(new RequestEnvelope("uid"), this.server.getURL(), null);
+    assertEquals(0, connection.getBufferPool().size());
+    assertTrue(response.cancel(true));
+    blocked.countDown();
+    ioExecutor.shutdown();
+    assertTrue(ioExecutor.awaitTermination(10, TimeUnit.SECONDS));
+    assertEquals(1, connection.getBufferPool().size());
+    assertEquals(0, this.server.requests.get());
+
+    //rejected by the (shut down) executor.
+    try {
+      connection.sendRequestAsync(new RequestEnvelope("uid"), this.server.getURL(), null).get(10, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof OFXConnectionException);
+    }
+    assertEquals(1, connection.getBufferPool().size());
+
+    connection = newConnection();
+    assertNotNull(connection.sendRequestAsync(new RequestEnvelope("uid"), this.server.getURL(), null).get(10, TimeUnit.SECONDS));
+    connection.shutdown();
+    assertTrue(((ExecutorService) connection.getIoExecutor()).isShutdown());
+    try {
+      connection.sendRequestAsync(new RequestEnvelope("uid"), this.server.getURL(), null).get(10, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof OFXConnectionException);
+    }
+  }
+
+  /**
+   * benchmarks the pool against {@link java.net.HttpURLConnection} (which keeps connections alive, too) and against a
+   * new connection (and TLS handshake) per request.
+   */
+  public void testBenchmark() throws Exception {
+    int requests = 50;
+    OFXV1Connection connection = newConnection();
+    connection.sendRequest(new RequestEnvelope("warm-up"), this.server.getURL());
+
+    long start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      connection.sendRequest(new RequestEnvelope("uid-" + i), this.server.getURL());
+    }
+    long pooled = System.nanoTime() - start;
+    assertEquals(1, this.pool.getConnectionsOpened());
+
+    OFXV1Connection urlConnection = newURLConnection();
+    urlConnection.sendRequest(new RequestEnvelope("warm-up"), this.server.getURL());
+    start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      urlConnection.sendRequest(new RequestEnvelope("uid-" + i), this.server.getURL());
+    }
+    long perURLConnection = System.nanoTime() - start;
+
+    HttpConnectionPool unpooled = new HttpConnectionPool();
+    unpooled.setSslSocketFactory(this.pool.getSslSocketFactory());
+    unpooled.setKeepAlive(false);
+    connection.setConnectionPool(unpooled);
+    start = System.nanoTime();
+    for (int i = 0; i < requests; i++) {
+      connection.sendRequest(new RequestEnvelope("uid-" + i), this.server.getURL());
+    }
+    long perRequest = System.nanoTime() - start;
+    assertEquals(requests, unpooled.getConnectionsOpened());
+
+    LOG.info(String.format("%s requests: %sms with the pool, %sms with HttpURLConnection, %sms with a connection per request.", requests, pooled / 1000000, perURLConnection / 1000000, perRequest / 1000000));
+  }
+
+  private OFXV1Connection newConnection() {
+    OFXV1Connection connection = new OFXV1Connection();
+    connection.setConnectionPool(this.pool);
+    return connection;
+  }
+
+  /**
+   * A connection that opens an {@link java.net.HttpURLConnection} (that trusts the stand-in server) for each request.
+   */
+  private OFXV1Connection newURLConnection() {
+    final SSLSocketFactory sslSocketFactory = this.pool.getSslSocketFactory();
+    return new OFXV1Connection() {
+      @Override
+      protected HttpURLConnection openConnection(URL url) throws IOException {
+        HttpsURLConnection connection = (HttpsURLConnection) url.openConnection(Proxy.NO_PROXY);
+        connection.setSSLSocketFactory(sslSocketFactory);
+        return connection;
+      }
+    };
+  }
+
+  private static SSLContext newSSLContext(boolean server) throws Exception {
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    InputStream in = TestHttpConnectionPool.class.getResourceAsStream(server ? "localhost-keystore.jks" : "localhost-truststore.jks");
+    try {
+      keyStore.load(in, "changeit".toCharArray());
+    }
+    finally {
+      in.close();
+    }
+
+    SSLContext context = SSLContext.getInstance("TLS");
+    if (server) {
+      KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+      keyManagers.init(keyStore, "changeit".toCharArray());
+      context.init(keyManagers.getKeyManagers(), null, null);
+    }
+    else {
+      TrustManagerFactory trustManagers = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+      trustManagers.init(keyStore);
+      context.init(null, trustManagers.getTrustManagers(), null);
+    }
+    return context;
+  }
+
+  /**
+   * HTTPS stand-in for an OFX server that answers every request with the same response.
+   */
+  private static class StandInServer implements Runnable {
+
+    private final SSLServerSocket serverSocket;
+    private final byte[] response;
+    private final AtomicInteger accepted = new AtomicInteger();
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile boolean chunked = false;
+    private volatile boolean closeAfterResponse = false;
+    private volatile boolean dropRequests = false;
+    private volatile String status = "200 OK";
+
+    private StandInServer() throws Exception {
+      this.serverSocket = (SSLServerSocket) newSSLContext(true).getServerSocketFactory().createServerSocket(0);
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      InputStream in = TestHttpConnectionPool.class.getResourceAsStream("/com/webcohesion/ofx4j/io/multi-account-response.ofx");
+      byte[] buffer = new byte[4096];
+      int len;
+      while ((len = in.read(buffer)) >= 0) {
+        bytes.write(buffer, 0, len);
+      }
+      in.close();
+      this.response = bytes.toByteArray();
+
+      Thread thread = new Thread(this, "ofx-stand-in-server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    private URL getURL() throws Exception {
+      return new URL("https://localhost:" + this.serverSocket.getLocalPort() + "/ofx");
+    }
+
+    public void run() {
+      while (!this.serverSocket.isClosed()) {
+        try {
+          final Socket socket = this.serverSocket.accept();
+          this.accepted.incrementAndGet();
+          Thread handler = new Thread(new Runnable() {
+            public void run() {
+              handle(socket);
+            }
+          });
+          handler.setDaemon(true);
+          handler.start();
+        }
+        catch (IOException e) {
+          //closed.
+        }
+      }
+    }
+
+    private void handle(Socket socket) {
+      try {
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        while (true) {
+          String requestLine = readLine(in);
+          if (requestLine == null) {
+            break;
+          }
+
+          int contentLength = 0;
+          boolean close = false;
+          String line;
+          while ((line = readLine(in)) != null && line.length() > 0) {
+            String lower = line.toLowerCase();
+            if (lower.startsWith("content-length:")) {
+              contentLength = Integer.parseInt(line.substring(15).trim());
+            }
+            else if (lower.equals("connection: close")) {
+              close = true;
+            }
+          }
+          for (int i = 0; i < contentLength; i++) {
+            in.read();
+          }
+          this.requests.incrementAndGet();
+          if (this.dropRequests) {
+            break;
+          }
+
+          ByteArrayOutputStream reply = new ByteArrayOutputStream();
+          reply.write(("HTTP/1.1 " + this.status + "\r\nContent-Type: application/x-ofx\r\n").getBytes("ISO-8859-1"));
+          if (close) {
+            reply.write("Connection: close\r\n".getBytes("ISO-8859-1"));
+          }
+          if (this.chunked) {
+            reply.write("Transfer-Encoding: chunked\r\n\r\n".getBytes("ISO-8859-1"));
+            int half = this.response.length / 2;
+            reply.write((Integer.toHexString(half) + ";ext=1\r\n").getBytes("ISO-8859-1"));
+            reply.write(this.response, 0, half);
+            reply.write(("\r\n" + Integer.toHexString(this.response.length - half) + "\r\n").getBytes("ISO-8859-1"));
+            reply.write(this.response, half, this.response.length - half);
+            reply.write("\r\n0\r\n\r\n".getBytes("ISO-8859-1"));
+          }
+          else {
+            reply.write(("Content-Length: " + this.response.length + "\r\n\r\n").getBytes("ISO-8859-1"));
+            reply.write(this.response);
+          }
+          reply.writeTo(out);
+          out.flush();
+
+          if (close || this.closeAfterResponse) {
+            break;
+          }
+        }
+        socket.close();
+      }
+      catch (IOException e) {
+        //connection dropped.
+      }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+      StringBuilder line = new StringBuilder();
+      int ch;
+      while ((ch = in.read()) >= 0 && ch != '\n') {
+        if (ch != '\r') {
+          line.append((char) ch);
+        }
+      }
+      return ch < 0 && line.length() == 0 ? null : line.toString();
+    }
+
+    private void close() throws IOException {
+      this.serverSocket.close();
+    }
+  }
+}
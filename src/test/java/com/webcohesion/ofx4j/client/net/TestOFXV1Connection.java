@@ -0,0 +1,143 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateMarshaller;
+import com.webcohesion.ofx4j.io.OFXWriter;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestOFXV1Connection extends TestCase {
+
+  /**
+   * tests that a request marshalled in two passes is sent byte-for-byte like a buffered one, and that only the
+   * two-pass request is streamed (a buffered request can still be resent for authentication or redirects).
+   */
+  public void testTwoPassMarshal() throws Exception {
+    RecordingConnection buffered = new RecordingConnection();
+    ResponseEnvelope response = buffered.sendRequest(new RequestEnvelope("uid"), new URL("http://localhost/ofx"));
+    assertEquals("01234", response.getSignonResponse().getFinancialInstitution().getId());
+    assertEquals(-1, buffered.request.getFixedContentLength());
+    assertEquals(String.valueOf(buffered.request.body.size()), buffered.request.getRequestProperty("Content-Length"));
+
+    RecordingConnection twoPass = new RecordingConnection();
+    twoPass.setTwoPassMarshal(true);
+    response = twoPass.sendRequest(new RequestEnvelope("uid"), new URL("http://localhost/ofx"));
+    assertEquals("01234", response.getSignonResponse().getFinancialInstitution().getId());
+    assertEquals(twoPass.request.body.size(), twoPass.request.getFixedContentLength());
+
+    assertTrue(buffered.request.body.size() > 0);
+    assertTrue(Arrays.equals(buffered.request.body.toByteArray(), twoPass.request.body.toByteArray()));
+  }
+
+  /**
+   * tests that the request buffer is released when marshalling the request fails.
+   */
+  public void testBufferReleasedOnMarshalFailure() throws Exception {
+    RecordingConnection connection = new RecordingConnection();
+    connection.setMarshaller(new AggregateMarshaller() {
+      @Override
+      public void marshal(Object aggregate, OFXWriter writer) throws IOException {
+        writer.writeStartAggregate("OFX");
+        throw new IOException("marshalling failed");
+      }
+    });
+
+    for (int i = 0; i < 2; i++) {
+      try {
+        connection.sendRequest(new RequestEnvelope("uid"), new URL("http://localhost/ofx"));
+        fail();
+      }
+      catch (OFXConnectionException e) {
+        assertEquals("marshalling failed", e.getCause().getMessage());
+      }
+      assertEquals(1, connection.getBufferPool().size());
+    }
+    assertNull(connection.request);
+  }
+
+  /**
+   * Connection that sends its requests to a {@link RecordedRequest} instead of the network.
+   */
+  private static class RecordingConnection extends OFXV1Connection {
+
+    private RecordedRequest request;
+
+    @Override
+    protected HttpURLConnection openConnection(URL url) throws IOException {
+      this.request = new RecordedRequest(url);
+      return this.request;
+    }
+  }
+
+  /**
+   * HTTP connection that records the request and answers with a canned OFX response.
+   */
+  private static class RecordedRequest extends HttpURLConnection {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+    private RecordedRequest(URL url) {
+      super(url);
+    }
+
+    private int getFixedContentLength() {
+      return this.fixedContentLength;
+    }
+
+    @Override
+    public void connect() {
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return this.body;
+    }
+
+    @Override
+    public int getResponseCode() {
+      return HTTP_OK;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return TestOFXV1Connection.class.getResourceAsStream("/com/webcohesion/ofx4j/io/multi-account-response.ofx");
+    }
+
+    @Override
+    public void disconnect() {
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return false;
+    }
+  }
+
+}
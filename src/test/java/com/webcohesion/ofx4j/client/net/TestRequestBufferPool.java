@@ -0,0 +1,72 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import junit.framework.TestCase;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestRequestBufferPool extends TestCase {
+
+  /**
+   * tests that released buffers are reused (empty, with the capacity they've grown to).
+   */
+  public void testReuse() throws Exception {
+    RequestBufferPool pool = new RequestBufferPool();
+    pool.setInitialCapacity(16);
+    RequestBuffer buffer = pool.acquire();
+    assertEquals(16, buffer.capacity());
+    buffer.write(new byte[100]);
+    int capacity = buffer.capacity();
+    assertTrue(capacity >= 100);
+    pool.release(buffer);
+    assertEquals(1, pool.size());
+
+    RequestBuffer reused = pool.acquire();
+    assertSame(buffer, reused);
+    assertEquals(0, reused.size());
+    assertEquals(capacity, reused.capacity());
+    assertEquals(0, pool.size());
+    assertNotSame(reused, pool.acquire());
+  }
+
+  /**
+   * tests that buffers grown beyond the maximum retained capacity are dropped, and that the pool is bounded.
+   */
+  public void testCaps() throws Exception {
+    RequestBufferPool pool = new RequestBufferPool();
+    pool.setInitialCapacity(16);
+    pool.setMaxRetainedCapacity(64);
+    pool.setMaxPooled(2);
+
+    RequestBuffer huge = pool.acquire();
+    huge.write(new byte[65]);
+    pool.release(huge);
+    assertEquals(0, pool.size());
+    assertNotSame(huge, pool.acquire());
+
+    RequestBuffer first = pool.acquire();
+    RequestBuffer second = pool.acquire();
+    RequestBuffer third = pool.acquire();
+    pool.release(first);
+    pool.release(second);
+    pool.release(third);
+    assertEquals(2, pool.size());
+  }
+
+}
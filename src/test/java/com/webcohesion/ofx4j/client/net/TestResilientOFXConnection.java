@@ -0,0 +1,318 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestTransaction;
+import com.webcohesion.ofx4j.io.AggregateListener;
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestResilientOFXConnection extends TestCase {
+
+  /**
+   * tests that transient failures are retried with the same request UIDs.
+   */
+  public void testRetry() throws Exception {
+    final List<String> uids = new ArrayList<String>();
+    ResilientOFXConnection connection = new ResilientOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        ProfileRequestMessageSet messageSet = (ProfileRequestMessageSet) request.getMessageSets().first();
+        uids.add(request.getUID() + "/" + messageSet.getProfileRequest().getUID());
+        if (uids.size() < 3) {
+          throw new OFXServerException("Service Unavailable", 503);
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    connection.setInitialBackoff(5);
+
+    RequestEnvelope request = newProfileRequest();
+    assertNotNull(connection.sendRequest(request, new URL("https://ofx.example.com/ofx")));
+    assertEquals(3, uids.size());
+    assertEquals(uids.get(0), uids.get(1));
+    assertEquals(uids.get(0), uids.get(2));
+  }
+
+  /**
+   * tests that a failure that isn't transient isn't retried.
+   */
+  public void testNoRetry() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    ResilientOFXConnection connection = new ResilientOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        attempts.incrementAndGet();
+        throw new OFXServerException("Bad Request", 400);
+      }
+    });
+    connection.setInitialBackoff(5);
+
+    try {
+      connection.sendRequest(newProfileRequest(), new URL("https://ofx.example.com/ofx"));
+      fail();
+    }
+    catch (OFXServerException e) {
+      assertEquals(400, e.getHttpCode());
+    }
+    assertEquals(1, attempts.get());
+  }
+
+  /**
+   * tests that the circuit opens after consecutive failures and fails fast until a trial request succeeds.
+   */
+  public void testCircuitBreaker() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final boolean[] down = {true};
+    ResilientOFXConnection connection = new ResilientOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        attempts.incrementAndGet();
+        if (down[0]) {
+          throw new OFXServerException("Bad Gateway", 502);
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    connection.setMaxAttempts(1);
+    connection.setFailureThreshold(3);
+    connection.setOpenDuration(100);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    for (int i = 0; i < 5; i++) {
+      try {
+        connection.sendRequest(newProfileRequest(), url);
+        fail();
+      }
+      catch (OFXConnectionException e) {
+        //fall through.
+      }
+    }
+    assertEquals(3, attempts.get());
+    assertTrue(connection.isCircuitOpen("OFX.example.com"));
+    assertFalse(connection.isCircuitOpen("other.example.com"));
+
+    Thread.sleep(150);
+    down[0] = false;
+    assertNotNull(connection.sendRequest(newProfileRequest(), url));
+    assertEquals(4, attempts.get());
+    assertFalse(connection.isCircuitOpen("ofx.example.com"));
+  }
+
+  /**
+   * tests that a trial request that throws a runtime exception doesn't leave the circuit half-open forever.
+   */
+  public void testHalfOpenRuntimeException() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final int[] mode = {0};
+    ResilientOFXConnection connection = new ResilientOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        attempts.incrementAndGet();
+        if (mode[0] == 0) {
+          throw new OFXServerException("Bad Gateway", 502);
+        }
+        else if (mode[0] == 1) {
+          throw new IllegalArgumentException("Unable to marshal the request.");
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    connection.setMaxAttempts(1);
+    connection.setFailureThreshold(1);
+    connection.setOpenDuration(100);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    try {
+      connection.sendRequest(newProfileRequest(), url);
+      fail();
+    }
+    catch (OFXConnectionException e) {
+      //fall through.
+    }
+    assertTrue(connection.isCircuitOpen("ofx.example.com"));
+
+    Thread.sleep(150);
+    mode[0] = 1;
+    try {
+      connection.sendRequest(newProfileRequest(), url);
+      fail();
+    }
+    catch (IllegalArgumentException e) {
+      //fall through.
+    }
+    assertEquals(2, attempts.get());
+
+    //the failed trial reopened the circuit; once it's half-open again, a new trial is let through.
+    assertTrue(connection.isCircuitOpen("ofx.example.com"));
+    Thread.sleep(150);
+    mode[0] = 2;
+    assertNotNull(connection.sendRequest(newProfileRequest(), url));
+    assertEquals(3, attempts.get());
+    assertFalse(connection.isCircuitOpen("ofx.example.com"));
+  }
+
+  /**
+   * tests that a slow idempotent read is hedged and the first response wins.
+   */
+  public void testHedging() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    final ResponseEnvelope slow = new ResponseEnvelope();
+    final ResponseEnvelope fast = new ResponseEnvelope();
+    ResilientOFXConnection connection = new ResilientOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        if (attempts.incrementAndGet() == 1) {
+          try {
+            Thread.sleep(2000);
+          }
+          catch (InterruptedException e) {
+            throw new OFXConnectionException(e);
+          }
+          return slow;
+        }
+        return fast;
+      }
+    });
+    connection.setHedgingEnabled(true);
+    connection.setMinHedgeSamples(1);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    //record a latency sample first.
+    connection.setHedgingEnabled(false);
+    attempts.set(1);
+    assertSame(fast, connection.sendRequest(newProfileRequest(), url));
+    attempts.set(0);
+    connection.setHedgingEnabled(true);
+
+    long start = System.currentTimeMillis();
+    assertSame(fast, connection.sendRequest(newProfileRequest(), url));
+    assertTrue(System.currentTimeMillis() - start < 1000);
+    assertEquals(2, attempts.get());
+
+    //requests that aren't reads aren't hedged.
+    attempts.set(1);
+    assertSame(fast, connection.sendRequest(new RequestEnvelope(), url));
+    assertEquals(2, attempts.get());
+  }
+
+  /**
+   * tests that transient failures of asynchronous requests are retried without blocking the caller.
+   */
+  public void testAsyncRetry() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    ResilientOFXConnection connection = new ResilientOFXConnection(new AsyncOFXConnection() {
+      public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+        OFXFuture<ResponseEnvelope> future = new OFXFuture<ResponseEnvelope>(callback);
+        if (attempts.incrementAndGet() < 3) {
+          future.fail(new OFXServerException("Service Unavailable", 503));
+        }
+        else {
+          future.complete(new ResponseEnvelope());
+        }
+        return future;
+      }
+
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        throw new UnsupportedOperationException();
+      }
+    });
+    connection.setInitialBackoff(100);
+
+    Future<ResponseEnvelope> response = connection.sendRequestAsync(newProfileRequest(), new URL("https://ofx.example.com/ofx"), null);
+    assertNotNull(response.get(5, TimeUnit.SECONDS));
+    assertEquals(3, attempts.get());
+
+    //a failure that isn't transient isn't retried.
+    attempts.set(-10);
+    connection.setMaxAttempts(1);
+    try {
+      connection.sendRequestAsync(newProfileRequest(), new URL("https://ofx.example.com/ofx"), null).get(5, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertEquals(503, ((OFXServerException) e.getCause()).getHttpCode());
+    }
+    assertEquals(-9, attempts.get());
+    connection.shutdown();
+  }
+
+  /**
+   * tests that a streaming request is only retried if nothing has been delivered to the listener.
+   */
+  public void testStreamingRetry() throws Exception {
+    final AtomicInteger attempts = new AtomicInteger();
+    ResilientOFXConnection connection = new ResilientOFXConnection(new StreamingOFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        throw new UnsupportedOperationException();
+      }
+
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url, AggregateListener listener) throws OFXConnectionException {
+        if (attempts.incrementAndGet() > 1) {
+          //fails mid-stream.
+          listener.aggregateStarted(new ResponseEnvelope(), null);
+        }
+        throw new OFXServerException("Service Unavailable", 503);
+      }
+    });
+    connection.setInitialBackoff(1);
+    connection.setMaxAttempts(5);
+
+    final AtomicInteger delivered = new AtomicInteger();
+    try {
+      connection.sendRequest(newProfileRequest(), new URL("https://ofx.example.com/ofx"), new AggregateListener() {
+        public boolean appliesTo(Class aggregateType) {
+          return true;
+        }
+
+        public void aggregateStarted(Object aggregate, Object parent) {
+          delivered.incrementAndGet();
+        }
+
+        public boolean aggregateEnded(Object aggregate, Object parent) {
+          return true;
+        }
+      });
+      fail();
+    }
+    catch (OFXServerException e) {
+      //fall through.
+    }
+    assertEquals(2, attempts.get());
+    assertEquals(1, delivered.get());
+  }
+
+  private RequestEnvelope newProfileRequest() {
+    ProfileRequestMessageSet messageSet = new ProfileRequestMessageSet();
+    messageSet.setProfileRequest(new ProfileRequestTransaction());
+    TreeSet<RequestMessageSet> messageSets = new TreeSet<RequestMessageSet>();
+    messageSets.add(messageSet);
+    RequestEnvelope request = new RequestEnvelope();
+    request.setMessageSets(messageSets);
+    return request;
+  }
+}
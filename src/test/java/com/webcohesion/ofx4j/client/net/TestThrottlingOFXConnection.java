@@ -0,0 +1,381 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.net;
+
+import com.webcohesion.ofx4j.domain.data.RequestEnvelope;
+import com.webcohesion.ofx4j.domain.data.RequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.ResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankingRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.profile.ProfileRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.signon.SignonResponse;
+import com.webcohesion.ofx4j.domain.data.signon.SignonResponseMessageSet;
+import com.webcohesion.ofx4j.io.AggregateListener;
+import junit.framework.TestCase;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestThrottlingOFXConnection extends TestCase {
+
+  /**
+   * tests that the limit backs off when the host answers with server errors under load.
+   */
+  public void testBackoff() throws Exception {
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger rejected = new AtomicInteger();
+    final ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        int concurrent = running.incrementAndGet();
+        try {
+          Thread.sleep(2);
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        finally {
+          running.decrementAndGet();
+        }
+
+        if (concurrent > 3) {
+          rejected.incrementAndGet();
+          throw new OFXServerException("Service Unavailable", 503);
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    connection.setInitialLimit(16);
+    connection.setLatencyTolerance(0);
+    final URL url = new URL("https://ofx.example.com/ofx");
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 16; i++) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          for (int j = 0; j < 30; j++) {
+            try {
+              connection.sendRequest(new RequestEnvelope(), url);
+            }
+            catch (OFXConnectionException e) {
+              //rejected.
+            }
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(rejected.get() > 0);
+    assertTrue(connection.getLimit("OFX.example.com") < 16);
+    assertEquals(0, connection.getInFlight("ofx.example.com"));
+  }
+
+  /**
+   * tests that a burst of concurrent server errors decreases the limit only once.
+   */
+  public void testErrorBurst() throws Exception {
+    final CountDownLatch arrived = new CountDownLatch(100);
+    final ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        arrived.countDown();
+        try {
+          arrived.await();
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        throw new OFXServerException("Service Unavailable", 503);
+      }
+    });
+    connection.setInitialLimit(100);
+    connection.setLatencyTolerance(0);
+    final URL url = new URL("https://ofx.example.com/ofx");
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 100; i++) {
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          try {
+            connection.sendRequest(new RequestEnvelope(), url);
+            fail();
+          }
+          catch (OFXConnectionException e) {
+            //fall through.
+          }
+        }
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(90, connection.getLimit("ofx.example.com"));
+
+    //a request sent after the decrease shows new congestion.
+    try {
+      connection.sendRequest(new RequestEnvelope(), url);
+      fail();
+    }
+    catch (OFXConnectionException e) {
+      //fall through.
+    }
+    assertEquals(81, connection.getLimit("ofx.example.com"));
+  }
+
+  /**
+   * tests that the latency of a request is only compared with the latencies of the same kind of request.
+   */
+  public void testLatencyByRequestKind() throws Exception {
+    ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        boolean statement = request.getMessageSets().first() instanceof BankingRequestMessageSet;
+        try {
+          Thread.sleep(statement ? 200 : 20);
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    for (int i = 0; i < 5; i++) {
+      connection.sendRequest(newRequest(new ProfileRequestMessageSet()), url);
+    }
+    for (int i = 0; i < 5; i++) {
+      BankingRequestMessageSet messageSet = new BankingRequestMessageSet();
+      messageSet.setStatementRequest(new BankStatementRequestTransaction());
+      connection.sendRequest(newRequest(messageSet), url);
+    }
+    assertEquals(ThrottlingOFXConnection.DEFAULT_INITIAL_LIMIT, connection.getLimit("ofx.example.com"));
+  }
+
+  private RequestEnvelope newRequest(RequestMessageSet messageSet) {
+    if (messageSet instanceof ProfileRequestMessageSet) {
+      ((ProfileRequestMessageSet) messageSet).setProfileRequest(new ProfileRequestTransaction());
+    }
+    TreeSet<RequestMessageSet> messageSets = new TreeSet<RequestMessageSet>();
+    messageSets.add(messageSet);
+    RequestEnvelope request = new RequestEnvelope();
+    request.setMessageSets(messageSets);
+    return request;
+  }
+
+  /**
+   * tests that a request fails fast when there's no capacity within the maximum queue time.
+   */
+  public void testQueueDeadline() throws Exception {
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch started = new CountDownLatch(1);
+    final ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+        started.countDown();
+        try {
+          release.await();
+        }
+        catch (InterruptedException e) {
+          throw new OFXConnectionException(e);
+        }
+        return new ResponseEnvelope();
+      }
+    });
+    connection.setInitialLimit(1);
+    connection.setMaxLimit(1);
+    connection.setMaxQueueTime(50);
+    final URL url = new URL("https://ofx.example.com/ofx");
+
+    Thread inFlight = new Thread(new Runnable() {
+      public void run() {
+        try {
+          connection.sendRequest(new RequestEnvelope(), url);
+        }
+        catch (OFXConnectionException e) {
+          fail();
+        }
+      }
+    });
+    inFlight.start();
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    long start = System.currentTimeMillis();
+    try {
+      connection.sendRequest(new RequestEnvelope(), url);
+      fail();
+    }
+    catch (OFXConnectionException e) {
+      assertTrue(e.getMessage().contains("throttled"));
+    }
+    assertTrue(System.currentTimeMillis() - start < 2000);
+
+    release.countDown();
+    inFlight.join();
+    assertNotNull(connection.sendRequest(new RequestEnvelope(), url));
+  }
+
+  /**
+   * tests the token bucket rate limit.
+   */
+  public void testRateLimit() throws Exception {
+    ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) {
+        return new ResponseEnvelope();
+      }
+    });
+    connection.getRateLimits().put("ofx.example.com", 20.0);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    long start = System.nanoTime();
+    for (int i = 0; i < 11; i++) {
+      connection.sendRequest(new RequestEnvelope(), url);
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 400);
+
+    //unlimited host.
+    start = System.nanoTime();
+    for (int i = 0; i < 11; i++) {
+      connection.sendRequest(new RequestEnvelope(), new URL("https://other.example.com/ofx"));
+    }
+    assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 400);
+  }
+
+  /**
+   * tests that asynchronous requests wait for a slot in a queue, without blocking the caller.
+   */
+  public void testAsyncQueue() throws Exception {
+    final List<OFXCallback<ResponseEnvelope>> sent = new Vector<OFXCallback<ResponseEnvelope>>();
+    ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new AsyncStub() {
+      public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+        sent.add(callback);
+        return new OFXFuture<ResponseEnvelope>(null);
+      }
+    });
+    connection.setInitialLimit(1);
+    connection.setMaxLimit(1);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    List<Future<ResponseEnvelope>> futures = new ArrayList<Future<ResponseEnvelope>>();
+    for (int i = 0; i < 3; i++) {
+      futures.add(connection.sendRequestAsync(new RequestEnvelope(), url, null));
+    }
+    assertEquals(1, sent.size());
+    assertEquals(1, connection.getInFlight("ofx.example.com"));
+
+    for (int i = 0; i < 3; i++) {
+      ResponseEnvelope response = new ResponseEnvelope();
+      sent.get(i).completed(response);
+      assertSame(response, futures.get(i).get(5, TimeUnit.SECONDS));
+      long deadline = System.currentTimeMillis() + 5000;
+      while (sent.size() < Math.min(3, i + 2) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(1);
+      }
+      assertEquals(Math.min(3, i + 2), sent.size());
+    }
+    assertEquals(0, connection.getInFlight("ofx.example.com"));
+    connection.shutdown();
+  }
+
+  /**
+   * tests that a queued asynchronous request fails at its deadline.
+   */
+  public void testAsyncQueueDeadline() throws Exception {
+    ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new AsyncStub() {
+      public Future<ResponseEnvelope> sendRequestAsync(RequestEnvelope request, URL url, OFXCallback<ResponseEnvelope> callback) {
+        return new OFXFuture<ResponseEnvelope>(null);
+      }
+    });
+    connection.setInitialLimit(1);
+    connection.setMaxLimit(1);
+    connection.setMaxQueueTime(50);
+    URL url = new URL("https://ofx.example.com/ofx");
+
+    connection.sendRequestAsync(new RequestEnvelope(), url, null);
+    Future<ResponseEnvelope> queued = connection.sendRequestAsync(new RequestEnvelope(), url, null);
+    assertFalse(queued.isDone());
+    try {
+      queued.get(5, TimeUnit.SECONDS);
+      fail();
+    }
+    catch (ExecutionException e) {
+      assertTrue(e.getCause() instanceof OFXConnectionException);
+      assertTrue(e.getCause().getMessage().contains("throttled"));
+    }
+    connection.shutdown();
+  }
+
+  /**
+   * tests that a response of a delegate that doesn't stream is replayed to the listener.
+   */
+  public void testStreamingReplay() throws Exception {
+    ThrottlingOFXConnection connection = new ThrottlingOFXConnection(new OFXConnection() {
+      public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) {
+        SignonResponseMessageSet signon = new SignonResponseMessageSet();
+        signon.setSignonResponse(new SignonResponse());
+        TreeSet<ResponseMessageSet> messageSets = new TreeSet<ResponseMessageSet>();
+        messageSets.add(signon);
+        ResponseEnvelope response = new ResponseEnvelope();
+        response.setMessageSets(messageSets);
+        return response;
+      }
+    });
+
+    final List<String> events = new ArrayList<String>();
+    ResponseEnvelope response = connection.sendRequest(new RequestEnvelope(), new URL("https://ofx.example.com/ofx"), new AggregateListener() {
+      public boolean appliesTo(Class aggregateType) {
+        return true;
+      }
+
+      public void aggregateStarted(Object aggregate, Object parent) {
+        events.add("+" + aggregate.getClass().getSimpleName());
+      }
+
+      public boolean aggregateEnded(Object aggregate, Object parent) {
+        events.add("-" + aggregate.getClass().getSimpleName());
+        return !(aggregate instanceof SignonResponse);
+      }
+    });
+    assertEquals(Arrays.asList("+SignonResponseMessageSet", "+SignonResponse", "-SignonResponse", "-SignonResponseMessageSet"), events);
+    assertNull(response.getSignonResponse());
+  }
+
+  private abstract static class AsyncStub implements AsyncOFXConnection {
+
+    public ResponseEnvelope sendRequest(RequestEnvelope request, URL url) throws OFXConnectionException {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.client.sync;
+
+import com.webcohesion.ofx4j.OFXException;
+import com.webcohesion.ofx4j.client.AccountStatement;
+import com.webcohesion.ofx4j.client.DefaultStatementListener;
+import com.webcohesion.ofx4j.client.FinancialInstitutionAccount;
+import com.webcohesion.ofx4j.client.StatementListener;
+import com.webcohesion.ofx4j.client.StreamingAccount;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementResponse;
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionList;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestStatementSyncManager extends TestCase {
+
+  private static final long DAY = StatementSyncManager.DAY;
+
+  public void testIncrementalSync() throws Exception {
+    StubAccount account = new StreamingStubAccount();
+    account.post("t1", 50);
+    account.post("t2", 98);
+    FixedClockSyncManager manager = new FixedClockSyncManager(new InMemoryWatermarkStore());
+    manager.setInitialWindow(90 * DAY);
+    manager.setOverlap(7 * DAY);
+
+    manager.time = 100 * DAY;
+    RecordingListener listener = new RecordingListener();
+    SyncResult result = manager.sync("acct", account, listener);
+    assertEquals(10 * DAY, result.getStart().getTime());
+    assertEquals(100 * DAY, result.getEnd().getTime());
+    assertEquals(100 * DAY, result.getWatermark().getTime());
+    assertEquals(2, result.getNewTransactionCount());
+    assertEquals(0, result.getDuplicateTransactionCount());
+    assertEquals(2, listener.ids.size());
+
+    //t3 is posted late, within the overlap.
+    account.post("t3", 99);
+    account.post("t4", 105);
+    manager.time = 110 * DAY;
+    listener = new RecordingListener();
+    result = manager.sync("acct", account, listener);
+    assertEquals(93 * DAY, result.getStart().getTime());
+    assertEquals(110 * DAY, result.getEnd().getTime());
+    assertEquals(2, result.getNewTransactionCount());
+    assertEquals(1, result.getDuplicateTransactionCount());
+    assertEquals(2, listener.ids.size());
+    assertTrue(listener.ids.contains("t3"));
+    assertTrue(listener.ids.contains("t4"));
+
+    //only the ids within the overlap are remembered.
+    SyncWatermark watermark = manager.getStore().load("acct");
+    assertEquals(110 * DAY, watermark.getEnd().getTime());
+    assertEquals(1, watermark.getTransactionIds().size());
+    assertTrue(watermark.getTransactionIds().containsKey("t4"));
+  }
+
+  public void testNonStreamingAccount() throws Exception {
+    StubAccount account = new StubAccount();
+    account.post("t1", 50);
+    account.post("t2", 98);
+    FixedClockSyncManager manager = new FixedClockSyncManager(new InMemoryWatermarkStore());
+    manager.time = 100 * DAY;
+    RecordingListener listener = new RecordingListener();
+    manager.sync("acct", account, listener);
+    assertEquals(2, listener.ids.size());
+
+    account.post("t3", 101);
+    manager.time = 102 * DAY;
+    listener = new RecordingListener();
+    SyncResult result = manager.sync("acct", account, listener);
+    assertEquals(1, result.getNewTransactionCount());
+    assertEquals(1, result.getDuplicateTransactionCount());
+    assertEquals(Arrays.asList("t3"), listener.ids);
+  }
+
+  public void testFailedSyncKeepsWatermark() throws Exception {
+    StubAccount account = new StreamingStubAccount();
+    account.post("t1", 50);
+    FixedClockSyncManager manager = new FixedClockSyncManager(new InMemoryWatermarkStore());
+    manager.time = 100 * DAY;
+    manager.sync("acct", account, new DefaultStatementListener());
+
+    account.failure = new OFXException("unavailable");
+    manager.time = 120 * DAY;
+    try {
+      manager.sync("acct", account, new DefaultStatementListener());
+      fail();
+    }
+    catch (OFXException e) {
+      //fall through...
+    }
+    assertEquals(100 * DAY, manager.getStore().load("acct").getEnd().getTime());
+
+    account.failure = null;
+    SyncResult result = manager.sync("acct", account, new DefaultStatementListener());
+    assertEquals(93 * DAY, result.getStart().getTime());
+  }
+
+  public void testFileWatermarkStore() throws Exception {
+    File directory = File.createTempFile("watermarks", "");
+    assertTrue(directory.delete());
+    try {
+      StubAccount account = new StreamingStubAccount();
+      account.post("t1", 50);
+      account.post("t2", 98);
+      FixedClockSyncManager manager = new FixedClockSyncManager(new FileWatermarkStore(directory));
+      manager.time = 100 * DAY;
+      manager.sync("bank:123:456/7", account, new DefaultStatementListener());
+
+      //a new manager picks up where the last one stopped.
+      manager = new FixedClockSyncManager(new FileWatermarkStore(directory));
+      manager.time = 101 * DAY;
+      RecordingListener listener = new RecordingListener();
+      SyncResult result = manager.sync("bank:123:456/7", account, listener);
+      assertEquals(93 * DAY, result.getStart().getTime());
+      assertEquals(0, result.getNewTransactionCount());
+      assertEquals(1, result.getDuplicateTransactionCount());
+      assertTrue(listener.ids.isEmpty());
+
+      manager.reset("bank:123:456/7");
+      assertNull(manager.getStore().load("bank:123:456/7"));
+    }
+    finally {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  private static class FixedClockSyncManager extends StatementSyncManager {
+
+    private long time;
+
+    private FixedClockSyncManager(WatermarkStore store) {
+      super(store);
+    }
+
+    @Override
+    protected Date now() {
+      return new Date(this.time);
+    }
+  }
+
+  private static class RecordingListener extends DefaultStatementListener {
+
+    private final List<String> ids = new ArrayList<String>();
+
+    @Override
+    public void onTransaction(Transaction transaction) {
+      this.ids.add(transaction.getId());
+    }
+  }
+
+  private static class StubAccount implements FinancialInstitutionAccount {
+
+    private final List<Transaction> posted = new ArrayList<Transaction>();
+    private OFXException failure;
+
+    private void post(String id, long day) {
+      Transaction transaction = new Transaction();
+      transaction.setId(id);
+      transaction.setDatePosted(new Date(day * DAY));
+      this.posted.add(transaction);
+    }
+
+    public AccountStatement readStatement(Date start, Date end) throws OFXException {
+      if (this.failure != null) {
+        throw this.failure;
+      }
+
+      List<Transaction> transactions = new ArrayList<Transaction>();
+      for (Transaction transaction : this.posted) {
+        if (!transaction.getDatePosted().before(start) && transaction.getDatePosted().before(end)) {
+          transactions.add(transaction);
+        }
+      }
+      BankStatementResponse statement = new BankStatementResponse();
+      TransactionList transactionList = new TransactionList();
+      transactionList.setStart(start);
+      transactionList.setEnd(end);
+      transactionList.setTransactions(transactions);
+      statement.setTransactionList(transactionList);
+      return statement;
+    }
+  }
+
+  private static class StreamingStubAccount extends StubAccount implements StreamingAccount {
+
+    public void readStatement(Date start, Date end, StatementListener listener) throws OFXException {
+      AccountStatement statement = readStatement(start, end);
+      List<Transaction> transactions = statement.getTransactionList().getTransactions();
+      statement.getTransactionList().setTransactions(null);
+      listener.onHeader(statement);
+      for (Transaction transaction : transactions) {
+        listener.onTransaction(transaction);
+      }
+      listener.onBalances(statement);
+    }
+  }
+}
@@ -18,11 +18,21 @@ package com.webcohesion.ofx4j.io;
 
 import junit.framework.TestCase;
 import com.webcohesion.ofx4j.io.tagsoup.TagSoupOFXReader;
+import com.webcohesion.ofx4j.io.v1.OFXV1ByteWriter;
 import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
 import com.webcohesion.ofx4j.domain.data.signon.SignonResponse;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementRequestTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankingRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardRequestMessageSet;
+import com.webcohesion.ofx4j.domain.data.investment.statements.InvestmentStatementRequestMessageSet;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -34,6 +44,31 @@ public class TestAggregateMarshaller extends TestCase {
 
   private static final Log LOG = LogFactory.getLog(TestAggregateMarshaller.class);
 
+  /**
+   * tests that a null statement request means no statement request.
+   */
+  public void testNullStatementRequest() throws Exception {
+    BankingRequestMessageSet banking = new BankingRequestMessageSet();
+    banking.setStatementRequest(null);
+    assertNull(banking.getStatementRequests());
+    assertTrue(banking.getRequestMessages().isEmpty());
+    CreditCardRequestMessageSet creditCard = new CreditCardRequestMessageSet();
+    creditCard.setStatementRequest(null);
+    assertTrue(creditCard.getRequestMessages().isEmpty());
+    InvestmentStatementRequestMessageSet investment = new InvestmentStatementRequestMessageSet();
+    investment.setStatementRequest(null);
+    assertTrue(investment.getRequestMessages().isEmpty());
+
+    StringWriter out = new StringWriter();
+    OFXV1Writer writer = new OFXV1Writer(out);
+    new AggregateMarshaller().marshal(banking, writer);
+    writer.close();
+    assertEquals("<BANKMSGSRQV1></BANKMSGSRQV1>", out.toString());
+
+    banking.setStatementRequests(Arrays.asList(new BankStatementRequestTransaction(), null));
+    assertEquals(1, banking.getRequestMessages().size());
+  }
+
   /**
    * test marshal
    */
@@ -164,6 +199,230 @@ public class TestAggregateMarshaller extends TestCase {
     assertEquals("child3-element1", ((AggregateExample4) example.getAggregateList().get(1)).getElement());
   }
 
+  /**
+   * tests that marshalling with the precompiled write plans writes the same as writing by introspection.
+   */
+  public void testWritePlanMatchesIntrospection() throws Exception {
+    ResponseEnvelope envelope = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class).unmarshal(TestAggregateMarshaller.class.getResourceAsStream("multi-account-response.ofx"));
+    AggregateMarshaller marshaller = new AggregateMarshaller();
+
+    StringWriter planned = new StringWriter();
+    OFXV1Writer writer = new OFXV1Writer(planned);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+
+    StringWriter introspected = new StringWriter();
+    writer = new OFXV1Writer(introspected);
+    AggregateInfo info = AggregateIntrospector.getAggregateInfo(ResponseEnvelope.class);
+    Map<String, String> headers = new TreeMap<String, String>();
+    for (Map.Entry<String, Object> header : info.getHeaders(envelope).entrySet()) {
+      headers.put(header.getKey(), marshaller.getConversion().toString(header.getValue()));
+    }
+    writer.writeHeaders(headers);
+    writer.writeStartAggregate(info.getName());
+    marshaller.writeAggregateAttributes(envelope, writer, info.getAttributes());
+    writer.writeEndAggregate(info.getName());
+    writer.close();
+
+    assertTrue(planned.toString().contains("<STMTTRN>"));
+    assertEquals(introspected.toString(), planned.toString());
+    assertSame(AggregateWritePlan.getWritePlan(ResponseEnvelope.class), AggregateWritePlan.getWritePlan(ResponseEnvelope.class));
+    assertNull(AggregateWritePlan.getWritePlan(String.class));
+  }
+
+  /**
+   * tests that a subclass that overrides writeAggregateAttributes is still dispatched through it, and that a custom
+   * conversion is used for every value.
+   */
+  public void testOverriddenWriteAggregateAttributes() throws Exception {
+    ResponseEnvelope envelope = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class).unmarshal(TestAggregateMarshaller.class.getResourceAsStream("multi-account-response.ofx"));
+    final List<Object> written = new ArrayList<Object>();
+    AggregateMarshaller marshaller = new AggregateMarshaller() {
+      @Override
+      protected void writeAggregateAttributes(Object aggregate, OFXWriter writer, SortedSet<AggregateAttribute> aggregateAttributes) throws IOException {
+        written.add(aggregate);
+        super.writeAggregateAttributes(aggregate, writer, aggregateAttributes);
+      }
+    };
+
+    StringWriter out = new StringWriter();
+    OFXV1Writer writer = new OFXV1Writer(out);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+    assertSame(envelope, written.get(0));
+    assertTrue(written.size() > 1);
+
+    final AtomicInteger converted = new AtomicInteger();
+    marshaller = new AggregateMarshaller();
+    marshaller.setConversion(new DefaultStringConversion() {
+      @Override
+      public String toString(Object value) {
+        converted.incrementAndGet();
+        return super.toString(value);
+      }
+    });
+    StringWriter planned = new StringWriter();
+    writer = new OFXV1Writer(planned);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+    assertTrue(converted.get() > 0);
+    assertEquals(out.toString(), planned.toString());
+  }
+
+  /**
+   * tests that streamed child aggregates are pulled while they're written, the same as a materialized list.
+   */
+  public void testStreamedChildAggregates() throws Exception {
+    AggregateExample example = new AggregateExample();
+    example.setElement1("root-element1");
+    final List<AggregateExample2> entries = new ArrayList<AggregateExample2>();
+    for (int i = 0; i < 3; i++) {
+      AggregateExample2 entry = new AggregateExample2();
+      entry.setElement("entry" + i);
+      entries.add(entry);
+    }
+
+    StringWriter materialized = new StringWriter();
+    OFXV1Writer writer = new OFXV1Writer(materialized);
+    example.setAggregateList(new ArrayList<AggregateExample2>(entries));
+    new AggregateMarshaller().marshal(example, writer);
+    writer.close();
+    example.setAggregateList(null);
+
+    final List<String> events = new ArrayList<String>();
+    final boolean[] closed = new boolean[1];
+    class Cursor implements Iterator<AggregateExample2>, Closeable {
+      int index = 0;
+
+      public boolean hasNext() {
+        return index < entries.size();
+      }
+
+      public AggregateExample2 next() {
+        events.add("next");
+        return entries.get(index++);
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+
+      public void close() {
+        closed[0] = true;
+      }
+    }
+
+    StreamedChildAggregates streams = new StreamedChildAggregates();
+    streams.stream(example, "aggregateList", new Cursor());
+    final StringWriter streamed = new StringWriter();
+    writer = new OFXV1Writer(streamed) {
+      @Override
+      public void writeStartAggregate(String aggregateName) throws IOException {
+        events.add(aggregateName);
+        super.writeStartAggregate(aggregateName);
+      }
+    };
+    new AggregateMarshaller().marshal(example, writer, streams);
+    writer.close();
+
+    assertEquals(materialized.toString(), streamed.toString());
+    assertTrue(closed[0]);
+    assertEquals(Arrays.asList("EXAMPLE", "next", "EXAMPLE2", "next", "EXAMPLE2", "next", "EXAMPLE2"), events);
+  }
+
+  /**
+   * tests that registered aggregates are spliced from the fragment cache until they're invalidated.
+   */
+  public void testFragmentCache() throws Exception {
+    AggregateExample example = new AggregateExample();
+    example.setElement1("root-element1");
+    AggregateExample2 profile = new AggregateExample2();
+    profile.setElement("cached & static");
+    example.setAggregate1(profile);
+    example.setAggregate2(profile);
+
+    AggregateMarshaller marshaller = new AggregateMarshaller();
+    String uncachedV1 = marshalBytes(marshaller, example, false);
+    String uncachedV2 = marshalBytes(marshaller, example, true);
+
+    AggregateFragmentCache cache = new AggregateFragmentCache();
+    cache.register(profile, 1);
+    marshaller.setFragmentCache(cache);
+    assertEquals(uncachedV1, marshalBytes(marshaller, example, false));
+    assertEquals(uncachedV2, marshalBytes(marshaller, example, true));
+    assertTrue(uncachedV2.contains("<SOMEELEMENT>root-element1</SOMEELEMENT><EXAMPLE2><EXAMPLE2EL1>cached &amp; static</EXAMPLE2EL1></EXAMPLE2>"));
+    assertTrue(uncachedV2.contains("<DIFFERENT><EXAMPLE2EL1>cached &amp; static</EXAMPLE2EL1></DIFFERENT>"));
+
+    //changes aren't seen until the aggregate is invalidated.
+    profile.setElement("changed");
+    assertEquals(uncachedV1, marshalBytes(marshaller, example, false));
+    example.setElement1("root-changed");
+    assertTrue(marshalBytes(marshaller, example, true).contains("<SOMEELEMENT>root-changed</SOMEELEMENT><EXAMPLE2><EXAMPLE2EL1>cached &amp; static</EXAMPLE2EL1>"));
+
+    cache.update(profile, 1);
+    assertTrue(marshalBytes(marshaller, example, true).contains("cached &amp; static"));
+    cache.update(profile, 2);
+    assertTrue(marshalBytes(marshaller, example, true).contains("<EXAMPLE2><EXAMPLE2EL1>changed</EXAMPLE2EL1></EXAMPLE2>"));
+
+    profile.setElement("changed again");
+    cache.invalidate(profile);
+    assertEquals(Long.valueOf(2), cache.getVersion(profile));
+    assertTrue(marshalBytes(marshaller, example, false).contains("<EXAMPLE2EL1>changed again"));
+
+    cache.unregister(profile);
+    assertFalse(cache.isRegistered(profile));
+  }
+
+  /**
+   * tests that large lists rendered in parallel segments are written the same as sequentially.
+   */
+  public void testParallelSegments() throws Exception {
+    AggregateExample example = new AggregateExample();
+    example.setElement1("root-element1");
+    List<AggregateExample2> entries = new ArrayList<AggregateExample2>();
+    for (int i = 0; i < 1000; i++) {
+      AggregateExample2 entry = new AggregateExample2();
+      entry.setElement("entry <" + i + "> \u00e9");
+      entries.add(entry);
+    }
+    example.setAggregateList(entries);
+
+    AggregateMarshaller marshaller = new AggregateMarshaller();
+    String sequentialV1 = marshalBytes(marshaller, example, false);
+    String sequentialV2 = marshalBytes(marshaller, example, true);
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      marshaller.setExecutor(executor);
+      marshaller.setParallelThreshold(100);
+      marshaller.setSegmentSize(7);
+      marshaller.setMaxPendingSegments(3);
+      assertEquals(sequentialV1, marshalBytes(marshaller, example, false));
+      assertEquals(sequentialV2, marshalBytes(marshaller, example, true));
+      assertTrue(sequentialV2.contains("<EXAMPLE2><EXAMPLE2EL1>entry &lt;999&gt; \u00e9</EXAMPLE2EL1></EXAMPLE2>"));
+
+      entries.set(501, null);
+      try {
+        marshalBytes(marshaller, example, true);
+        fail();
+      }
+      catch (NullPointerException e) {
+        //fall through
+      }
+    }
+    finally {
+      executor.shutdown();
+    }
+  }
+
+  private String marshalBytes(AggregateMarshaller marshaller, Object aggregate, boolean v2) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OFXWriter writer = v2 ? new OFXV2ByteWriter(out) : new OFXV1ByteWriter(out);
+    marshaller.marshal(aggregate, writer);
+    writer.close();
+    return out.toString("UTF-8");
+  }
+
   /**
    * tests that the aggregate list was generated correctly.
    */
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BaseInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BuyInvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.BuyStockTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.IncomeTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentTransaction;
+import com.webcohesion.ofx4j.domain.data.investment.transactions.InvestmentTransactionList;
+import com.webcohesion.ofx4j.io.v1.OFXV1Writer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestAggregateSnapshotCodec extends TestCase {
+
+  /**
+   * tests that a decoded snapshot marshals to the same OFX as the original.
+   */
+  public void testRoundTrip() throws Exception {
+    ResponseEnvelope envelope = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class).unmarshal(TestAggregateSnapshotCodec.class.getResourceAsStream("multi-account-response.ofx"));
+    AggregateSnapshotCodec codec = new AggregateSnapshotCodec();
+    byte[] snapshot = codec.encode(envelope);
+
+    ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+    codec.encode(envelope, streamed);
+    assertTrue(Arrays.equals(snapshot, streamed.toByteArray()));
+
+    ResponseEnvelope decoded = codec.decode(snapshot, ResponseEnvelope.class);
+    assertNotSame(envelope, decoded);
+    String original = marshal(envelope);
+    assertEquals(original, marshal(decoded));
+    assertEquals(original, marshal(codec.decode(new ByteArrayInputStream(snapshot))));
+    assertTrue(snapshot.length < original.length());
+  }
+
+  /**
+   * tests that the entries of polymorphic collections keep their classes, and that entries of unknown classes are dropped.
+   */
+  public void testPolymorphicCollections() throws Exception {
+    InvestmentTransactionList list = new InvestmentTransactionList();
+    list.setStart(new Date(1199145600000L));
+    list.setEnd(new Date(1201824000000L));
+
+    InvestmentTransaction buyTransaction = new InvestmentTransaction();
+    buyTransaction.setTransactionId("1001");
+    buyTransaction.setTradeDate(new Date(1199750400000L));
+    BuyInvestmentTransaction buyInvestment = new BuyInvestmentTransaction();
+    buyInvestment.setInvestmentTransaction(buyTransaction);
+    buyInvestment.setUnits(100.0);
+    buyInvestment.setTotal(-1234.56);
+    BuyStockTransaction buy = new BuyStockTransaction();
+    buy.setBuyInvestment(buyInvestment);
+    buy.setBuyType("BUY");
+
+    InvestmentTransaction incomeTransaction = new InvestmentTransaction();
+    incomeTransaction.setTransactionId("1002");
+    IncomeTransaction income = new IncomeTransaction();
+    income.setInvestmentTransaction(incomeTransaction);
+    income.setIncomeType("DIV");
+    income.setTaxExempt(Boolean.TRUE);
+    income.setTotal(12.5);
+
+    list.setInvestmentTransactions(new ArrayList<BaseInvestmentTransaction>(Arrays.asList(buy, income)));
+
+    byte[] snapshot = new AggregateSnapshotCodec().encode(list);
+    InvestmentTransactionList decoded = new AggregateSnapshotCodec().decode(snapshot, InvestmentTransactionList.class);
+    assertEquals(list.getStart(), decoded.getStart());
+    assertEquals(list.getEnd(), decoded.getEnd());
+    assertEquals(2, decoded.getInvestmentTransactions().size());
+    BuyStockTransaction decodedBuy = (BuyStockTransaction) decoded.getInvestmentTransactions().get(0);
+    assertEquals("BUY", decodedBuy.getBuyType());
+    assertEquals("1001", decodedBuy.getTransactionId());
+    assertEquals(buyTransaction.getTradeDate(), decodedBuy.getTradeDate());
+    assertEquals(100.0, decodedBuy.getUnits());
+    assertEquals(-1234.56, decodedBuy.getTotal());
+    IncomeTransaction decodedIncome = (IncomeTransaction) decoded.getInvestmentTransactions().get(1);
+    assertEquals("1002", decodedIncome.getTransactionId());
+    assertEquals("DIV", decodedIncome.getIncomeType());
+    assertEquals(Boolean.TRUE, decodedIncome.getTaxExempt());
+    assertEquals(12.5, decodedIncome.getTotal());
+
+    AggregateSnapshotCodec olderCodec = new AggregateSnapshotCodec() {
+      @Override
+      protected Class loadClass(String className) {
+        return IncomeTransaction.class.getName().equals(className) ? null : super.loadClass(className);
+      }
+    };
+    decoded = olderCodec.decode(snapshot, InvestmentTransactionList.class);
+    assertEquals(1, decoded.getInvestmentTransactions().size());
+    assertTrue(decoded.getInvestmentTransactions().get(0) instanceof BuyStockTransaction);
+    assertEquals(list.getEnd(), decoded.getEnd());
+  }
+
+  /**
+   * tests that snapshots of a later format version are rejected.
+   */
+  public void testLaterFormatVersion() throws Exception {
+    AggregateExample2 example = new AggregateExample2();
+    example.setElement("value");
+    AggregateSnapshotCodec codec = new AggregateSnapshotCodec();
+    byte[] snapshot = codec.encode(example);
+    assertEquals("value", codec.decode(snapshot, AggregateExample2.class).getElement());
+
+    snapshot[4] = (byte) (AggregateSnapshotCodec.FORMAT_VERSION + 1);
+    try {
+      codec.decode(snapshot);
+      fail();
+    }
+    catch (OFXParseException e) {
+      //fall through
+    }
+  }
+
+  private String marshal(Object aggregate) throws Exception {
+    StringWriter out = new StringWriter();
+    OFXV1Writer writer = new OFXV1Writer(out);
+    new AggregateMarshaller().marshal(aggregate, writer);
+    writer.close();
+    return out.toString();
+  }
+
+}
@@ -64,4 +64,40 @@ public class TestAggregateStackContentHandler extends TestCase {
     assertEquals("Child Four Element One", example.getAggregate2().getElement());
   }
 
+  /**
+   * tests that unsupported elements are counted by parent aggregate.
+   */
+  public void testUnsupportedElements() throws Exception {
+    AggregateIntrospector.AGGREGATE_CLASSES_BY_NAME.put("EXAMPLE2", AggregateExample2.class);
+
+    UnsupportedElementStatistics global = new UnsupportedElementStatistics();
+    AggregateExample example = new AggregateExample();
+    AggregateStackContentHandler<AggregateExample> handler = new AggregateStackContentHandler<AggregateExample>(example, new DefaultStringConversion());
+    handler.setGlobalUnsupportedElements(global);
+    handler.startAggregate("EXAMPLE");
+    handler.onElement("SOMEELEMENT", "Element One Value");
+    handler.onElement("INTU.BID", "1234");
+    handler.startAggregate("EXAMPLE2");
+    handler.onElement("EXAMPLE2EL1", "Child One Element One");
+    handler.onElement("INTU.BID", "1234");
+    handler.onElement("INTU.BID", "1234");
+    handler.endAggregate("EXAMPLE2");
+    handler.startAggregate("UNKNOWN");
+    handler.onElement("UNKNOWNEL", "ignored");
+    handler.endAggregate("UNKNOWN");
+    assertTrue("statistics shouldn't be merged before the end of the parse.", global.isEmpty());
+    handler.endAggregate("EXAMPLE");
+
+    assertEquals("Element One Value", example.getElement1());
+    assertEquals("Child One Element One", example.getAggregate1().getElement());
+    UnsupportedElementStatistics unsupported = handler.getUnsupportedElements();
+    assertEquals(4, unsupported.getTotal());
+    assertEquals(1, unsupported.getCount("EXAMPLE", "INTU.BID"));
+    assertEquals(2, unsupported.getCount("EXAMPLE2", "INTU.BID"));
+    assertEquals(1, unsupported.getCount("EXAMPLE", "UNKNOWN"));
+    assertEquals(0, unsupported.getCount("UNKNOWN", "UNKNOWNEL"));
+    assertEquals(4, global.getTotal());
+    assertEquals(2, global.getCount("EXAMPLE2", "INTU.BID"));
+  }
+
 }
@@ -135,4 +135,44 @@ public class TestDefaultStringConversion extends TestCase {
     assertEquals("130000.000", conversion.toString(time));
   }
 
+  /**
+   * tests checking whether values are convertible without converting them.
+   */
+  public void testIsConvertible() throws Exception {
+    DefaultStringConversion conversion = new DefaultStringConversion();
+    assertTrue(conversion.isConvertible(Integer.class, "-42"));
+    assertFalse(conversion.isConvertible(Integer.class, "4x2"));
+    assertFalse(conversion.isConvertible(Integer.class, "2147483648"));
+    assertTrue(conversion.isConvertible(Integer.class, "-2147483648"));
+    assertFalse(conversion.isConvertible(Short.TYPE, "40000"));
+    assertTrue(conversion.isConvertible(Double.class, " 12.5E-3 "));
+    assertTrue(conversion.isConvertible(Float.class, ".5"));
+    assertFalse(conversion.isConvertible(Double.class, "1,250.00"));
+    assertFalse(conversion.isConvertible(Double.class, ""));
+    assertTrue(conversion.isConvertible(Date.class, "20061005132200.124[-5:EST]"));
+    assertTrue(conversion.isConvertible(Date.class, "20061005"));
+    assertFalse(conversion.isConvertible(Date.class, "2006-10-05"));
+    assertTrue(conversion.isConvertible(Time.class, "132200.124[-5:EST]"));
+    assertFalse(conversion.isConvertible(Time.class, "13:22"));
+    assertTrue(conversion.isConvertible(Thread.State.class, "NEW"));
+    assertFalse(conversion.isConvertible(Thread.State.class, "OLD"));
+    assertTrue(conversion.isConvertible(Boolean.class, "maybe"));
+
+    String[] values = {"-42", "4x2", "2147483648", " 12.5E-3 ", "1,250.00", "", "NaN", "1e", "+", "20061005", "2006-10-05"};
+    Class[] types = {Integer.class, Short.class, Double.class, Date.class};
+    for (Class type : types) {
+      for (String value : values) {
+        boolean converted;
+        try {
+          conversion.fromString(type, value);
+          converted = true;
+        }
+        catch (Exception e) {
+          converted = false;
+        }
+        assertEquals(type.getSimpleName() + " '" + value + "'", converted, conversion.isConvertible(type, value));
+      }
+    }
+  }
+
 }
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.banking.BankingResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.creditcard.CreditCardResponseMessageSet;
+import junit.framework.TestCase;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestOFXStatementSplitter extends TestCase {
+
+  /**
+   * tests splitting a multi-account response into standalone documents.
+   */
+  public void testSplit() throws Exception {
+    final List<String> wrappers = new ArrayList<String>();
+    final List<String> documents = new ArrayList<String>();
+    new OFXStatementSplitter().split(TestOFXStatementSplitter.class.getResourceAsStream("multi-account-response.ofx"), new OFXStatementSplitter.Listener() {
+      public void onStatement(String messageSetName, String wrapperName, String document) {
+        wrappers.add(messageSetName + "/" + wrapperName);
+        documents.add(document);
+      }
+    });
+
+    assertEquals(3, documents.size());
+    assertEquals("BANKMSGSRSV1/STMTTRNRS", wrappers.get(0));
+    assertEquals("BANKMSGSRSV1/STMTTRNRS", wrappers.get(1));
+    assertEquals("CREDITCARDMSGSRSV1/CCSTMTTRNRS", wrappers.get(2));
+
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+    ResponseEnvelope first = unmarshaller.unmarshal(new StringReader(documents.get(0)));
+    assertNotNull(first.getSignonResponse());
+    assertEquals("01234", first.getSignonResponse().getFinancialInstitution().getId());
+    BankingResponseMessageSet banking = (BankingResponseMessageSet) first.getMessageSet(MessageSetType.banking);
+    assertEquals(1, banking.getStatementResponses().size());
+    assertEquals("23382938", banking.getStatementResponse().getUID());
+    assertEquals("098-121", banking.getStatementResponse().getMessage().getAccount().getAccountNumber());
+
+    ResponseEnvelope second = unmarshaller.unmarshal(new StringReader(documents.get(1)));
+    banking = (BankingResponseMessageSet) second.getMessageSet(MessageSetType.banking);
+    assertEquals("23382939", banking.getStatementResponse().getUID());
+    assertEquals("098-122", banking.getStatementResponse().getMessage().getAccount().getAccountNumber());
+    assertEquals("Transfer from checking &<> etc.", banking.getStatementResponse().getMessage().getTransactionList().getTransactions().get(0).getMemo());
+
+    ResponseEnvelope third = unmarshaller.unmarshal(new StringReader(documents.get(2)));
+    assertNull(third.getMessageSet(MessageSetType.banking));
+    CreditCardResponseMessageSet creditCard = (CreditCardResponseMessageSet) third.getMessageSet(MessageSetType.creditcard);
+    assertEquals("23382940", creditCard.getStatementResponse().getUID());
+    assertEquals("4111-1111", creditCard.getStatementResponse().getMessage().getAccount().getAccountNumber());
+  }
+
+}
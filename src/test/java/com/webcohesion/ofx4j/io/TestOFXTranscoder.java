@@ -0,0 +1,87 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io;
+
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.banking.BankingResponseMessageSet;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestOFXTranscoder extends TestCase {
+
+  /**
+   * tests transcoding v1 to v2 and back.
+   */
+  public void testRoundTrip() throws Exception {
+    OFXTranscoder transcoder = new OFXTranscoder();
+    ByteArrayOutputStream v2 = new ByteArrayOutputStream();
+    transcoder.transcode(TestOFXTranscoder.class.getResourceAsStream("multi-account-response.ofx"), v2);
+    String xml = v2.toString("utf-8");
+    assertTrue(xml.startsWith("<?xml"));
+    assertTrue(xml.contains("NEWFILEUID=\"NONE\""));
+    assertTrue(xml.contains("<TRNUID>23382939</TRNUID>"));
+    assertTrue(xml.endsWith("</OFX>"));
+
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+    ResponseEnvelope envelope = unmarshaller.unmarshal(new ByteArrayInputStream(v2.toByteArray()));
+    BankingResponseMessageSet banking = (BankingResponseMessageSet) envelope.getMessageSet(MessageSetType.banking);
+    assertEquals(2, banking.getStatementResponses().size());
+    assertEquals("Transfer from checking &<> etc.", banking.getStatementResponses().get(1).getMessage().getTransactionList().getTransactions().get(0).getMemo());
+
+    transcoder.setOFXVersion2(false);
+    StringWriter v1 = new StringWriter();
+    transcoder.transcode(new StringReader(xml), v1);
+    assertTrue(v1.toString().startsWith("OFXHEADER:100"));
+    assertTrue(v1.toString().contains("<TRNUID>23382939<"));
+    assertFalse(v1.toString().contains("</TRNUID>"));
+
+    envelope = unmarshaller.unmarshal(new StringReader(v1.toString()));
+    banking = (BankingResponseMessageSet) envelope.getMessageSet(MessageSetType.banking);
+    assertEquals("098-122", banking.getStatementResponses().get(1).getMessage().getAccount().getAccountNumber());
+  }
+
+  /**
+   * tests that tags unknown to the domain model are passed through.
+   */
+  public void testUnknownTags() throws Exception {
+    ByteArrayOutputStream v2 = new ByteArrayOutputStream();
+    new OFXTranscoder().transcode(TestOFXTranscoder.class.getResourceAsStream("bank-of-america-profile.ofx"), v2);
+    assertTrue(v2.toString("utf-8").contains("<INTU.DATEMODEL>"));
+    assertTrue(v2.toString("utf-8").contains("</INTU.DATEMODEL>"));
+  }
+
+  /**
+   * tests that the end tags of aggregates that are never closed are synthesized.
+   */
+  public void testEndTagSynthesis() throws Exception {
+    ByteArrayOutputStream v2 = new ByteArrayOutputStream();
+    new OFXTranscoder().transcode(TestOFXTranscoder.class.getResourceAsStream("mercantile-brokerage-services-profile.ofx"), v2);
+    String xml = v2.toString("utf-8");
+    //the empty URL element was read as an aggregate that's closed with its parent.
+    assertTrue(xml.contains("</URL></MSGSETCORE>"));
+    assertTrue(xml.endsWith("</OFX>"));
+  }
+
+}
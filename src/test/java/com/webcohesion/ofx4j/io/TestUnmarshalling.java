@@ -17,10 +17,20 @@
 package com.webcohesion.ofx4j.io;
 
 import junit.framework.TestCase;
+import com.webcohesion.ofx4j.domain.data.MessageSetType;
 import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.domain.data.banking.BankStatementResponseTransaction;
+import com.webcohesion.ofx4j.domain.data.banking.BankingResponseMessageSet;
+import com.webcohesion.ofx4j.domain.data.common.Transaction;
+import com.webcohesion.ofx4j.domain.data.common.TransactionType;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * @author Ryan Heaton
  * @author Scott Priddy
@@ -51,10 +61,102 @@ public class TestUnmarshalling extends TestCase {
     unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("fremont-bank-profile.ofx"));
   }
 
+  public void testLenientUnmarshalling() throws Exception {
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+
+    ParseDiagnostics diagnostics = new ParseDiagnostics();
+    ResponseEnvelope envelope = unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("mercantile-brokerage-services-profile.ofx"), diagnostics);
+    assertNotNull(envelope);
+    assertNotNull(envelope.getSignonResponse());
+    assertTrue(diagnostics.hasErrors());
+    for (ParseDiagnostic diagnostic : diagnostics.getDiagnostics()) {
+      assertTrue(diagnostic.getPath().startsWith("OFX"));
+      assertNotNull(diagnostic.getMessage());
+    }
+
+    diagnostics = new ParseDiagnostics();
+    envelope = unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("wells-fargo-investments-profile.ofx"), diagnostics);
+    assertNotNull(envelope);
+    assertTrue(diagnostics.hasErrors());
+
+    try {
+      unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("mercantile-brokerage-services-profile.ofx"), new ParseDiagnostics(0));
+      fail("Should have exceeded the error budget.");
+    }
+    catch (ErrorBudgetExceededException e) {
+      assertEquals(1, e.getDiagnostics().getDiagnostics().size());
+    }
+
+    diagnostics = new ParseDiagnostics();
+    unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("fremont-bank-profile.ofx"), diagnostics);
+    assertFalse(diagnostics.hasErrors());
+  }
+
   public void testProfileUnmarshalling() throws Exception {
     AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
     LOG.debug("parsing Bank of America Profile Response");
     unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("bank-of-america-profile.ofx"));
   }
 
+  public void testTransactionFilter() throws Exception {
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+    TransactionFilter filter = new TransactionFilter();
+    filter.setTransactionIds(Collections.singleton("980310002"));
+    unmarshaller.setFilter(filter);
+    ResponseEnvelope envelope = unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("multi-account-response.ofx"));
+    List<BankStatementResponseTransaction> statements = ((BankingResponseMessageSet) envelope.getMessageSet(MessageSetType.banking)).getStatementResponses();
+    assertEquals(2, statements.size());
+    assertNull(statements.get(0).getMessage().getTransactionList().getTransactions());
+    assertEquals(1, statements.get(1).getMessage().getTransactionList().getTransactions().size());
+    assertEquals("980310002", statements.get(1).getMessage().getTransactionList().getTransactions().get(0).getId());
+    assertEquals(5250.0, statements.get(0).getMessage().getLedgerBalance().getAmount());
+
+    filter = new TransactionFilter();
+    filter.setMinimumAmount(new BigDecimal("200"));
+    unmarshaller.setFilter(filter);
+    envelope = unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("multi-account-response.ofx"));
+    statements = ((BankingResponseMessageSet) envelope.getMessageSet(MessageSetType.banking)).getStatementResponses();
+    assertNull(statements.get(0).getMessage().getTransactionList().getTransactions());
+    assertNull(statements.get(1).getMessage().getTransactionList().getTransactions());
+
+    filter = new TransactionFilter();
+    filter.setTransactionTypes(Collections.singleton(TransactionType.CREDIT));
+    filter.setMaximumAmount(new BigDecimal("150.00"));
+    unmarshaller.setFilter(filter);
+    envelope = unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("multi-account-response.ofx"));
+    statements = ((BankingResponseMessageSet) envelope.getMessageSet(MessageSetType.banking)).getStatementResponses();
+    assertEquals(1, statements.get(0).getMessage().getTransactionList().getTransactions().size());
+    assertEquals(1, statements.get(1).getMessage().getTransactionList().getTransactions().size());
+  }
+
+  /**
+   * tests that a listener sees a matching start and end for each record accepted by a filter, and nothing of the
+   * rejected ones.
+   */
+  public void testTransactionFilterWithListener() throws Exception {
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class);
+    TransactionFilter filter = new TransactionFilter();
+    filter.setTransactionIds(Collections.singleton("980310002"));
+    unmarshaller.setFilter(filter);
+    final List<Object> started = new ArrayList<Object>();
+    final List<Object> ended = new ArrayList<Object>();
+    unmarshaller.unmarshal(TestUnmarshalling.class.getResourceAsStream("multi-account-response.ofx"), null, new AggregateListener() {
+      public boolean appliesTo(Class aggregateType) {
+        return Transaction.class.isAssignableFrom(aggregateType);
+      }
+
+      public void aggregateStarted(Object aggregate, Object parent) {
+        started.add(aggregate);
+      }
+
+      public boolean aggregateEnded(Object aggregate, Object parent) {
+        ended.add(aggregate);
+        return false;
+      }
+    });
+    assertEquals(1, started.size());
+    assertEquals(started, ended);
+    assertEquals("980310002", ((Transaction) ended.get(0)).getId());
+  }
+
 }
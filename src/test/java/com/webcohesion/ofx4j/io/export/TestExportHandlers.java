@@ -0,0 +1,98 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.export;
+
+import com.webcohesion.ofx4j.io.OFXReader;
+import com.webcohesion.ofx4j.io.nanoxml.NanoXMLOFXReader;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestExportHandlers extends TestCase {
+
+  private static final String RESOURCE = "/com/webcohesion/ofx4j/io/multi-account-response.ofx";
+
+  /**
+   * tests the nested JSON export.
+   */
+  public void testJSONExport() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JSONExportHandler handler = new JSONExportHandler(out);
+    parse(handler);
+    handler.close();
+
+    String json = out.toString("utf-8");
+    assertTrue(json.startsWith("{\"OFX\":{\"SIGNONMSGSRSV1\":{\"SONRS\":{\"STATUS\":{\"CODE\":\"0\""));
+    assertTrue(json.endsWith("}}\n"));
+    assertEquals(1, json.split("\n").length);
+    //collection entries are arrays.
+    assertTrue(json.contains("\"BANKMSGSRSV1\":{\"STMTTRNRS\":[{\"TRNUID\":\"23382938\""));
+    assertTrue(json.contains("\"STMTTRN\":[{\"TRNTYPE\":\"CREDIT\",\"DTPOSTED\":\"2007-03-29T00:00:00.000Z\""));
+    //numbers are unquoted.
+    assertTrue(json.contains("\"TRNAMT\":150.00"));
+    assertTrue(json.contains("\"MEMO\":\"Transfer from checking &<> etc.\""));
+    assertTrue(json.contains("\"DTASOF\":\"2007-10-15T10:15:29.000Z\""));
+  }
+
+  /**
+   * tests the flattened JSON Lines export.
+   */
+  public void testJSONLinesExport() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    JSONLinesExportHandler handler = new JSONLinesExportHandler(out);
+    parse(handler);
+    handler.close();
+
+    String[] lines = out.toString("utf-8").split("\n");
+    assertEquals(3, lines.length);
+    assertEquals("{\"RECORDTYPE\":\"STMTTRN\",\"CURDEF\":\"USD\",\"BANKID\":\"987654321\",\"ACCTID\":\"098-121\",\"ACCTTYPE\":\"SAVINGS\","
+                 + "\"TRNTYPE\":\"CREDIT\",\"DTPOSTED\":\"2007-03-29T00:00:00.000Z\",\"DTUSER\":\"2007-03-29T00:00:00.000Z\",\"TRNAMT\":150.00,"
+                 + "\"FITID\":\"980310001\",\"NAME\":\"TRANSFER\",\"MEMO\":\"Transfer from checking &<> etc.\"}", lines[0]);
+    assertTrue(lines[1].contains("\"ACCTID\":\"098-122\""));
+    assertTrue(lines[2].contains("\"ACCTID\":\"4111-1111\""));
+    assertFalse(lines[2].contains("\"BANKID\""));
+  }
+
+  /**
+   * tests the CSV export.
+   */
+  public void testCSVExport() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    CSVExportHandler handler = new CSVExportHandler(out);
+    handler.setColumns(Arrays.asList("ACCTID", "FITID", "DTPOSTED", "TRNAMT", "MEMO"));
+    parse(handler);
+    handler.close();
+
+    String[] rows = out.toString("utf-8").split("\r\n");
+    assertEquals(4, rows.length);
+    assertEquals("ACCTID,FITID,DTPOSTED,TRNAMT,MEMO", rows[0]);
+    assertEquals("098-121,980310001,2007-03-29T00:00:00.000Z,150.00,Transfer from checking &<> etc.", rows[1]);
+    assertTrue(rows[2].startsWith("098-122,980310002,"));
+    assertTrue(rows[3].startsWith("4111-1111,"));
+  }
+
+  private void parse(BaseExportHandler handler) throws Exception {
+    OFXReader reader = new NanoXMLOFXReader();
+    reader.setContentHandler(handler);
+    reader.parse(TestExportHandlers.class.getResourceAsStream(RESOURCE));
+  }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.stats;
+
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
+import com.webcohesion.ofx4j.io.OFXReader;
+import com.webcohesion.ofx4j.io.nanoxml.NanoXMLOFXReader;
+import junit.framework.TestCase;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestInstrumentedOFXReader extends TestCase {
+
+  /**
+   * tests that the parses are recorded and exposed through JMX.
+   */
+  public void testInstrumentedParse() throws Exception {
+    MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+    final ParseStatisticsRegistry registry = new ParseStatisticsRegistry(mbeanServer, "com.webcohesion.ofx4j.test");
+    final InstrumentedOFXReader[] readers = new InstrumentedOFXReader[1];
+    AggregateUnmarshaller<ResponseEnvelope> unmarshaller = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class) {
+      @Override
+      protected OFXReader newReader() {
+        OFXReader reader = registry.instrument(new NanoXMLOFXReader(), "fremont");
+        readers[0] = reader instanceof InstrumentedOFXReader ? (InstrumentedOFXReader) reader : null;
+        return reader;
+      }
+    };
+
+    try {
+      unmarshaller.unmarshal(TestInstrumentedOFXReader.class.getResourceAsStream("/com/webcohesion/ofx4j/io/fremont-bank-profile.ofx"));
+      ParseRecord record = readers[0].getLastRecord();
+      assertFalse(record.isFailed());
+      assertTrue(record.getBytesRead() > 0);
+      assertEquals(0, record.getCharsRead());
+      if (record.getCpuNanos() >= 0) {
+        assertEquals(record.getCpuNanos(), record.getHeaderCpuNanos() + record.getBodyCpuNanos());
+      }
+      assertEquals(9, record.getHeaderCount());
+      assertTrue(record.getElementCount() > 0);
+      assertTrue(record.getAggregateCount() > 0);
+      assertTrue(record.getMaxDepth() > 3);
+
+      unmarshaller.unmarshal(TestInstrumentedOFXReader.class.getResourceAsStream("/com/webcohesion/ofx4j/io/fremont-bank-profile.ofx"));
+      ParseStatistics stats = registry.getStatistics("fremont");
+      assertEquals(2, stats.getParseCount());
+      assertEquals(0, stats.getFailedParseCount());
+      assertEquals(2 * record.getBytesRead(), stats.getBytesRead());
+      assertEquals(2 * record.getElementCount(), stats.getElementCount());
+
+      ObjectName name = new ObjectName("com.webcohesion.ofx4j.test:type=ParseStatistics,name=" + ObjectName.quote("fremont"));
+      assertTrue(mbeanServer.isRegistered(name));
+      assertEquals(2L, mbeanServer.getAttribute(name, "ParseCount"));
+
+      registry.setEnabled(false);
+      unmarshaller.unmarshal(TestInstrumentedOFXReader.class.getResourceAsStream("/com/webcohesion/ofx4j/io/fremont-bank-profile.ofx"));
+      assertNull("a disabled registry shouldn't instrument the reader.", readers[0]);
+      assertEquals(2, stats.getParseCount());
+    }
+    finally {
+      registry.clear();
+    }
+  }
+
+  /**
+   * tests that the characters read from a reader aren't reported as bytes.
+   */
+  public void testInstrumentedReaderParse() throws Exception {
+    ParseStatisticsRegistry registry = new ParseStatisticsRegistry();
+    InstrumentedOFXReader reader = (InstrumentedOFXReader) registry.instrument(new NanoXMLOFXReader(), "fremont");
+    reader.parse(new InputStreamReader(TestInstrumentedOFXReader.class.getResourceAsStream("/com/webcohesion/ofx4j/io/fremont-bank-profile.ofx"), "utf-8"));
+    ParseRecord record = reader.getLastRecord();
+    assertFalse(record.isFailed());
+    assertEquals(0, record.getBytesRead());
+    assertTrue(record.getCharsRead() > 0);
+    assertEquals(record.getCharsRead(), registry.getStatistics("fremont").getCharsRead());
+    assertEquals(0, registry.getStatistics("fremont").getBytesRead());
+  }
+
+}
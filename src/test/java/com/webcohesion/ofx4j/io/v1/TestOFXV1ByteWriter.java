@@ -0,0 +1,154 @@
+/*
+ * Copyright 2008 Web Cohesion
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.webcohesion.ofx4j.io.v1;
+
+import com.webcohesion.ofx4j.domain.data.ResponseEnvelope;
+import com.webcohesion.ofx4j.io.AggregateMarshaller;
+import com.webcohesion.ofx4j.io.AggregateUnmarshaller;
+import com.webcohesion.ofx4j.io.OFXWriter;
+import com.webcohesion.ofx4j.io.v2.OFXV2ByteWriter;
+import com.webcohesion.ofx4j.io.v2.OFXV2Writer;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+/**
+ * @author Ryan Heaton
+ */
+public class TestOFXV1ByteWriter extends TestCase {
+
+  private static final String[] VALUES = {
+    "plain",
+    "&<>",
+    "a&b<c>d",
+    "Café naïve",
+    "€ 100",
+    "💰 savings",
+    "lone \ud83d surrogate",
+    "lone \udcb0 low surrogate",
+    "trailing \ud83d",
+    "\ud83d&amp"
+  };
+
+  /**
+   * tests that the v1 byte writer writes the same bytes as the v1 writer.
+   */
+  public void testSameBytesAsV1Writer() throws Exception {
+    for (boolean newLines : new boolean[]{false, true}) {
+      for (int bufferSize : new int[]{4, 7, OFXV1ByteWriter.DEFAULT_BUFFER_SIZE}) {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        OFXV1Writer writer = new OFXV1Writer(expected);
+        writer.setWriteAttributesOnNewLine(newLines);
+        writeDocument(writer);
+
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        OFXV1ByteWriter byteWriter = new OFXV1ByteWriter(actual, bufferSize);
+        byteWriter.setWriteAttributesOnNewLine(newLines);
+        writeDocument(byteWriter);
+
+        assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+      }
+    }
+  }
+
+  /**
+   * tests that the v2 byte writer writes the same bytes as the v2 writer.
+   */
+  public void testSameBytesAsV2Writer() throws Exception {
+    for (int bufferSize : new int[]{4, 7, OFXV1ByteWriter.DEFAULT_BUFFER_SIZE}) {
+      ByteArrayOutputStream expected = new ByteArrayOutputStream();
+      writeDocument(new OFXV2Writer(expected));
+
+      ByteArrayOutputStream actual = new ByteArrayOutputStream();
+      writeDocument(new OFXV2ByteWriter(actual, bufferSize));
+
+      assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+    }
+  }
+
+  /**
+   * tests that a marshalled response is the same with either writer.
+   */
+  public void testMarshalledResponse() throws Exception {
+    ResponseEnvelope envelope = new AggregateUnmarshaller<ResponseEnvelope>(ResponseEnvelope.class).unmarshal(TestOFXV1ByteWriter.class.getResourceAsStream("/com/webcohesion/ofx4j/io/multi-account-response.ofx"));
+    AggregateMarshaller marshaller = new AggregateMarshaller();
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    OFXWriter writer = new OFXV1Writer(expected);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+
+    ByteArrayOutputStream actual = new ByteArrayOutputStream();
+    writer = new OFXV1ByteWriter(actual);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+    assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+
+    expected = new ByteArrayOutputStream();
+    writer = new OFXV2Writer(expected);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+
+    actual = new ByteArrayOutputStream();
+    writer = new OFXV2ByteWriter(actual);
+    marshaller.marshal(envelope, writer);
+    writer.close();
+    assertTrue(Arrays.equals(expected.toByteArray(), actual.toByteArray()));
+  }
+
+  /**
+   * tests that only the tags of the known aggregates are pre-encoded, and that fragment writers keep the buffer size.
+   */
+  public void testPreEncodedTags() throws Exception {
+    assertTrue(OFXV1ByteWriter.isPreEncoded("OFX"));
+    assertTrue(OFXV1ByteWriter.isPreEncoded("STMTTRN"));
+    assertTrue(OFXV1ByteWriter.isPreEncoded("TRNAMT"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    OFXV1ByteWriter writer = new OFXV1ByteWriter(out, 16);
+    writer.writeStartAggregate("X-PROPRIETARY.AGG");
+    writer.writeElement("X-PROPRIETARY.ELEMENT", "value");
+    writer.writeEndAggregate("X-PROPRIETARY.AGG");
+    writer.flush();
+    assertEquals("<X-PROPRIETARY.AGG><X-PROPRIETARY.ELEMENT>value</X-PROPRIETARY.AGG>", out.toString("ISO-8859-1"));
+    assertFalse(OFXV1ByteWriter.isPreEncoded("X-PROPRIETARY.AGG"));
+
+    assertEquals(16, ((OFXV1ByteWriter) writer.newFragmentWriter(out)).getBufferSize());
+    assertEquals(16, ((OFXV1ByteWriter) new OFXV2ByteWriter(out, 16).newFragmentWriter(out)).getBufferSize());
+  }
+
+  private void writeDocument(OFXWriter writer) throws IOException {
+    TreeMap<String, String> headers = new TreeMap<String, String>();
+    headers.put("NEWFILEUID", "1234");
+    writer.writeHeaders(headers);
+    writer.writeStartAggregate("OFX");
+    writer.writeStartAggregate("STMTTRN");
+    for (String value : VALUES) {
+      writer.writeElement("MEMO", value);
+    }
+    writer.writeEndAggregate("STMTTRN");
+    writer.writeStartAggregate("ÉTRANGE");
+    writer.writeElement("ÉLÉMENT", "value");
+    writer.writeEndAggregate("ÉTRANGE");
+    writer.writeEndAggregate("OFX");
+    writer.close();
+  }
+
+}